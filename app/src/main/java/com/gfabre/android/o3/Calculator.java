@@ -4,14 +4,25 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.HashMap;
 
 public class Calculator {
+    private static final int INITIAL_DOUBLE_STACK_SIZE = 64;
+
     private static Method[] mMethods = null;             // all found java math methods
+    private static HashMap<String, Method> mMethodsByName = null; // first found method of each name
     private String mHistory = "";                        // all actions history from beginning of time.
-    private Stack<BigDecimal> mStack = new Stack<>();    // values stack
+    private final OperandStack mStack = new OperandStack(); // values stack
+    private volatile BigDecimal[] mPublishedStack = new BigDecimal[0]; // values stack, as last shown
     private String mValue = "";                          // value currently edited
 
+    // double mode : while a script runs in double precision, the values are held by a
+    // primitive stack, and only converted back to BigDecimal when shown or upon mode exit
+    private volatile boolean mDoubleMode = false;
+    private double[] mDoubleStack = new double[INITIAL_DOUBLE_STACK_SIZE];
+    private int mDoubleStackSize = 0;
+
     private static CalculatorActivity mActivity;         // the associated activity
 
     Calculator(CalculatorActivity activity) {
@@ -20,15 +31,18 @@ public class Calculator {
 
     // ================================  Stack Management ==========================================
     void clearStack() {
-        mStack.clear();
+        if (mDoubleMode)
+            mDoubleStackSize = 0;
+        else
+            mStack.clear();
     }
 
     boolean hasValueOnStack() {
-        return !mStack.isEmpty();
+        return mDoubleMode ? mDoubleStackSize > 0 : !mStack.isEmpty();
     }
 
     int getStackSize() {
-        return mStack.size();
+        return mDoubleMode ? mDoubleStackSize : mStack.size();
     }
 
     /**
@@ -41,8 +55,8 @@ public class Calculator {
         // make sure we're pushing a properly formatted double
         try {
             mHistory += mValue + "\n";
-            mStack.push(new BigDecimal(mValue, MathContext.UNLIMITED));
-            mActivity.updateStackView(mStack);
+            doPushValueOnStack(new BigDecimal(mValue, MathContext.UNLIMITED));
+            updateStackView();
         } catch (Exception e) {
             mActivity.displayMessage(mActivity.getString(R.string.invalid_number) + mValue);
         } finally {
@@ -51,12 +65,135 @@ public class Calculator {
         }
     }
 
+    /**
+     * Publishes and shows the values stack, from the UI thread. While a script runs, only its
+     * engine thread publishes the stack, and the last published one is shown.
+     */
     void updateStackView() {
-        mActivity.updateStackView(mStack);
+        if (!mActivity.isScriptRunning())
+            mPublishedStack = getStackSnapshot();
+        mActivity.updateStackView(mPublishedStack);
+    }
+
+    /**
+     * Shows the values stack last published by the script engine, from the UI thread.
+     */
+    void updatePublishedStackView() {
+        mActivity.updateStackView(mPublishedStack);
+    }
+
+    /**
+     * Publishes the values stack, from the script engine thread : the UI thread only reads
+     * the published snapshots, never the values stack while a script modifies it.
+     */
+    void doPublishStack() {
+        mPublishedStack = getStackSnapshot();
+    }
+
+    /**
+     * @return the values stack as last published (shown), from the bottom of the stack.
+     */
+    BigDecimal[] getPublishedStack() {
+        return mPublishedStack;
+    }
+
+    /**
+     * @return a copy of the values stack (converted to BigDecimal in double mode), from the
+     * bottom of the stack.
+     */
+    public BigDecimal[] getStackSnapshot() {
+        if (!mDoubleMode)
+            return mStack.snapshot();
+
+        BigDecimal[] values = new BigDecimal[mDoubleStackSize];
+        for (int i = 0; i < values.length; i++)
+            values[i] = toBigDecimal(mDoubleStack[i]);
+
+        return values;
+    }
+
+    // ==========================  Double Mode Management ==========================================
+    boolean isDoubleMode() {
+        return mDoubleMode;
+    }
+
+    /**
+     * Enters the double mode : the stack values are converted to doubles, which all the
+     * script actions then run on, until the mode is left.
+     */
+    void doEnterDoubleMode() {
+        if (mDoubleMode)
+            return;
+
+        mDoubleStackSize = 0;
+        for (int i = 0; i < mStack.size(); i++)
+            pushDouble(mStack.get(i).doubleValue());
+        mStack.clear();
+        mDoubleMode = true;
+    }
+
+    /**
+     * Leaves the double mode : the stack values are converted back to BigDecimal.
+     */
+    void doLeaveDoubleMode() {
+        if (!mDoubleMode)
+            return;
+
+        for (int i = 0; i < mDoubleStackSize; i++)
+            mStack.push(toBigDecimal(mDoubleStack[i]));
+        mDoubleMode = false;
+        mDoubleStackSize = 0;
+    }
+
+    /**
+     * Converts a double to the BigDecimal giving it back when converted to a double.
+     *
+     * @param value is the value to convert
+     * @return the BigDecimal value, 0 if not a number or infinite.
+     */
+    static BigDecimal toBigDecimal(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? BigDecimal.valueOf(0) : BigDecimal.valueOf(value);
+    }
+
+    /**
+     * Converts a (compiled variable) number to BigDecimal.
+     *
+     * @param value is a BigDecimal, a Double or a loop counter
+     * @return the BigDecimal value
+     */
+    static BigDecimal toBigDecimal(Number value) {
+        if (value instanceof BigDecimal)
+            return (BigDecimal)value;
+        if (value instanceof LoopCounter)
+            return ((LoopCounter)value).toBigDecimal();
+
+        return toBigDecimal(value.doubleValue());
     }
 
-    public Stack<BigDecimal> getStack() {
-        return mStack;
+    private void pushDouble(double value) {
+        if (mDoubleStackSize == mDoubleStack.length)
+            mDoubleStack = Arrays.copyOf(mDoubleStack, mDoubleStackSize * 2);
+        mDoubleStack[mDoubleStackSize++] = value;
+    }
+
+    /**
+     * Replaces the two double operands on top of the stack with the given operation result.
+     *
+     * @param result is the operation result
+     * @param fromEngine is true when called by a script
+     * @return true if the result is a number, false else (the operands are left on the stack).
+     */
+    private boolean setDoubleResult(double result, boolean fromEngine) {
+        if (Double.isNaN(result) || Double.isInfinite(result)) {
+            mActivity.displayMessage(mActivity.getString(R.string.double_overflow));
+            return false;
+        }
+
+        mDoubleStack[--mDoubleStackSize - 1] = result;
+        if (!fromEngine)
+            updateStackView();
+
+        return true;
     }
 
     // ===========================  History Management =============================================
@@ -197,6 +334,9 @@ public class Calculator {
      * @param method is the math method to be called per user request.
      */
     void invokeAndHistorizeMathFunction(Method method) {
+        if (mActivity.rejectWhileScriptRuns())
+            return;
+
         pushValueOnStack();
         mHistory += "math_call " + method.getName() + "\n";
         invokeMathMethod(method, false);
@@ -217,27 +357,27 @@ public class Calculator {
         // on the stack
         Type[] params = method.getParameterTypes();
         int numParams = params.length;
-        if (numParams > mStack.size())
+        if (numParams > getStackSize())
             return false;
 
         // prepare the parameters.
         Object[] argObjects = new Object[numParams];
         while (--numParams >= 0)
-            argObjects[numParams] = castBigDecimalToType(params[numParams].toString(), mStack.pop());
+            argObjects[numParams] = castBigDecimalToType(params[numParams].toString(), doPopValueFromStack());
 
         // invoke the method
         boolean runOk = true;
         try {
             Object result = method.invoke(null, argObjects);
             if (result != null)
-                mStack.push(castTypeToBigDecimal(method.getGenericReturnType().toString(), result));
+                doPushValueOnStack(castTypeToBigDecimal(method.getGenericReturnType().toString(), result));
         } catch (Exception e) {
             mActivity.displayMessage(mActivity.getString(R.string.function_call_err) + e.getMessage());
             runOk = false;
         } finally {
             // we've eaten the stack anyway...
             if (!fromEngine)
-                mActivity.updateStackView(mStack);
+                updateStackView();
         }
 
         return runOk;
@@ -249,47 +389,256 @@ public class Calculator {
     */
 
     void doPushValueOnStack(BigDecimal value) {
-        mStack.push(value);
+        if (mDoubleMode)
+            pushDouble(value.doubleValue());
+        else
+            mStack.push(value);
     }
 
     BigDecimal doPopValueFromStack() {
+        if (mDoubleMode)
+            return mDoubleStackSize == 0 ? BigDecimal.valueOf(0) : toBigDecimal(mDoubleStack[--mDoubleStackSize]);
+
         return mStack.isEmpty() ? BigDecimal.valueOf(0) : mStack.pop();
     }
 
     BigDecimal doPeekValueFromStack() {
+        if (mDoubleMode)
+            return mDoubleStackSize == 0 ? BigDecimal.valueOf(0) : toBigDecimal(mDoubleStack[mDoubleStackSize - 1]);
+
         return mStack.isEmpty() ? BigDecimal.valueOf(0) : mStack.peek();
     }
 
+    /**
+     * Pushes a (compiled variable) number, without conversion in double mode.
+     *
+     * @param value is a BigDecimal, a Double or a loop counter
+     */
+    void doPushNumberOnStack(Number value) {
+        if (mDoubleMode)
+            pushDouble(value.doubleValue());
+        else
+            mStack.push(toBigDecimal(value));
+    }
+
+    /**
+     * @return the popped value, a Double in double mode (BigDecimal else), 0 if none.
+     */
+    Number doPopNumberFromStack() {
+        if (mDoubleMode)
+            return mDoubleStackSize == 0 ? 0.0 : mDoubleStack[--mDoubleStackSize];
+
+        return doPopValueFromStack();
+    }
+
+    /**
+     * @return the top value, a Double in double mode (BigDecimal else), 0 if none.
+     */
+    Number doPeekNumberFromStack() {
+        if (mDoubleMode)
+            return mDoubleStackSize == 0 ? 0.0 : mDoubleStack[mDoubleStackSize - 1];
+
+        return doPeekValueFromStack();
+    }
+
+    /**
+     * @param count is a number of values
+     * @return the top values, from the deepest one, Doubles in double mode (BigDecimals else),
+     * null if the stack holds less values.
+     */
+    Number[] doPeekNumbersFromStack(int count) {
+        int size = getStackSize();
+        if (count > size)
+            return null;
+
+        Number[] values = new Number[count];
+        for (int i = 0; i < count; i++)
+            values[i] = mDoubleMode ? (Number)mDoubleStack[size - count + i] : mStack.get(size - count + i);
+
+        return values;
+    }
+
+    /**
+     * Drops the top values.
+     *
+     * @param count is the number of values to drop, at most the stack size
+     */
+    void doDropFromStack(int count) {
+        if (mDoubleMode)
+            mDoubleStackSize -= count;
+        else
+            mStack.dropN(count);
+    }
+
+    /**
+     * Pushes the values of a range of array indexes, the first one deepest.
+     *
+     * @param array holds the values, the unset ones are pushed as 0
+     * @param from is the first index of the range
+     * @param count is the number of values
+     */
+    void doPushArrayRange(ScriptArray array, int from, int count) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize + count > mDoubleStack.length)
+                mDoubleStack = Arrays.copyOf(mDoubleStack, Math.max(mDoubleStack.length * 2, mDoubleStackSize + count));
+            array.getRange(from, mDoubleStack, mDoubleStackSize, count);
+            mDoubleStackSize += count;
+        } else {
+            BigDecimal[] values = new BigDecimal[count];
+            array.getRange(from, values, 0, count);
+            mStack.pushAll(values);
+        }
+    }
+
+    /**
+     * Pops the top values into a range of array indexes, the deepest one first.
+     *
+     * @param array gets the values
+     * @param from is the first index of the range
+     * @param count is the number of values
+     * @return false if the stack holds less values.
+     */
+    boolean doPopArrayRange(ScriptArray array, int from, int count) {
+        if (count > getStackSize())
+            return false;
+
+        if (mDoubleMode) {
+            mDoubleStackSize -= count;
+            array.setRange(from, mDoubleStack, mDoubleStackSize, count);
+        } else
+            array.setRange(from, mStack.popAll(count), 0, count);
+
+        return true;
+    }
+
+    /**
+     * Adds a literal to a (compiled variable) number, as pushing both and adding them would.
+     *
+     * @param value is a BigDecimal, a Double or a loop counter, 0 if null
+     * @param literal is the literal to add
+     * @param doubleLiteral is the literal, as a double
+     * @return the sum, a Double in double mode (BigDecimal else), null on double overflow
+     * (both operands are then left on the stack).
+     */
+    Number doAddToNumber(Number value, BigDecimal literal, double doubleLiteral) {
+        if (mDoubleMode) {
+            double v = value == null ? 0 : value.doubleValue();
+            double result = v + doubleLiteral;
+            if (Double.isNaN(result) || Double.isInfinite(result)) {
+                pushDouble(v);
+                pushDouble(doubleLiteral);
+                mActivity.displayMessage(mActivity.getString(R.string.double_overflow));
+                return null;
+            }
+
+            return result;
+        }
+
+        if (value == null)
+            return BigDecimal.valueOf(0).add(literal);
+
+        return toBigDecimal(value).add(literal);
+    }
+
+    void doPushDoubleOnStack(double value) {
+        if (mDoubleMode)
+            pushDouble(value);
+        else
+            mStack.push(toBigDecimal(value));
+    }
+
+    double doPopDoubleFromStack() {
+        if (mDoubleMode)
+            return mDoubleStackSize == 0 ? 0.0 : mDoubleStack[--mDoubleStackSize];
+
+        return mStack.isEmpty() ? 0.0 : mStack.pop().doubleValue();
+    }
+
     boolean doPushStackSize() {
-        mStack.push(BigDecimal.valueOf(mStack.size()));
+        if (mDoubleMode)
+            pushDouble(mDoubleStackSize);
+        else
+            mStack.push(BigDecimal.valueOf(mStack.size()));
 
         return true;
     }
 
     /**
-     * Calls the given java math function if existing
+     * Calls the given java math function if existing : directly if it's one of the math
+     * intrinsics, through reflection else.
      *
      * @param function is the function to be called.
      * @return true if the function was found, false else.
      */
     boolean doJavaMathCall(String function) {
+        int intrinsic = MathIntrinsics.lookup(function);
+        if (intrinsic != MathIntrinsics.NONE)
+            return doMathIntrinsic(intrinsic);
+
         Method[] methods = getJavaMathMethods();
         if (methods == null)
             return false;
 
         // lookup function
-        // for (Method method : methods) too slow
-        for (Method m : methods) {
-            if (function.equals(m.getName()))
-                return invokeMathMethod(m, true);
+        if (mMethodsByName == null) {
+            HashMap<String, Method> methodsByName = new HashMap<>();
+            for (Method m : methods) {
+                if (!methodsByName.containsKey(m.getName()))
+                    methodsByName.put(m.getName(), m);
+            }
+            mMethodsByName = methodsByName;
         }
 
+        Method method = mMethodsByName.get(function);
+        if (method != null)
+            return invokeMathMethod(method, true);
+
         // the function was not found
         mActivity.displayMessage(mActivity.getString(R.string.undefined_function) + function);
 
         return false;
     }
 
+    /**
+     * Calls the given math intrinsic on the stack values, without allocation in double mode.
+     *
+     * @param intrinsic is the intrinsic id (see MathIntrinsics)
+     * @return true if the function was called, false else.
+     */
+    boolean doMathIntrinsic(int intrinsic) {
+        int arity = MathIntrinsics.getArity(intrinsic);
+        if (arity > getStackSize())
+            return false;
+
+        double x = 0, y = 0;
+        if (mDoubleMode) {
+            mDoubleStackSize -= arity;
+            if (arity > 0)
+                x = mDoubleStack[mDoubleStackSize];
+            if (arity > 1)
+                y = mDoubleStack[mDoubleStackSize + 1];
+        } else {
+            if (arity > 1)
+                y = mStack.pop().doubleValue();
+            if (arity > 0)
+                x = mStack.pop().doubleValue();
+        }
+
+        // as with reflection, the arguments are eaten anyway
+        double result = MathIntrinsics.call(intrinsic, x, y);
+        if (Double.isNaN(result) || Double.isInfinite(result)) {
+            mActivity.displayMessage(mActivity.getString(R.string.function_call_err) + MathIntrinsics.getName(intrinsic));
+            return false;
+        }
+
+        if (mDoubleMode)
+            pushDouble(result);
+        else
+            mStack.push(MathIntrinsics.isIntegral(intrinsic) ? BigDecimal.valueOf((long)result) : BigDecimal.valueOf(result));
+
+        return true;
+    }
+
     /**
      * Public Basic Maths Functions
      */
@@ -298,6 +647,14 @@ public class Calculator {
     }
 
     public boolean add(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 +
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] + mDoubleStack[mDoubleStackSize - 1], fromEngine);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -306,7 +663,7 @@ public class Calculator {
         BigDecimal v1 = mStack.pop();
         mStack.push(v1.add(v2));
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -316,6 +673,14 @@ public class Calculator {
     }
 
     boolean sub(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 -
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] - mDoubleStack[mDoubleStackSize - 1], fromEngine);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -324,7 +689,7 @@ public class Calculator {
         BigDecimal v1 = mStack.pop();
         mStack.push(v1.subtract(v2));
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -334,6 +699,19 @@ public class Calculator {
     }
 
     boolean div(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 /
+            if (mDoubleStack[mDoubleStackSize - 1] == 0) {
+                mActivity.displayMessage(mActivity.getString(R.string.division_by_zero));
+                return false;
+            }
+
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] / mDoubleStack[mDoubleStackSize - 1], fromEngine);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -352,7 +730,7 @@ public class Calculator {
 
         mStack.push(result);
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -362,6 +740,14 @@ public class Calculator {
     }
 
     boolean mul(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 *
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] * mDoubleStack[mDoubleStackSize - 1], fromEngine);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -370,7 +756,7 @@ public class Calculator {
         BigDecimal v1 = mStack.pop();
         mStack.push(v1.multiply(v2));
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -391,11 +777,14 @@ public class Calculator {
             return true;
         }
 
-        if (!mStack.isEmpty()) {
+        if (mDoubleMode ? mDoubleStackSize > 0 : !mStack.isEmpty()) {
             // or the top of the stack if present
-            mStack.push(mStack.pop().negate());
+            if (mDoubleMode)
+                mDoubleStack[mDoubleStackSize - 1] = -mDoubleStack[mDoubleStackSize - 1];
+            else
+                mStack.push(mStack.pop().negate());
             if (!fromEngine)
-                mActivity.updateStackView(mStack);
+                updateStackView();
 
             return true;
         }
@@ -404,6 +793,19 @@ public class Calculator {
     }
 
     boolean doModulo() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 %
+            if (mDoubleStack[mDoubleStackSize - 1] == 0) {
+                mActivity.displayMessage(mActivity.getString(R.string.division_by_zero));
+                return false;
+            }
+
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] % mDoubleStack[mDoubleStackSize - 1], true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -416,6 +818,14 @@ public class Calculator {
     }
 
     boolean doEqual() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 =
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] == mDoubleStack[mDoubleStackSize - 1] ? 1 : 0, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -428,6 +838,14 @@ public class Calculator {
     }
 
     boolean doNotEqual() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 !=
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] == mDoubleStack[mDoubleStackSize - 1] ? 0 : 1, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -440,6 +858,14 @@ public class Calculator {
     }
 
     boolean doLessThan() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 <
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] < mDoubleStack[mDoubleStackSize - 1] ? 1 : 0, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -452,6 +878,14 @@ public class Calculator {
     }
 
     boolean doLessThanOrEqual() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 <=
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] <= mDoubleStack[mDoubleStackSize - 1] ? 1 : 0, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -464,6 +898,14 @@ public class Calculator {
     }
 
     boolean doGreaterThan() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 >
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] > mDoubleStack[mDoubleStackSize - 1] ? 1 : 0, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -476,6 +918,14 @@ public class Calculator {
     }
 
     boolean doGreaterThanOrEqual() {
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            // v1 v2 >=
+            return setDoubleResult(mDoubleStack[mDoubleStackSize - 2] >= mDoubleStack[mDoubleStackSize - 1] ? 1 : 0, true);
+        }
+
         if (mStack.size() < 2)
             return false;
 
@@ -495,6 +945,28 @@ public class Calculator {
     }
 
     boolean rollN(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
+
+            int i = (int)mDoubleStack[--mDoubleStackSize];
+            if (i >= mDoubleStackSize)
+                return false;
+
+            // moves the top value i positions down
+            if (i > 0) {
+                int top = mDoubleStackSize - 1;
+                double val = mDoubleStack[top];
+                System.arraycopy(mDoubleStack, top - i, mDoubleStack, top - i + 1, i);
+                mDoubleStack[top - i] = val;
+            }
+
+            if (!fromEngine)
+                updateStackView();
+
+            return true;
+        }
+
         if (mStack.isEmpty())
             return false;
 
@@ -502,17 +974,10 @@ public class Calculator {
         if (i >= mStack.size())
             return false;
 
-        BigDecimal val = mStack.pop();
-        Stack<BigDecimal> st = new Stack<>();
-        while (--i >= 0)
-            st.push(mStack.pop());
-
-        mStack.push(val);
-        while (!st.isEmpty())
-            mStack.push(st.pop());
+        mStack.rollN(i);
 
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -522,12 +987,19 @@ public class Calculator {
     }
 
     public boolean dup(boolean fromEngine) {
-        if (mStack.isEmpty())
-            return false;
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
 
-        mStack.push(mStack.peek());
+            pushDouble(mDoubleStack[mDoubleStackSize - 1]);
+        } else {
+            if (mStack.isEmpty())
+                return false;
+
+            mStack.push(mStack.peek());
+        }
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -537,6 +1009,24 @@ public class Calculator {
     }
 
     boolean dupN(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
+
+            int i = (int)mDoubleStack[--mDoubleStackSize];
+            if (mDoubleStackSize == 0)
+                return false;
+
+            double val = mDoubleStack[mDoubleStackSize - 1];
+            while (--i >= 0)
+                pushDouble(val);
+
+            if (!fromEngine)
+                updateStackView();
+
+            return true;
+        }
+
         if (mStack.isEmpty())
             return false;
 
@@ -544,12 +1034,10 @@ public class Calculator {
         if (mStack.isEmpty())
             return false;
 
-        BigDecimal val = mStack.peek();
-        while (--i >= 0)
-            mStack.push(val);
+        mStack.dupN(i);
 
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -559,12 +1047,19 @@ public class Calculator {
     }
 
     public boolean drop(boolean fromEngine) {
-        if (mStack.isEmpty())
-            return false;
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
 
-        mStack.pop();
+            --mDoubleStackSize;
+        } else {
+            if (mStack.isEmpty())
+                return false;
+
+            mStack.pop();
+        }
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -574,6 +1069,23 @@ public class Calculator {
     }
 
     boolean dropN(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
+
+            int i = (int)mDoubleStack[--mDoubleStackSize];
+            if (i > mDoubleStackSize)
+                return false;
+
+            if (i > 0)
+                mDoubleStackSize -= i;
+
+            if (!fromEngine)
+                updateStackView();
+
+            return true;
+        }
+
         if (mStack.isEmpty())
             return false;
 
@@ -581,11 +1093,10 @@ public class Calculator {
         if (i > mStack.size())
             return false;
 
-        while (--i >= 0)
-            mStack.pop();
+        mStack.dropN(i);
 
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -595,16 +1106,22 @@ public class Calculator {
     }
 
     public boolean swap(boolean fromEngine) {
-        if (mStack.size() < 2)
-            return false;
-
-        BigDecimal v1 = mStack.pop();
-        BigDecimal v2 = mStack.pop();
-        mStack.push(v1);
-        mStack.push(v2);
+        if (mDoubleMode) {
+            if (mDoubleStackSize < 2)
+                return false;
+
+            double v1 = mDoubleStack[mDoubleStackSize - 1];
+            mDoubleStack[mDoubleStackSize - 1] = mDoubleStack[mDoubleStackSize - 2];
+            mDoubleStack[mDoubleStackSize - 2] = v1;
+        } else {
+            if (mStack.size() < 2)
+                return false;
+
+            mStack.swap(mStack.size() - 1, mStack.size() - 2);
+        }
 
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -614,20 +1131,35 @@ public class Calculator {
     }
 
     boolean swapN(boolean fromEngine) {
+        if (mDoubleMode) {
+            if (mDoubleStackSize == 0)
+                return false;
+
+            int i = (int)mDoubleStack[--mDoubleStackSize];
+            if (i > mDoubleStackSize || i < 1)
+                return false;
+
+            double v1 = mDoubleStack[0];
+            mDoubleStack[0] = mDoubleStack[i - 1];
+            mDoubleStack[i - 1] = v1;
+
+            if (!fromEngine)
+                updateStackView();
+
+            return true;
+        }
+
         if (mStack.isEmpty())
             return false;
 
         int i = mStack.pop().intValue();
-        if (i > mStack.size())
+        if (i > mStack.size() || i < 1)
             return false;
 
-        BigDecimal v1 = mStack.elementAt(0);
-        BigDecimal v2 = mStack.elementAt(i - 1);
-        mStack.setElementAt(v1, i - 1);
-        mStack.setElementAt(v2, 0);
+        mStack.swap(0, i - 1);
 
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -637,9 +1169,12 @@ public class Calculator {
     }
 
     public boolean clear(boolean fromEngine) {
-        mStack = new Stack<>();
+        if (mDoubleMode)
+            mDoubleStackSize = 0;
+        else
+            mStack.clear();
         if (!fromEngine)
-            mActivity.updateStackView(mStack);
+            updateStackView();
 
         return true;
     }
@@ -45,7 +45,6 @@ import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
-import java.util.Stack;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -77,6 +76,7 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     private static final String DRAW_SINE_COLOR3D_SCRIPT_NAME = "DrawSineColor3D";
     private static final String INNER_WHILE_TEST_SCRIPT_NAME = "InnerWhileTest";
     private static final String RAND_PLOT_SCRIPT_NAME = "RandPlot";
+    private static final String REDEFINE_TEST_SCRIPT_NAME = "RedefineTest";
     private static final String WHIRL_SCRIPT_NAME = "Whirl";
     private static final String X_POW_Y_SCRIPT_NAME = "x^y";
 
@@ -87,6 +87,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     private static final String EDITED_VALUE_KEY = "EditedValue";
     private static final String HISTORY_SCRIPT_KEY = "HistoryScript";
     private static final String HISTORY_SCRIPT_NAME = "HistoryScript";
+    private static final String COMPILED_SCRIPTS_DIRECTORY = "CompiledScripts";
+    private static final String DOUBLE_MODE_KEY = "DoubleMode";
+    private static final String OPTIMIZE_SCRIPTS_KEY = "OptimizeScripts";
 
     private static final int NUM_FUNC_BUTTONS = 36;
 
@@ -99,6 +102,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
 
     private static final int SCRIPT_ENGINE_PRIORITY = Process.THREAD_PRIORITY_URGENT_AUDIO;
     private static final int UI_YIELD_MILLISEC_DELAY = 3; // needed time for the UI to get scheduled :/
+    private static final int SCRIPT_TIME_SLICE_MILLISEC = 100; // scripts yield to the UI at least that often
+    private static final int SCRIPT_MAX_CALL_DEPTH = 100000; // nested script function calls
+    private static final int SCRIPT_MAX_INTERPRETED_DEPTH = 10000; // nested interpreted scripts, blocks and functions, fits the engine stack
+    private static final String SCRIPT_ENGINE_THREAD = "o3 script engine";
+    private static final long SCRIPT_ENGINE_STACK_SIZE = 64 * 1024 * 1024; // the interpreter nests java calls
 
     private static CalculatorActivity mActivity;         // this reference
     private static Calculator mCalculator;
@@ -109,6 +117,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     private GraphView mGraphView = null;                 // canvas for graphical functions
     private Menu mScriptFunctionsMenu = null;            // dynamic script functions menu
     private String mInitScriptName = null;               // init script, if set, run upon calculator start
+    private boolean mDoubleMode = false;                 // scripts run in double precision
+    private boolean mOptimizeScripts = true;             // compiled scripts are optimized
+    private Thread mScriptThread = null;                 // thread running the last started script
 
     private String mFunctionScripts[] = new String[NUM_FUNC_BUTTONS];
     private String mFunctionTitles[] = new String[NUM_FUNC_BUTTONS];
@@ -127,8 +138,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                     break;
 
                 case UPDATE_STACK_MESSAGE:
-                    // update the stack
-                    mCalculator.updateStackView();
+                    // update the stack, as published by the script engine
+                    mCalculator.updatePublishedStackView();
                     break;
 
                 case DISPLAY_MESSAGE:
@@ -176,13 +187,12 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     /**
      * Fills the stack view with the values currently held on the computation stack
      */
-    public void updateStackView(Stack<BigDecimal> stack) {
+    public void updateStackView(BigDecimal[] values) {
         if (mStackView == null)
             return;
 
         mStackAdapter.clear();
         int depth = 1;
-        Object[] values = stack.toArray();
         for (int i = values.length - 1; i >= 0; i--) {
             mStackAdapter.add(depth + ": " + values[i].toString());
             depth++;
@@ -203,6 +213,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
             item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
                 @Override
                 public boolean onMenuItemClick(MenuItem item) {
+                    if (rejectWhileScriptRuns())
+                        return true;
+
                     mCalculator.pushValueOnStack();
                     String funcall = "funcall " + f + "\n";
                     mCalculator.appendHistory(funcall);
@@ -260,11 +273,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
-                if (mCalculator.isHistoryEmpty())
+                if (mCalculator.isHistoryEmpty() || rejectWhileScriptRuns())
                     return true;
 
+                // the script publishes the stack once done
                 executeScript(mCalculator.getHistory());
-                mCalculator.updateStackView();
                 return true;
             }
         });
@@ -307,6 +320,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("rolln\n");
                 mCalculator.rollN(false);
@@ -321,6 +337,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("swapn\n");
                 mCalculator.swapN(false);
@@ -335,6 +354,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("dupn\n");
                 mCalculator.dupN(false);
@@ -349,6 +371,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("dropn\n");
                 mCalculator.dropN(false);
@@ -368,6 +393,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
             @Override
             public boolean onMenuItemClick(MenuItem item) {
                 // pops up a dialog to pick a java math func
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 new MathFunctionChooser(mActivity, mCalculator);
                 return true;
@@ -401,6 +429,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
             @Override
             public boolean onMenuItemClick(MenuItem item) {
                 // path to the external download directory if available, internal one else.
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 mCalculator.pushValueOnStack();
                 new FileChooser(RUN_SCRIPT_DIALOG_ID, mActivity, SCRIPT_EXTENSION, getDefaultDataPath());
                 return true;
@@ -414,6 +445,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 // prompt the user to enter a value
                 String infixed = GenericDialog.promptMessage(mActivity,
                         InputType.TYPE_CLASS_TEXT,
@@ -421,6 +455,10 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                         null);
 
                 InfixConvertor ctor = new InfixConvertor(infixed);
+                if (!ctor.isValid()) {
+                    displayMessage(getString(R.string.infixed_error) + ctor.getError());
+                    return true;
+                }
 
                 // display the postfix expression
                 displayMessage(getString(R.string.evaluating_label) + "\n" + ctor.getPostfix());
@@ -444,6 +482,37 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
             }
         });
 
+        /**
+         * Switches the scripts double precision mode
+         */
+        item = submenu.add(getString(R.string.double_mode));
+        item.setCheckable(true);
+        item.setChecked(mDoubleMode);
+        item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                mDoubleMode = !mDoubleMode;
+                item.setChecked(mDoubleMode);
+                return true;
+            }
+        });
+
+        /**
+         * Switches the compiled scripts optimizations, to compare the optimized and
+         * unoptimized scripts results
+         */
+        item = submenu.add(getString(R.string.optimize_scripts));
+        item.setCheckable(true);
+        item.setChecked(mOptimizeScripts);
+        item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                mOptimizeScripts = !mOptimizeScripts;
+                item.setChecked(mOptimizeScripts);
+                return true;
+            }
+        });
+
         /**
          * Pick and edit a script
          */
@@ -509,6 +578,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         item.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
+                if (rejectWhileScriptRuns())
+                    return true;
+
                 String expression = GenericDialog.promptMessage(mActivity,
                         InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS,
                         getString(R.string.infixed_expression), null);
@@ -599,9 +671,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         super.onSaveInstanceState(savedInstanceState);
 
         savedInstanceState.putString(EDITED_VALUE_KEY, mCalculator.getValue());
-        String[] valuesArray = new String[mCalculator.getStackSize()];
-        for (int i = 0; i < mCalculator.getStackSize(); i++)
-            valuesArray[i] = mCalculator.getStack().get(i).toEngineeringString();
+        // while a script runs, only the stack it published can be read
+        BigDecimal[] values = isScriptRunning() ? mCalculator.getPublishedStack() : mCalculator.getStackSnapshot();
+        String[] valuesArray = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            valuesArray[i] = values[i].toEngineeringString();
         savedInstanceState.putStringArray(STACK_CONTENT_KEY, valuesArray);
 
         // history
@@ -655,6 +729,18 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         }
     }
 
+    /**
+     * Read a script file into a String and return it. The content is cached, and the file
+     * only read again if it changed.
+     *
+     * @param fileName is the name of the script file to be loaded
+     * @return the content of the given file as a String.
+     * @throws IOException
+     */
+    public String readScriptFile(String fileName) throws IOException {
+        return ScriptCache.readScriptFile(this, fileName);
+    }
+
     /**
      * Write a string as the full content of the given file.
      *
@@ -683,6 +769,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         switch (Id) {
             case RUN_SCRIPT_DIALOG_ID: {
                 // run the selected script
+                if (rejectWhileScriptRuns())
+                    break;
+
                 String filename = dialog.getBundle().getString(FileChooser.FILENAME);
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("run_script " + filename + "\n");
@@ -692,6 +781,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
 
             case DEBUG_SCRIPT_DIALOG_ID: {
                 // run the selected script
+                if (rejectWhileScriptRuns())
+                    break;
+
                 String filename = dialog.getBundle().getString(FileChooser.FILENAME);
                 mCalculator.pushValueOnStack();
                 // no history here, we're debugging
@@ -752,6 +844,10 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         // notice about help was shown, do not present it again
         editor.putBoolean(READ_HELP_FIRST_FLAG, true);
 
+        // scripts execution mode
+        editor.putBoolean(DOUBLE_MODE_KEY, mDoubleMode);
+        editor.putBoolean(OPTIMIZE_SCRIPTS_KEY, mOptimizeScripts);
+
         // save the function buttons
         for (int i = 0; i < NUM_FUNC_BUTTONS; i++) {
             editor.putString(FUNCTION_TITLES_KEY + i, mFunctionTitles[i] == null ? "" : mFunctionTitles[i]);
@@ -825,6 +921,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
                 if (mFunctionScripts[_index] != null && !mFunctionScripts[_index].isEmpty()) {
+                    if (rejectWhileScriptRuns())
+                        return;
+
                     mCalculator.pushValueOnStack();
                     mCalculator.appendHistory(mFunctionScripts[_index] + "\n");
                     executeScript(mFunctionScripts[_index]);
@@ -873,6 +972,13 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         mCalculator = new Calculator(this);
         mGraphView = new GraphView(getApplicationContext());
 
+        // compiled script files are saved in the app cache
+        ScriptCache.setDirectory(new File(getCacheDir(), COMPILED_SCRIPTS_DIRECTORY));
+
+        // long running scripts must let the UI run
+        ScriptEngine.setTimeSlice(SCRIPT_TIME_SLICE_MILLISEC, UI_YIELD_MILLISEC_DELAY);
+        ScriptEngine.setMaxCallDepth(SCRIPT_MAX_CALL_DEPTH, SCRIPT_MAX_INTERPRETED_DEPTH);
+
         // set up handlers
         // edit field
         mValueField = findViewById(R.id.input_value);
@@ -910,7 +1016,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         mStackView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                mCalculator.setValue(mCalculator.getStack().get(mCalculator.getStackSize() - position - 1).toString());
+                BigDecimal[] values = mCalculator.getPublishedStack();
+                mCalculator.setValue(values[values.length - position - 1].toString());
                 mValueField.setText(mCalculator.getValue());
             }
         });
@@ -992,6 +1099,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_add);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("+\n");
                 mCalculator.add(false);
@@ -1000,6 +1110,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_sub);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("-\n");
                 mCalculator.sub(false);
@@ -1008,6 +1121,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_mul);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("*\n");
                 mCalculator.mul(false);
@@ -1016,6 +1132,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_div);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("/\n");
                 mCalculator.div(false);
@@ -1024,6 +1143,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_enter);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
             }
         });
@@ -1043,14 +1165,21 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                 // neg must be added to history only when affecting the stack
                 // else, it would affect the value twice (when negating the value)
                 // then when the negated value is pushed on the stack...
-                if (mCalculator.isValueEmpty())
+                if (mCalculator.isValueEmpty()) {
+                    if (rejectWhileScriptRuns())
+                        return;
+
                     mCalculator.appendHistory("neg\n");
+                }
                 mCalculator.neg(false);
             }
         });
         button = findViewById(R.id.button_dup);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("dup\n");
                 mCalculator.dup(false);
@@ -1059,6 +1188,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_drop);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("drop\n");
                 mCalculator.drop(false);
@@ -1067,6 +1199,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_swap);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("swap\n");
                 mCalculator.swap(false);
@@ -1075,6 +1210,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         button = findViewById(R.id.button_clear);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (rejectWhileScriptRuns())
+                    return;
+
                 mCalculator.pushValueOnStack();
                 mCalculator.appendHistory("clear\n");
                 mCalculator.clear(false);
@@ -1094,11 +1232,13 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         super.onResume();
         // get the preferences
         SharedPreferences prefs = getPreferences(Context.MODE_PRIVATE);
+        mDoubleMode = prefs.getBoolean(DOUBLE_MODE_KEY, false);
+        mOptimizeScripts = prefs.getBoolean(OPTIMIZE_SCRIPTS_KEY, true);
 
         if (mInitScriptName != null) {
             // run the init script
             try {
-                executeScript(readFile(mInitScriptName));
+                executeScript(readScriptFile(mInitScriptName), true);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -1391,6 +1531,7 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         generateScript(R.raw.draw_sine_color3d, getDefaultDataAbsolutePath() + "/" + DRAW_SINE_COLOR3D_SCRIPT_NAME + SCRIPT_EXTENSION);
         generateScript(R.raw.inner_while_test, getDefaultDataAbsolutePath() + "/" + INNER_WHILE_TEST_SCRIPT_NAME + SCRIPT_EXTENSION);
         generateScript(R.raw.rand_plot, getDefaultDataAbsolutePath() + "/" + RAND_PLOT_SCRIPT_NAME + SCRIPT_EXTENSION);
+        generateScript(R.raw.redefine_test, getDefaultDataAbsolutePath() + "/" + REDEFINE_TEST_SCRIPT_NAME + SCRIPT_EXTENSION);
         generateScript(R.raw.whirl, getDefaultDataAbsolutePath() + "/" + WHIRL_SCRIPT_NAME + SCRIPT_EXTENSION);
         generateScript(R.raw.x_pow_y, getDefaultDataAbsolutePath() + "/" + X_POW_Y_SCRIPT_NAME + SCRIPT_EXTENSION);
     }
@@ -1601,7 +1742,10 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         helpView.appendText("\t\t&lt&gt, &lt, &lt=, &gt, &gt= : pop the two topmost values and pushes the result (0 means false, any other value means true) of their comparison on the stack.\n", 0, false);
         helpView.appendText("\t\tif, [else], end_if : conditional block[s], if block is entered when the topmost value is not equal to 0, the else block (if present) otherwise.\n", 0, false);
         helpView.appendText("\t\twhile, end_while : iteration block[s], entered when the topmost value is different from 0.\n", 0, false);
+        helpView.appendText("\t\tfor _i, end_for : counted iteration block[s], entered for each value of the _i variable from the start to the end value (included), by the step value. The start, end and step values are popped off the stack once, the step being the topmost one (eg : 1 10 1 for i .. end_for).\n", 0, false);
+        helpView.appendText("\t\tparallel_for _i, end_parallel_for : same as for, but the iterations are run in parallel, each with a stack of its own. Once all done, the values left on their stacks are pushed, and their drawings done, in the _i values order. The script variables can be read but not set, and the arrays can't be created : those of the script are shared, the iterations results are set in arrays created before the loop (eg : 0 0 ?[]squares 1 100 1 parallel_for i !i !i * !i ?[]squares end_parallel_for).\n", 0, false);
         helpView.appendText("\t\tfundef _f, end_fundef : defines a function _f which can later be invoked (until deleted) from any script during the session.\n", 0, false);
+        helpView.appendText("\t\tfundef memo _n _f, end_fundef : defines a memoized function _f of _n arguments (the _n topmost values of the stack) : its results are recalled, rather than computed again, when called with the same arguments. The function must have no other effect than replacing its arguments with its results.\n", 0, false);
         helpView.appendText("\t\tfundel _f : deletes (forgets) the _f function.\n", 0, false);
         helpView.appendText("\t\tfuncall _f : calls the script function _f.\n", 0, false);
         helpView.appendText("\t\t!\"_message : displays _message in a blocking modal dialog.\n", 0, false);
@@ -1611,6 +1755,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         helpView.appendText("\t\t!_variable : pushes the given _variable's value onto the stack.\n", 0, false);
         helpView.appendText("\t\t?[]_array : pops the 2nd value off the stack into the given _array at the index given by the 1st value.\n", 0, false);
         helpView.appendText("\t\t![]_array : pushes on the stack the value from the _array at the index given by the stack's topmost value.\n", 0, false);
+        helpView.appendText("\t\tarray_add, array_sub, array_mul, array_div _c _a _b : sets the _c array to the element-wise sum (difference, product, quotient) of the _a and _b arrays. With no _b, the stack's topmost value, popped off the stack, is added to (subtracted from..) each _a value (eg : 2 array_mul _c _a).\n", 0, false);
+        helpView.appendText("\t\tarray_map _c _a _f : sets the _c array to the java maths function _f of each _a value, the second argument, if any, being popped off the stack (eg : array_map _c _a sqrt).\n", 0, false);
+        helpView.appendText("\t\tarray_sum, array_min, array_max, array_mean _a, array_dot _a _b : pushes the sum (minimum, maximum, mean) of the _a array values, or the dot product of the _a and _b arrays. The array operations only apply to the set values, the others being read as 0.\n", 0, false);
+        helpView.appendText("\t\tarray_push _a : pops the _j then _i indexes, pushes the _a[_i.._j) values (_a[_i] deepest), the stack holding at most 4194304 values. array_pop _a : pops the _n number of values then the _i index, pops the top _n values into _a[_i.._i+_n) (the deepest into _a[_i]).\n", 0, false);
+        helpView.appendText("\t\tarray_save _a _file, array_load _a _file : saves the _a array to the binary _file (as double precision values), loads it back. Large arrays load at once, their values being read from the file as needed.\n", 0, false);
         helpView.appendText("\t\terase : clears the graphical view background with the r,g,b indexes given by the first three values of the stack.\n", 0, false);
         helpView.appendText("\t\tcolor : sets the graphical view drawing color with the r,g,b indexes given by the first three values of the stack.\n", 0, false);
         helpView.appendText("\t\tdot_size : sets the point drawing size to that given by the topmost value of the stack.\n", 0, false);
@@ -1729,6 +1878,7 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
      * Updates the Calculator's stack view.
      */
     public void doUpdateStack() {
+        mCalculator.doPublishStack();
         mHandler.obtainMessage(UPDATE_STACK_MESSAGE).sendToTarget();
         try {
             Thread.sleep(UI_YIELD_MILLISEC_DELAY);
@@ -1737,17 +1887,40 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         }
     }
 
+    /**
+     * @return true if a script is running on the calculator. The script thread is alive as soon
+     * as started, before its engine runs.
+     */
+    boolean isScriptRunning() {
+        return mScriptThread != null && mScriptThread.isAlive();
+    }
+
+    /**
+     * While a script runs on the calculator, only its engine thread changes the values stack :
+     * the user actions changing the stack are refused, and so are other scripts, whose results
+     * would have nowhere to go.
+     *
+     * @return true if a script is running, the user is then told so.
+     */
+    boolean rejectWhileScriptRuns() {
+        if (!isScriptRunning())
+            return false;
+
+        displayMessage(getString(R.string.script_running));
+        return true;
+    }
+
     /**
      * Runs the given script.
      *
      * @param script is the script text.
      */
     public void interpretScript(String script) {
-        if (ScriptEngine.isRunning())
+        if (rejectWhileScriptRuns())
             return;
 
         final ScriptEngine engine = new ScriptEngine(mActivity, mCalculator, script);
-        new Thread() {
+        mScriptThread = new Thread(null, null, SCRIPT_ENGINE_THREAD, SCRIPT_ENGINE_STACK_SIZE) {
             @Override
             public void run() {
                 // Moves the current Thread into the background
@@ -1758,7 +1931,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                     e.printStackTrace();
                 }
             }
-        }.start();
+        };
+        mScriptThread.start();
     }
 
     /**
@@ -1767,11 +1941,22 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
      * @param script is the script text.
      */
     public void executeScript(String script) {
-        if (ScriptEngine.isRunning())
+        executeScript(script, false);
+    }
+
+    /**
+     * Compiles and execute the given script.
+     *
+     * @param script is the script text.
+     * @param persistent is true if the compiled script must be saved to disk (script files).
+     */
+    private void executeScript(String script, boolean persistent) {
+        if (rejectWhileScriptRuns())
             return;
 
         final ScriptEngine engine = new ScriptEngine(mActivity, mCalculator, script);
-        new Thread() {
+        engine.setPersistent(persistent);
+        mScriptThread = new Thread(null, null, SCRIPT_ENGINE_THREAD, SCRIPT_ENGINE_STACK_SIZE) {
             @Override
             public void run() {
                 // Moves the current Thread into the background
@@ -1782,7 +1967,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                     e.printStackTrace();
                 }
             }
-        }.start();
+        };
+        mScriptThread.start();
     }
 
     /**
@@ -1791,11 +1977,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
      * @param script is the script text.
      */
     public void debugScript(String script) {
-        if (ScriptEngine.isRunning())
+        if (rejectWhileScriptRuns())
             return;
 
         final ScriptEngine engine = new ScriptEngine(mActivity, mCalculator, script);
-        new Thread() {
+        mScriptThread = new Thread(null, null, SCRIPT_ENGINE_THREAD, SCRIPT_ENGINE_STACK_SIZE) {
             @Override
             public void run() {
                 // Moves the current Thread into the background
@@ -1806,7 +1992,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
                     e.printStackTrace();
                 }
             }
-        }.start();
+        };
+        mScriptThread.start();
     }
 
     /**
@@ -1856,8 +2043,8 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     public boolean doExecuteScriptFile(String filename) {
         boolean found = false;
         try {
-            String script = readFile(filename);
-            executeScript(script);
+            String script = readScriptFile(filename);
+            executeScript(script, true);
             found = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -1875,7 +2062,7 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     public boolean doInterpretInnerScriptFile(String filename) {
         boolean found = false;
         try {
-            String script = readFile(filename);
+            String script = readScriptFile(filename);
             new ScriptEngine(mActivity, mCalculator, script).interpretScript();
             found = true;
         } catch (IOException e) {
@@ -1894,8 +2081,10 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
     public boolean doExecuteInnerScriptFile(String filename) {
         boolean found = false;
         try {
-            String script = readFile(filename);
-            new ScriptEngine(mActivity, mCalculator, script).executeScript();
+            String script = readScriptFile(filename);
+            ScriptEngine engine = new ScriptEngine(mActivity, mCalculator, script);
+            engine.setPersistent(true);
+            engine.executeScript();
             found = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -1904,6 +2093,21 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         return found;
     }
 
+    /**
+     * @return true if the scripts must run in double precision (see the "pragma double"
+     * script header comment for a per script choice).
+     */
+    public boolean isDoubleModeSelected() {
+        return mDoubleMode;
+    }
+
+    /**
+     * @return true if the compiled scripts must be optimized.
+     */
+    public boolean isOptimizationSelected() {
+        return mOptimizeScripts;
+    }
+
     /**
      * Graphical functions
      */
@@ -1911,10 +2115,10 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 2)
             return false;
 
-        BigDecimal y = mCalculator.getStack().pop();
-        BigDecimal x = mCalculator.getStack().pop();
+        double y = mCalculator.doPopDoubleFromStack();
+        double x = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doPlot(x.doubleValue(), y.doubleValue());
+        mGraphView.doPlot(x, y);
 
         return true;
     }
@@ -1923,11 +2127,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 3)
             return false;
 
-        BigDecimal z = mCalculator.getStack().pop();
-        BigDecimal y = mCalculator.getStack().pop();
-        BigDecimal x = mCalculator.getStack().pop();
+        double z = mCalculator.doPopDoubleFromStack();
+        double y = mCalculator.doPopDoubleFromStack();
+        double x = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doPlot3D(x.doubleValue(), y.doubleValue(), z.doubleValue());
+        mGraphView.doPlot3D(x, y, z);
 
         return true;
     }
@@ -1936,12 +2140,12 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 4)
             return false;
 
-        BigDecimal y1 = mCalculator.getStack().pop();
-        BigDecimal x1 = mCalculator.getStack().pop();
-        BigDecimal y0 = mCalculator.getStack().pop();
-        BigDecimal x0 = mCalculator.getStack().pop();
+        double y1 = mCalculator.doPopDoubleFromStack();
+        double x1 = mCalculator.doPopDoubleFromStack();
+        double y0 = mCalculator.doPopDoubleFromStack();
+        double x0 = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doLine(x0.doubleValue(), y0.doubleValue(), x1.doubleValue(), y1.doubleValue());
+        mGraphView.doLine(x0, y0, x1, y1);
 
         return true;
     }
@@ -1950,14 +2154,14 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 6)
             return false;
 
-        BigDecimal z1 = mCalculator.getStack().pop();
-        BigDecimal y1 = mCalculator.getStack().pop();
-        BigDecimal x1 = mCalculator.getStack().pop();
-        BigDecimal z0 = mCalculator.getStack().pop();
-        BigDecimal y0 = mCalculator.getStack().pop();
-        BigDecimal x0 = mCalculator.getStack().pop();
+        double z1 = mCalculator.doPopDoubleFromStack();
+        double y1 = mCalculator.doPopDoubleFromStack();
+        double x1 = mCalculator.doPopDoubleFromStack();
+        double z0 = mCalculator.doPopDoubleFromStack();
+        double y0 = mCalculator.doPopDoubleFromStack();
+        double x0 = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doLine3D(x0.doubleValue(), y0.doubleValue(), z0.doubleValue(), x1.doubleValue(), y1.doubleValue(), z1.doubleValue());
+        mGraphView.doLine3D(x0, y0, z0, x1, y1, z1);
 
         return true;
     }
@@ -1966,11 +2170,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 3)
             return false;
 
-        BigDecimal b = mCalculator.getStack().pop();
-        BigDecimal g = mCalculator.getStack().pop();
-        BigDecimal r = mCalculator.getStack().pop();
+        double b = mCalculator.doPopDoubleFromStack();
+        double g = mCalculator.doPopDoubleFromStack();
+        double r = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doErase(r.doubleValue(), g.doubleValue(), b.doubleValue());
+        mGraphView.doErase(r, g, b);
 
         return true;
     }
@@ -1979,12 +2183,12 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 4)
             return false;
 
-        BigDecimal yMax = mCalculator.getStack().pop();
-        BigDecimal yMin = mCalculator.getStack().pop();
-        BigDecimal xMax = mCalculator.getStack().pop();
-        BigDecimal xMin = mCalculator.getStack().pop();
+        double yMax = mCalculator.doPopDoubleFromStack();
+        double yMin = mCalculator.doPopDoubleFromStack();
+        double xMax = mCalculator.doPopDoubleFromStack();
+        double xMin = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.setRange(xMin.doubleValue(), xMax.doubleValue(), yMin.doubleValue(), yMax.doubleValue());
+        mGraphView.setRange(xMin, xMax, yMin, yMax);
 
         return true;
     }
@@ -1993,11 +2197,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 3)
             return false;
 
-        BigDecimal z = mCalculator.getStack().pop();
-        BigDecimal y = mCalculator.getStack().pop();
-        BigDecimal x = mCalculator.getStack().pop();
+        double z = mCalculator.doPopDoubleFromStack();
+        double y = mCalculator.doPopDoubleFromStack();
+        double x = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.doPov3D(x.doubleValue(), y.doubleValue(), z.doubleValue());
+        mGraphView.doPov3D(x, y, z);
 
         return true;
     }
@@ -2006,11 +2210,11 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 3)
             return false;
 
-        BigDecimal b = mCalculator.getStack().pop();
-        BigDecimal g = mCalculator.getStack().pop();
-        BigDecimal r = mCalculator.getStack().pop();
+        double b = mCalculator.doPopDoubleFromStack();
+        double g = mCalculator.doPopDoubleFromStack();
+        double r = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.setColor(r.doubleValue(), g.doubleValue(), b.doubleValue());
+        mGraphView.setColor(r, g, b);
 
         return true;
     }
@@ -2019,9 +2223,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
         if (mCalculator.getStackSize() < 1)
             return false;
 
-        BigDecimal s = mCalculator.getStack().pop();
+        double s = mCalculator.doPopDoubleFromStack();
 
-        mGraphView.setDotSize(s.doubleValue());
+        mGraphView.setDotSize(s);
 
         return true;
     }
@@ -2037,8 +2241,9 @@ public class CalculatorActivity extends AppCompatActivity implements GenericDial
      */
     public String getStackDebugInfo() {
         StringBuilder stack = new StringBuilder();
-        for (int i = mCalculator.getStackSize() - 1; i >= 0; i--)
-            stack.append("stack(").append(i).append(") : ").append(mCalculator.getStack().get(i)).append("\n");
+        BigDecimal[] values = mCalculator.getStackSnapshot();
+        for (int i = values.length - 1; i >= 0; i--)
+            stack.append("stack(").append(i).append(") : ").append(values[i]).append("\n");
 
         return stack.toString();
     }
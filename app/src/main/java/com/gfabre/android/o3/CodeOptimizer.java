@@ -0,0 +1,330 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+
+/**
+ * The optimizing pass run over the code of a compiled script or function (see
+ * ScriptEngine.lookupProgram and compileAndSaveFunction) :
+ *  1. arithmetic and comparisons of literals are folded into literals, as long as the
+ *     result is the same in BigDecimal and double modes.
+ *  2. values pushed and dropped right away, and conditions on literals, are removed.
+ *  3. "dup ?x" becomes store_var x, and "!x literal + ?x" (or -) becomes add_to_var x.
+ *  4. updates followed by another one, with nothing but pushes/pops in between, are removed.
+ *  5. jumps to jumps go straight to the final target.
+ *
+ * Only straight line code is rewritten : a rewritten sequence never spans a jump target.
+ * The optimized code must run exactly as the original one, the activity optimization
+ * switch allows to compare both.
+ */
+class CodeOptimizer {
+    private final CompiledScript mCode;         // original code
+    private final CompiledScript mOptimized = new CompiledScript();
+    private final boolean[]      mTargets;      // jump targets, by original pc
+    private final int[]          mPcs;          // optimized pc, by original pc
+
+    private int[] mOpcodes;                     // optimized instructions, before being emitted
+    private int[] mOperands;
+    private int   mSize = 0;
+    private int   mBarrier = 0;                 // instructions before can't be rewritten
+
+    private CodeOptimizer(CompiledScript code) {
+        mCode = code;
+        mTargets = new boolean[code.size() + 1];
+        mPcs = new int[code.size() + 1];
+        mOpcodes = new int[code.size()];
+        mOperands = new int[code.size()];
+    }
+
+    /**
+     * @param code is a complete compiled script or function (all jumps patched)
+     * @return the optimized code, the given code is left untouched.
+     */
+    static CompiledScript optimize(CompiledScript code) {
+        return new CodeOptimizer(code).optimize();
+    }
+
+    private CompiledScript optimize() {
+        int[] opcodes = mCode.getOpcodes();
+        int[] operands = mCode.getOperands();
+        int size = mCode.size();
+
+        // same constants, so that the operands are unchanged, new ones are added after
+        for (Object constant : mCode.getConstants())
+            mOptimized.addConstant(constant);
+        mOptimized.setFrame(mCode.getFrame());
+
+        for (int pc = 0; pc < size; pc++)
+            if (CompiledScript.isJump(opcodes[pc]))
+                mTargets[operands[pc]] = true;
+
+        for (int pc = 0; pc < size; pc++) {
+            if (mTargets[pc])
+                mBarrier = mSize;
+            mPcs[pc] = mSize;
+            add(opcodes[pc], operands[pc]);
+        }
+        mPcs[size] = mSize;
+
+        // relocate the jumps, then skip the intermediate ones
+        for (int pc = 0; pc < mSize; pc++)
+            if (CompiledScript.isJump(mOpcodes[pc]))
+                mOperands[pc] = mPcs[mOperands[pc]];
+        for (int pc = 0; pc < mSize; pc++) {
+            if (!CompiledScript.isJump(mOpcodes[pc]))
+                continue;
+
+            int target = mOperands[pc];
+            for (int hops = 0; target < mSize && mOpcodes[target] == CompiledScript.OP_JUMP && hops < mSize; hops++)
+                target = mOperands[target];
+            mOperands[pc] = target;
+        }
+
+        for (int pc = 0; pc < mSize; pc++)
+            mOptimized.emit(mOpcodes[pc], mOperands[pc]);
+
+        return mOptimized;
+    }
+
+    /**
+     * Adds an instruction to the optimized code, rewriting the preceding ones if possible.
+     */
+    private void add(int opcode, int operand) {
+        switch (opcode) {
+            case CompiledScript.OP_ADD:
+            case CompiledScript.OP_SUB:
+            case CompiledScript.OP_DIV:
+            case CompiledScript.OP_MUL:
+            case CompiledScript.OP_MOD:
+            case CompiledScript.OP_EQ:
+            case CompiledScript.OP_NEQ:
+            case CompiledScript.OP_LT:
+            case CompiledScript.OP_LTE:
+            case CompiledScript.OP_GT:
+            case CompiledScript.OP_GTE:
+                if (foldLiterals(opcode))
+                    return;
+                break;
+
+            case CompiledScript.OP_DROP:
+                // pushing can't fail, dropping a pushed value neither
+                if (available(1) && isPush(mOpcodes[mSize - 1])) {
+                    --mSize;
+                    return;
+                }
+                break;
+
+            case CompiledScript.OP_POP_VARIABLE:
+                if (available(1) && mOpcodes[mSize - 1] == CompiledScript.OP_DUP) {
+                    --mSize;
+                    add(CompiledScript.OP_STORE_VARIABLE, operand);
+                    return;
+                }
+                if (fuseAddToVariable(operand))
+                    return;
+                break;
+
+            case CompiledScript.OP_STORE_VARIABLE:
+                if (fuseAddToVariable(operand)) {
+                    append(CompiledScript.OP_PUSH_VARIABLE, operand);
+                    return;
+                }
+                break;
+
+            case CompiledScript.OP_JUMP_IF_ZERO:
+                if (available(1) && mOpcodes[mSize - 1] == CompiledScript.OP_PUSH_CONSTANT) {
+                    boolean zero = ((BigDecimal)constant(mOperands[--mSize])).doubleValue() == 0.0;
+                    if (zero)
+                        append(CompiledScript.OP_JUMP, operand);
+                    return;
+                }
+                break;
+
+            case CompiledScript.OP_UPDATE:
+                removeDeadUpdate();
+                break;
+        }
+
+        append(opcode, operand);
+    }
+
+    private void append(int opcode, int operand) {
+        mOpcodes[mSize] = opcode;
+        mOperands[mSize] = operand;
+        ++mSize;
+    }
+
+    /**
+     * @param count is a number of instructions
+     * @return true if the given number of last instructions may be rewritten.
+     */
+    private boolean available(int count) {
+        return mSize - mBarrier >= count;
+    }
+
+    private static boolean isPush(int opcode) {
+        return opcode == CompiledScript.OP_PUSH_CONSTANT || opcode == CompiledScript.OP_PUSH_VARIABLE;
+    }
+
+    private Object constant(int index) {
+        return mOptimized.getConstant(index);
+    }
+
+    /**
+     * @param first is a compiled identifier
+     * @param second is another compiled identifier
+     * @return true if both identifiers designate the same variable.
+     */
+    private static boolean isSameVariable(Object first, Object second) {
+        if (!(first instanceof ScriptEngine.ScopedIdentifier) || !(second instanceof ScriptEngine.ScopedIdentifier))
+            return false;
+
+        ScriptEngine.ScopedIdentifier v1 = (ScriptEngine.ScopedIdentifier)first;
+        ScriptEngine.ScopedIdentifier v2 = (ScriptEngine.ScopedIdentifier)second;
+
+        return v1 == v2 || (v1.mScope == v2.mScope && v1.mArray == v2.mArray && v1.mId.equals(v2.mId));
+    }
+
+    /**
+     * Replaces two pushed literals and the given operation with the result literal.
+     *
+     * @param opcode is an arithmetic or comparison opcode
+     * @return true if folded.
+     */
+    private boolean foldLiterals(int opcode) {
+        if (!available(2) ||
+            mOpcodes[mSize - 2] != CompiledScript.OP_PUSH_CONSTANT ||
+            mOpcodes[mSize - 1] != CompiledScript.OP_PUSH_CONSTANT)
+            return false;
+
+        BigDecimal a = (BigDecimal)constant(mOperands[mSize - 2]);
+        BigDecimal b = (BigDecimal)constant(mOperands[mSize - 1]);
+        double x = a.doubleValue();
+        double y = b.doubleValue();
+
+        // results as computed by the calculator, in BigDecimal and double modes
+        BigDecimal result;
+        double value;
+        switch (opcode) {
+            case CompiledScript.OP_ADD:
+                result = a.add(b);
+                value = x + y;
+                break;
+
+            case CompiledScript.OP_SUB:
+                result = a.subtract(b);
+                value = x - y;
+                break;
+
+            case CompiledScript.OP_MUL:
+                result = a.multiply(b);
+                value = x * y;
+                break;
+
+            case CompiledScript.OP_DIV:
+                // the calculator divides doubles in both modes
+                value = x / y;
+                if (y == 0 || Double.isNaN(value) || Double.isInfinite(value))
+                    return false;
+                result = BigDecimal.valueOf(value);
+                break;
+
+            case CompiledScript.OP_MOD:
+                if (b.signum() == 0)
+                    return false;
+                result = a.remainder(b);
+                value = x % y;
+                break;
+
+            case CompiledScript.OP_EQ:
+                result = BigDecimal.valueOf(a.compareTo(b) == 0 ? 1 : 0);
+                value = x == y ? 1 : 0;
+                break;
+
+            case CompiledScript.OP_NEQ:
+                result = BigDecimal.valueOf(a.compareTo(b) != 0 ? 1 : 0);
+                value = x != y ? 1 : 0;
+                break;
+
+            case CompiledScript.OP_LT:
+                result = BigDecimal.valueOf(a.compareTo(b) < 0 ? 1 : 0);
+                value = x < y ? 1 : 0;
+                break;
+
+            case CompiledScript.OP_LTE:
+                result = BigDecimal.valueOf(a.compareTo(b) <= 0 ? 1 : 0);
+                value = x <= y ? 1 : 0;
+                break;
+
+            case CompiledScript.OP_GT:
+                result = BigDecimal.valueOf(a.compareTo(b) > 0 ? 1 : 0);
+                value = x > y ? 1 : 0;
+                break;
+
+            case CompiledScript.OP_GTE:
+                result = BigDecimal.valueOf(a.compareTo(b) >= 0 ? 1 : 0);
+                value = x >= y ? 1 : 0;
+                break;
+
+            default:
+                return false;
+        }
+
+        if (Double.isNaN(value) || Double.isInfinite(value) || result.doubleValue() != value)
+            return false;
+
+        mSize -= 2;
+        append(CompiledScript.OP_PUSH_CONSTANT, mOptimized.addConstant(result));
+
+        return true;
+    }
+
+    /**
+     * Replaces "!x literal + ?x" (or -) with add_to_var x, the variable and literal being
+     * two consecutive constants.
+     *
+     * @param operand is the popped (stored) variable constant index
+     * @return true if fused, the last instructions being replaced.
+     */
+    private boolean fuseAddToVariable(int operand) {
+        if (!available(3) ||
+            mOpcodes[mSize - 3] != CompiledScript.OP_PUSH_VARIABLE ||
+            mOpcodes[mSize - 2] != CompiledScript.OP_PUSH_CONSTANT ||
+            (mOpcodes[mSize - 1] != CompiledScript.OP_ADD && mOpcodes[mSize - 1] != CompiledScript.OP_SUB) ||
+            !isSameVariable(constant(mOperands[mSize - 3]), constant(operand)))
+            return false;
+
+        BigDecimal literal = (BigDecimal)constant(mOperands[mSize - 2]);
+        if (mOpcodes[mSize - 1] == CompiledScript.OP_SUB)
+            literal = literal.negate();
+
+        mSize -= 3;
+        int variable = mOptimized.addConstant(constant(operand));
+        mOptimized.addConstant(literal);
+        append(CompiledScript.OP_ADD_TO_VARIABLE, variable);
+
+        return true;
+    }
+
+    /**
+     * Removes the previous update, if nothing but pushes and pops happened since.
+     */
+    private void removeDeadUpdate() {
+        for (int pc = mSize - 1; pc >= mBarrier; pc--) {
+            switch (mOpcodes[pc]) {
+                case CompiledScript.OP_UPDATE:
+                    System.arraycopy(mOpcodes, pc + 1, mOpcodes, pc, mSize - pc - 1);
+                    System.arraycopy(mOperands, pc + 1, mOperands, pc, mSize - pc - 1);
+                    --mSize;
+                    return;
+
+                case CompiledScript.OP_PUSH_CONSTANT:
+                case CompiledScript.OP_PUSH_VARIABLE:
+                case CompiledScript.OP_POP_VARIABLE:
+                    continue;
+
+                default:
+                    return;
+            }
+        }
+    }
+}
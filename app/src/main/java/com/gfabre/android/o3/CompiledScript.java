@@ -0,0 +1,369 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The compiled form of a script : a flat array of (opcode, operand) instructions, plus a
+ * pool of constants (literals, identifiers..) referenced by the operands. Control flow
+ * (while/for/if/else) is expressed with jump instructions, so that the whole script runs in
+ * a single dispatch loop (see ScriptEngine.executeScript).
+ */
+class CompiledScript {
+    // version of the compiled form, must be bumped whenever opcodes or operands change
+    // since compiled scripts are saved to disk (see ScriptCache)
+    static final int FORMAT_VERSION = 13;
+
+    // opcodes
+    static final int OP_PUSH_CONSTANT = 0;
+    static final int OP_PUSH_VARIABLE = 1;
+    static final int OP_POP_VARIABLE = 2;
+    static final int OP_PUSH_ARRAY_VALUE = 3;
+    static final int OP_POP_ARRAY_VALUE = 4;
+    static final int OP_UPDATE = 5;
+    static final int OP_DISPLAY_MESSAGE = 6;
+    static final int OP_PROMPT_MESSAGE = 7;
+    static final int OP_ADD = 8;
+    static final int OP_SUB = 9;
+    static final int OP_DIV = 10;
+    static final int OP_MUL = 11;
+    static final int OP_MOD = 12;
+    static final int OP_EQ = 13;
+    static final int OP_NEQ = 14;
+    static final int OP_LT = 15;
+    static final int OP_LTE = 16;
+    static final int OP_GT = 17;
+    static final int OP_GTE = 18;
+    static final int OP_NEG = 19;
+    static final int OP_DUP = 20;
+    static final int OP_DUPN = 21;
+    static final int OP_DROP = 22;
+    static final int OP_DROPN = 23;
+    static final int OP_SWAP = 24;
+    static final int OP_SWAPN = 25;
+    static final int OP_ROLLN = 26;
+    static final int OP_STACK_SIZE = 27;
+    static final int OP_CLEAR = 28;
+    static final int OP_FUNDEL = 29;
+    static final int OP_CALL = 30;          // operand is a FunctionCall constant
+    static final int OP_MATH_CALL = 31;
+    static final int OP_RUN_SCRIPT = 32;
+    static final int OP_PLOT = 33;
+    static final int OP_PLOT3D = 34;
+    static final int OP_LINE = 35;
+    static final int OP_LINE3D = 36;
+    static final int OP_ERASE = 37;
+    static final int OP_RANGE = 38;
+    static final int OP_POV3D = 39;
+    static final int OP_COLOR = 40;
+    static final int OP_DOT_SIZE = 41;
+    static final int OP_JUMP = 42;          // operand is the target pc
+    static final int OP_JUMP_IF_ZERO = 43;  // pops the condition, operand is the target pc
+    static final int OP_MATH_INTRINSIC = 44; // operand is the MathIntrinsics id
+
+    // optimized instructions (see CodeOptimizer)
+    static final int OP_STORE_VARIABLE = 45;  // sets the variable to the stack top value, kept
+    static final int OP_ADD_TO_VARIABLE = 46; // operand is the variable constant, followed by the literal
+
+    // for loops : both are followed by a jump, skipped unless leaving the loop
+    static final int OP_FOR_INIT = 47;      // pops step, end and start, operand is the counter variable constant
+    static final int OP_FOR_NEXT = 48;      // operand is the counter variable constant
+
+    // parallel_for blocks : pops step, end and start, operand is the block constant (see ScriptEngine.runParallelFor)
+    static final int OP_PARALLEL_FOR = 49;
+
+    // compiled hot code, run by the interpreter : exits the interpreter frame (see ScriptEngine.HotCode)
+    static final int OP_EXIT = 50;
+
+    // bulk operation on whole arrays, operand is the VectorOperation constant, followed by its arrays constants
+    static final int OP_ARRAY_OPERATION = 51;
+
+    // array files, operand is the array constant, followed by the filename constant
+    static final int OP_ARRAY_SAVE = 52;
+    static final int OP_ARRAY_LOAD = 53;
+
+    // hot code block entry, operand is the block scope local index (see ScriptEngine.compileBlock)
+    static final int OP_NEW_SCOPE = 54;
+
+    private static final String[] OP_NAMES = {
+            "push", "push_var", "pop_var", "push_array", "pop_array", "update", "message",
+            "prompt", "add", "sub", "div", "mul", "mod", "eq", "neq", "lt", "lte", "gt", "gte",
+            "neg", "dup", "dupn", "drop", "dropn", "swap", "swapn", "rolln", "stack_size",
+            "clear", "fundel", "funcall", "math_call", "run_script", "plot", "plot3D", "line",
+            "line3D", "erase", "range", "pov3D", "color", "dot_size", "jump", "jump_if_zero",
+            "math_intrinsic", "store_var", "add_to_var", "for_init", "for_next",
+            "parallel_for", "exit", "array_op", "array_save", "array_load", "new_scope"
+    };
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * A function call site. Calls to functions already compiled when the call is compiled are
+     * bound to that function code, as inlined calls are. Others (recursive calls, functions
+     * defined later..) are linked upon first call, and again whenever functions are
+     * (re)defined.
+     */
+    static class FunctionCall {
+        final String    mFunction;
+        final boolean   mBound;
+        CompiledScript  mTarget;            // the bound function code
+        volatile Link   mLink = null;       // the linked function code, for a call not bound
+
+        // a link is published at once to the threads running the call (parallel_for workers..)
+        static final class Link {
+            final CompiledScript    mTarget;
+            final int               mVersion;   // version of the functions the target was linked to
+
+            Link(CompiledScript target, int version) {
+                mTarget = target;
+                mVersion = version;
+            }
+        }
+
+        FunctionCall(String function, CompiledScript target) {
+            this(function, target != null);
+            mTarget = target;
+        }
+
+        FunctionCall(String function, boolean bound) {
+            mFunction = function;
+            mBound = bound;
+        }
+
+        @Override
+        public String toString() {
+            return mFunction;
+        }
+    }
+
+    private int[]             mOpcodes = new int[INITIAL_CAPACITY];
+    private int[]             mOperands = new int[INITIAL_CAPACITY];
+    private int               mSize = 0;
+    private ArrayList<Object> mConstants = new ArrayList<>();
+    // built upon first run, by any of the threads running the code (parallel_for workers..)
+    private volatile Object[] mConstantsArray = null;   // as indexed by the dispatch loop
+    private volatile double[] mDoubleConstants = null;  // literals, as pushed in double mode
+    private MemoTable         mMemo = null;             // results of a memoized function
+    private ScriptEngine      mFrame = null;            // function or hot code scope holding the variables
+
+    /**
+     * @param opcode is an instruction opcode
+     * @return true if the instruction operand is a pc.
+     */
+    static boolean isJump(int opcode) {
+        return opcode == OP_JUMP || opcode == OP_JUMP_IF_ZERO;
+    }
+
+    /**
+     * @param opcode is an instruction opcode
+     * @return true if the instruction operand is an index in the constants pool.
+     */
+    private static boolean hasConstant(int opcode) {
+        switch (opcode) {
+            case OP_PUSH_CONSTANT:
+            case OP_PUSH_VARIABLE:
+            case OP_POP_VARIABLE:
+            case OP_PUSH_ARRAY_VALUE:
+            case OP_POP_ARRAY_VALUE:
+            case OP_DISPLAY_MESSAGE:
+            case OP_PROMPT_MESSAGE:
+            case OP_FUNDEL:
+            case OP_CALL:
+            case OP_MATH_CALL:
+            case OP_RUN_SCRIPT:
+            case OP_STORE_VARIABLE:
+            case OP_ADD_TO_VARIABLE:
+            case OP_FOR_INIT:
+            case OP_FOR_NEXT:
+            case OP_PARALLEL_FOR:
+            case OP_ARRAY_OPERATION:
+            case OP_ARRAY_SAVE:
+            case OP_ARRAY_LOAD:
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends an instruction to the code.
+     *
+     * @param opcode is the instruction opcode
+     * @param operand is the instruction operand (pc, constant index..)
+     * @return the pc of the emitted instruction
+     */
+    int emit(int opcode, int operand) {
+        if (mSize == mOpcodes.length) {
+            mOpcodes = Arrays.copyOf(mOpcodes, mSize * 2);
+            mOperands = Arrays.copyOf(mOperands, mSize * 2);
+        }
+        mOpcodes[mSize] = opcode;
+        mOperands[mSize] = operand;
+
+        return mSize++;
+    }
+
+    int emit(int opcode) {
+        return emit(opcode, 0);
+    }
+
+    /**
+     * Appends an instruction referencing the given constant.
+     *
+     * @param opcode is the instruction opcode
+     * @param constant is the constant (literal, identifier..) the instruction works with
+     * @return the pc of the emitted instruction
+     */
+    int emitConstant(int opcode, Object constant) {
+        return emit(opcode, addConstant(constant));
+    }
+
+    /**
+     * Adds a constant to the constants pool.
+     *
+     * @param constant is the constant (literal, identifier..) to add
+     * @return the index of the constant in the pool
+     */
+    int addConstant(Object constant) {
+        mDoubleConstants = null;
+        mConstantsArray = null;
+        mConstants.add(constant);
+        return mConstants.size() - 1;
+    }
+
+    /**
+     * Sets the target of a previously emitted jump instruction.
+     *
+     * @param pc is the jump instruction pc
+     * @param target is the pc to jump to
+     */
+    void patchJump(int pc, int target) {
+        mOperands[pc] = target;
+    }
+
+    /**
+     * Appends (inlines) the given code, relocating its jumps and constants.
+     *
+     * @param code is the code to append
+     */
+    void append(CompiledScript code) {
+        int pcBase = mSize;
+        int constantBase = mConstants.size();
+
+        mDoubleConstants = null;
+        mConstantsArray = null;
+        mConstants.addAll(code.mConstants);
+        for (int pc = 0; pc < code.mSize; pc++) {
+            int opcode = code.mOpcodes[pc];
+            int operand = code.mOperands[pc];
+            if (isJump(opcode))
+                operand += pcBase;
+            else if (hasConstant(opcode))
+                operand += constantBase;
+            emit(opcode, operand);
+        }
+    }
+
+    /**
+     * @return the pc of the next emitted instruction.
+     */
+    int size() {
+        return mSize;
+    }
+
+    int[] getOpcodes() {
+        return mOpcodes;
+    }
+
+    int[] getOperands() {
+        return mOperands;
+    }
+
+    /**
+     * @return the constants pool as an array, indexed by the instructions operands.
+     */
+    Object[] getConstants() {
+        Object[] constants = mConstantsArray;
+        if (constants == null)
+            mConstantsArray = constants = mConstants.toArray();
+
+        return constants;
+    }
+
+    Object getConstant(int index) {
+        return mConstants.get(index);
+    }
+
+    /**
+     * @return the literal constants converted to doubles (0 for other constants), indexed
+     * by the instructions operands.
+     */
+    double[] getDoubleConstants() {
+        double[] constants = mDoubleConstants;
+        if (constants == null) {
+            constants = new double[mConstants.size()];
+            for (int i = 0; i < constants.length; i++)
+                if (mConstants.get(i) instanceof BigDecimal)
+                    constants[i] = ((BigDecimal)mConstants.get(i)).doubleValue();
+            mDoubleConstants = constants;
+        }
+
+        return constants;
+    }
+
+    /**
+     * @param memo is the results table of the memoized function this is the code of
+     */
+    void setMemo(MemoTable memo) {
+        mMemo = memo;
+    }
+
+    /**
+     * @return the results table of the function, null if not memoized.
+     */
+    MemoTable getMemo() {
+        return mMemo;
+    }
+
+    /**
+     * @param frame is the scope of the function or hot code this is the code of, whose local
+     *              scopes slot values are held by the run or entry (see ScriptEngine.runCode),
+     *              null if the code has no variables
+     */
+    void setFrame(ScriptEngine frame) {
+        mFrame = frame;
+    }
+
+    /**
+     * @return the frame scope of the code, null if none.
+     */
+    ScriptEngine getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * @return a human readable listing of the code.
+     */
+    @Override
+    public String toString() {
+        StringBuilder listing = new StringBuilder();
+        for (int pc = 0; pc < mSize; pc++) {
+            int opcode = mOpcodes[pc];
+            listing.append(pc).append(": ").append(OP_NAMES[opcode]);
+            if (isJump(opcode))
+                listing.append(" ").append(mOperands[pc]);
+            else if (opcode == OP_ADD_TO_VARIABLE || opcode == OP_ARRAY_SAVE || opcode == OP_ARRAY_LOAD)
+                listing.append(" ").append(mConstants.get(mOperands[pc])).append(" ").append(mConstants.get(mOperands[pc] + 1));
+            else if (hasConstant(opcode))
+                listing.append(" ").append(mConstants.get(mOperands[pc]));
+            else if (opcode == OP_MATH_INTRINSIC)
+                listing.append(" ").append(MathIntrinsics.getName(mOperands[pc]));
+            else if (opcode == OP_NEW_SCOPE)
+                listing.append(" ").append(mOperands[pc]);
+            listing.append("\n");
+        }
+
+        return listing.toString();
+    }
+}
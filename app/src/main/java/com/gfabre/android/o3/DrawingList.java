@@ -0,0 +1,127 @@
+package com.gfabre.android.o3;
+
+import java.util.Arrays;
+
+/**
+ * The drawing commands (plot, line, color..) run by the iterations of a parallel_for block,
+ * along with their arguments : the workers can't draw, since the drawings must be done in
+ * the iterations order, so they record the commands, which the script replays once the
+ * loop is done (see ScriptEngine.runParallelFor).
+ */
+class DrawingList {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[]    mOpcodes = new int[INITIAL_CAPACITY];
+    private int      mSize = 0;
+    private double[] mArguments = new double[INITIAL_CAPACITY];
+    private int      mArgumentsSize = 0;
+
+    /**
+     * @param opcode is a drawing command opcode (CompiledScript.OP_PLOT..)
+     * @return the number of values the command pops off the stack.
+     */
+    private static int getArity(int opcode) {
+        switch (opcode) {
+            case CompiledScript.OP_PLOT:
+                return 2;
+
+            case CompiledScript.OP_LINE:
+            case CompiledScript.OP_RANGE:
+                return 4;
+
+            case CompiledScript.OP_LINE3D:
+                return 6;
+
+            case CompiledScript.OP_DOT_SIZE:
+                return 1;
+        }
+
+        // plot3D, erase, pov3D, color
+        return 3;
+    }
+
+    /**
+     * Runs a drawing command, its arguments being on top of the activity calculator stack.
+     *
+     * @param activity is the activity which draws
+     * @param opcode is the drawing command opcode
+     * @return false if the arguments are missing.
+     */
+    static boolean draw(CalculatorActivity activity, int opcode) {
+        switch (opcode) {
+            case CompiledScript.OP_PLOT:
+                return activity.doPlot();
+
+            case CompiledScript.OP_PLOT3D:
+                return activity.doPlot3D();
+
+            case CompiledScript.OP_LINE:
+                return activity.doLine();
+
+            case CompiledScript.OP_LINE3D:
+                return activity.doLine3D();
+
+            case CompiledScript.OP_ERASE:
+                return activity.doErase();
+
+            case CompiledScript.OP_RANGE:
+                return activity.doSetRange();
+
+            case CompiledScript.OP_POV3D:
+                return activity.doSetPov3D();
+
+            case CompiledScript.OP_COLOR:
+                return activity.doSetColor();
+
+            case CompiledScript.OP_DOT_SIZE:
+                return activity.doSetDotSize();
+        }
+
+        return false;
+    }
+
+    /**
+     * Records a drawing command, its arguments are popped off the given stack.
+     *
+     * @param opcode is the drawing command opcode
+     * @param calculator holds the arguments, on top of its stack
+     * @return false if the arguments are missing.
+     */
+    boolean record(int opcode, Calculator calculator) {
+        int arity = getArity(opcode);
+        if (calculator.getStackSize() < arity)
+            return false;
+
+        if (mSize == mOpcodes.length)
+            mOpcodes = Arrays.copyOf(mOpcodes, mSize * 2);
+        if (mArgumentsSize + arity > mArguments.length)
+            mArguments = Arrays.copyOf(mArguments, Math.max(mArguments.length * 2, mArgumentsSize + arity));
+
+        mOpcodes[mSize++] = opcode;
+        mArgumentsSize += arity;
+        for (int i = 1; i <= arity; i++)
+            mArguments[mArgumentsSize - i] = calculator.doPopDoubleFromStack();
+
+        return true;
+    }
+
+    /**
+     * Runs the recorded commands, in order.
+     *
+     * @param activity is the activity which draws
+     * @param calculator is the activity calculator, the arguments are pushed on its stack
+     * @return false if a command failed.
+     */
+    boolean replay(CalculatorActivity activity, Calculator calculator) {
+        int argument = 0;
+        for (int i = 0; i < mSize; i++) {
+            int arity = getArity(mOpcodes[i]);
+            for (int k = 0; k < arity; k++)
+                calculator.doPushDoubleOnStack(mArguments[argument++]);
+            if (!draw(activity, mOpcodes[i]))
+                return false;
+        }
+
+        return true;
+    }
+}
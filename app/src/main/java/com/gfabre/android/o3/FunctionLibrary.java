@@ -0,0 +1,180 @@
+package com.gfabre.android.o3;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The script functions, globally defined and shared by all the running scripts : their
+ * blocks, lexed and compiled counterparts and memoized results.
+ *
+ * A library is never modified once published : defining or deleting a function publishes
+ * a modified copy, so that the scripts read the functions without locking, whatever the
+ * thread they run in.
+ */
+class FunctionLibrary {
+    private static volatile FunctionLibrary mCurrent = new FunctionLibrary();
+
+    private final HashMap<String, String>                     mBlocks;
+    private final ConcurrentHashMap<String, ScriptTokens>     mTokens;        // lexed counterparts, lexed upon first call if missing
+    private final HashMap<String, CompiledScript>             mCodes;         // compiled counterparts
+    private final HashMap<String, MemoTable>                  mMemoTables;    // memoized functions results
+    private final int                                         mVersion;       // changes with the compiled functions
+
+    private FunctionLibrary() {
+        mBlocks = new HashMap<>();
+        mTokens = new ConcurrentHashMap<>();
+        mCodes = new HashMap<>();
+        mMemoTables = new HashMap<>();
+        mVersion = 0;
+    }
+
+    private FunctionLibrary(FunctionLibrary library, int version) {
+        mBlocks = new HashMap<>(library.mBlocks);
+        mTokens = new ConcurrentHashMap<>(library.mTokens);
+        mCodes = new HashMap<>(library.mCodes);
+        mMemoTables = new HashMap<>(library.mMemoTables);
+        mVersion = version;
+    }
+
+    /**
+     * @return the current library.
+     */
+    static FunctionLibrary get() {
+        return mCurrent;
+    }
+
+    /**
+     * Defines an interpreted function, its former compiled counterpart (if any) is dropped so
+     * that no code links to it anymore.
+     *
+     * @param function is the function name
+     * @param block is the function script block
+     * @param tokens are the lexed block, null to lex it upon first call
+     * @param memo is the function results table, null if not memoized
+     */
+    static synchronized void define(String function, String block, ScriptTokens tokens, MemoTable memo) {
+        FunctionLibrary library = new FunctionLibrary(mCurrent, mCurrent.mCodes.containsKey(function) ? mCurrent.mVersion + 1 : mCurrent.mVersion);
+        library.put(function, block, tokens, memo);
+        library.mCodes.remove(function);
+        mCurrent = library;
+    }
+
+    /**
+     * Defines a compiled function.
+     *
+     * @param function is the function name
+     * @param block is the function script block
+     * @param tokens are the lexed block, null to lex it upon first call
+     * @param code is the function compiled code, holding its results table if memoized
+     */
+    static synchronized void define(String function, String block, ScriptTokens tokens, CompiledScript code) {
+        FunctionLibrary library = new FunctionLibrary(mCurrent, mCurrent.mVersion + 1);
+        library.put(function, block, tokens, code.getMemo());
+        library.mCodes.put(function, code);
+        mCurrent = library;
+    }
+
+    /**
+     * Defines the compiled functions of a program, at once.
+     *
+     * @param blocks are the functions script blocks, by function name
+     * @param codes are the functions compiled codes, by function name
+     */
+    static synchronized void define(Map<String, String> blocks, Map<String, CompiledScript> codes) {
+        FunctionLibrary library = new FunctionLibrary(mCurrent, mCurrent.mVersion + 1);
+        for (Map.Entry<String, CompiledScript> pair : codes.entrySet()) {
+            library.put(pair.getKey(), blocks.get(pair.getKey()), null, pair.getValue().getMemo());
+            library.mCodes.put(pair.getKey(), pair.getValue());
+        }
+        mCurrent = library;
+    }
+
+    /**
+     * Deletes a function.
+     *
+     * @param function is the function name
+     */
+    static synchronized void delete(String function) {
+        if (!mCurrent.contains(function))
+            return;
+
+        FunctionLibrary library = new FunctionLibrary(mCurrent, mCurrent.mCodes.containsKey(function) ? mCurrent.mVersion + 1 : mCurrent.mVersion);
+        library.mBlocks.remove(function);
+        library.mTokens.remove(function);
+        library.mCodes.remove(function);
+        library.mMemoTables.remove(function);
+        mCurrent = library;
+    }
+
+    private void put(String function, String block, ScriptTokens tokens, MemoTable memo) {
+        mBlocks.put(function, block);
+        if (tokens != null)
+            mTokens.put(function, tokens);
+        else
+            mTokens.remove(function);
+        if (memo != null)
+            mMemoTables.put(function, memo);
+        else
+            mMemoTables.remove(function);
+    }
+
+    boolean contains(String function) {
+        return mBlocks.containsKey(function);
+    }
+
+    /**
+     * @param function is the function name
+     * @return the lexed function block, null if the function doesn't exist.
+     *
+     * @throws IOException
+     */
+    ScriptTokens getTokens(String function) throws IOException {
+        ScriptTokens tokens = mTokens.get(function);
+        if (tokens == null && mBlocks.containsKey(function))
+            mTokens.put(function, tokens = ScriptTokens.lex(mBlocks.get(function)));
+
+        return tokens;
+    }
+
+    CompiledScript getCode(String function) {
+        return mCodes.get(function);
+    }
+
+    /**
+     * @return the compiled functions, by function name.
+     */
+    Map<String, CompiledScript> getCodes() {
+        return Collections.unmodifiableMap(mCodes);
+    }
+
+    MemoTable getMemoTable(String function) {
+        return mMemoTables.get(function);
+    }
+
+    /**
+     * @return the memoized functions results, by function name.
+     */
+    Map<String, MemoTable> getMemoTables() {
+        return Collections.unmodifiableMap(mMemoTables);
+    }
+
+    /**
+     * @return the version of the compiled functions, changes when one is defined or deleted.
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the sorted list of functions in ascending order.
+     */
+    String[] getFunctions() {
+        String[] functions = mBlocks.keySet().toArray(new String[0]);
+        Arrays.sort(functions);
+        return functions;
+    }
+}
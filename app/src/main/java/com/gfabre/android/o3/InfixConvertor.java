@@ -1,235 +1,359 @@
 package com.gfabre.android.o3;
 
-import java.util.Stack;
-import java.util.StringTokenizer;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Converts an infixed expression to postfix, in a single pass over its characters : the
+ * expression is read token by token and parsed by precedence climbing (Pratt parser),
+ * each operand, operator or call being appended to the postfix tokens once parsed.
+ *
+ * The expressions contain literals, variables (!x), array values (![]a(index)), function
+ * (fc@f(..)) and java Math (mc@sin(..)) calls, parenthesis and the +, -, *, /, % and ^
+ * (power, right associative) operators. Unary minus binds tighter than the other operators
+ * but ^, so that -2^2 is -4.
+ */
 class InfixConvertor {
     private static final String FUNCTION_CALL_MARKER = "fc@";
     private static final String MATH_CALL_MARKER = "mc@";
-
-    private String mInfix;           // sanitized infixed expression
-    private String mPostfix;         // post fixed
-    private String mRpnScript;       // rpn script (with \n after each operand/operator)
-
+    private static final String PUSH_VARIABLE_MARKER = "!";
+    private static final String PUSH_ARRAY_MARKER = "![]";
+
+    // power is computed by java Math pow
+    private static final String POWER_CALL = MATH_CALL_MARKER + "pow";
+
+    // unary minus multiplies by -1
+    private static final String MINUS_ONE = "-1";
+    private static final String MUL = "*";
+
+    // binding powers of the operators
+    private static final int ADDITIVE_PRECEDENCE = 1;
+    private static final int MULTIPLICATIVE_PRECEDENCE = 2;
+    private static final int UNARY_PRECEDENCE = 3;
+    private static final int POWER_PRECEDENCE = 4;
+
+    // same as the lexer DoubleLiteral
+    private static final Pattern LITERAL_PATTERN = Pattern.compile("-?([0-9]+\\.[0-9]*|\\.[0-9]+|[0-9]+)([eE][+-]?[0-9]+)?");
+
+    // token types
+    private static final int END = 0;
+    private static final int LITERAL = 1;
+    private static final int OPERAND = 2;       // variable or array
+    private static final int CALL = 3;          // function or java Math call
+    private static final int OPERATOR = 4;
+    private static final int OPEN = 5;
+    private static final int CLOSE = 6;
+    private static final int COMMA = 7;
+    private static final int ERROR = 8;
+
+    private final char[]            mInfix;
+    private final ArrayList<String> mPostfix = new ArrayList<>();
+    private int                     mPos = 0;           // next char
+    private int                     mTokenType;         // current token
+    private String                  mToken;
+    private int                     mTokenPos;
+    private int                     mErrorPos = -1;     // position of the first error, if any
 
     /**
-     * The constructor builds :
-     *  1. a "sanitized" expression where all tokens are separated by spaces.
-     *  2. a postfix expression using a stack and precedence computation.
-     *  3. an rpn script the engine can interpret.
+     * The constructor parses the expression into its postfix tokens.
      *
-     * @param infix is a well formed infixed expression, containing basic operators,
-     *        variables and function or math function calls.
+     * @param infix is an infixed expression, containing basic operators, variables and
+     *        function or math function calls.
      */
     InfixConvertor(String infix) {
-        mInfix = infix;
-        Sanitize();
-        mPostfix = "";
-        convertToPostfixed();
-        mRpnScript = "";
-        convertToRpnScript();
+        mInfix = infix.toCharArray();
+        nextToken();
+        if (mTokenType != END) {
+            parseExpression(0);
+            if (mTokenType != END)
+                error();
+        }
     }
 
     /**
-     * Produces a string where all tokens are separated by spaces.
+     * Reads the next token.
      */
-    private void Sanitize() {
-        if (mInfix.isEmpty())
+    private void nextToken() {
+        while (mPos < mInfix.length && Character.isWhitespace(mInfix[mPos]))
+            ++mPos;
+
+        mTokenPos = mPos;
+        if (mPos == mInfix.length) {
+            mTokenType = END;
+            mToken = null;
             return;
+        }
+
+        char c = mInfix[mPos];
+        switch (c) {
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '%':
+            case '^':
+                mTokenType = OPERATOR;
+                mToken = String.valueOf(c);
+                ++mPos;
+                return;
+
+            case '(':
+                mTokenType = OPEN;
+                ++mPos;
+                return;
+
+            case ')':
+                mTokenType = CLOSE;
+                ++mPos;
+                return;
+
+            case ',':
+                mTokenType = COMMA;
+                ++mPos;
+                return;
+        }
 
-        String result = "";
-        for (int i = 0; i < mInfix.length(); i++) {
-            char c = mInfix.charAt(i);
-            if (c == '(' ||
-                c == ')' ||
-                c == '+' ||
-                c == '-' ||
-                c == '/' ||
-                c == '%' ||
-                c == '*' ||
-                c == '^' ||
-                c == ',') {
-                // insert spaces around operator where needed
-                int rLen = result.length();
-                if (rLen >= 1) {
-                    if (result.charAt(rLen - 1) != ' ')
-                        result += " ";
+        if (Character.isDigit(c) || c == '.') {
+            // digits, dots and exponent, checked as a whole
+            while (mPos < mInfix.length && (Character.isDigit(mInfix[mPos]) || mInfix[mPos] == '.'))
+                ++mPos;
+            if (mPos < mInfix.length && (mInfix[mPos] == 'e' || mInfix[mPos] == 'E')) {
+                int exponent = mPos + 1;
+                if (exponent < mInfix.length && (mInfix[exponent] == '+' || mInfix[exponent] == '-'))
+                    ++exponent;
+                if (exponent < mInfix.length && Character.isDigit(mInfix[exponent])) {
+                    mPos = exponent;
+                    while (mPos < mInfix.length && Character.isDigit(mInfix[mPos]))
+                        ++mPos;
                 }
-                result += c + " ";
-            } else if (c != ' ')
-                result += c;
+            }
+            mToken = new String(mInfix, mTokenPos, mPos - mTokenPos);
+            mTokenType = LITERAL_PATTERN.matcher(mToken).matches() ? LITERAL : ERROR;
+            return;
+        }
+
+        // !x, ![]a, fc@f or mc@f
+        String marker = null;
+        if (startsWith(PUSH_ARRAY_MARKER))
+            marker = PUSH_ARRAY_MARKER;
+        else if (startsWith(PUSH_VARIABLE_MARKER))
+            marker = PUSH_VARIABLE_MARKER;
+        else if (startsWith(FUNCTION_CALL_MARKER))
+            marker = FUNCTION_CALL_MARKER;
+        else if (startsWith(MATH_CALL_MARKER))
+            marker = MATH_CALL_MARKER;
+
+        if (marker != null) {
+            int start = mPos + marker.length();
+            int end = start;
+            if (end < mInfix.length && Character.isJavaIdentifierStart(mInfix[end])) {
+                while (++end < mInfix.length && Character.isJavaIdentifierPart(mInfix[end]))
+                    ;
+                mPos = end;
+                mToken = new String(mInfix, mTokenPos, end - mTokenPos);
+                mTokenType = marker.equals(FUNCTION_CALL_MARKER) || marker.equals(MATH_CALL_MARKER) ? CALL : OPERAND;
+                return;
+            }
         }
 
-        mInfix = result;
+        mTokenType = ERROR;
+    }
+
+    private boolean startsWith(String marker) {
+        if (mPos + marker.length() > mInfix.length)
+            return false;
+
+        for (int i = 0; i < marker.length(); i++)
+            if (mInfix[mPos + i] != marker.charAt(i))
+                return false;
+
+        return true;
     }
 
     /**
-     * Return the arithmetic precedence of the passed token. The biggest
-     *        is the returned number, the higher is the precedence priority.
-     *
-     * @param token is the operand or operator which precedence has to be returned
-     * @return the arithmetic precedence of the token.
+     * Records the first error, at the current token.
      */
-    private int precedence(String token) {
+    private void error() {
+        if (mErrorPos == -1)
+            mErrorPos = mTokenPos;
+        mTokenType = ERROR;
+    }
 
-        switch (token) {
-            case "(":
-            case ",": // just so it is considered as an operator
-            case ")":
-                return 3;
+    /**
+     * @param operator is a binary operator
+     * @return the operator precedence.
+     */
+    private static int precedence(String operator) {
+        switch (operator) {
+            case "+":
+            case "-":
+                return ADDITIVE_PRECEDENCE;
 
             case "*":
             case "/":
             case "%":
-                return 2;
-
-            case "-":
-            case "+":
-                return 1;
+                return MULTIPLICATIVE_PRECEDENCE;
         }
 
-        return 0;
+        return POWER_PRECEDENCE;
     }
 
     /**
-     * Test a token type.
+     * Parses an expression, up to the first operator of the given precedence or lower.
      *
-     * @param token is the item to be tested.
-     * @return true if the token is an operator.
+     * @param minPrecedence is the precedence the operators must exceed
      */
-    private boolean isOperator(String token) {
-        return precedence(token) > 0;
+    private void parseExpression(int minPrecedence) {
+        parseOperand();
+        while (mTokenType == OPERATOR && precedence(mToken) > minPrecedence) {
+            String operator = mToken;
+            int precedence = precedence(operator);
+            nextToken();
+
+            // ^ is right associative
+            parseExpression(operator.equals("^") ? precedence - 1 : precedence);
+            mPostfix.add(operator.equals("^") ? POWER_CALL : operator);
+        }
     }
 
     /**
-     * Move the functions to their postfix position in the infix expression.
-     *
-     * @param infix is an infixed expression.
-     * @return an expression where functions are moved after the associated closing parenthesis.
+     * Parses an operand : a literal, variable, call, parenthesized expression or an
+     * operand preceded by a unary operator.
      */
-    private String moveFunctions(String infix) {
-        String  result = "";
-        int     infixLen = infix.length();
-        int     eI = 0, // end index
-                fI;     // next function index
-
-        // find next fc@ or mc@ from eI
-        if ((fI = infix.indexOf(FUNCTION_CALL_MARKER, eI)) == -1 &&
-            (fI = infix.indexOf(MATH_CALL_MARKER, eI)) == -1)
-            return infix;
-
-        // iterate until we reach the end of mInfix
-        while (eI < infixLen) {
-            // copy everything into result up to function
-            result += infix.substring(eI, fI);
-
-            // seek closing parenthesis
-            int oI = infix.indexOf('(', fI);
-            if (oI != -1) {
-                // keep function
-                String function = infix.substring(fI, oI);
-
-                // start counting opening/closing parenthesis
-                int p = 1;
-                int cI = oI;
-                while (p != 0 && cI < infixLen - 1) {
-                    if (infix.charAt(++cI) == '(')
-                        ++p;
-                    if (infix.charAt(cI) == ')')
-                        --p;
+    private void parseOperand() {
+        switch (mTokenType) {
+            case LITERAL:
+                mPostfix.add(mToken);
+                nextToken();
+                return;
+
+            case OPERAND:
+                if (mToken.startsWith(PUSH_ARRAY_MARKER)) {
+                    // ![]a(index)
+                    String array = mToken;
+                    nextToken();
+                    if (mTokenType != OPEN) {
+                        error();
+                        return;
+                    }
+                    nextToken();
+                    parseExpression(0);
+                    expect(CLOSE);
+                    mPostfix.add(array);
+                    return;
                 }
-                if (p == 0) {
-                    // we found the place where the function should go
-                    eI = cI + 1; // continue after closing parenthesis
-                    result += moveFunctions(infix.substring(oI, eI)); // process inner exp.
-                    result += " " + function;
+                mPostfix.add(mToken);
+                nextToken();
+                return;
+
+            case CALL: {
+                    // arguments are pushed in order, then the function is called
+                    String call = mToken;
+                    nextToken();
+                    if (mTokenType != OPEN) {
+                        error();
+                        return;
+                    }
+                    nextToken();
+                    if (mTokenType != CLOSE) {
+                        parseExpression(0);
+                        while (mTokenType == COMMA) {
+                            nextToken();
+                            parseExpression(0);
+                        }
+                    }
+                    expect(CLOSE);
+                    mPostfix.add(call);
                 }
-                else
-                    break; // missing closing parenthesis
-
-                if ((fI = infix.indexOf(FUNCTION_CALL_MARKER, eI)) == -1 &&
-                    (fI = infix.indexOf(MATH_CALL_MARKER, eI)) == -1) {
-                    // copy trailing part
-                    result += infix.substring(eI, infixLen);
-                    break;
+                return;
+
+            case OPEN:
+                nextToken();
+                parseExpression(0);
+                expect(CLOSE);
+                return;
+
+            case OPERATOR:
+                if (mToken.equals("-")) {
+                    nextToken();
+                    int start = mPostfix.size();
+                    parseExpression(UNARY_PRECEDENCE);
+                    if (mPostfix.size() == start + 1 && LITERAL_PATTERN.matcher(mPostfix.get(start)).matches()) {
+                        // negative literal
+                        String literal = mPostfix.get(start);
+                        mPostfix.set(start, literal.startsWith("-") ? literal.substring(1) : "-" + literal);
+                    } else {
+                        mPostfix.add(MINUS_ONE);
+                        mPostfix.add(MUL);
+                    }
+                    return;
                 }
-            }
+                if (mToken.equals("+")) {
+                    nextToken();
+                    parseExpression(UNARY_PRECEDENCE);
+                    return;
+                }
+                // not a unary operator
+                error();
+                return;
+
+            default:
+                error();
         }
+    }
 
-        return result;
+    private void expect(int tokenType) {
+        if (mTokenType != tokenType)
+            error();
+        else
+            nextToken();
     }
 
     /**
-     * Converts mInfixed to a postfix expression and stores it into mPostFix.
+     * @return true if the expression is well formed.
      */
-    private void convertToPostfixed() {
-        if (mInfix.isEmpty())
-            return;
-
-        String postfix = "";
-        Stack<String> operator = new Stack<>();
-        String popped, token;
-
-        // first need to move functions past their associated parenthesis.
-        mInfix = moveFunctions(mInfix);
-
-        StringTokenizer tokenizer = new StringTokenizer(mInfix);
-        while (tokenizer.hasMoreTokens()) {
-            token = tokenizer.nextToken();
-
-            // if an operand, append it to the postfix result
-            if (!isOperator(token))
-                postfix += " " + token;
-            // if reaching a new part of a function call (',') or the end of a sub expression (')')
-            // process it until we reach a new stacked sub-expression or the end of the stack
-            else if (token.equals(")") || token.equals(",")) {
-                while (!operator.isEmpty() && !(popped = operator.pop()).equals("("))
-                    postfix += " " + popped;
-            } else {
-                // we've encountered an arithmetic operator of a new expression
-                // until we reach the end of the stack or a new expression, unstack and append
-                // more prioritary operators to the postfix result
-                while (!operator.isEmpty() && !token.equals("(") && precedence(operator.peek()) >= precedence(token)) {
-                    popped = operator.pop();
-                    if (!popped.equals("("))
-                        postfix += " " + popped;
-                }
-
-                // stack operator or function
-                operator.push(token); // note : ',' & ')' not pushed on purpose
-            }
-        }
-
-        // pop any remaining operator
-        while (!operator.isEmpty()) {
-            popped = operator.pop();
-            if (!popped.equals("("))
-                postfix += " " + popped;
-        }
-
-        mPostfix = postfix;
+    boolean isValid() {
+        return mErrorPos == -1;
     }
 
     /**
-     * Converts the postfix mPostfix expression into an rpn script and stores it in mRpnScript.
+     * @return the expression text up to (and including) the first error, empty if none.
      */
-    private void convertToRpnScript() {
-        if (mPostfix.isEmpty())
-            return;
-
-        // script engine needs one line per operand/operator
-        mRpnScript = mPostfix.replaceAll("(\\s)+", "\n") + "\n";
+    String getError() {
+        return mErrorPos == -1 ? "" : new String(mInfix, 0, Math.min(mErrorPos + 1, mInfix.length));
+    }
 
-        // replace function_calls
-        mRpnScript = mRpnScript.replaceAll("fc@", "funcall ");
-        mRpnScript = mRpnScript.replaceAll("mc@", "math_call ");
+    /**
+     * @return the postfix tokens, with the call markers (fc@, mc@).
+     */
+    List<String> getPostfixTokens() {
+        return mPostfix;
     }
 
     String getPostfix() {
-        return mPostfix;
+        StringBuilder postfix = new StringBuilder();
+        for (String token : mPostfix)
+            postfix.append(' ').append(token);
+
+        return postfix.toString();
     }
 
+    /**
+     * @return the rpn script the engine can interpret, one operand/operator per line.
+     */
     String getRpnScript() {
-        return mRpnScript;
+        StringBuilder script = new StringBuilder();
+        for (String token : mPostfix) {
+            if (token.startsWith(FUNCTION_CALL_MARKER))
+                script.append("funcall ").append(token, FUNCTION_CALL_MARKER.length(), token.length());
+            else if (token.startsWith(MATH_CALL_MARKER))
+                script.append("math_call ").append(token, MATH_CALL_MARKER.length(), token.length());
+            else
+                script.append(token);
+            script.append('\n');
+        }
+
+        return script.toString();
     }
 }
@@ -0,0 +1,135 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * An infixed expression, converted once to its postfix items : literals, variables and
+ * array values, operators, and java Math (resolved to their intrinsic when possible) or
+ * script function calls. The engine evaluates (or compiles) the items directly, instead
+ * of interpreting the rpn script text the expression converts to.
+ */
+class InfixExpression {
+    static final int LITERAL = 0;
+    static final int VARIABLE = 1;
+    static final int ARRAY_VALUE = 2;       // the index is on the stack
+    static final int OPERATOR = 3;
+    static final int MATH_CALL = 4;
+    static final int FUNCTION_CALL = 5;
+
+    private static final String FUNCTION_CALL_MARKER = "fc@";
+    private static final String MATH_CALL_MARKER = "mc@";
+    private static final String PUSH_VARIABLE_MARKER = "!";
+    private static final String PUSH_ARRAY_MARKER = "![]";
+
+    private final String     mError;            // null if well formed
+    private int[]            mKinds;
+    private int[]            mOperands;         // opcode or intrinsic id
+    private Object[]         mValues;           // literal or name
+
+    InfixExpression(String infix) {
+        InfixConvertor convertor = new InfixConvertor(infix);
+        mError = convertor.isValid() ? null : convertor.getError();
+        parse(convertor.getPostfixTokens());
+    }
+
+    /**
+     * Types the postfix items.
+     *
+     * @param items are the postfix tokens, from a well formed expression
+     */
+    private void parse(List<String> items) {
+        mKinds = new int[items.size()];
+        mOperands = new int[items.size()];
+        mValues = new Object[items.size()];
+
+        for (int i = 0; i < mKinds.length; i++) {
+            String item = items.get(i);
+            int opcode = operatorOpcode(item);
+            if (opcode != -1) {
+                mKinds[i] = OPERATOR;
+                mOperands[i] = opcode;
+            } else if (item.startsWith(FUNCTION_CALL_MARKER)) {
+                mKinds[i] = FUNCTION_CALL;
+                mValues[i] = item.substring(FUNCTION_CALL_MARKER.length());
+            } else if (item.startsWith(MATH_CALL_MARKER)) {
+                mKinds[i] = MATH_CALL;
+                mValues[i] = item.substring(MATH_CALL_MARKER.length());
+                mOperands[i] = MathIntrinsics.lookup((String)mValues[i]);
+            } else if (item.startsWith(PUSH_ARRAY_MARKER)) {
+                mKinds[i] = ARRAY_VALUE;
+                mValues[i] = item.substring(PUSH_ARRAY_MARKER.length());
+            } else if (item.startsWith(PUSH_VARIABLE_MARKER)) {
+                mKinds[i] = VARIABLE;
+                mValues[i] = item.substring(PUSH_VARIABLE_MARKER.length());
+            } else {
+                mKinds[i] = LITERAL;
+                mValues[i] = new BigDecimal(item);
+            }
+        }
+    }
+
+    /**
+     * @param item is a postfix item
+     * @return the compiled script opcode of the operator, -1 if not an operator.
+     */
+    private static int operatorOpcode(String item) {
+        switch (item) {
+            case "+":
+                return CompiledScript.OP_ADD;
+            case "-":
+                return CompiledScript.OP_SUB;
+            case "*":
+                return CompiledScript.OP_MUL;
+            case "/":
+                return CompiledScript.OP_DIV;
+            case "%":
+                return CompiledScript.OP_MOD;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true if the expression is well formed.
+     */
+    boolean isValid() {
+        return mError == null;
+    }
+
+    /**
+     * @return the expression text up to (and including) the first error, null if well formed.
+     */
+    String getError() {
+        return mError;
+    }
+
+    int size() {
+        return mKinds.length;
+    }
+
+    /**
+     * @param item is the item index
+     * @return the item kind (LITERAL, VARIABLE..)
+     */
+    int getKind(int item) {
+        return mKinds[item];
+    }
+
+    /**
+     * @param item is the item index
+     * @return the operator opcode (see CompiledScript), or the math call intrinsic id
+     * (MathIntrinsics.NONE if called through reflection).
+     */
+    int getOperand(int item) {
+        return mOperands[item];
+    }
+
+    /**
+     * @param item is the item index
+     * @return the literal (BigDecimal), or the variable, array or function name.
+     */
+    Object getValue(int item) {
+        return mValues[item];
+    }
+}
@@ -0,0 +1,219 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The counter of a for loop : the start, end and step are taken once from the stack, the
+ * number of values is computed once from them, then each value is derived from the start
+ * plus its index times the step, so that the iterations are the same in both modes. The
+ * values are kept as a long scaled by the decimals of the start and step (exactly as a
+ * BigDecimal would be), and the double mode values are rounded from them. Only in double
+ * mode, the values not fitting that scaling are plain doubles, the number of values being
+ * then computed within a relative tolerance.
+ *
+ * The compiled scripts store the counter itself in the loop variable slot, so that the
+ * iterations don't allocate, the values being converted only when pushed on the stack
+ * (see Calculator.doPushNumberOnStack).
+ */
+class LoopCounter extends Number {
+    private static final long serialVersionUID = 1L;
+
+    // the unscaled values must fit in 62 bits, so that adding the step never overflows
+    private static final int MAX_UNSCALED_BITS = 62;
+
+    // the double mode scaled values are divided by an exact double power of 10
+    private static final double[] POWERS_OF_10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // relative tolerance of the double mode number of values, (end - start) / step being rounded
+    private static final double COUNT_TOLERANCE = 1e-9;
+
+    private final boolean mDoubleMode;
+
+    // the number of values, Long.MAX_VALUE if too many to be counted, and the current value index
+    private long    mCount;
+    private long    mIndex;
+
+    // false for the double mode values not fitting the scaling, plain doubles then
+    private boolean mScaled;
+    private double  mStart;
+    private double  mStep;
+
+    // the values, multiplied by 10^mScale
+    private long    mUnscaledValue;
+    private long    mUnscaledStep;
+    private int     mScale;
+
+    private LoopCounter(boolean doubleMode) {
+        mDoubleMode = doubleMode;
+    }
+
+    /**
+     * @param start is the first value
+     * @param end is the last value (included)
+     * @param step is the (non zero) increment
+     * @return the double mode counter, null if the step is 0 or a value isn't a number.
+     */
+    static LoopCounter create(double start, double end, double step) {
+        if (step == 0 || Double.isNaN(start) || Double.isNaN(end) || Double.isNaN(step) ||
+            Double.isInfinite(start) || Double.isInfinite(step))
+            return null;
+
+        // the decimal values, as entered, unless they don't fit the scaling
+        if (!Double.isInfinite(end)) {
+            LoopCounter counter = new LoopCounter(true);
+            if (counter.scale(BigDecimal.valueOf(start), BigDecimal.valueOf(end), BigDecimal.valueOf(step), POWERS_OF_10.length - 1))
+                return counter;
+        }
+
+        LoopCounter counter = new LoopCounter(true);
+        counter.mStart = start;
+        counter.mStep = step;
+        double steps = (end - start) / step;
+        if (steps < 0 && steps > -COUNT_TOLERANCE)
+            steps = 0;
+        if (steps >= 0) {
+            double count = Math.floor(steps + Math.max(1, steps) * COUNT_TOLERANCE) + 1;
+            counter.mCount = count < Long.MAX_VALUE ? (long)count : Long.MAX_VALUE;
+        }
+
+        return counter;
+    }
+
+    /**
+     * @param start is the first value
+     * @param end is the last value (included)
+     * @param step is the (non zero) increment
+     * @return the BigDecimal mode counter, null if the step is 0 or the values have too
+     * many digits.
+     */
+    static LoopCounter create(BigDecimal start, BigDecimal end, BigDecimal step) {
+        if (step.signum() == 0)
+            return null;
+
+        LoopCounter counter = new LoopCounter(false);
+        return counter.scale(start, end, step, Integer.MAX_VALUE) ? counter : null;
+    }
+
+    /**
+     * Sets the scaled values and the number of values.
+     *
+     * @return false if the values have too many digits.
+     */
+    private boolean scale(BigDecimal start, BigDecimal end, BigDecimal step, int maxScale) {
+        int scale = Math.max(0, Math.max(start.scale(), step.scale()));
+        if (scale > maxScale)
+            return false;
+
+        // values past the end, between two steps, are never reached
+        BigDecimal scaledStart = start.setScale(scale);
+        BigDecimal scaledEnd = end.setScale(scale, step.signum() > 0 ? RoundingMode.FLOOR : RoundingMode.CEILING);
+        BigDecimal scaledStep = step.setScale(scale);
+        if (scaledStart.unscaledValue().bitLength() > MAX_UNSCALED_BITS ||
+            scaledEnd.unscaledValue().bitLength() > MAX_UNSCALED_BITS ||
+            scaledStep.unscaledValue().bitLength() > MAX_UNSCALED_BITS)
+            return false;
+
+        mScaled = true;
+        mScale = scale;
+        mUnscaledValue = scaledStart.unscaledValue().longValue();
+        mUnscaledStep = scaledStep.unscaledValue().longValue();
+        long unscaledEnd = scaledEnd.unscaledValue().longValue();
+        if (mUnscaledStep > 0 ? mUnscaledValue <= unscaledEnd : mUnscaledValue >= unscaledEnd)
+            mCount = (unscaledEnd - mUnscaledValue) / mUnscaledStep + 1;
+
+        return true;
+    }
+
+    /**
+     * @return true if the counter hasn't passed the end.
+     */
+    boolean isInRange() {
+        return mIndex < mCount;
+    }
+
+    /**
+     * Steps to the next value, unless it is past the end : the counter then keeps the
+     * last value.
+     *
+     * @return true if stepped.
+     */
+    boolean next() {
+        if (mIndex + 1 >= mCount)
+            return false;
+
+        mIndex++;
+        mUnscaledValue += mUnscaledStep;
+        return true;
+    }
+
+    /**
+     * @return the number of values from the current one to the end (included), -1 if
+     * there are too many to be counted.
+     */
+    long count() {
+        if (mCount == Long.MAX_VALUE)
+            return -1;
+
+        return isInRange() ? mCount - mIndex : 0;
+    }
+
+    /**
+     * Gets a counter starting at the index-th value from the current one, with the same end
+     * and step, for the parallel loops to split the values (see ScriptEngine.runParallelFor).
+     *
+     * @param index is the index of the start value, less than count()
+     * @return the new counter.
+     */
+    LoopCounter at(long index) {
+        LoopCounter counter = new LoopCounter(mDoubleMode);
+        counter.mCount = mCount;
+        counter.mIndex = mIndex + index;
+        counter.mScaled = mScaled;
+        counter.mStart = mStart;
+        counter.mStep = mStep;
+        counter.mUnscaledValue = mUnscaledValue + index * mUnscaledStep;
+        counter.mUnscaledStep = mUnscaledStep;
+        counter.mScale = mScale;
+
+        return counter;
+    }
+
+    /**
+     * @return the counter value, as a BigDecimal.
+     */
+    BigDecimal toBigDecimal() {
+        return mDoubleMode ? BigDecimal.valueOf(doubleValue()) : BigDecimal.valueOf(mUnscaledValue, mScale);
+    }
+
+    @Override
+    public double doubleValue() {
+        if (!mDoubleMode)
+            return toBigDecimal().doubleValue();
+
+        return mScaled ? mUnscaledValue / POWERS_OF_10[mScale] : mStart + mIndex * mStep;
+    }
+
+    @Override
+    public float floatValue() {
+        return (float)doubleValue();
+    }
+
+    @Override
+    public long longValue() {
+        return mDoubleMode ? (long)doubleValue() : toBigDecimal().longValue();
+    }
+
+    @Override
+    public int intValue() {
+        return (int)longValue();
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.gfabre.android.o3;
+
+import java.util.HashMap;
+
+/**
+ * The java Math functions the engine calls directly, on doubles, instead of looking them
+ * up and invoking them through reflection (see Calculator.doJavaMathCall). Overloaded
+ * functions (abs, max, min..) are the double ones.
+ *
+ * The intrinsics are identified by their index in the table, which compiled scripts
+ * refer to : CompiledScript.FORMAT_VERSION must be bumped whenever the table changes.
+ */
+class MathIntrinsics {
+    static final int NONE = -1;
+
+    // name and arity of each intrinsic, the index is the intrinsic id
+    private static final String[] NAMES = {
+            "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+            "exp", "expm1", "log", "log10", "log1p", "sqrt", "cbrt", "ceil", "floor",
+            "rint", "round", "abs", "signum", "toRadians", "toDegrees", "ulp",
+            "atan2", "pow", "hypot", "IEEEremainder", "max", "min", "copySign", "random"
+    };
+    private static final int[] ARITIES = {
+            1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 0
+    };
+
+    private static final int SIN = 0;
+    private static final int COS = 1;
+    private static final int TAN = 2;
+    private static final int ASIN = 3;
+    private static final int ACOS = 4;
+    private static final int ATAN = 5;
+    private static final int SINH = 6;
+    private static final int COSH = 7;
+    private static final int TANH = 8;
+    private static final int EXP = 9;
+    private static final int EXPM1 = 10;
+    private static final int LOG = 11;
+    private static final int LOG10 = 12;
+    private static final int LOG1P = 13;
+    private static final int SQRT = 14;
+    private static final int CBRT = 15;
+    private static final int CEIL = 16;
+    private static final int FLOOR = 17;
+    private static final int RINT = 18;
+    private static final int ROUND = 19;
+    private static final int ABS = 20;
+    private static final int SIGNUM = 21;
+    private static final int TO_RADIANS = 22;
+    private static final int TO_DEGREES = 23;
+    private static final int ULP = 24;
+    private static final int ATAN2 = 25;
+    private static final int POW = 26;
+    private static final int HYPOT = 27;
+    private static final int IEEE_REMAINDER = 28;
+    private static final int MAX = 29;
+    private static final int MIN = 30;
+    private static final int COPY_SIGN = 31;
+    private static final int RANDOM = 32;
+
+    private static final HashMap<String, Integer> mIntrinsics = new HashMap<>();
+    static {
+        for (int i = 0; i < NAMES.length; i++)
+            mIntrinsics.put(NAMES[i], i);
+    }
+
+    /**
+     * @param function is a java Math function name
+     * @return the function intrinsic id, NONE if it must be called through reflection.
+     */
+    static int lookup(String function) {
+        Integer intrinsic = mIntrinsics.get(function);
+        return intrinsic == null ? NONE : intrinsic;
+    }
+
+    static String getName(int intrinsic) {
+        return NAMES[intrinsic];
+    }
+
+    /**
+     * @param intrinsic is an intrinsic id
+     * @return the number of arguments the intrinsic pops from the stack.
+     */
+    static int getArity(int intrinsic) {
+        return ARITIES[intrinsic];
+    }
+
+    /**
+     * @param intrinsic is an intrinsic id
+     * @return true if the java function returns an integral (long) value.
+     */
+    static boolean isIntegral(int intrinsic) {
+        return intrinsic == ROUND;
+    }
+
+    /**
+     * Computes the given intrinsic.
+     *
+     * @param intrinsic is the intrinsic id
+     * @param x is the first argument, if any
+     * @param y is the second argument, if any
+     * @return the function result.
+     */
+    static double call(int intrinsic, double x, double y) {
+        switch (intrinsic) {
+            case SIN:
+                return Math.sin(x);
+            case COS:
+                return Math.cos(x);
+            case TAN:
+                return Math.tan(x);
+            case ASIN:
+                return Math.asin(x);
+            case ACOS:
+                return Math.acos(x);
+            case ATAN:
+                return Math.atan(x);
+            case SINH:
+                return Math.sinh(x);
+            case COSH:
+                return Math.cosh(x);
+            case TANH:
+                return Math.tanh(x);
+            case EXP:
+                return Math.exp(x);
+            case EXPM1:
+                return Math.expm1(x);
+            case LOG:
+                return Math.log(x);
+            case LOG10:
+                return Math.log10(x);
+            case LOG1P:
+                return Math.log1p(x);
+            case SQRT:
+                return Math.sqrt(x);
+            case CBRT:
+                return Math.cbrt(x);
+            case CEIL:
+                return Math.ceil(x);
+            case FLOOR:
+                return Math.floor(x);
+            case RINT:
+                return Math.rint(x);
+            case ROUND:
+                return Math.round(x);
+            case ABS:
+                return Math.abs(x);
+            case SIGNUM:
+                return Math.signum(x);
+            case TO_RADIANS:
+                return Math.toRadians(x);
+            case TO_DEGREES:
+                return Math.toDegrees(x);
+            case ULP:
+                return Math.ulp(x);
+            case ATAN2:
+                return Math.atan2(x, y);
+            case POW:
+                return Math.pow(x, y);
+            case HYPOT:
+                return Math.hypot(x, y);
+            case IEEE_REMAINDER:
+                return Math.IEEEremainder(x, y);
+            case MAX:
+                return Math.max(x, y);
+            case MIN:
+                return Math.min(x, y);
+            case COPY_SIGN:
+                return Math.copySign(x, y);
+            case RANDOM:
+                return Math.random();
+        }
+
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,122 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of a memoized function ("fundef memo arity name"), keyed by the values of
+ * its arguments : the arity top values of the stack upon call. The results are the values
+ * which replace the arguments on the stack once the function returns, recalled instead of
+ * calling the function again with the same arguments. The function must be pure : its
+ * other effects (variables, drawings..) are not replayed.
+ *
+ * The table is bounded, the least recently used results being evicted first, and only
+ * holds results of the mode (double or BigDecimal) it was last used in. It is shared by
+ * the scripts running the function, whatever their thread.
+ */
+class MemoTable {
+    private static final int MAX_RESULTS = 4096;
+
+    private final int   mArity;
+    private boolean     mDoubleMode = false;
+    private long        mHits = 0;
+    private long        mMisses = 0;
+    private long        mEvictions = 0;
+
+    private final LinkedHashMap<Object, Number[]> mResults = new LinkedHashMap<Object, Number[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Number[]> eldest) {
+            if (size() <= MAX_RESULTS)
+                return false;
+
+            ++mEvictions;
+            return true;
+        }
+    };
+
+    /**
+     * @param arity is the number of arguments of the function
+     */
+    MemoTable(int arity) {
+        mArity = arity;
+    }
+
+    int getArity() {
+        return mArity;
+    }
+
+    /**
+     * @param calculator holds the arguments, on top of its stack
+     * @return the key of the arguments, null if the stack holds less values than the arity.
+     */
+    synchronized Object key(Calculator calculator) {
+        if (calculator.isDoubleMode() != mDoubleMode) {
+            mResults.clear();
+            mDoubleMode = calculator.isDoubleMode();
+        }
+
+        Number[] arguments = calculator.doPeekNumbersFromStack(mArity);
+        if (arguments == null)
+            return null;
+
+        // equal values must give equal keys : 2.0 is 2, -0.0 is 0.0
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = arguments[i] instanceof BigDecimal ?
+                    ((BigDecimal)arguments[i]).stripTrailingZeros() : arguments[i].doubleValue() + 0.0;
+
+        return arguments.length == 1 ? arguments[0] : Arrays.asList(arguments);
+    }
+
+    /**
+     * Replaces the arguments on the calculator stack with the results of a previous call,
+     * if any.
+     *
+     * @param calculator holds the arguments, on top of its stack
+     * @param key is the arguments key
+     * @return true if recalled, the function must be called else.
+     */
+    synchronized boolean recall(Calculator calculator, Object key) {
+        Number[] results = mResults.get(key);
+        if (results == null) {
+            ++mMisses;
+            return false;
+        }
+
+        ++mHits;
+        calculator.doDropFromStack(mArity);
+        for (Number result : results)
+            calculator.doPushNumberOnStack(result);
+
+        return true;
+    }
+
+    /**
+     * Records the results of a call, left by the function on the calculator stack in place
+     * of its arguments.
+     *
+     * @param calculator holds the results, on top of its stack
+     * @param key is the arguments key
+     * @param base is the stack size upon call, arguments excluded
+     */
+    synchronized void record(Calculator calculator, Object key, int base) {
+        int count = calculator.getStackSize() - base;
+        if (count < 0)
+            return;     // values under the arguments were consumed, can't be replayed
+
+        mResults.put(key, calculator.doPeekNumbersFromStack(count));
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized long getEvictions() {
+        return mEvictions;
+    }
+}
@@ -0,0 +1,158 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The calculator values stack : a growable array, not synchronized since a single thread
+ * modifies it at a time. While a script runs, it is its engine thread, and the user actions
+ * changing the stack are refused (see CalculatorActivity.rejectWhileScriptRuns). Else it
+ * is the UI thread. Other threads only get to see snapshots of it, published by the
+ * Calculator.
+ *
+ * The array capacity follows the high water mark of the stack : it grows (doubles) when
+ * full and is then kept, so that scripts pushing and popping values don't reallocate it.
+ */
+class OperandStack {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private BigDecimal[] mValues = new BigDecimal[INITIAL_CAPACITY];
+    private int          mSize = 0;
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void push(BigDecimal value) {
+        if (mSize == mValues.length)
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        mValues[mSize++] = value;
+    }
+
+    /**
+     * @return the popped value, the stack must not be empty.
+     */
+    BigDecimal pop() {
+        BigDecimal value = mValues[--mSize];
+        mValues[mSize] = null;
+        return value;
+    }
+
+    /**
+     * @return the top value, the stack must not be empty.
+     */
+    BigDecimal peek() {
+        return mValues[mSize - 1];
+    }
+
+    /**
+     * @param index is the position of the value, from the bottom of the stack
+     * @return the value at the given position.
+     */
+    BigDecimal get(int index) {
+        return mValues[index];
+    }
+
+    void set(int index, BigDecimal value) {
+        mValues[index] = value;
+    }
+
+    /**
+     * Empties the stack, its capacity is kept.
+     */
+    void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Pushes copies of the top value.
+     *
+     * @param n is the number of copies, the stack must not be empty
+     */
+    void dupN(int n) {
+        if (n <= 0)
+            return;
+
+        if (mSize + n > mValues.length)
+            mValues = Arrays.copyOf(mValues, Math.max(mValues.length * 2, mSize + n));
+        Arrays.fill(mValues, mSize, mSize + n, mValues[mSize - 1]);
+        mSize += n;
+    }
+
+    /**
+     * Drops the given number of values.
+     *
+     * @param n is the number of values to drop, at most the stack size
+     */
+    void dropN(int n) {
+        if (n <= 0)
+            return;
+
+        Arrays.fill(mValues, mSize - n, mSize, null);
+        mSize -= n;
+    }
+
+    /**
+     * Pushes the given values.
+     *
+     * @param values are the values to push, the first one goes deepest
+     */
+    void pushAll(BigDecimal[] values) {
+        if (mSize + values.length > mValues.length)
+            mValues = Arrays.copyOf(mValues, Math.max(mValues.length * 2, mSize + values.length));
+        System.arraycopy(values, 0, mValues, mSize, values.length);
+        mSize += values.length;
+    }
+
+    /**
+     * Pops the given number of values.
+     *
+     * @param n is the number of values to pop, at most the stack size
+     * @return the popped values, from the deepest one.
+     */
+    BigDecimal[] popAll(int n) {
+        BigDecimal[] values = Arrays.copyOfRange(mValues, mSize - n, mSize);
+        dropN(n);
+        return values;
+    }
+
+    /**
+     * Moves the top value the given number of positions down the stack, the values in
+     * between move up.
+     *
+     * @param n is the number of positions, lower than the stack size
+     */
+    void rollN(int n) {
+        if (n <= 0)
+            return;
+
+        int top = mSize - 1;
+        BigDecimal value = mValues[top];
+        System.arraycopy(mValues, top - n, mValues, top - n + 1, n);
+        mValues[top - n] = value;
+    }
+
+    /**
+     * Swaps the values at the given positions.
+     *
+     * @param i is a position, from the bottom of the stack
+     * @param j is another position, from the bottom of the stack
+     */
+    void swap(int i, int j) {
+        BigDecimal value = mValues[i];
+        mValues[i] = mValues[j];
+        mValues[j] = value;
+    }
+
+    /**
+     * @return a copy of the stack values, from the bottom of the stack.
+     */
+    BigDecimal[] snapshot() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+}
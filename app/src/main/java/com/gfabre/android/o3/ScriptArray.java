@@ -0,0 +1,686 @@
+package com.gfabre.android.o3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A script array : values set at any (positive) index, the others being unset (read as 0).
+ *
+ * The values are kept in a primitive array, grown geometrically to the highest index set :
+ * BigDecimals, null when unset, or doubles in double mode, along with a bitmap of the set
+ * values, so that the double mode accesses neither box nor allocate. Reading past the end
+ * doesn't grow the array.
+ *
+ * Arrays whose set values are scattered over a large index range (a[10000000] alone..)
+ * switch to a sparse storage instead : an open addressing table of the set indexes and
+ * values, which memory is proportional to the number of set values. They switch back to
+ * the dense storage once filled enough.
+ *
+ * Arrays can be saved to binary files of doubles (see save), then loaded back by mapping the
+ * file (see load) : the dense arrays values are read from the mapped file until modified,
+ * and only then copied.
+ */
+class ScriptArray {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int SPARSE_MIN_CAPACITY = 1024;   // smaller arrays are always dense
+    private static final int SPARSE_FILL_RATIO = 8;        // sparse if less than 1/8 of the dense entries would be set
+    private static final int DENSE_FILL_RATIO = 2;         // back to dense once 1/2 of the entries are set
+    private static final int EMPTY = -1;                   // unused sparse table entry
+
+    // array files : a header (magic, version, layout, count, size), then the values bitmap and
+    // the doubles (dense layout), or the sorted indexes and their doubles (sparse layout)
+    private static final int MAGIC = 0x4F334152;
+    private static final int FILE_VERSION = 1;
+    private static final int DENSE_LAYOUT = 0;
+    private static final int SPARSE_LAYOUT = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private boolean       mDoubleMode;
+    private long          mSize = 0;    // highest set index + 1
+    private int           mCount = 0;   // set values
+
+    // dense storage, null when sparse
+    private BigDecimal[]  mValues;
+    private double[]      mDoubles;
+    private long[]        mPresent;     // set doubles, one bit per index
+
+    // sparse storage, null when dense : the set indexes (EMPTY else) and their values
+    private int[]         mKeys;
+    private BigDecimal[]  mSparseValues;
+    private double[]      mSparseDoubles;
+
+    // mapped dense storage, null unless loaded and not modified since
+    private DoubleBuffer  mMapped;
+    private LongBuffer    mMappedPresent;
+
+    /**
+     * @param doubleMode is true if the values are doubles (else BigDecimals)
+     */
+    ScriptArray(boolean doubleMode) {
+        mDoubleMode = doubleMode;
+        if (doubleMode) {
+            mDoubles = new double[INITIAL_CAPACITY];
+            mPresent = new long[1];
+        } else
+            mValues = new BigDecimal[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return the highest set index + 1.
+     */
+    long size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of set values.
+     */
+    int count() {
+        return mCount;
+    }
+
+    /**
+     * @return true if the values are kept in a sparse table.
+     */
+    boolean isSparse() {
+        return mKeys != null;
+    }
+
+    /**
+     * @param index is an array index
+     * @return true if a value was set at the given index.
+     */
+    boolean isSet(int index) {
+        if (index < 0 || index >= mSize)
+            return false;
+
+        if (mKeys != null)
+            return mKeys[find(index)] != EMPTY;
+        if (mMapped != null)
+            return (mMappedPresent.get(index >>> 6) & (1L << index)) != 0;
+
+        return isDenseSet(index);
+    }
+
+    /**
+     * @return the set indexes, in ascending order.
+     */
+    int[] getIndexes() {
+        int[] indexes = new int[mCount];
+        int count = 0;
+        if (mKeys != null) {
+            for (int key : mKeys)
+                if (key != EMPTY)
+                    indexes[count++] = key;
+            Arrays.sort(indexes);
+        } else {
+            for (int index = 0; index < mSize; index++)
+                if (mMapped != null ? isSet(index) : isDenseSet(index))
+                    indexes[count++] = index;
+        }
+
+        return indexes;
+    }
+
+    /**
+     * @return the dense double mode storage, the unset values being 0, null if sparse or in
+     * BigDecimal mode : for the bulk operations to read (see VectorOperation).
+     */
+    double[] getDoubles() {
+        if (mMapped != null && mDoubleMode)
+            unmap();
+
+        return mDoubleMode ? mDoubles : null;
+    }
+
+    /**
+     * @return the set values bitmap of the dense double mode storage, one bit per index.
+     */
+    long[] getPresent() {
+        if (mMapped != null && mDoubleMode)
+            unmap();
+
+        return mDoubleMode ? mPresent : null;
+    }
+
+    /**
+     * Replaces the array values with the given dense double storage.
+     *
+     * @param doubles are the values, 0 where unset
+     * @param present are the set values, one bit per index
+     */
+    void setDoubles(double[] doubles, long[] present) {
+        int last = present.length - 1;
+        while (last >= 0 && present[last] == 0)
+            --last;
+
+        int count = 0;
+        for (int i = 0; i <= last; i++)
+            count += Long.bitCount(present[i]);
+
+        mDoubleMode = true;
+        mDoubles = doubles;
+        mPresent = present;
+        mValues = null;
+        mKeys = null;
+        mSparseValues = null;
+        mSparseDoubles = null;
+        mMapped = null;
+        mMappedPresent = null;
+        mSize = last < 0 ? 0 : last * 64L + 64 - Long.numberOfLeadingZeros(present[last]);
+        mCount = count;
+    }
+
+    /**
+     * Replaces the array values with the given array ones, which storage is taken over.
+     *
+     * @param array is the array to take the values of
+     */
+    void assign(ScriptArray array) {
+        mDoubleMode = array.mDoubleMode;
+        mSize = array.mSize;
+        mCount = array.mCount;
+        mValues = array.mValues;
+        mDoubles = array.mDoubles;
+        mPresent = array.mPresent;
+        mKeys = array.mKeys;
+        mSparseValues = array.mSparseValues;
+        mSparseDoubles = array.mSparseDoubles;
+        mMapped = array.mMapped;
+        mMappedPresent = array.mMappedPresent;
+    }
+
+    /**
+     * @return a copy of the array.
+     */
+    ScriptArray copy() {
+        ScriptArray copy = new ScriptArray(mDoubleMode);
+        copy.assign(this);
+        copy.mValues = mValues == null ? null : mValues.clone();
+        copy.mDoubles = mDoubles == null ? null : mDoubles.clone();
+        copy.mPresent = mPresent == null ? null : mPresent.clone();
+        copy.mKeys = mKeys == null ? null : mKeys.clone();
+        copy.mSparseValues = mSparseValues == null ? null : mSparseValues.clone();
+        copy.mSparseDoubles = mSparseDoubles == null ? null : mSparseDoubles.clone();
+
+        return copy;
+    }
+
+    /**
+     * @param index is an array index
+     * @return the value at the given index, 0 if unset.
+     */
+    BigDecimal get(int index) {
+        if (mDoubleMode)
+            return isSet(index) ? Calculator.toBigDecimal(getDouble(index)) : BigDecimal.valueOf(0);
+
+        if (mMapped != null)
+            return isSet(index) ? Calculator.toBigDecimal(mMapped.get(index)) : BigDecimal.valueOf(0);
+
+        BigDecimal value = null;
+        if (index >= 0 && index < mSize)
+            value = mKeys != null ? mSparseValues[find(index)] : mValues[index];
+
+        return value == null ? BigDecimal.valueOf(0) : value;
+    }
+
+    // double counterpart
+    double getDouble(int index) {
+        if (mMapped != null)
+            return isSet(index) ? mMapped.get(index) : 0.0;
+        if (!mDoubleMode)
+            return isSet(index) ? get(index).doubleValue() : 0.0;
+
+        if (mKeys != null)
+            return index >= 0 && index < mSize ? mSparseDoubles[find(index)] : 0.0;
+
+        return isSet(index) ? mDoubles[index] : 0.0;
+    }
+
+    /**
+     * Sets the value at the given index, the array grows up to it if needed.
+     *
+     * @param index is an array index
+     * @param value is the value to set
+     */
+    void set(int index, BigDecimal value) {
+        if (mDoubleMode) {
+            set(index, value.doubleValue());
+            return;
+        }
+
+        int slot = reserve(index) ? -1 : insert(index);
+        if (slot < 0)
+            mValues[index] = value;
+        else
+            mSparseValues[slot] = value;
+    }
+
+    // double counterpart
+    void set(int index, double value) {
+        if (!mDoubleMode) {
+            set(index, Calculator.toBigDecimal(value));
+            return;
+        }
+
+        int slot = reserve(index) ? -1 : insert(index);
+        if (slot < 0) {
+            mDoubles[index] = value;
+            mPresent[index >>> 6] |= 1L << index;
+        } else
+            mSparseDoubles[slot] = value;
+    }
+
+    /**
+     * Reads the values of a range of indexes.
+     *
+     * @param from is the first index of the range
+     * @param values gets the values, 0 for the unset ones
+     * @param offset is the position of the first value in values
+     * @param count is the number of values
+     */
+    void getRange(int from, double[] values, int offset, int count) {
+        // no value past the size
+        int set = (int)Math.max(0, Math.min(count, mSize - from));
+        if (mDoubleMode && mKeys == null && mMapped == null) {
+            // the unset dense doubles are kept at 0
+            if (set > 0)
+                System.arraycopy(mDoubles, from, values, offset, set);
+        } else {
+            for (int i = 0; i < set; i++)
+                values[offset + i] = getDouble(from + i);
+        }
+        Arrays.fill(values, offset + set, offset + count, 0.0);
+    }
+
+    // BigDecimal counterpart
+    void getRange(int from, BigDecimal[] values, int offset, int count) {
+        for (int i = 0; i < count; i++)
+            values[offset + i] = get(from + i);
+    }
+
+    /**
+     * Sets the values of a range of indexes, the array grows up to it if needed.
+     *
+     * @param from is the first index of the range
+     * @param values holds the values
+     * @param offset is the position of the first value in values
+     * @param count is the number of values
+     */
+    void setRange(int from, double[] values, int offset, int count) {
+        int last = from + count - 1;
+        if (count == 0)
+            return;
+        if (!mDoubleMode || !reserve(last, count)) {
+            for (int i = 0; i < count; i++)
+                set(from + i, values[offset + i]);
+            return;
+        }
+
+        // the last value was counted by reserve
+        System.arraycopy(values, offset, mDoubles, from, count);
+        mPresent[last >>> 6] |= 1L << last;
+        for (int word = from >>> 6; word <= last >>> 6; word++) {
+            long mask = -1L;
+            if (word == from >>> 6)
+                mask &= -1L << from;
+            if (word == last >>> 6)
+                mask &= -1L >>> (63 - (last & 63));
+            mCount += Long.bitCount(mask & ~mPresent[word]);
+            mPresent[word] |= mask;
+        }
+    }
+
+    // BigDecimal counterpart
+    void setRange(int from, BigDecimal[] values, int offset, int count) {
+        int last = from + count - 1;
+        if (count == 0)
+            return;
+        if (mDoubleMode || !reserve(last, count)) {
+            for (int i = 0; i < count; i++)
+                set(from + i, values[offset + i]);
+            return;
+        }
+
+        // the last value was counted by reserve
+        for (int index = from; index < last; index++)
+            if (mValues[index] == null)
+                ++mCount;
+        System.arraycopy(values, offset, mValues, from, count);
+    }
+
+    private boolean reserve(int index) {
+        return reserve(index, 1);
+    }
+
+    /**
+     * Makes room for values up to the given index : grows the dense storage up to it, doubling
+     * its capacity at least, unless few of its entries would be set, the array then switches
+     * to the sparse storage.
+     *
+     * @param index is the (last) index to set
+     * @param values is the number of values about to be set, up to the index
+     * @return true if the values go to the dense storage, false if to the sparse one.
+     */
+    private boolean reserve(int index, int values) {
+        if (index < 0)
+            throw new ArrayIndexOutOfBoundsException(index);
+
+        if (mMapped != null)
+            unmap();
+        if (mKeys != null)
+            return false;
+
+        boolean set = isSet(index);
+        int capacity = mDoubleMode ? mDoubles.length : mValues.length;
+        if (index >= capacity) {
+            long newCapacity = Math.max(index + 1L, capacity * 2L);
+            if (newCapacity > SPARSE_MIN_CAPACITY && ((long)mCount + values) * SPARSE_FILL_RATIO < newCapacity) {
+                toSparse();
+                return false;
+            }
+
+            capacity = (int)Math.min(newCapacity, Integer.MAX_VALUE);
+            if (mDoubleMode) {
+                mDoubles = Arrays.copyOf(mDoubles, capacity);
+                mPresent = Arrays.copyOf(mPresent, (int)((capacity + 63L) >>> 6));
+            } else
+                mValues = Arrays.copyOf(mValues, capacity);
+        }
+
+        if (index >= mSize)
+            mSize = index + 1L;
+        if (!set)
+            ++mCount;
+
+        return true;
+    }
+
+    /**
+     * Gets the sparse table entry of the given index, adding it if missing : the table grows
+     * when half full, and the array switches back to the dense storage when filled enough.
+     *
+     * @param index is the index to set
+     * @return the table entry of the index, -1 if the array switched to the dense storage.
+     */
+    private int insert(int index) {
+        int slot = find(index);
+        if (mKeys[slot] == index)
+            return slot;
+
+        if (index >= mSize)
+            mSize = index + 1L;
+
+        if ((mCount + 1L) * DENSE_FILL_RATIO >= mSize) {
+            toDense();
+            reserve(index);
+            return -1;
+        }
+
+        if ((mCount + 1) * 2 > mKeys.length) {
+            resize(mKeys.length * 2);
+            slot = find(index);
+        }
+
+        mKeys[slot] = index;
+        ++mCount;
+
+        return slot;
+    }
+
+    /**
+     * @param index is an array index
+     * @return the sparse table entry of the given index, or the empty entry where it goes.
+     */
+    private int find(int index) {
+        int mask = mKeys.length - 1;
+        int hash = index * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (mKeys[slot] != index && mKeys[slot] != EMPTY)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    /**
+     * Rehashes the sparse table into a new one.
+     *
+     * @param capacity is the new table capacity, a power of 2
+     */
+    private void resize(int capacity) {
+        int[] keys = mKeys;
+        BigDecimal[] values = mSparseValues;
+        double[] doubles = mSparseDoubles;
+
+        mKeys = new int[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        if (mDoubleMode)
+            mSparseDoubles = new double[capacity];
+        else
+            mSparseValues = new BigDecimal[capacity];
+
+        if (keys == null)
+            return;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY)
+                continue;
+
+            int slot = find(keys[i]);
+            mKeys[slot] = keys[i];
+            if (mDoubleMode)
+                mSparseDoubles[slot] = doubles[i];
+            else
+                mSparseValues[slot] = values[i];
+        }
+    }
+
+    /**
+     * Moves the set values from the dense storage to a sparse table.
+     */
+    private void toSparse() {
+        int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, mCount + 1) * 4 - 1);
+        resize(capacity);
+        for (int index = 0; index < mSize; index++) {
+            if (!isDenseSet(index))
+                continue;
+
+            int slot = find(index);
+            mKeys[slot] = index;
+            if (mDoubleMode)
+                mSparseDoubles[slot] = mDoubles[index];
+            else
+                mSparseValues[slot] = mValues[index];
+        }
+
+        mValues = null;
+        mDoubles = null;
+        mPresent = null;
+    }
+
+    /**
+     * Moves the set values from the sparse table to the dense storage.
+     */
+    private void toDense() {
+        int capacity = (int)Math.max(INITIAL_CAPACITY, mSize);
+        if (mDoubleMode) {
+            mDoubles = new double[capacity];
+            mPresent = new long[(int)((capacity + 63L) >>> 6)];
+        } else
+            mValues = new BigDecimal[capacity];
+
+        for (int i = 0; i < mKeys.length; i++) {
+            int index = mKeys[i];
+            if (index == EMPTY)
+                continue;
+
+            if (mDoubleMode) {
+                mDoubles[index] = mSparseDoubles[i];
+                mPresent[index >>> 6] |= 1L << index;
+            } else
+                mValues[index] = mSparseValues[i];
+        }
+
+        mKeys = null;
+        mSparseValues = null;
+        mSparseDoubles = null;
+    }
+
+    /**
+     * Copies the mapped values to the dense storage, so that they can be modified.
+     */
+    private void unmap() {
+        int capacity = (int)Math.max(INITIAL_CAPACITY, mSize);
+        if (mDoubleMode) {
+            mPresent = new long[(int)((capacity + 63L) >>> 6)];
+            mMappedPresent.duplicate().get(mPresent, 0, (int)((mSize + 63) >>> 6));
+            mDoubles = new double[capacity];
+            mMapped.duplicate().get(mDoubles, 0, (int)mSize);
+        } else {
+            mValues = new BigDecimal[capacity];
+            for (int index = 0; index < mSize; index++)
+                if (isSet(index))
+                    mValues[index] = Calculator.toBigDecimal(mMapped.get(index));
+        }
+
+        mMapped = null;
+        mMappedPresent = null;
+    }
+
+    /**
+     * Saves the array values, as doubles, to the given file. The file is written aside then
+     * renamed, so that the arrays mapping it still read the previous values.
+     *
+     * @param file is the file to (over)write
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+        boolean sparse = mKeys != null;
+        int size = (int)mSize;
+        int words = (size + 63) >>> 6;
+        int[] indexes = sparse ? getIndexes() : null;
+        long length = sparse ? HEADER_SIZE + ((mCount * 4L + 7) & ~7L) + mCount * 8L : HEADER_SIZE + words * 8L + size * 8L;
+        if (length > Integer.MAX_VALUE)
+            throw new IOException(file.getPath());
+
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        try (RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+            out.setLength(length);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(FILE_VERSION).putInt(sparse ? SPARSE_LAYOUT : DENSE_LAYOUT).putInt(mCount).putLong(mSize);
+
+            if (sparse) {
+                slice(buffer, HEADER_SIZE).asIntBuffer().put(indexes);
+                DoubleBuffer values = slice(buffer, length - mCount * 8L).asDoubleBuffer();
+                for (int i = 0; i < indexes.length; i++)
+                    values.put(i, getDouble(indexes[i]));
+            } else {
+                LongBuffer present = slice(buffer, HEADER_SIZE).asLongBuffer();
+                DoubleBuffer values = slice(buffer, HEADER_SIZE + words * 8L).asDoubleBuffer();
+                if (mMapped != null) {
+                    for (int word = 0; word < words; word++)
+                        present.put(word, mMappedPresent.get(word));
+                    values.put(mMapped.duplicate());
+                } else if (mDoubleMode) {
+                    present.put(mPresent, 0, words);
+                    values.put(mDoubles, 0, size);
+                } else {
+                    for (int index = 0; index < size; index++) {
+                        if (mValues[index] == null)
+                            continue;
+                        present.put(index >>> 6, present.get(index >>> 6) | (1L << index));
+                        values.put(index, mValues[index].doubleValue());
+                    }
+                }
+            }
+            buffer.force();
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException(file.getPath());
+        }
+    }
+
+    /**
+     * Loads an array saved to the given file : the dense arrays are mapped, the sparse ones
+     * read.
+     *
+     * @param file is the file to read
+     * @param doubleMode is true if the values are doubles (else BigDecimals)
+     * @return the loaded array.
+     * @throws IOException
+     */
+    static ScriptArray load(File file, boolean doubleMode) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+                throw new IOException(file.getPath());
+
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int layout = buffer.getInt(8);
+            int count = buffer.getInt(12);
+            long size = buffer.getLong(16);
+            int words = (int)((size + 63) >>> 6);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FILE_VERSION ||
+                (layout != DENSE_LAYOUT && layout != SPARSE_LAYOUT) || count < 0 || count > size ||
+                size > Integer.MAX_VALUE ||
+                length != (layout == SPARSE_LAYOUT ? HEADER_SIZE + ((count * 4L + 7) & ~7L) + count * 8L : HEADER_SIZE + words * 8L + size * 8L))
+                throw new IOException(file.getPath());
+
+            ScriptArray array = new ScriptArray(doubleMode);
+            if (layout == SPARSE_LAYOUT) {
+                IntBuffer indexes = slice(buffer, HEADER_SIZE).asIntBuffer();
+                DoubleBuffer values = slice(buffer, length - count * 8L).asDoubleBuffer();
+                for (int i = 0; i < count; i++) {
+                    // strictly increasing indexes, below the size
+                    int index = indexes.get(i);
+                    if (index < (i == 0 ? 0 : indexes.get(i - 1) + 1) || index >= size)
+                        throw new IOException(file.getPath());
+                    array.set(index, values.get(i));
+                }
+                return array;
+            }
+
+            array.mMappedPresent = slice(buffer, HEADER_SIZE).asLongBuffer();
+            if (size % 64 != 0 && array.mMappedPresent.get(words - 1) >>> (size % 64) != 0)
+                throw new IOException(file.getPath());
+            array.mMapped = slice(buffer, HEADER_SIZE + words * 8L).asDoubleBuffer();
+            array.mValues = null;
+            array.mDoubles = null;
+            array.mPresent = null;
+            array.mSize = size;
+            array.mCount = 0;
+            for (int i = 0; i < words; i++)
+                array.mCount += Long.bitCount(array.mMappedPresent.get(i));
+
+            return array;
+        }
+    }
+
+    /**
+     * @return a little endian view of the given buffer, from the given offset.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, long offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int)offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private boolean isDenseSet(int index) {
+        return mDoubleMode ? (mPresent[index >>> 6] & (1L << index)) != 0 : mValues[index] != null;
+    }
+}
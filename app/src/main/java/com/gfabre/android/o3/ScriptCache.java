@@ -0,0 +1,516 @@
+package com.gfabre.android.o3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled scripts, keyed by a hash of the script text, so that a script which
+ * is run again (init script, run_script target, function button..) skips compilation.
+ *
+ * The compiled programs are kept in a memory LRU, and self-contained programs compiled
+ * from script files are also saved to disk, so they can be reloaded on cold start. The
+ * script files content is cached as well, and only read again when the file modification
+ * time or size changed.
+ *
+ * The converted infixed expressions are kept in another LRU, keyed by the expression
+ * text, for both the interpreted and compiled scripts.
+ */
+class ScriptCache {
+    private static final int    MAX_PROGRAMS = 32;       // memory cache size
+    private static final int    MAX_SCRIPT_FILES = 32;
+    private static final int    MAX_INFIXED = 256;
+    private static final int    MAX_DISK_PROGRAMS = 64;  // disk cache size
+    private static final int    MAGIC = 0x4F33_4350;     // "O3CP"
+    private static final String DISK_SUFFIX = ".o3c";
+
+    // constants tags in the disk form
+    private static final int BIG_DECIMAL_CONSTANT = 0;
+    private static final int STRING_CONSTANT = 1;
+    private static final int IDENTIFIER_CONSTANT = 2;
+    private static final int FUNCTION_CALL_CONSTANT = 3;
+    private static final int PARALLEL_FOR_CONSTANT = 4;
+    private static final int VECTOR_OPERATION_CONSTANT = 5;
+
+    /**
+     * A compiled program, along with what running it implies : its variable scopes and the
+     * functions it defines (at compile time).
+     */
+    static class Program {
+        final String                                    mKey;
+        CompiledScript                                  mCode;
+        final ArrayList<ScriptEngine>                   mScopes = new ArrayList<>();         // [0] is the program root scope
+        final LinkedHashMap<String, String>             mFunctionBlocks = new LinkedHashMap<>();
+        final LinkedHashMap<String, CompiledScript>     mFunctionCodes = new LinkedHashMap<>();
+        final ArrayList<CompiledScript>                 mDefinedCodes = new ArrayList<>();   // all the versions defined
+        final HashMap<String, CompiledScript>           mLinkedFunctions = new HashMap<>();  // defined by other programs
+        private int                                     mRunning = 0;
+
+        Program(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Records a function definition.
+         *
+         * @param function is the function name
+         * @param block is the function script block
+         * @param code is the function compiled code
+         */
+        void defineFunction(String function, String block, CompiledScript code) {
+            mFunctionBlocks.put(function, block);
+            mFunctionCodes.put(function, code);
+            mDefinedCodes.add(code);
+        }
+
+        /**
+         * Records a call bound to (or inlining) a function, the program is only valid as long
+         * as the function isn't redefined, unless it's one of its own.
+         *
+         * @param function is the function name
+         * @param code is the called function code
+         */
+        void linkFunction(String function, CompiledScript code) {
+            if (!mDefinedCodes.contains(code))
+                mLinkedFunctions.put(function, code);
+        }
+
+        /**
+         * Marks the program running, its variable scopes can't be shared by another run.
+         *
+         * @return false if the program is already running.
+         */
+        synchronized boolean acquire() {
+            if (mRunning != 0)
+                return false;
+
+            ++mRunning;
+            return true;
+        }
+
+        /**
+         * Marks the program done running.
+         */
+        synchronized void release() {
+            --mRunning;
+        }
+
+        /**
+         * @param compiledFunctions are the currently compiled functions
+         * @return true if the linked functions still are the compiled ones.
+         */
+        boolean isValid(Map<String, CompiledScript> compiledFunctions) {
+            for (Map.Entry<String, CompiledScript> pair : mLinkedFunctions.entrySet())
+                if (compiledFunctions.get(pair.getKey()) != pair.getValue())
+                    return false;
+
+            return true;
+        }
+    }
+
+    // the script file content, valid as long as the file doesn't change
+    private static class ScriptFile {
+        final long   mLastModified;
+        final long   mLength;
+        final String mScript;
+
+        ScriptFile(long lastModified, long length, String script) {
+            mLastModified = lastModified;
+            mLength = length;
+            mScript = script;
+        }
+    }
+
+    private static final LinkedHashMap<String, Program> mPrograms = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+            return size() > MAX_PROGRAMS;
+        }
+    };
+
+    private static final LinkedHashMap<String, ScriptFile> mScriptFiles = new LinkedHashMap<String, ScriptFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScriptFile> eldest) {
+            return size() > MAX_SCRIPT_FILES;
+        }
+    };
+
+    private static final LinkedHashMap<String, InfixExpression> mInfixed = new LinkedHashMap<String, InfixExpression>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, InfixExpression> eldest) {
+            return size() > MAX_INFIXED;
+        }
+    };
+
+    private static long mInfixedHits = 0;
+    private static long mInfixedMisses = 0;
+
+    private static File mDirectory = null;
+
+    /**
+     * Sets the directory where the compiled programs are saved, none if null.
+     *
+     * @param directory is the disk cache directory
+     */
+    static synchronized void setDirectory(File directory) {
+        mDirectory = directory;
+        if (mDirectory != null && !mDirectory.isDirectory() && !mDirectory.mkdirs())
+            mDirectory = null;
+    }
+
+    /**
+     * @param script is a script text
+     * @return the (hex) hash of the script text, used as a cache key.
+     */
+    static String computeKey(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest)
+                key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(script.hashCode()) + Integer.toHexString(script.length());
+        }
+    }
+
+    /**
+     * @param key is the program key
+     * @return the cached program, null if not found.
+     */
+    static synchronized Program lookup(String key) {
+        return mPrograms.get(key);
+    }
+
+    /**
+     * Adds the given program to the memory cache.
+     *
+     * @param program is the compiled program
+     */
+    static synchronized void put(Program program) {
+        mPrograms.put(program.mKey, program);
+    }
+
+    /**
+     * Gets the converted infixed expression, only converted if not cached.
+     *
+     * @param infix is the infixed expression text
+     * @return the converted expression
+     */
+    static synchronized InfixExpression lookupInfixed(String infix) {
+        InfixExpression expression = mInfixed.get(infix);
+        if (expression != null) {
+            ++mInfixedHits;
+            return expression;
+        }
+
+        ++mInfixedMisses;
+        expression = new InfixExpression(infix);
+        mInfixed.put(infix, expression);
+
+        return expression;
+    }
+
+    static synchronized long getInfixedHits() {
+        return mInfixedHits;
+    }
+
+    static synchronized long getInfixedMisses() {
+        return mInfixedMisses;
+    }
+
+    /**
+     * Gets the content of the given script file, only read if it changed since the last call.
+     *
+     * @param activity is used to read the file
+     * @param filename is the script file name
+     * @return the script file content
+     * @throws IOException
+     */
+    static String readScriptFile(CalculatorActivity activity, String filename) throws IOException {
+        File file = new File(filename);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (ScriptCache.class) {
+            ScriptFile scriptFile = mScriptFiles.get(filename);
+            if (scriptFile != null && scriptFile.mLastModified == lastModified && scriptFile.mLength == length)
+                return scriptFile.mScript;
+        }
+
+        String script = activity.readFile(filename);
+        synchronized (ScriptCache.class) {
+            mScriptFiles.put(filename, new ScriptFile(lastModified, length, script));
+        }
+
+        return script;
+    }
+
+    /**
+     * Saves the given program to the disk cache, if self-contained.
+     *
+     * @param program is the compiled program
+     */
+    static synchronized void save(Program program) {
+        if (mDirectory == null || !program.mLinkedFunctions.isEmpty())
+            return;
+
+        File file = new File(mDirectory, program.mKey + DISK_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(CompiledScript.FORMAT_VERSION);
+
+            // scopes tree
+            IdentityHashMap<ScriptEngine, Integer> scopes = new IdentityHashMap<>();
+            out.writeInt(program.mScopes.size());
+            for (ScriptEngine scope : program.mScopes) {
+                Integer parent = scopes.get(scope.getParent());
+                scopes.put(scope, scopes.size());
+                Integer frame = scopes.get(scope.getLocalFrame());
+                out.writeInt(parent == null ? -1 : parent);
+                out.writeInt(frame == null ? -1 : frame);
+                out.writeInt(scope.getLocalIndex());
+            }
+
+            writeCode(out, program.mCode, scopes, program.mFunctionCodes);
+            out.writeInt(program.mFunctionCodes.size());
+            for (Map.Entry<String, CompiledScript> pair : program.mFunctionCodes.entrySet()) {
+                out.writeUTF(pair.getKey());
+                writeString(out, program.mFunctionBlocks.get(pair.getKey()));
+                MemoTable memo = pair.getValue().getMemo();
+                out.writeInt(memo == null ? -1 : memo.getArity());
+                writeCode(out, pair.getValue(), scopes, program.mFunctionCodes);
+            }
+        } catch (IOException e) {
+            file.delete();
+            return;
+        }
+
+        // keeps the disk cache bounded, the oldest programs go first
+        File[] files = mDirectory.listFiles();
+        if (files != null && files.length > MAX_DISK_PROGRAMS) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (int i = 0; i < files.length - MAX_DISK_PROGRAMS; i++)
+                files[i].delete();
+        }
+    }
+
+    /**
+     * Loads the given program from the disk cache.
+     *
+     * @param key is the program key
+     * @param root is the engine which becomes the program root scope
+     * @return the loaded program, null if not found or out of date.
+     */
+    static synchronized Program load(String key, ScriptEngine root) {
+        if (mDirectory == null)
+            return null;
+
+        File file = new File(mDirectory, key + DISK_SUFFIX);
+        if (!file.exists())
+            return null;
+
+        Program program = new Program(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != CompiledScript.FORMAT_VERSION)
+                throw new IOException();
+
+            int numScopes = in.readInt();
+            for (int i = 0; i < numScopes; i++) {
+                int parent = in.readInt();
+                int frame = in.readInt();
+                int index = in.readInt();
+                ScriptEngine scope = parent < 0 ? root : root.createScope(program.mScopes.get(parent));
+                program.mScopes.add(scope);
+                if (frame >= 0)
+                    scope.setLocalFrame(program.mScopes.get(frame), index);
+            }
+
+            program.mCode = readCode(in, program.mScopes);
+            int numFunctions = in.readInt();
+            for (int i = 0; i < numFunctions; i++) {
+                String function = in.readUTF();
+                String block = readString(in);
+                int arity = in.readInt();
+                CompiledScript code = readCode(in, program.mScopes);
+                if (arity != -1)
+                    code.setMemo(new MemoTable(arity));
+                program.defineFunction(function, block, code);
+            }
+
+            // binds the calls to the loaded functions
+            linkCalls(program.mCode, program.mFunctionCodes);
+            for (CompiledScript code : program.mFunctionCodes.values())
+                linkCalls(code, program.mFunctionCodes);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        mPrograms.put(key, program);
+
+        return program;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeCode(DataOutputStream out, CompiledScript code, IdentityHashMap<ScriptEngine, Integer> scopes,
+                                  HashMap<String, CompiledScript> functionCodes) throws IOException {
+        Object[] constants = code.getConstants();
+        Integer frame = code.getFrame() == null ? null : scopes.get(code.getFrame());
+        out.writeInt(frame == null ? -1 : frame);
+        out.writeInt(constants.length);
+        for (Object constant : constants) {
+            if (constant instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL_CONSTANT);
+                out.writeUTF(constant.toString());
+            } else if (constant instanceof ScriptEngine.ScopedIdentifier) {
+                ScriptEngine.ScopedIdentifier identifier = (ScriptEngine.ScopedIdentifier)constant;
+                Integer scope = scopes.get(identifier.mScope);
+                if (scope == null)
+                    throw new IOException();
+                out.writeByte(IDENTIFIER_CONSTANT);
+                out.writeInt(scope);
+                out.writeUTF(identifier.mId);
+                out.writeBoolean(identifier.mArray);
+            } else if (constant instanceof CompiledScript.FunctionCall) {
+                // bound calls must target the (last) program function of that name
+                CompiledScript.FunctionCall call = (CompiledScript.FunctionCall)constant;
+                if (call.mBound && functionCodes.get(call.mFunction) != call.mTarget)
+                    throw new IOException();
+                out.writeByte(FUNCTION_CALL_CONSTANT);
+                out.writeUTF(call.mFunction);
+                out.writeBoolean(call.mBound);
+            } else if (constant instanceof ScriptEngine.ParallelFor) {
+                ScriptEngine.ParallelFor loop = (ScriptEngine.ParallelFor)constant;
+                Integer scope = scopes.get(loop.mScope);
+                Integer counterScope = scopes.get(loop.mCounter.mScope);
+                if (scope == null || counterScope == null)
+                    throw new IOException();
+                out.writeByte(PARALLEL_FOR_CONSTANT);
+                out.writeInt(scope);
+                out.writeUTF(loop.mId);
+                out.writeInt(counterScope);
+                writeCode(out, loop.mCode, scopes, functionCodes);
+            } else if (constant instanceof VectorOperation) {
+                // parsed again when read
+                out.writeByte(VECTOR_OPERATION_CONSTANT);
+                out.writeUTF(((VectorOperation)constant).getText());
+            } else {
+                out.writeByte(STRING_CONSTANT);
+                writeString(out, (String)constant);
+            }
+        }
+
+        int size = code.size();
+        int[] opcodes = code.getOpcodes();
+        int[] operands = code.getOperands();
+        out.writeInt(size);
+        for (int pc = 0; pc < size; pc++) {
+            out.writeInt(opcodes[pc]);
+            out.writeInt(operands[pc]);
+        }
+    }
+
+    private static void linkCalls(CompiledScript code, HashMap<String, CompiledScript> functionCodes) throws IOException {
+        for (Object constant : code.getConstants()) {
+            if (constant instanceof CompiledScript.FunctionCall && ((CompiledScript.FunctionCall)constant).mBound) {
+                CompiledScript.FunctionCall call = (CompiledScript.FunctionCall)constant;
+                if ((call.mTarget = functionCodes.get(call.mFunction)) == null)
+                    throw new IOException();
+            } else if (constant instanceof ScriptEngine.ParallelFor)
+                linkCalls(((ScriptEngine.ParallelFor)constant).mCode, functionCodes);
+        }
+    }
+
+    private static CompiledScript readCode(DataInputStream in, ArrayList<ScriptEngine> scopes) throws IOException {
+        CompiledScript code = new CompiledScript();
+        int frame = in.readInt();
+        if (frame >= 0)
+            code.setFrame(scopes.get(frame));
+        int numConstants = in.readInt();
+        for (int i = 0; i < numConstants; i++) {
+            switch (in.readByte()) {
+                case BIG_DECIMAL_CONSTANT:
+                    code.addConstant(new BigDecimal(in.readUTF()));
+                    break;
+
+                case IDENTIFIER_CONSTANT:
+                    ScriptEngine scope = scopes.get(in.readInt());
+                    String id = in.readUTF();
+                    code.addConstant(new ScriptEngine.ScopedIdentifier(scope, id, in.readBoolean()));
+                    break;
+
+                case STRING_CONSTANT:
+                    code.addConstant(readString(in));
+                    break;
+
+                case FUNCTION_CALL_CONSTANT:
+                    String function = in.readUTF();
+                    code.addConstant(new CompiledScript.FunctionCall(function, in.readBoolean()));
+                    break;
+
+                case PARALLEL_FOR_CONSTANT:
+                    ScriptEngine loopScope = scopes.get(in.readInt());
+                    String counter = in.readUTF();
+                    ScriptEngine counterScope = scopes.get(in.readInt());
+                    CompiledScript block = readCode(in, scopes);
+                    if (block.getFrame() != counterScope)
+                        throw new IOException();
+                    code.addConstant(new ScriptEngine.ParallelFor(loopScope, counter, block,
+                                                                  new ScriptEngine.ScopedIdentifier(counterScope, counter, false)));
+                    break;
+
+                case VECTOR_OPERATION_CONSTANT:
+                    VectorOperation operation = VectorOperation.parse(in.readUTF());
+                    if (operation == null)
+                        throw new IOException();
+                    code.addConstant(operation);
+                    break;
+
+                default:
+                    throw new IOException();
+            }
+        }
+
+        int size = in.readInt();
+        for (int pc = 0; pc < size; pc++) {
+            int opcode = in.readInt();
+            code.emit(opcode, in.readInt());
+        }
+
+        return code;
+    }
+}
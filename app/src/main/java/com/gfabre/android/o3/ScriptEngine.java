@@ -1,18 +1,21 @@
 package com.gfabre.android.o3;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 import java.math.BigDecimal;
 
-import java_cup.runtime.Symbol;
-
 import static com.gfabre.android.o3.DebugView.DebugState.exit;
 import static com.gfabre.android.o3.DebugView.DebugState.none;
 import static com.gfabre.android.o3.DebugView.DebugState.step_in;
@@ -25,12 +28,49 @@ import static com.gfabre.android.o3.DebugView.DebugState.step_over;
  *  @date December, 2018
  */
 public class ScriptEngine {
-    // analysis context, this is used to do the syntactical analysis, track the execution
-    // and debugging context
-    private static Stack<Context> mContexts = new Stack<>();
-
+    /**
+     * Requests the running scripts to stop.
+     */
     static void stop() {
-        mStopRequired = true;
+        synchronized (mRuntimes) {
+            for (ScriptRuntime runtime : mRuntimes)
+                runtime.mStopRequired = true;
+        }
+    }
+
+    /**
+     * Sets the time slice budget : a script running longer yields for the given delay,
+     * at its next safepoint.
+     *
+     * @param budget is the time slice, in milliseconds (0 for none)
+     * @param delay is the yield delay, in milliseconds
+     */
+    static void setTimeSlice(int budget, int delay) {
+        mTimeSliceBudget = budget * 1000000L;
+        mTimeSliceYieldDelay = delay;
+    }
+
+    /**
+     * Sets the maximum number of nested script function calls.
+     *
+     * @param depth is the call stack depth limit
+     * @param interpretedDepth is the nesting limit of the interpreted scripts, blocks and
+     * functions : they nest java calls, the limit must fit the engine thread stack size
+     */
+    static void setMaxCallDepth(int depth, int interpretedDepth) {
+        mMaxCallDepth = depth;
+        mMaxInterpretedDepth = interpretedDepth;
+    }
+
+    /**
+     * Sets when the interpreted code is hot, and compiled (see HotCode).
+     *
+     * @param loopThreshold is the number of back edges of a while block, 0 to never compile
+     * @param callThreshold is the number of calls of a function, 0 to never compile
+     */
+    static void setTiering(int loopThreshold, int callThreshold) {
+        mHotLoopThreshold = loopThreshold;
+        mHotCallThreshold = callThreshold;
     }
 
     private static class Context {
@@ -38,56 +78,621 @@ public class ScriptEngine {
             RUNNING,
             FUNDEF_BLOCK_ANALYSIS,
             WHILE_BLOCK_ANALYSIS,
+            FOR_BLOCK_ANALYSIS,
+            PARALLEL_FOR_BLOCK_ANALYSIS,
             IF_BLOCK_ANALYSIS,
             ELSE_BLOCK_ANALYSIS
         }
 
         State                mState;
         String               mBlockId;
-        int                  mBlockStart;    // fundef - while - if - else_if
-        int                  mBlockEnd;
-        ScriptLexer          mLexer;
+        int                  mBlockStart;    // fundef - while - for - if - else_if token
+        int                  mBlockEnd;      // else token
+        int                  mArity;         // memoized fundef arguments count, -1 if not memoized
+        ScriptTokens         mLexer;
         DebugView.DebugState mDebugState;
 
         Context(State state) {
             mState = state;
             mBlockStart = mBlockEnd = 0;
+            mArity = -1;
             mBlockId = "";
             mLexer = null;
             mDebugState = DebugView.DebugState.none;
         }
     }
 
-    private String               mScript;
+    private String               mScript;        // block text, from the tokens if null
+    private ScriptTokens         mTokens;        // lexed upon run if null
     private int                  mInnerIf;
     private int                  mInnerWhile;
+    private int                  mInnerFor;
+    private int                  mInnerParallelFor;
     private int                  mInnerFundef;
     private Calculator           mCalculator;
     private CalculatorActivity   mActivity;
     private ScriptEngine         mParent = null; // lookup for arrays and vars
-    private static volatile boolean mStopRequired;
+    private ScriptEngine         mFrame;         // the script or function engine the block belongs to
+    private boolean              mExiting = false; // exit was run in the frame
+    private ArrayList<Integer>   mExitJumps = null; // compiled exits of the frame, patched to its end
+    private ScriptCache.Program  mProgram = null; // the program being compiled
+    private boolean              mPersistent = false;
+    private final ScriptRuntime  mRuntime;       // the run the engine belongs to
+    private boolean              mWorkerScope = false; // a parallel_for worker scope, the variables above are only read
+    private boolean              mHotScope = false;    // the scope of compiled hot code, the scopes above are interpreted
+
+    // stop requests and time slices are checked at safepoints (loop back edges, function entries
+    // and I/O ops) only, and once every SAFEPOINT_POLL_INTERVAL safepoints but for I/O ops.
+    private static final int        SAFEPOINT_POLL_INTERVAL = 256;
+    private static long             mTimeSliceBudget = 0;   // nanoseconds, 0 for none
+    private static int              mTimeSliceYieldDelay = 0;
+
+    // the script calls stack : compiled calls save their caller in a frame, the interpreted ones
+    // only count (see runCode and callFunction).
+    private static class CallFrame {
+        CompiledScript  mCode;
+        int             mPc;
+        LoopCounter[]   mLoops;
+        MemoTable       mMemo;      // records the results of the call to a memoized function
+        Object          mMemoKey;
+        int             mMemoBase;
+        Object[][]      mSlots;     // the caller frame slot values
+        ScriptEngine    mFrameScope;
+    }
+
+    private static final int        DEFAULT_MAX_CALL_DEPTH = 100000;
+    private static int              mMaxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+    // the interpreter nests java calls for each script, block and function it runs : its
+    // nesting is bounded by the running thread stack, the compiled calls only by the call
+    // stack depth limit. The parallel_for workers run on default size thread stacks.
+    private static final int        DEFAULT_MAX_INTERPRETED_DEPTH = 500;
+    private static final int        PARALLEL_MAX_INTERPRETED_DEPTH = 64;
+    private static int              mMaxInterpretedDepth = DEFAULT_MAX_INTERPRETED_DEPTH;
+
+    // the state of a script run, shared by the engines of the run (the script, its blocks and
+    // functions, the scripts it runs) and only used by the thread running it, but for the stop
+    // requests : each run has its own, so that scripts (of distinct calculators) run apart.
+    private static class ScriptRuntime {
+        final Calculator        mCalculator;
+
+        // analysis context, this is used to do the syntactical analysis, track the execution
+        // and debugging context
+        final Stack<Context>    mContexts = new Stack<>();
+
+        volatile boolean        mStopRequired = false;
+        boolean                 mStopping = false;      // a stop request was seen, unwinding
+        int                     mSafepointCountdown = SAFEPOINT_POLL_INTERVAL;
+        long                    mTimeSliceStart = System.nanoTime();
+
+        CallFrame[]             mCallStack = new CallFrame[64];
+        int                     mCallDepth = 0;
+        Object[][]              mSlots = null;          // slot values of the running frame (see runCode)
+        ScriptEngine            mFrameScope = null;     // the running frame scope, if any
+        ScriptEngine            mHotParent = null;      // the interpreter scope running the hot code entry, if any
+        private IdentityHashMap<ScriptEngine, Object[][]> mFrames = null; // slot values of the functions
+
+        int                     mRunning = 0;           // running scripts, nested ones included
+        ScriptRuntime           mOuter = null;          // run of the thread before this one started
+
+        // parallel_for workers : the run which started the loop, and the drawings of the iterations
+        final ScriptRuntime     mLauncher;
+        final DrawingList       mDrawing;
+
+        // background compilation of hot code : nothing is shown
+        final boolean           mBackground;
+
+        ScriptRuntime(Calculator calculator) {
+            this(calculator, false);
+        }
+
+        ScriptRuntime(Calculator calculator, boolean background) {
+            mCalculator = calculator;
+            mLauncher = null;
+            mDrawing = null;
+            mBackground = background;
+        }
+
+        ScriptRuntime(Calculator calculator, ScriptRuntime launcher) {
+            mCalculator = calculator;
+            mLauncher = launcher;
+            mDrawing = new DrawingList();
+            mBackground = false;
+
+            // the values of the frame running the loop, and the interpreter scopes above, only read
+            if (launcher.mFrameScope != null) {
+                mFrames = new IdentityHashMap<>();
+                mFrames.put(launcher.mFrameScope, launcher.mSlots);
+            }
+            mHotParent = launcher.mHotParent;
+        }
+
+        /**
+         * @param frame is a function or hot code scope
+         * @return the slot values of the frame scopes, by local index : those of the running
+         * frame, else those the calls of the function share in this run.
+         */
+        Object[][] getFrame(ScriptEngine frame) {
+            if (frame == mFrameScope)
+                return mSlots;
+
+            if (mFrames == null)
+                mFrames = new IdentityHashMap<>();
+            Object[][] slots = mFrames.get(frame);
+            if (slots == null) {
+                slots = new Object[frame.mLocalScopes][];
+                mFrames.put(frame, slots);
+            }
+
+            return slots;
+        }
+    }
+
+    // the runs in progress, and the one of the current thread
+    private static final ArrayList<ScriptRuntime>     mRuntimes = new ArrayList<>();
+    private static final ThreadLocal<ScriptRuntime>   mCurrentRuntime = new ThreadLocal<>();
+
+    // interpreted code is compiled once hot, in the background : the while blocks after a number of
+    // back edges, the functions after a number of calls. The interpreter then goes on with the compiled
+    // code, upon the next loop head or call.
+    private static final String     HOT_CODE_COMPILER_THREAD = "o3 hot code compiler";
+    private static final int        DEFAULT_HOT_LOOP_THRESHOLD = 500;
+    private static final int        DEFAULT_HOT_CALL_THRESHOLD = 50;
+    private static int              mHotLoopThreshold = DEFAULT_HOT_LOOP_THRESHOLD;
+    private static int              mHotCallThreshold = DEFAULT_HOT_CALL_THRESHOLD;
+    private static ExecutorService  mHotCodeCompiler = null;
+
+    /**
+     * The execution profile of an interpreted block (while block or function), and its compiled
+     * counterpart once hot. Each entry of the code has a frame of its own, which carries the
+     * interpreter scope running it (see runCode), the variables of the interpreter being looked
+     * up by name from there (see ScopedIdentifier), so that the code can be entered at any loop
+     * head or call, by several scopes at once (recursive calls, parallel_for workers).
+     *
+     * The variables the code creates are held by its frame, and reset upon each call or block
+     * entry, as the interpreter scopes would be. Yet the functions the code calls look up the
+     * variables of their caller by name : code calling functions is only entered when the
+     * variables and arrays it sets already exist in the interpreter scopes.
+     */
+    static class HotCode {
+        private int                     mCount = 0;         // back edges or calls
+        private boolean                 mHot = false;       // compilation started
+        private volatile CompiledScript mCode = null;
+        private int                     mVersion;           // the functions library version the code was compiled against
+        private ScopedIdentifier[]      mSetIdentifiers = null; // set by code calling functions
+
+        /**
+         * Counts a back edge or call.
+         *
+         * @param threshold is the count the code is hot at
+         * @return true if the code just got hot, and must be compiled.
+         */
+        synchronized boolean count(int threshold) {
+            if (mHot || ++mCount < threshold)
+                return false;
+
+            mHot = true;
+            return true;
+        }
+
+        synchronized void setCode(CompiledScript code, int version) {
+            mVersion = version;
+            mSetIdentifiers = getSetIdentifiers(code);
+            mCode = code;
+        }
+
+        /**
+         * @param code is the compiled code
+         * @return the variables and arrays set by the code, null if it calls no function.
+         */
+        private static ScopedIdentifier[] getSetIdentifiers(CompiledScript code) {
+            int[] opcodes = code.getOpcodes();
+            int[] operands = code.getOperands();
+            Object[] constants = code.getConstants();
+            ArrayList<ScopedIdentifier> identifiers = new ArrayList<>();
+            boolean calls = false;
+            for (int pc = 0; pc < code.size(); pc++) {
+                switch (opcodes[pc]) {
+                    case CompiledScript.OP_CALL:
+                        calls = true;
+                        break;
+
+                    case CompiledScript.OP_POP_VARIABLE:
+                    case CompiledScript.OP_STORE_VARIABLE:
+                    case CompiledScript.OP_ADD_TO_VARIABLE:
+                    case CompiledScript.OP_POP_ARRAY_VALUE:
+                    case CompiledScript.OP_FOR_INIT:
+                    case CompiledScript.OP_ARRAY_LOAD:
+                        identifiers.add((ScopedIdentifier)constants[operands[pc]]);
+                        break;
+
+                    case CompiledScript.OP_ARRAY_OPERATION:
+                        if (((VectorOperation)constants[operands[pc]]).hasTarget())
+                            identifiers.add((ScopedIdentifier)constants[operands[pc] + 1]);
+                        break;
+                }
+            }
+
+            return calls ? identifiers.toArray(new ScopedIdentifier[0]) : null;
+        }
+
+        /**
+         * Gets the compiled code (if any) to be run by the given scope.
+         *
+         * @param parent is the interpreter scope running the code
+         * @return the compiled code, null if none or calling functions which wouldn't see the
+         * variables it creates. The code compiled against functions since redefined is dropped
+         * (the running entries keep it), to be compiled again once hot.
+         */
+        CompiledScript enter(ScriptEngine parent) {
+            if (mCode == null)
+                return null;
+
+            CompiledScript code;
+            ScopedIdentifier[] setIdentifiers;
+            synchronized (this) {
+                if (mCode == null)
+                    return null;
+                if (mVersion != FunctionLibrary.get().getVersion()) {
+                    mCode = null;
+                    mSetIdentifiers = null;
+                    mCount = 0;
+                    mHot = false;
+                    return null;
+                }
+                code = mCode;
+                setIdentifiers = mSetIdentifiers;
+            }
+
+            if (setIdentifiers != null)
+                for (ScopedIdentifier id : setIdentifiers)
+                    if ((id.mArray ? parent.lookupForArray(id.mId) : parent.lookupForVariable(id.mId)) == null)
+                        return null;
+
+            return code;
+        }
+    }
+
+    private static synchronized ExecutorService getHotCodeCompiler() {
+        if (mHotCodeCompiler == null)
+            mHotCodeCompiler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, HOT_CODE_COMPILER_THREAD);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        return mHotCodeCompiler;
+    }
+
+    // a parallel_for block, along with the scope it runs in (see runParallelFor), or its compiled
+    // code : the code scope is a frame, the workers running the code with slot values of their own
+    static class ParallelFor {
+        final ScriptEngine      mScope;
+        final String            mId;
+        final ScriptTokens      mBlock;     // null once compiled
+        final CompiledScript    mCode;      // null if interpreted
+        final ScopedIdentifier  mCounter;   // the counter variable of the code
+
+        ParallelFor(ScriptEngine scope, String id, ScriptTokens block) {
+            mScope = scope;
+            mId = id;
+            mBlock = block;
+            mCode = null;
+            mCounter = null;
+        }
+
+        ParallelFor(ScriptEngine scope, String id, CompiledScript code, ScopedIdentifier counter) {
+            mScope = scope;
+            mId = id;
+            mBlock = null;
+            mCode = code;
+            mCounter = counter;
+            code.getFrame().mWorkerScope = true;    // the variables of the parent scopes are only read
+        }
+
+        @Override
+        public String toString() {
+            return mId;
+        }
+    }
+
+    // the parallel_for iterations are split in a few chunks per worker, so that the workers
+    // done first steal the chunks of the others
+    private static final int        PARALLEL_CHUNKS_PER_WORKER = 4;
+    private static ForkJoinPool     mParallelPool = null;
+
+    // a parallel_for run, and its chunks results, in the counter values order
+    private static class ParallelRun {
+        final ScriptEngine      mEngine;
+        final ParallelFor       mLoop;
+        final LoopCounter       mCounter;
+        final long              mCount;
+        final ParallelChunk[]   mChunks;
+        volatile boolean        mFailed = false;    // an iteration failed, the others stop
+
+        ParallelRun(ScriptEngine engine, ParallelFor loop, LoopCounter counter, long count, int chunks) {
+            mEngine = engine;
+            mLoop = loop;
+            mCounter = counter;
+            mCount = count;
+            mChunks = new ParallelChunk[chunks];
+        }
+    }
+
+    private static class ParallelChunk {
+        Number[]        mValues;    // left on the worker stack
+        DrawingList     mDrawing;
+        boolean         mRunOk;
+    }
+
+    // runs the chunks from mFirst to mLast (excluded), splitting them among the pool workers
+    private static class ParallelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelRun   mRun;
+        private final int           mFirst;
+        private final int           mLast;
+
+        ParallelTask(ParallelRun run, int first, int last) {
+            mRun = run;
+            mFirst = first;
+            mLast = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst == 1)
+                mRun.mChunks[mFirst] = mRun.mEngine.runParallelChunk(mRun, mFirst);
+            else {
+                int middle = (mFirst + mLast) >>> 1;
+                invokeAll(new ParallelTask(mRun, mFirst, middle), new ParallelTask(mRun, middle, mLast));
+            }
+        }
+    }
+
+    static synchronized ForkJoinPool getParallelPool() {
+        if (mParallelPool == null)
+            mParallelPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        return mParallelPool;
+    }
 
     // variables are 'in-scope' only
     private HashMap<String, BigDecimal>     mVariables = new HashMap<>();
-    private HashMap<String, ArrayList<BigDecimal>>  mArrays = new HashMap<>();
+    private HashMap<String, ScriptArray>    mArrays = new HashMap<>();
+
+    // compiled counterparts : the variables (BigDecimal, Double in double mode) and arrays (ScriptArray) are given
+    // a slot at compile time, null until set
+    private static final String             ARRAY_SLOT_PREFIX = "[]";
+    private HashMap<String, Integer>        mSlots = null;
+    private Object[]                        mSlotValues = null;
+
+    // the slot values of the scopes of a compiled function are held by each run, by local index,
+    // rather than by the scopes the runs share : the calls of the function share them within a
+    // run, as before. Those of hot code are held by each entry, reset as the interpreter scopes
+    // would be (see runCode)
+    private ScriptEngine                    mLocalFrame = null;     // the function or hot code scope, if any
+    private int                             mLocalIndex = -1;       // given once the scope has slots
+    private int                             mLocalScopes = 0;       // indexed scopes, for a frame scope
+
+    // functions are globally defined, see FunctionLibrary
+
+    // larger compiled functions are called rather than inlined
+    private static final int MAX_INLINED_FUNCTION_SIZE = 32;
+
+    // cache key suffix of the programs compiled without optimizations
+    private static final String UNOPTIMIZED_KEY_SUFFIX = "-u";
+
+    // a compiled reference to a variable or array, bound to the engine (scope) which compiled it.
+    // Like their interpreted counterparts, they're looked up from the scope and up the scopes
+    // hierarchy, but only in the scopes which have a slot for them, and by name in the interpreter
+    // scopes running the hot code entry. The values of the scopes of a frame are those of the run,
+    // or of the running hot code entry.
+    static class ScopedIdentifier {
+        final ScriptEngine      mScope;
+        final String            mId;
+        final boolean           mArray;
+        private final String    mSlotName;
+        private final int       mSlot;
+        private volatile Lookup mLookup = null;         // resolved upon first access, once compiled
+
+        // the slots of the scopes which may hold the identifier value : the code may be run by
+        // other threads than the compiling one (parallel_for workers, hot code), which get
+        // the lookup as a whole, once resolved
+        private static final class Lookup {
+            final ScriptEngine[]    mScopes;
+            final int[]             mSlots;
+            final ScriptEngine[]    mFrames;        // frame of the scopes, null for others
+            final int[]             mLocals;        // local index of the frame scopes
+            final int               mSetScopes;     // scopes it can be set in, up to a worker scope
+            final ScriptEngine      mHotScope;      // the hot code scope, if any
+            final boolean           mSetHotScope;   // the interpreter scopes above it can be set
+
+            Lookup(ScriptEngine[] scopes, int[] slots, ScriptEngine[] frames, int[] locals, int setScopes,
+                   ScriptEngine hotScope, boolean setHotScope) {
+                mScopes = scopes;
+                mSlots = slots;
+                mFrames = frames;
+                mLocals = locals;
+                mSetScopes = setScopes;
+                mHotScope = hotScope;
+                mSetHotScope = setHotScope;
+            }
+        }
+
+        ScopedIdentifier(ScriptEngine scope, String id, boolean array) {
+            mScope = scope;
+            mId = id;
+            mArray = array;
+            mSlotName = array ? ARRAY_SLOT_PREFIX + id : id;
+            mSlot = scope.declareSlot(mSlotName);
+        }
+
+        /**
+         * Lists the slots of the scopes, from the identifier scope and up, which may hold
+         * the identifier value. The program must be fully compiled.
+         *
+         * @return the lookup, the same for all threads.
+         */
+        private Lookup resolve() {
+            Lookup lookup = mLookup;
+            if (lookup != null)
+                return lookup;
+
+            ArrayList<ScriptEngine> scopes = new ArrayList<>();
+            ArrayList<Integer> slots = new ArrayList<>();
+            ArrayList<ScriptEngine> frames = new ArrayList<>();
+            ArrayList<Integer> locals = new ArrayList<>();
+            int setScopes = -1;
+            ScriptEngine hotScope = null;
+            for (ScriptEngine scope = mScope; scope != null; scope = scope.mParent) {
+                Integer slot = scope.mSlots == null ? null : scope.mSlots.get(mSlotName);
+                if (slot != null) {
+                    scopes.add(scope);
+                    slots.add(slot);
+                    frames.add(scope.mLocalFrame);
+                    locals.add(scope.mLocalIndex);
+                }
+                if (scope.mWorkerScope && setScopes == -1)
+                    setScopes = scopes.size();
+                if (scope.mHotScope) {
+                    hotScope = scope;
+                    break;
+                }
+            }
+
+            int[] lookupSlots = new int[slots.size()];
+            int[] lookupLocals = new int[slots.size()];
+            for (int i = 0; i < lookupSlots.length; i++) {
+                lookupSlots[i] = slots.get(i);
+                lookupLocals[i] = locals.get(i);
+            }
+            lookup = new Lookup(scopes.toArray(new ScriptEngine[0]), lookupSlots, frames.toArray(new ScriptEngine[0]), lookupLocals,
+                                setScopes == -1 ? scopes.size() : setScopes, hotScope, setScopes == -1);
+            mLookup = lookup;
+
+            return lookup;
+        }
+
+        /**
+         * @param runtime is the run holding the slot values of the frames
+         * @return the (looked up) value, null if not set.
+         */
+        Object get(ScriptRuntime runtime) {
+            Lookup lookup = resolve();
+            for (int i = 0; i < lookup.mScopes.length; i++) {
+                Object[] values = lookup.mFrames[i] == null ? lookup.mScopes[i].mSlotValues : runtime.getFrame(lookup.mFrames[i])[lookup.mLocals[i]];
+                if (values != null && values[lookup.mSlots[i]] != null)
+                    return values[lookup.mSlots[i]];
+            }
+
+            // the interpreter scopes the hot code entry runs in
+            if (lookup.mHotScope != null)
+                return mArray ? runtime.mHotParent.lookupForArray(mId) : runtime.mHotParent.lookupForVariable(mId);
+
+            return null;
+        }
+
+        /**
+         * Sets the (looked up) value, in the identifier scope if not set. The values of the
+         * scopes above a parallel_for worker scope can't be set (see runParallelFor).
+         *
+         * @param runtime is the run holding the slot values of the frames
+         * @param value is the value to set
+         * @return false if the value is held by a scope above a parallel_for worker scope.
+         */
+        boolean set(ScriptRuntime runtime, Object value) {
+            Lookup lookup = resolve();
+            for (int i = 0; i < lookup.mScopes.length; i++) {
+                Object[] values = lookup.mFrames[i] == null ? lookup.mScopes[i].mSlotValues : runtime.getFrame(lookup.mFrames[i])[lookup.mLocals[i]];
+                if (values != null && values[lookup.mSlots[i]] != null) {
+                    if (i >= lookup.mSetScopes)
+                        return false;
+                    values[lookup.mSlots[i]] = value;
+                    return true;
+                }
+            }
+
+            // arrays are only set when created
+            if (lookup.mHotScope != null && !mArray) {
+                ScriptEngine parent = runtime.mHotParent;
+                if (parent.lookupForVariable(mId) != null)
+                    return lookup.mSetHotScope && parent.putVariableValue(mId, Calculator.toBigDecimal((Number)value));
+            }
+
+            if (mScope.mLocalFrame == null)
+                mScope.mSlotValues[mSlot] = value;
+            else {
+                Object[][] frame = runtime.getFrame(mScope.mLocalFrame);
+                int local = mScope.mLocalIndex;
+                if (frame[local] == null)
+                    frame[local] = new Object[mScope.mSlots.size()];
+                frame[local][mSlot] = value;
+            }
 
-    // functions are globally defined
-    private static HashMap<String, String>                     mFunctions = new HashMap<>();
-    private static HashMap<String, ArrayList<ScriptOperation>> mCompiledFunctions = new HashMap<>(); // compiled counterparts
+            return true;
+        }
 
-    // the compiled code (lambda) expression contract
-    private interface ScriptOperation {
-        boolean execute();
+        @Override
+        public String toString() {
+            return mSlotName;
+        }
     }
 
     ScriptEngine(CalculatorActivity activity, Calculator calculator, String script) {
         mScript = script;
         mInnerIf = 0;
         mInnerWhile = 0;
+        mInnerFor = 0;
+        mInnerParallelFor = 0;
         mInnerFundef = 0;
         mActivity = activity;
         mCalculator = calculator;
-        mStopRequired = false;
+        mFrame = this;
+
+        // a script run by a running script (run_script) is part of its run
+        ScriptRuntime runtime = mCurrentRuntime.get();
+        mRuntime = runtime != null && runtime.mCalculator == calculator ? runtime : new ScriptRuntime(calculator);
+    }
+
+    /**
+     * A safepoint : polls for stop requests and time slice end, once every
+     * SAFEPOINT_POLL_INTERVAL calls.
+     *
+     * @return true if the script must stop.
+     */
+    private boolean safepoint() {
+        if (--mRuntime.mSafepointCountdown <= 0)
+            pollSafepoint();
+
+        return mRuntime.mStopping;
+    }
+
+    /**
+     * Polls for stop requests and time slice end.
+     *
+     * @return true if the script must stop.
+     */
+    private boolean pollSafepoint() {
+        ScriptRuntime runtime = mRuntime;
+        runtime.mSafepointCountdown = SAFEPOINT_POLL_INTERVAL;
+        if (runtime.mStopRequired || runtime.mLauncher != null && runtime.mLauncher.mStopRequired)
+            runtime.mStopping = true;
+        else if (mTimeSliceBudget != 0 && System.nanoTime() - runtime.mTimeSliceStart >= mTimeSliceBudget) {
+            try {
+                Thread.sleep(mTimeSliceYieldDelay);
+            } catch (InterruptedException e) {
+                // interrupted while yielding : keep the interrupt status and stop the script
+                Thread.currentThread().interrupt();
+                runtime.mStopping = true;
+            }
+            runtime.mTimeSliceStart = System.nanoTime();
+        }
+
+        return runtime.mStopping;
     }
 
     /**
@@ -98,25 +703,146 @@ public class ScriptEngine {
      * @param script is the script to be executed
      */
     private ScriptEngine(ScriptEngine parent, CalculatorActivity activity, Calculator calculator, String script) {
-        mParent = parent;
+        this(parent, activity, calculator, (ScriptTokens)null);
         mScript = script;
+    }
+
+    /**
+     * Private constructor used to recursively execute an already lexed script block or script function.
+     *
+     * @param parent is the calling ScriptEngine
+     * @param calculator is the host calculator activity
+     * @param tokens are the tokens of the script to be executed
+     */
+    private ScriptEngine(ScriptEngine parent, CalculatorActivity activity, Calculator calculator, ScriptTokens tokens) {
+        mParent = parent;
+        mScript = null;
+        mTokens = tokens;
         mInnerIf = mParent.mInnerIf;
         mInnerWhile = mParent.mInnerWhile;
+        mInnerFor = mParent.mInnerFor;
+        mInnerParallelFor = mParent.mInnerParallelFor;
         mInnerFundef = mParent.mInnerFundef;
         mActivity = activity;
         mCalculator = calculator;
+        mProgram = mParent.mProgram;
+        mFrame = mParent.mFrame;
+        mLocalFrame = mParent.mLocalFrame;
+        mRuntime = mParent.mRuntime;
+    }
+
+    /**
+     * Private constructor used to run or compile a block in a run of its own : the iterations
+     * of a parallel_for block, in a worker, and the hot code compiled in the background.
+     *
+     * @param parent is the scope the block belongs to
+     * @param runtime is the run
+     * @param tokens are the tokens of the block
+     */
+    private ScriptEngine(ScriptEngine parent, ScriptRuntime runtime, ScriptTokens tokens) {
+        mParent = parent;
+        mScript = null;
+        mTokens = tokens;
+        mActivity = parent.mActivity;
+        mCalculator = runtime.mCalculator;
+        mFrame = this;
+        mRuntime = runtime;
+    }
+
+    /**
+     * Sets whether the compiled script may be saved to disk, so that it doesn't need to
+     * be compiled again on next start (init script, script files..).
+     *
+     * @param persistent is true if the compiled script must be saved
+     */
+    void setPersistent(boolean persistent) {
+        mPersistent = persistent;
+    }
+
+    ScriptEngine getParent() {
+        return mParent;
+    }
+
+    ScriptEngine getLocalFrame() {
+        return mLocalFrame;
+    }
+
+    int getLocalIndex() {
+        return mLocalIndex;
+    }
+
+    /**
+     * Binds a variables scope rebuilt from disk to the frame holding its values (see createScope).
+     *
+     * @param frame is the function scope
+     * @param index is the scope local index
+     */
+    void setLocalFrame(ScriptEngine frame, int index) {
+        mLocalFrame = frame;
+        mLocalIndex = index;
+        if (index >= frame.mLocalScopes)
+            frame.mLocalScopes = index + 1;
+    }
+
+    /**
+     * Creates an (empty) variables scope, used to rebuild a compiled script loaded from disk.
+     *
+     * @param parent is the parent scope
+     * @return the new scope
+     */
+    ScriptEngine createScope(ScriptEngine parent) {
+        ScriptEngine scope = new ScriptEngine(this, mActivity, mCalculator, "");
+        scope.mParent = parent;
+        return scope;
+    }
+
+    /**
+     * Removes all the variables and arrays of the scope.
+     */
+    private void clearScope() {
+        mVariables.clear();
+        mArrays.clear();
+        if (mSlotValues != null)
+            Arrays.fill(mSlotValues, null);
+    }
+
+    /**
+     * Gives a slot to the given compiled variable or array, in this scope.
+     *
+     * @param name is the name of the variable or array
+     * @return the slot index
+     */
+    private int declareSlot(String name) {
+        if (mSlots == null) {
+            mSlots = new HashMap<>();
+            mSlotValues = new Object[4];
+        }
+
+        if (mLocalFrame != null)
+            indexLocalScope();
+
+        Integer slot = mSlots.get(name);
+        if (slot == null) {
+            slot = mSlots.size();
+            mSlots.put(name, slot);
+            if (slot == mSlotValues.length)
+                mSlotValues = Arrays.copyOf(mSlotValues, slot * 2);
+        }
+
+        return slot;
     }
 
     /**
-     * Fills the passed array entries with null values up to the given index. Used to set a value
-     * at any given position in the array, at any time.
+     * Gives a local index to this scope of a function or hot code frame, its slot values being
+     * held by the frame calls.
      *
-     * @param array is the target array
-     * @param index is the position[ where to stop filling the array
+     * @return the local index
      */
-    private void extendArrayToIndex(ArrayList<BigDecimal> array, int index) {
-        for (int i = array.size(); i <= index; i++)
-            array.add(i, null);
+    private int indexLocalScope() {
+        if (mLocalIndex == -1)
+            mLocalIndex = mLocalFrame.mLocalScopes++;
+
+        return mLocalIndex;
     }
 
     /**
@@ -126,7 +852,7 @@ public class ScriptEngine {
      * @param id is the name of the array we're looking for
      * @return the found array or null if it doesn't exist
      */
-    private ArrayList<BigDecimal> lookupForArray(String id) {
+    private ScriptArray lookupForArray(String id) {
         if (mArrays.containsKey(id))
             return mArrays.get(id);
         if (mParent != null)
@@ -135,115 +861,377 @@ public class ScriptEngine {
     }
 
     /**
-     * Sets the (looked up) given array's entry at position index with the
-     * passed value.
+     * Pops an index then a value off the stack, and sets the (looked up) given array's entry
+     * at that index with the value. The array is created if it doesn't exist.
      *
      * @param id is the name of the target array
-     * @param index is the position of the entry to set in the array
-     * @param value is the value to set
+     * @return false if the index is negative.
      */
-    private void setArrayValue(String id, int index, BigDecimal value) {
+    private boolean popArrayValue(String id) {
         // need to create the array?
-        ArrayList<BigDecimal> array = lookupForArray(id);
-        if(array == null) {
-            array = new ArrayList<>();
+        ScriptArray array = lookupForArray(id);
+        if (array == null) {
+            if ((array = newArray(id)) == null)
+                return false;
             mArrays.put(id, array);
         }
 
         // set the array value
-        extendArrayToIndex(array, index);
-        array.set(index, value);
+        return popArrayValue(array);
     }
 
-    /**
-     * Gets the (looked up) given array's value at position index.
-     *
-     * @param id is the name of the target array
-     * @param index is the position of the entry to set in the array
-     *
-     * @return the value or 0 if no array/value found
-     */
-    private BigDecimal getArrayValue(String id, int index) {
-        // return NaN if the array doesn't exist..
+    // compiled counterpart
+    private boolean popArrayValue(ScopedIdentifier id) {
         // need to create the array?
-        ArrayList<BigDecimal> array = lookupForArray(id);
-        if(array == null)
-            return BigDecimal.valueOf(0);
+        ScriptArray array = (ScriptArray)id.get(mRuntime);
+        if (array == null) {
+            if ((array = newArray(id.mId)) == null)
+                return false;
+            id.set(mRuntime, array);
+        }
 
-        // or if it's got no index entry
-        extendArrayToIndex(array, index);
-        BigDecimal value = array.get(index);
+        // set the array value
+        return popArrayValue(array);
+    }
+
+    private boolean popArrayValue(ScriptArray array) {
+        int index = popArrayIndex();
+        if (index < 0)
+            return false;
+
+        // the parallel_for workers share the arrays of the parent scopes
+        boolean shared = mRuntime.mLauncher != null;
+        if (mCalculator.isDoubleMode()) {
+            double value = mCalculator.doPopDoubleFromStack();
+            if (shared) {
+                synchronized (array) {
+                    array.set(index, value);
+                }
+            } else
+                array.set(index, value);
+        } else {
+            BigDecimal value = mCalculator.doPopValueFromStack();
+            if (shared) {
+                synchronized (array) {
+                    array.set(index, value);
+                }
+            } else
+                array.set(index, value);
+        }
 
-        return value == null ? BigDecimal.valueOf(0) : value;
+        return true;
     }
 
     /**
-     * If existing, looks up and return the given variable starting from the current engine, and
-     * up the engines hierarchy.
+     * Pops an index off the stack, and pushes the (looked up) given array's value at that
+     * index, 0 if no array/value found.
      *
-     * @param id is the name of the variable we're looking for
-     * @return the found variable or null if it doesn't exist
+     * @param id is the name of the target array
+     * @return false if the index is invalid.
      */
-    private BigDecimal lookupForVariable(String id) {
-        if (mVariables.containsKey(id))
-            return mVariables.get(id);
-        if (mParent != null)
-            return mParent.lookupForVariable(id);
-        return null;
+    private boolean pushArrayValue(String id) {
+        return pushArrayValue(lookupForArray(id));
     }
 
-    /**
-     * Sets the (looked up) given variable to the passed value.
-     *
-     * @param id is the name of the target variable
-     * @param value is the value to set
-     */
-    private void setVariableValue(String id, BigDecimal value) {
-        if (mVariables.containsKey(id))
-            mVariables.put(id, value);
-        else if (mParent != null && mParent.lookupForVariable(id) != null)
-            mParent.setVariableValue(id, value);
-        else
-            mVariables.put(id, value);
+    // compiled counterpart
+    private boolean pushArrayValue(ScopedIdentifier id) {
+        return pushArrayValue((ScriptArray)id.get(mRuntime));
+    }
+
+    private boolean pushArrayValue(ScriptArray array) {
+        int index = popArrayIndex();
+        if (index < 0)
+            return false;
+
+        boolean shared = mRuntime.mLauncher != null;
+        if (mCalculator.isDoubleMode()) {
+            double value = 0.0;
+            if (array != null && shared) {
+                synchronized (array) {
+                    value = array.getDouble(index);
+                }
+            } else if (array != null)
+                value = array.getDouble(index);
+            mCalculator.doPushDoubleOnStack(value);
+        } else {
+            BigDecimal value = BigDecimal.valueOf(0);
+            if (array != null && shared) {
+                synchronized (array) {
+                    value = array.get(index);
+                }
+            } else if (array != null)
+                value = array.get(index);
+            mCalculator.doPushValueOnStack(value);
+        }
+
+        return true;
     }
 
     /**
-     * Gets the (looked up) given variable's value.
-     *
-     * @param id is the name of the target variable
+     * Pops an array index off the stack, the index must be a non negative int
+     * (a plain cast would saturate the out of range indexes).
      *
-     * @return the value or 0 if no variable found
+     * @return the index, -1 if invalid (the error is displayed).
      */
-    private BigDecimal getVariableValue(String id) {
-        BigDecimal variable = lookupForVariable(id);
-        return variable == null ? BigDecimal.valueOf(0) : variable;
+    private int popArrayIndex() {
+        double index = mCalculator.doPopDoubleFromStack();
+        if (!(index >= 0 && index <= Integer.MAX_VALUE)) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.array_index_error) + index);
+            return -1;
+        }
+
+        return (int)index;
     }
 
     /**
-     * Saves the passed script block into the global functions
-     * hashmap, associated with the function name key.
+     * Runs a bulk operation on the (looked up) given arrays, the target array is created if
+     * it doesn't exist.
      *
-     * @param function is the name of the function to save
-     * @param block is the script block for the function
+     * @param operation is the operation to run
+     * @return false if the operation failed.
      */
-    private void saveFunction(String function, String block) {
-        mFunctions.put(function, block);
+    private boolean runVectorOperation(VectorOperation operation) {
+        String[] ids = operation.getArrays();
+        ScriptArray[] arrays = new ScriptArray[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            arrays[i] = lookupForArray(ids[i]);
+
+        // need to create the target array?
+        if (operation.hasTarget() && arrays[0] == null) {
+            if ((arrays[0] = newArray(ids[0])) == null)
+                return false;
+            mArrays.put(ids[0], arrays[0]);
+        }
+
+        return operation.run(mActivity, mCalculator, arrays, mRuntime.mLauncher != null);
+    }
+
+    // compiled counterpart, the arrays being the constants following the operation
+    private boolean runVectorOperation(VectorOperation operation, Object[] constants, int first) {
+        ScriptArray[] arrays = new ScriptArray[operation.getArrays().length];
+        for (int i = 0; i < arrays.length; i++)
+            arrays[i] = (ScriptArray)((ScopedIdentifier)constants[first + i]).get(mRuntime);
+
+        // need to create the target array?
+        if (operation.hasTarget() && arrays[0] == null) {
+            ScopedIdentifier target = (ScopedIdentifier)constants[first];
+            if ((arrays[0] = newArray(target.mId)) == null)
+                return false;
+            target.set(mRuntime, arrays[0]);
+        }
+
+        return operation.run(mActivity, mCalculator, arrays, mRuntime.mLauncher != null);
     }
 
     /**
-     * Compiles the passed script block into the global compiled functions
-     * hashmap and saves the block in the global functions hashmap, both associated with
-     * the function name key.
+     * Saves the given array to the given file.
+     *
+     * @param array is the array to save, null if it doesn't exist (saved empty)
+     * @param filename is the file to (over)write
+     * @return false if the file couldn't be written.
+     */
+    private boolean saveArray(ScriptArray array, String filename) {
+        if (array == null)
+            array = new ScriptArray(mCalculator.isDoubleMode());
+        else if (mRuntime.mLauncher != null) {
+            synchronized (array) {
+                array = array.copy();
+            }
+        }
+
+        try {
+            array.save(new File(filename));
+        } catch (IOException e) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.array_file_error) + filename);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Loads the (looked up) given array from the given file, the array is created if it
+     * doesn't exist.
+     *
+     * @param id is the name of the target array
+     * @param filename is the file to read
+     * @return false if the file couldn't be read.
+     */
+    private boolean loadArray(String id, String filename) {
+        ScriptArray array = loadArray(filename);
+        if (array == null)
+            return false;
+
+        ScriptArray target = lookupForArray(id);
+        if (target == null) {
+            if (newArray(id) == null)
+                return false;
+            mArrays.put(id, array);
+        } else
+            assignArray(target, array);
+
+        return true;
+    }
+
+    // compiled counterpart
+    private boolean loadArray(ScopedIdentifier id, String filename) {
+        ScriptArray array = loadArray(filename);
+        if (array == null)
+            return false;
+
+        ScriptArray target = (ScriptArray)id.get(mRuntime);
+        if (target == null) {
+            if (newArray(id.mId) == null)
+                return false;
+            id.set(mRuntime, array);
+        } else
+            assignArray(target, array);
+
+        return true;
+    }
+
+    private ScriptArray loadArray(String filename) {
+        try {
+            return ScriptArray.load(new File(filename), mCalculator.isDoubleMode());
+        } catch (IOException e) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.array_file_error) + filename);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an empty array. The parallel_for workers can't : the arrays they set must exist
+     * before the loop, for the script to get them (see runParallelFor).
+     *
+     * @param id is the name of the array
+     * @return the new array, null if it can't be created (the error is then displayed).
+     */
+    private ScriptArray newArray(String id) {
+        if (mRuntime.mLauncher != null) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.parallel_for_error) + ARRAY_SLOT_PREFIX + id);
+            return null;
+        }
+
+        return new ScriptArray(mCalculator.isDoubleMode());
+    }
+
+    private void assignArray(ScriptArray target, ScriptArray array) {
+        if (mRuntime.mLauncher != null) {
+            synchronized (target) {
+                target.assign(array);
+            }
+        } else
+            target.assign(array);
+    }
+
+    /**
+     * If existing, looks up and return the given variable starting from the current engine, and
+     * up the engines hierarchy.
+     *
+     * @param id is the name of the variable we're looking for
+     * @return the found variable or null if it doesn't exist
+     */
+    private BigDecimal lookupForVariable(String id) {
+        if (mVariables.containsKey(id))
+            return mVariables.get(id);
+        if (mParent != null)
+            return mParent.lookupForVariable(id);
+        return null;
+    }
+
+    /**
+     * Sets the (looked up) given variable to the passed value. The variables of the scopes
+     * above a parallel_for worker scope can't be set (see runParallelFor).
+     *
+     * @param id is the name of the target variable
+     * @param value is the value to set
+     * @return false if the variable can't be set (the error is then displayed).
+     */
+    private boolean setVariableValue(String id, BigDecimal value) {
+        if (putVariableValue(id, value))
+            return true;
+
+        mActivity.doDisplayMessage(mActivity.getString(R.string.parallel_for_error) + id);
+        return false;
+    }
+
+    // compiled counterpart
+    private boolean setVariableValue(ScopedIdentifier id, Object value) {
+        if (id.set(mRuntime, value))
+            return true;
+
+        mActivity.doDisplayMessage(mActivity.getString(R.string.parallel_for_error) + id.mId);
+        return false;
+    }
+
+    /**
+     * Sets the (looked up) given variable to the passed value, unless held by a scope above
+     * a parallel_for worker scope.
+     *
+     * @param id is the name of the target variable
+     * @param value is the value to set
+     * @return false if the variable can't be set.
+     */
+    private boolean putVariableValue(String id, BigDecimal value) {
+        if (mVariables.containsKey(id))
+            mVariables.put(id, value);
+        else if (mParent != null && mParent.lookupForVariable(id) != null)
+            return !mWorkerScope && mParent.putVariableValue(id, value);
+        else
+            mVariables.put(id, value);
+
+        return true;
+    }
+
+    /**
+     * Gets the (looked up) given variable's value.
+     *
+     * @param id is the name of the target variable
+     *
+     * @return the value or 0 if no variable found
+     */
+    private BigDecimal getVariableValue(String id) {
+        BigDecimal variable = lookupForVariable(id);
+        return variable == null ? BigDecimal.valueOf(0) : variable;
+    }
+
+    /**
+     * Saves the passed script block into the global functions
+     * hashmap, associated with the function name key.
+     *
+     * @param function is the name of the function to save
+     * @param arity is the number of arguments of a memoized function, -1 if not memoized
+     * @param block is the script block for the function
+     */
+    private void saveFunction(String function, int arity, ScriptTokens block) {
+        FunctionLibrary.define(function, block.getText(), block, arity == -1 ? null : new MemoTable(arity));
+    }
+
+    /**
+     * Compiles the passed script block into the global compiled functions
+     * hashmap and saves the block in the global functions hashmap, both associated with
+     * the function name key.
      *
      * @param function is the name of the function to compile & save
+     * @param arity is the number of arguments of a memoized function, -1 if not memoized
      * @param block is the script block for the function
      */
-    private boolean compileAndSaveFunction(String function, String block) {
-        ArrayList<ScriptOperation> functionLambdaCode = new ArrayList<>();
+    private boolean compileAndSaveFunction(String function, int arity, ScriptTokens block) {
+        CompiledScript functionCode = new CompiledScript();
         try {
-            if (new ScriptEngine(this, mActivity, mCalculator, block).compileScript(functionLambdaCode)) {
-                mCompiledFunctions.put(function, functionLambdaCode);
-                mFunctions.put(function, block);
+            ScriptEngine engine = new ScriptEngine(this, mActivity, mCalculator, block);
+            engine.mFrame = engine;
+            engine.mLocalFrame = engine;
+            if (engine.compileScript(functionCode)) {
+                functionCode.setFrame(engine.mLocalScopes == 0 ? null : engine);
+                if (mActivity.isOptimizationSelected())
+                    functionCode = CodeOptimizer.optimize(functionCode);
+                if (arity != -1)
+                    functionCode.setMemo(new MemoTable(arity));
+                String text = block.getText();
+                FunctionLibrary.define(function, text, block, functionCode);
+                if (mProgram != null)
+                    mProgram.defineFunction(function, text, functionCode);
 
                 return true;
             }
@@ -262,199 +1250,724 @@ public class ScriptEngine {
      * @return the block execution result or false if the function doesn't exist
      */
     private boolean callFunction(String function) {
-        if (!mFunctions.containsKey(function)) {
+        FunctionLibrary library = FunctionLibrary.get();
+        if (!library.contains(function)) {
             mActivity.doDisplayMessage(mActivity.getString(R.string.undefined_function) + function);
             return false;
         }
 
-        // run the function in the context of a new engine
+        if (safepoint())
+            return true;
+
+        // memoized functions results are recalled when called with the same arguments
+        MemoTable memo = library.getMemoTable(function);
+        Object memoKey = memo == null ? null : memo.key(mCalculator);
+        if (memoKey != null && memo.recall(mCalculator, memoKey))
+            return true;
+        int memoBase = memoKey == null ? 0 : mCalculator.getStackSize() - memo.getArity();
+
+        if (!enterCall())
+            return false;
+
+        // run the function in the context of a new engine, or its compiled code once hot
         boolean runOk = false;
 
         try {
-            runOk = new ScriptEngine(this, mActivity, mCalculator, mFunctions.get(function)).interpretScript();
+            ScriptTokens tokens = library.getTokens(function);
+            HotCode hot = getHotCode(tokens, mHotCallThreshold);
+            CompiledScript code = hot == null ? null : hot.enter(this);
+            if (code != null)
+                runOk = runCode(code);
+            else if (canNestInterpreter()) {
+                ScriptEngine engine = new ScriptEngine(this, mActivity, mCalculator, tokens.rewind());
+                engine.mFrame = engine;
+                runOk = engine.interpretScript();
+                if (hot != null && hot.count(mHotCallThreshold))
+                    compileHotCode(hot, tokens, false);
+            }
+            if (runOk && memoKey != null && !mRuntime.mStopping)
+                memo.record(mCalculator, memoKey, memoBase);
+        } catch (IOException e) {
+            // ignored on purpose
+        } finally {
+            --mRuntime.mCallDepth;
+        }
+
+        return runOk;
+    }
+
+    // compiled counterpart : the call is bound to the function code if already compiled, small
+    // functions without variables being inlined, and linked upon call else (recursive calls,
+    // functions defined later..)
+    private boolean compileFunctionCall(String function, CompiledScript code) {
+        CompiledScript functionCode = FunctionLibrary.get().getCode(function);
+        if (functionCode == null) {
+            code.emitConstant(CompiledScript.OP_CALL, new CompiledScript.FunctionCall(function, null));
+            return true;
+        }
+
+        if (mProgram != null)
+            mProgram.linkFunction(function, functionCode);
+        if (functionCode.size() <= MAX_INLINED_FUNCTION_SIZE && functionCode.getMemo() == null && functionCode.getFrame() == null)
+            code.append(functionCode);
+        else
+            code.emitConstant(CompiledScript.OP_CALL, new CompiledScript.FunctionCall(function, functionCode));
+
+        return true;
+    }
+
+    /**
+     * Links a compiled call site to the function code (see runCode).
+     *
+     * @param call is the call site
+     *
+     * @return the function code, null if the function isn't compiled (or doesn't exist)
+     */
+    private CompiledScript linkFunctionCall(CompiledScript.FunctionCall call) {
+        if (call.mBound)
+            return call.mTarget;
+
+        FunctionLibrary library = FunctionLibrary.get();
+        CompiledScript.FunctionCall.Link link = call.mLink;
+        if (link == null || link.mVersion != library.getVersion())
+            call.mLink = link = new CompiledScript.FunctionCall.Link(library.getCode(call.mFunction), library.getVersion());
+
+        return link.mTarget;
+    }
+
+    /**
+     * Checks an interpreted function call against the interpreter nesting limit : unlike the
+     * compiled calls (see enterCall), the interpreted ones nest java calls, and the running
+     * thread stack must not be exhausted.
+     *
+     * @return false if the interpreter is nested too deep (the error is then displayed).
+     */
+    private boolean canNestInterpreter() {
+        int limit = mRuntime.mLauncher == null ? mMaxInterpretedDepth : PARALLEL_MAX_INTERPRETED_DEPTH;
+        if (mRuntime.mRunning < limit)
+            return true;
+
+        mActivity.doDisplayMessage(mActivity.getString(R.string.interpreter_stack_overflow) + limit);
+        return false;
+    }
+
+    /**
+     * Enters a function call : the call stack depth is checked against the limit, and a
+     * frame is made available for the caller.
+     *
+     * @return false if the calls are nested too deep (the error is then displayed).
+     */
+    private boolean enterCall() {
+        ScriptRuntime runtime = mRuntime;
+        if (runtime.mCallDepth >= mMaxCallDepth) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.call_stack_overflow) + mMaxCallDepth);
+            return false;
+        }
+
+        if (runtime.mCallDepth == runtime.mCallStack.length)
+            runtime.mCallStack = Arrays.copyOf(runtime.mCallStack, runtime.mCallDepth * 2);
+        if (runtime.mCallStack[runtime.mCallDepth] == null)
+            runtime.mCallStack[runtime.mCallDepth] = new CallFrame();
+        ++runtime.mCallDepth;
+
+        return true;
+    }
+
+    /**
+     * Evaluates the items of a typed infixed expression, as the rpn script it converts
+     * to would be interpreted.
+     *
+     * @param expression is the typed expression
+     *
+     * @return true if the expression was evaluated correctly, else return false
+     */
+    private boolean evaluateInfixed(InfixExpression expression) {
+        boolean runOk = true;
+        for (int i = 0; runOk && i < expression.size() && !mRuntime.mStopping; i++) {
+            switch (expression.getKind(i)) {
+                case InfixExpression.LITERAL:
+                    mCalculator.doPushValueOnStack((BigDecimal)expression.getValue(i));
+                    break;
+
+                case InfixExpression.VARIABLE:
+                    mCalculator.doPushValueOnStack(getVariableValue((String)expression.getValue(i)));
+                    break;
+
+                case InfixExpression.ARRAY_VALUE:
+                    runOk = pushArrayValue((String)expression.getValue(i));
+                    break;
+
+                case InfixExpression.OPERATOR:
+                    switch (expression.getOperand(i)) {
+                        case CompiledScript.OP_ADD:
+                            runOk = mCalculator.doAdd();
+                            break;
+
+                        case CompiledScript.OP_SUB:
+                            runOk = mCalculator.doSub();
+                            break;
+
+                        case CompiledScript.OP_MUL:
+                            runOk = mCalculator.doMul();
+                            break;
+
+                        case CompiledScript.OP_DIV:
+                            runOk = mCalculator.doDiv();
+                            break;
+
+                        case CompiledScript.OP_MOD:
+                            runOk = mCalculator.doModulo();
+                            break;
+                    }
+                    break;
+
+                case InfixExpression.MATH_CALL:
+                    if (expression.getOperand(i) != MathIntrinsics.NONE)
+                        runOk = mCalculator.doMathIntrinsic(expression.getOperand(i));
+                    else
+                        runOk = mCalculator.doJavaMathCall((String)expression.getValue(i));
+                    break;
+
+                case InfixExpression.FUNCTION_CALL:
+                    runOk = callFunction((String)expression.getValue(i));
+                    break;
+            }
+        }
+
+        return runOk;
+    }
+
+    // compiled counterpart : the items are compiled as the rpn script tokens would be
+    private boolean compileInfixed(InfixExpression expression, CompiledScript code) {
+        for (int i = 0; i < expression.size(); i++) {
+            switch (expression.getKind(i)) {
+                case InfixExpression.LITERAL:
+                    code.emitConstant(CompiledScript.OP_PUSH_CONSTANT, expression.getValue(i));
+                    break;
+
+                case InfixExpression.VARIABLE:
+                    code.emitConstant(CompiledScript.OP_PUSH_VARIABLE, new ScopedIdentifier(this, (String)expression.getValue(i), false));
+                    break;
+
+                case InfixExpression.ARRAY_VALUE:
+                    code.emitConstant(CompiledScript.OP_PUSH_ARRAY_VALUE, new ScopedIdentifier(this, (String)expression.getValue(i), true));
+                    break;
+
+                case InfixExpression.OPERATOR:
+                    code.emit(expression.getOperand(i));
+                    break;
+
+                case InfixExpression.MATH_CALL:
+                    if (expression.getOperand(i) != MathIntrinsics.NONE)
+                        code.emit(CompiledScript.OP_MATH_INTRINSIC, expression.getOperand(i));
+                    else
+                        code.emitConstant(CompiledScript.OP_MATH_CALL, expression.getValue(i));
+                    break;
+
+                case InfixExpression.FUNCTION_CALL:
+                    if (!compileFunctionCall((String)expression.getValue(i), code))
+                        return false;
+                    break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the sorted list of ('defuned') functions in ascending order.
+     */
+    public static String[] getFunctions() {
+        return FunctionLibrary.get().getFunctions();
+    }
+
+    /**
+     * Execute the passed script if block.
+     *
+     * @param block is the script block to execute
+     *
+     * @return the block execution result
+     */
+    private boolean interpretIfBlock(ScriptTokens block) {
+        if (!mCalculator.hasValueOnStack())
+            return false;
+
+        // run the if block in the context of a new engine
+        try {
+            if (mCalculator.doPopDoubleFromStack() != 0.0)
+                return new ScriptEngine(this, mActivity, mCalculator, block).interpretScript();
         } catch (IOException e) {
             // ignored on purpose
         }
 
-        return runOk;
+        return true;
+    }
+
+    // compiled counterpart
+    private boolean compileIfBlock(ScriptTokens block, CompiledScript code) {
+        // compile the if block in the context of a new engine, skipped if stack.peek() == 0
+        boolean compileOk = false;
+        int jumpToEnd = code.emit(CompiledScript.OP_JUMP_IF_ZERO);
+        try {
+            compileOk = compileBlock(block, code);
+        } catch (IOException e) {
+            // ignore on purpose
+        }
+        code.patchJump(jumpToEnd, code.size());
+
+        return compileOk;
+    }
+
+    /**
+     * Compiles a block (if, else, while or for block) in the context of a new engine. The
+     * variables of a hot code block are reset upon each entry, as the interpreter runs the
+     * block in a new scope each time.
+     *
+     * @param block is the script block to compile
+     * @param code is the code the block is compiled to
+     *
+     * @return true if compiled.
+     */
+    private boolean compileBlock(ScriptTokens block, CompiledScript code) throws IOException {
+        ScriptEngine engine = new ScriptEngine(this, mActivity, mCalculator, block);
+        if (mLocalFrame != null && mLocalFrame.mHotScope)
+            code.emit(CompiledScript.OP_NEW_SCOPE, engine.indexLocalScope());
+
+        return engine.compileScript(code);
+    }
+
+    /**
+     * Execute the passed script if/else block.
+     *
+     * @param ifBlock is the script if block to execute if stack.peek() != 0
+     * @param elseBlock is the script else block to execute else
+     *
+     * @return the block execution result
+     */
+    private boolean interpretIfElseBlock(ScriptTokens ifBlock, ScriptTokens elseBlock) {
+        if (!mCalculator.hasValueOnStack())
+            return false;
+
+        // run the if/else block in the context of a new engine
+        try {
+            if (mCalculator.doPopDoubleFromStack() != 0.0)
+                // run the if block
+                return new ScriptEngine(this,mActivity, mCalculator, ifBlock).interpretScript();
+            else {
+                // run the else block
+                return new ScriptEngine(this, mActivity, mCalculator, elseBlock).interpretScript();
+            }
+        } catch (IOException e) {
+            // ignored on purpose
+        }
+
+        return true;
+    }
+
+    // compiled counterpart
+    private boolean compileIfElseBlock(ScriptTokens ifBlock, ScriptTokens elseBlock, CompiledScript code) {
+        // compile the if else blocks in the context of a new engine
+        boolean compileOk = false;
+        int jumpToElse = code.emit(CompiledScript.OP_JUMP_IF_ZERO);
+        try {
+            if (compileBlock(ifBlock, code)) {
+                int jumpToEnd = code.emit(CompiledScript.OP_JUMP);
+                code.patchJump(jumpToElse, code.size());
+                compileOk = compileBlock(elseBlock, code);
+                code.patchJump(jumpToEnd, code.size());
+            }
+        } catch (IOException e) {
+            // ignore on purpose
+        }
+
+        return compileOk;
+    }
+
+    /**
+     * Iterates on the passed script while block.
+     *
+     * @param block is the script while block to execute while stack.peek() != 0, replayed upon each iteration
+     *
+     * @return the block execution result
+     */
+    private boolean interpretWhileBlock(ScriptTokens block) {
+        if (!mCalculator.hasValueOnStack())
+            return false;
+
+        // run the while block in the context of a new engine
+        boolean runOk = true;
+        HotCode hot = getHotCode(block, mHotLoopThreshold);
+        try {
+            while (true) {
+                // loop head, the loop goes on compiled once hot
+                CompiledScript code = hot == null ? null : hot.enter(this);
+                if (code != null) {
+                    runOk = runCode(code);
+                    break;
+                }
+
+                if (!(runOk = mCalculator.hasValueOnStack()) || mCalculator.doPopDoubleFromStack() == 0.0)
+                    break;
+                if (!(runOk = new ScriptEngine(this, mActivity, mCalculator, block.rewind()).interpretScript()) || mFrame.mExiting)
+                    break;
+
+                // loop back edge
+                if (safepoint())
+                    break;
+                if (hot != null && hot.count(mHotLoopThreshold))
+                    compileHotCode(hot, block, true);
+            }
+        } catch (IOException e) {
+            // ignored on purpose
+        }
+
+        return runOk;
+    }
+
+    /**
+     * Gets the execution profile of an interpreted block, if it may be compiled once hot :
+     * the code isn't compiled when debugging.
+     *
+     * @param block is a while block or function
+     * @param threshold is the block hot threshold, 0 if never compiled
+     *
+     * @return the block profile, null if never compiled.
+     */
+    private HotCode getHotCode(ScriptTokens block, int threshold) {
+        if (threshold == 0 || !mRuntime.mContexts.isEmpty() && mRuntime.mContexts.peek().mDebugState != none)
+            return null;
+
+        return block.getHotCode();
+    }
+
+    /**
+     * Compiles a hot while block or function, in the background, the interpreter going on
+     * meanwhile. The blocks defining functions, running scripts or holding debug breaks are left
+     * interpreted.
+     *
+     * @param hot is the block profile, given the compiled code
+     * @param block is the while block or function
+     * @param loop is true for a while block
+     */
+    private void compileHotCode(final HotCode hot, final ScriptTokens block, final boolean loop) {
+        if (block.contains(ScriptLexer.sym.FUNDEF) || block.contains(ScriptLexer.sym.RUN_SCRIPT) ||
+            block.contains(ScriptLexer.sym.DEBUG_BREAK))
+            return;
+
+        final ScriptEngine parent = this;
+        final boolean optimize = mActivity.isOptimizationSelected();
+        getHotCodeCompiler().execute(new Runnable() {
+            @Override
+            public void run() {
+                int version = FunctionLibrary.get().getVersion();
+                ScriptRuntime runtime = new ScriptRuntime(mCalculator, true);
+                runtime.mContexts.push(new Context(Context.State.RUNNING));     // not a top most script
+                ScriptEngine scope = new ScriptEngine(parent, runtime, block.rewind());
+                scope.mHotScope = true;
+                scope.mLocalFrame = scope;
+
+                CompiledScript code = new CompiledScript();
+                boolean compileOk = false;
+                try {
+                    compileOk = loop ? scope.compileHotLoop(code) : scope.compileScript(code);
+                } catch (IOException e) {
+                    // ignored on purpose
+                }
+                code.setFrame(scope.mLocalScopes == 0 ? null : scope);
+                if (compileOk)
+                    hot.setCode(optimize ? CodeOptimizer.optimize(code) : code, version);
+            }
+        });
+    }
+
+    /**
+     * Compiles the hot while block of this scope, the loop being entered at its head : the
+     * exits from the block exit the interpreter frame running it.
+     *
+     * @param code is the while block compiled code
+     *
+     * @return true if compiled.
+     */
+    private boolean compileHotLoop(CompiledScript code) {
+        boolean compileOk = compileWhileBlock(mTokens, code);
+        if (mExitJumps != null) {
+            int jumpToEnd = code.emit(CompiledScript.OP_JUMP);
+            for (int jump : mExitJumps)
+                code.patchJump(jump, code.size());
+            mExitJumps = null;
+            code.emit(CompiledScript.OP_EXIT);
+            code.patchJump(jumpToEnd, code.size());
+        }
+
+        return compileOk;
     }
 
     // compiled counterpart
-    private boolean compileFunctionCall(String function, ArrayList<ScriptOperation> lambdaCode) {
-        if (mCompiledFunctions == null)
-            return false;
-
-        // recursive function call can't be inlined
-        if (!mCompiledFunctions.containsKey(function)) {
-            // compile the function call in the context of a new engine
-            lambdaCode.add(() -> {
-                ArrayList<ScriptOperation> functionCode = mCompiledFunctions.get(function);
-                if (functionCode == null) {
-                        mActivity.doDisplayMessage(mActivity.getString(R.string.undefined_function) + function);
-                        return false;
-                }
-                return executeScript(functionCode);
-            });
-        } else {
-            // inlined version
-            lambdaCode.addAll(mCompiledFunctions.get(function));
+    private boolean compileWhileBlock(ScriptTokens block, CompiledScript code) {
+        // compile the while block in the context of a new engine, loops back to the
+        // condition test at the end of the block
+        boolean compileOk = false;
+        int loopStart = code.size();
+        int jumpToEnd = code.emit(CompiledScript.OP_JUMP_IF_ZERO);
+        try {
+            compileOk = compileBlock(block, code);
+        } catch (IOException e) {
+            // ignore on purpose
         }
+        code.emit(CompiledScript.OP_JUMP, loopStart);
+        code.patchJump(jumpToEnd, code.size());
 
-        return true;
+        return compileOk;
     }
 
     /**
-     * @return the sorted list of ('defuned') functions in ascending order.
+     * Pops the for loop step, end and start values off the stack.
+     *
+     * @return the loop counter, null if the values are missing or invalid (the error is then displayed).
      */
-    public static String[] getFunctions() {
-        String []functions = mFunctions.keySet().toArray(new String[0]);
-        Arrays.sort(functions);
-        return functions;
+    private LoopCounter popLoopCounter() {
+        if (mCalculator.getStackSize() < 3)
+            return null;
+
+        LoopCounter counter;
+        if (mCalculator.isDoubleMode()) {
+            double step = mCalculator.doPopDoubleFromStack();
+            double end = mCalculator.doPopDoubleFromStack();
+            counter = LoopCounter.create(mCalculator.doPopDoubleFromStack(), end, step);
+        } else {
+            BigDecimal step = mCalculator.doPopValueFromStack();
+            BigDecimal end = mCalculator.doPopValueFromStack();
+            counter = LoopCounter.create(mCalculator.doPopValueFromStack(), end, step);
+        }
+        if (counter == null)
+            mActivity.doDisplayMessage(mActivity.getString(R.string.for_loop_error));
+
+        return counter;
     }
 
     /**
-     * Execute the passed script if block.
+     * Iterates on the passed script for block, the start, end and step values being popped
+     * off the stack once.
      *
-     * @param block is the script block to execute
+     * @param id is the counter variable, set to each value from start to end (included)
+     * @param block is the script for block to execute, replayed upon each iteration
      *
      * @return the block execution result
      */
-    private boolean interpretIfBlock(String block) {
-        if (!mCalculator.hasValueOnStack())
+    private boolean interpretForBlock(String id, ScriptTokens block) {
+        LoopCounter counter = popLoopCounter();
+        if (counter == null)
             return false;
 
-        // run the if block in the context of a new engine
+        // run the for block in the context of a new engine
+        boolean runOk = true;
         try {
-            if (mCalculator.doPopValueFromStack().doubleValue() != 0.0)
-                return new ScriptEngine(this, mActivity, mCalculator, block).interpretScript();
+            if (counter.isInRange()) {
+                do {
+                    if (!(runOk = setVariableValue(id, counter.toBigDecimal())))
+                        break;
+                    if (!(runOk = new ScriptEngine(this, mActivity, mCalculator, block.rewind()).interpretScript()) || mFrame.mExiting)
+                        break;
+
+                    // loop back edge
+                    if (safepoint())
+                        break;
+                } while (counter.next());
+            }
         } catch (IOException e) {
             // ignored on purpose
         }
 
-        return true;
+        return runOk;
     }
 
     // compiled counterpart
-    private boolean compileIfBlock(String block, ArrayList<ScriptOperation> lambdaCode) {
-        // compile the if block in the context of a new engine
-        ArrayList<ScriptOperation> ifBlockLambdaCode = new ArrayList<>();
+    private boolean compileForBlock(String id, ScriptTokens block, CompiledScript code) {
+        // the counter is set up (or the block skipped), then the block is compiled in the
+        // context of a new engine, and loops back while the next counter value is in range
+        boolean compileOk = false;
+        int counter = code.addConstant(new ScopedIdentifier(this, id, false));
+        code.emit(CompiledScript.OP_FOR_INIT, counter);
+        int jumpToEnd = code.emit(CompiledScript.OP_JUMP);
+        int loopStart = code.size();
         try {
-            new ScriptEngine(this, mActivity, mCalculator, block).compileScript(ifBlockLambdaCode);
-
-            lambdaCode.add(() ->
-            {
-                if (!mCalculator.hasValueOnStack())
-                    return false;
-
-                if (mCalculator.doPopValueFromStack().doubleValue() != 0.0)
-                    return executeScript(ifBlockLambdaCode);
-
-                return true;
-            });
+            compileOk = compileBlock(block, code);
         } catch (IOException e) {
             // ignore on purpose
         }
+        code.emit(CompiledScript.OP_FOR_NEXT, counter);
+        code.emit(CompiledScript.OP_JUMP, loopStart);
+        code.patchJump(jumpToEnd, code.size());
 
-        return true;
+        return compileOk;
     }
 
     /**
-     * Execute the passed script if/else block.
+     * Runs the passed script parallel_for block once for each counter value, the start, end
+     * and step values being popped off the stack once. The iterations are run by the workers
+     * of a fork/join pool (see runParallelFor).
      *
-     * @param ifBlock is the script if block to execute if stack.peek() != 0
-     * @param elseBlock is the script else block to execute else
+     * @param id is the counter variable, set to each value from start to end (included)
+     * @param block is the script parallel_for block to execute
      *
      * @return the block execution result
      */
-    private boolean interpretIfElseBlock(String ifBlock, String elseBlock) {
-        if (!mCalculator.hasValueOnStack())
-            return false;
+    private boolean interpretParallelForBlock(String id, ScriptTokens block) {
+        return runParallelFor(new ParallelFor(this, id, block));
+    }
 
-        // run the if/else block in the context of a new engine
+    // compiled counterpart : the block is compiled once, in the context of a new engine, the
+    // frame of its variables (the counter included) which the workers hold apart. Exit ends
+    // the current iteration
+    private boolean compileParallelForBlock(String id, ScriptTokens block, CompiledScript code) {
+        ScriptEngine engine = new ScriptEngine(this, mActivity, mCalculator, block);
+        engine.mFrame = engine;
+        engine.mLocalFrame = engine;
+        ScopedIdentifier counter = new ScopedIdentifier(engine, id, false);
+        CompiledScript blockCode = new CompiledScript();
         try {
-            if (mCalculator.doPopValueFromStack().doubleValue() != 0.0)
-                // run the if block
-                return new ScriptEngine(this,mActivity, mCalculator, ifBlock).interpretScript();
-            else {
-                // run the else block
-                return new ScriptEngine(this, mActivity, mCalculator, elseBlock).interpretScript();
-            }
+            if (!engine.compileScript(blockCode))
+                return false;
         } catch (IOException e) {
-            // ignored on purpose
+            return false;
         }
+        blockCode.setFrame(engine);
+        if (mActivity.isOptimizationSelected())
+            blockCode = CodeOptimizer.optimize(blockCode);
+        code.emitConstant(CompiledScript.OP_PARALLEL_FOR, new ParallelFor(this, id, blockCode, counter));
 
         return true;
     }
 
-    // compiled counterpart
-    private boolean compileIfElseBlock(String ifBlock, String elseBlock, ArrayList<ScriptOperation> lambdaCode) {
-        // compile the if else blocks in the context of a new engine
-        ArrayList<ScriptOperation> ifBlockLambdaCode = new ArrayList<>();
-        ArrayList<ScriptOperation> elseBlockLambdaCode = new ArrayList<>();
-        try {
-            new ScriptEngine(this, mActivity, mCalculator, ifBlock).compileScript(ifBlockLambdaCode);
-            new ScriptEngine(this, mActivity, mCalculator, elseBlock).compileScript(elseBlockLambdaCode);
-
-            lambdaCode.add(() ->
-            {
-                if (!mCalculator.hasValueOnStack())
-                    return false;
+    /**
+     * Runs a parallel_for block : the counter values are split in chunks, run by the workers
+     * of a fork/join pool. Each worker has its own stack, starting empty, and its own scope : the
+     * variables of the script are read but can't be set, while its arrays are shared but can't be
+     * created : the iterations set their results in arrays created before the loop, or leave them
+     * on their stacks. Once all the chunks are done, the values left on their stacks are pushed on
+     * the script stack, and their drawings run, in the counter values order, as a for loop would.
+     * Exit ends the current iteration.
+     *
+     * @param loop is the parallel_for block
+     *
+     * @return the block execution result
+     */
+    private boolean runParallelFor(ParallelFor loop) {
+        LoopCounter counter = popLoopCounter();
+        if (counter == null)
+            return false;
 
-                if (mCalculator.doPopValueFromStack().doubleValue() != 0.0)
-                    return executeScript(ifBlockLambdaCode);
-                else
-                    return executeScript(elseBlockLambdaCode);
-            });
-        } catch (IOException e) {
-            // ignore on purpose
+        long count = counter.count();
+        if (count < 0) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.for_loop_error));
+            return false;
+        }
+        if (count == 0)
+            return true;
+
+        ForkJoinPool pool = getParallelPool();
+        ParallelRun run = new ParallelRun(this, loop, counter, count,
+                                          (int)Math.min(count, (long)pool.getParallelism() * PARALLEL_CHUNKS_PER_WORKER));
+        pool.invoke(new ParallelTask(run, 0, run.mChunks.length));
+
+        // the workers stopped too
+        if (pollSafepoint())
+            return true;
+
+        for (ParallelChunk chunk : run.mChunks)
+            if (!chunk.mRunOk)
+                return false;
+
+        for (ParallelChunk chunk : run.mChunks) {
+            for (Number value : chunk.mValues)
+                mCalculator.doPushNumberOnStack(value);
+            if (!chunk.mDrawing.replay(mActivity, mCalculator))
+                return false;
         }
 
         return true;
     }
 
     /**
-     * Iterates on the passed script while block.
-     *
-     * @param block is the script while block to execute while stack.peek() != 0
+     * Runs a chunk of the counter values of a parallel_for block, in a worker.
      *
-     * @return the block execution result
+     * @param run is the parallel_for run
+     * @param chunk is the chunk index
+     * @return the chunk results.
      */
-    private boolean interpretWhileBlock(String block) {
-        if (!mCalculator.hasValueOnStack())
-            return false;
+    private ParallelChunk runParallelChunk(ParallelRun run, int chunk) {
+        long first = run.mCount / run.mChunks.length * chunk + Math.min(chunk, run.mCount % run.mChunks.length);
+        long last = first + run.mCount / run.mChunks.length + (chunk < run.mCount % run.mChunks.length ? 1 : 0);
+
+        Calculator calculator = new Calculator(mActivity);
+        if (mCalculator.isDoubleMode())
+            calculator.doEnterDoubleMode();
+        ScriptRuntime runtime = new ScriptRuntime(calculator, mRuntime);
+        runtime.mContexts.push(new Context(Context.State.RUNNING));     // not a top most script
+        ScriptTokens block = run.mLoop.mBlock == null ? null : run.mLoop.mBlock.rewind();
+        ScriptEngine worker = new ScriptEngine(run.mLoop.mScope, runtime, block);
+        worker.mWorkerScope = true;     // the variables of the parent scopes are only read
+
+        ParallelChunk result = new ParallelChunk();
+        worker.enterRun();
+        try {
+            result.mRunOk = run.mLoop.mCode != null ?
+                    worker.executeParallelChunk(run, first, last) : worker.interpretParallelChunk(run, first, last);
+        } finally {
+            worker.leaveRun();
+        }
+        if (!result.mRunOk)
+            run.mFailed = true;
+        result.mValues = calculator.doPeekNumbersFromStack(calculator.getStackSize());
+        result.mDrawing = runtime.mDrawing;
 
-        // run the while block in the context of a new engine
-        boolean runOk = true;
+        return result;
+    }
+
+    /**
+     * Runs the iterations of a parallel_for block chunk, in the worker scope.
+     *
+     * @param run is the parallel_for run
+     * @param first is the index of the first counter value of the chunk
+     * @param last is the index of the counter value after the chunk
+     * @return the iterations execution result
+     */
+    private boolean interpretParallelChunk(ParallelRun run, long first, long last) {
+        LoopCounter counter = run.mCounter.at(first);
         try {
-            while ((runOk = mCalculator.hasValueOnStack()) && mCalculator.doPopValueFromStack().doubleValue() != 0.0) {
-                if (!(runOk = new ScriptEngine(this, mActivity, mCalculator, block).interpretScript()))
+            for (long i = first; i < last && !run.mFailed; i++) {
+                mVariables.put(run.mLoop.mId, counter.toBigDecimal());
+                if (!new ScriptEngine(this, mActivity, mCalculator, mTokens.rewind()).interpretScript())
+                    return false;
+                mExiting = false;
+
+                if (safepoint())
                     break;
+                counter.next();
             }
         } catch (IOException e) {
             // ignored on purpose
         }
 
-        return runOk;
+        return true;
     }
 
-    // compiled counterpart
-    private boolean compileWhileBlock(String block, ArrayList<ScriptOperation> lambdaCode) {
-        // compile the if block in the context of a new engine
-        ArrayList<ScriptOperation> whileBlockLambdaCode = new ArrayList<>();
-        try {
-            new ScriptEngine(this, mActivity, mCalculator, block).compileScript(whileBlockLambdaCode);
-
-            lambdaCode.add(() ->
-            {
-                boolean runOk;
-                while ((runOk = mCalculator.hasValueOnStack()) && mCalculator.doPopValueFromStack().doubleValue() != 0.0) {
-                    if (!(runOk = executeScript(whileBlockLambdaCode)))
-                        break;
-                }
-                return runOk;
-            });
-        } catch (IOException e) {
-            // ignore on purpose
+    // compiled counterpart : each iteration runs the block code with slot values of its own
+    private boolean executeParallelChunk(ParallelRun run, long first, long last) {
+        CompiledScript code = run.mLoop.mCode;
+        ScriptEngine frame = code.getFrame();
+        ScriptRuntime runtime = mRuntime;
+        LoopCounter counter = run.mCounter.at(first);
+        for (long i = first; i < last && !run.mFailed; i++) {
+            runtime.mSlots = new Object[frame.mLocalScopes][];
+            runtime.mFrameScope = frame;
+            run.mLoop.mCounter.set(runtime, counter);
+            if (!dispatch(code, runtime.mCallDepth))
+                return false;
+
+            if (safepoint())
+                break;
+            counter.next();
         }
 
         return true;
@@ -467,68 +1980,28 @@ public class ScriptEngine {
      * @param function is the name of the function to delete
      */
     private void deleteFunction(String function) {
-        if (!mFunctions.containsKey(function))
-            return;
-
-        mFunctions.remove(function);
-        mCompiledFunctions.remove(function);
+        FunctionLibrary.delete(function);
     }
 
     /**
-     * I've found no efficient way to get the offset of the last recognized token
-     * from the start of the script. So this returns the byte offset of the character
-     * at the given line/column :/
-     *
-     * @param line is the last recognized token line
-     * @param column is the last recognized token start column in line
-     *
-     * @return the offset of the last recognized token from the start of the script
-     */
-    private int computeOffsetFromStartOfBlock(int line, int column) {
-        int offset = 0;
-        int l = 0;
-        while (l < line && offset < mScript.length()) {
-            char c = mScript.charAt(offset++);
-            if (c == '\n' || c == '\r')
-                ++l;
-        }
-        return offset + column;
-    }
-
-    /**
-     * Computes the number of the line where the character at the given byte offset is located.
-     *
-     * @param offset is the character byte offset from the start of the script
-     *
-     * @return the line corresponding to the given offset
+     * @return the script text, taken from the tokens for a block.
      */
-    private int computeLineFromStartOfScript(int offset) {
-        if (mParent != null)
-            return mParent.computeLineFromStartOfScript(offset);
-
-        int line = 1;
-        int o = 0;
-        while (o < offset && o < mScript.length()) {
-            char c = mScript.charAt(o++);
-            if (c == '\n' || c == '\r')
-                ++line;
-        }
-
-        return line;
+    private String getScript() {
+        if (mScript == null)
+            mScript = mTokens.getText();
+        return mScript;
     }
 
     /**
      * Gets the syntactical token at the given offset.
      *
+     * @param script is the script text
      * @param offset is the offset of the requested token in the script.
      *
      * @return the token string value
      */
-    private String getTokenAtOffset(int offset) {
-        if (mParent != null)
-            return mParent.getTokenAtOffset(offset);
-
-        String token = mScript.substring(offset).trim();
+    private static String getTokenAtOffset(String script, int offset) {
+        String token = script.substring(offset).trim();
         token = token.replace('\n', ' ');
         token = token.replace('\t', ' ');
         token = token.replace('\r', ' ');
@@ -539,19 +2012,40 @@ public class ScriptEngine {
     }
 
     /**
-     * Pops up a dialog reading debugging information regarding the current syntax error.
+     * Pops up a dialog reading debugging information regarding the current syntax error, but
+     * when compiling hot code (the interpreter reports the errors it runs into).
      *
      * @param curContext described the current analysis context where the error was encountered
      */
     private void syntaxError(Context curContext) {
+        if (mRuntime.mBackground)
+            return;
+
         // script..
-        // get offset from start of script
-        int offset = computeOffsetFromStartOfBlock(curContext.mLexer.yyline(), curContext.mLexer.yycolumn());
-        int line = computeLineFromStartOfScript(offset);
+        // the token position from the start of script
+        ScriptTokens lexer = curContext.mLexer;
+        String error = mActivity.getString(R.string.syntax_error) +
+                (lexer.getScriptLine() + 1) + "/" +
+                lexer.yycolumn() + mActivity.getString(R.string.unexpected_token) +
+                getTokenAtOffset(lexer.getScript(), lexer.yychar());
+        mActivity.doDisplayMessage(error);
+    }
+
+    /**
+     * Displays the malformed infixed expression error, at the current token.
+     *
+     * @param curContext is the current context
+     * @param expression is the malformed expression
+     */
+    private void infixedError(Context curContext, InfixExpression expression) {
+        if (mRuntime.mBackground)
+            return;
+
+        ScriptTokens lexer = curContext.mLexer;
         String error = mActivity.getString(R.string.syntax_error) +
-                line + "/" +
-                curContext.mLexer.yycolumn() + mActivity.getString(R.string.unexpected_token) +
-                getTokenAtOffset(offset);
+                (lexer.getScriptLine() + 1) + "/" +
+                lexer.yycolumn() + "), " + mActivity.getString(R.string.infixed_error) +
+                expression.getError();
         mActivity.doDisplayMessage(error);
     }
 
@@ -568,13 +2062,75 @@ public class ScriptEngine {
     /**
      * @return a copy of the concatenated hierarchy's array hashmaps
      */
-    private HashMap<String, ArrayList<BigDecimal>> lookupArrays() {
-        HashMap<String, ArrayList<BigDecimal>> map = new HashMap<>(mArrays);
+    private HashMap<String, ScriptArray> lookupArrays() {
+        HashMap<String, ScriptArray> map = new HashMap<>(mArrays);
         if (mParent != null)
             map.putAll(mParent.lookupArrays());
         return map;
     }
 
+    /**
+     * Displays a progress message, but in the parallel_for workers and background compilations.
+     *
+     * @param message is the message resource id
+     */
+    private void displayProgressMessage(int message) {
+        if (mRuntime.mLauncher == null && !mRuntime.mBackground)
+            mActivity.doDisplayProgressMessage(mActivity.getString(message));
+    }
+
+    /**
+     * Updates the stack view, but in the parallel_for workers (their stack isn't shown).
+     */
+    private void updateStack() {
+        if (mRuntime.mLauncher == null)
+            mActivity.doUpdateStack();
+    }
+
+    /**
+     * Runs a drawing command, the parallel_for workers record it to be replayed in the
+     * iterations order (see runParallelFor).
+     *
+     * @param opcode is the drawing command opcode (CompiledScript.OP_PLOT..)
+     * @return false if the command arguments are missing.
+     */
+    private boolean draw(int opcode) {
+        DrawingList drawing = mRuntime.mDrawing;
+        return drawing != null ? drawing.record(opcode, mCalculator) : DrawingList.draw(mActivity, opcode);
+    }
+
+    /**
+     * Prompts the user for a value, pushed on the stack. The parallel_for workers can't.
+     *
+     * @param message is the prompt message
+     * @return false if the prompt isn't allowed.
+     */
+    private boolean promptForValue(String message) {
+        if (mRuntime.mLauncher != null) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.parallel_for_error) + message);
+            return false;
+        }
+
+        mActivity.doPromptForValue(message);
+        return true;
+    }
+
+    /**
+     * Runs a script file, in the current run. The parallel_for workers can't.
+     *
+     * @param filename is the script file name
+     * @param compiled is true if the script must be compiled
+     * @return false if the script file wasn't found or can't be run.
+     */
+    private boolean runScriptFile(String filename, boolean compiled) {
+        if (mRuntime.mLauncher != null) {
+            mActivity.doDisplayMessage(mActivity.getString(R.string.parallel_for_error) + filename);
+            return false;
+        }
+
+        return compiled ? mActivity.doExecuteInnerScriptFile(filename) : mActivity.doInterpretInnerScriptFile(filename);
+    }
+
     /**
      * Populates and show (or refresh) the debug dialog
      */
@@ -583,13 +2139,19 @@ public class ScriptEngine {
         for (Map.Entry<String, BigDecimal> pair : lookupVariables().entrySet()) {
             variables.append(pair.getKey()).append(":").append(pair.getValue()).append("\n");
         }
-        for (Map.Entry<String, ArrayList<BigDecimal>> pair : lookupArrays().entrySet()) {
-            ArrayList array = pair.getValue();
-            for (int k = 0; k < array.size(); k++)
-                if (array.get(k) != null)
-                    variables.append(pair.getKey()).append("[").append(k).append("] : ").append(array.get(k)).append("\n");
+        for (Map.Entry<String, ScriptArray> pair : lookupArrays().entrySet()) {
+            ScriptArray array = pair.getValue();
+            for (int k : array.getIndexes())
+                variables.append(pair.getKey()).append("[").append(k).append("] : ").append(array.get(k)).append("\n");
         }
-        mActivity.doUpdateDebugInfo(mContexts.peek().mLexer.yyline(), mScript, variables.toString(), mActivity.getStackDebugInfo());
+        variables.append(mActivity.getString(R.string.infixed_cache_stats))
+                 .append(ScriptCache.getInfixedHits()).append("/").append(ScriptCache.getInfixedMisses()).append("\n");
+        for (Map.Entry<String, MemoTable> pair : FunctionLibrary.get().getMemoTables().entrySet()) {
+            MemoTable memo = pair.getValue();
+            variables.append(pair.getKey()).append(mActivity.getString(R.string.memo_stats))
+                     .append(memo.getHits()).append("/").append(memo.getMisses()).append("/").append(memo.getEvictions()).append("\n");
+        }
+        mActivity.doUpdateDebugInfo(mRuntime.mContexts.peek().mLexer.yyline(), getScript(), variables.toString(), mActivity.getStackDebugInfo());
         mActivity.doShowDebugView();
     }
 
@@ -603,9 +2165,9 @@ public class ScriptEngine {
         Context newContext = new Context(Context.State.RUNNING);
         newContext.mDebugState = DebugView.DebugState.step_in;
 
-        mContexts.push(newContext);
+        mRuntime.mContexts.push(newContext);
         interpretScript();
-        mContexts.pop();
+        mRuntime.mContexts.pop();
 
         // close the debug dialog
         if (mActivity.isDebugViewShown())
@@ -615,6 +2177,85 @@ public class ScriptEngine {
         mActivity.doUpdateStack();
     }
 
+    /**
+     * Counts the new running script in its run, the top most one binding the run to the
+     * running thread (until it's done, see leaveRun).
+     *
+     * @return true if the script is the top most one of its run.
+     */
+    private boolean enterRun() {
+        ScriptRuntime runtime = mRuntime;
+        if (++runtime.mRunning != 1)
+            return false;
+
+        runtime.mOuter = mCurrentRuntime.get();
+        mCurrentRuntime.set(runtime);
+        synchronized (mRuntimes) {
+            mRuntimes.add(runtime);
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts the script done, the run is over once the top most one is.
+     */
+    private void leaveRun() {
+        ScriptRuntime runtime = mRuntime;
+        if (--runtime.mRunning != 0)
+            return;
+
+        mCurrentRuntime.set(runtime.mOuter);
+        runtime.mOuter = null;
+        synchronized (mRuntimes) {
+            mRuntimes.remove(runtime);
+        }
+    }
+
+    // script header line comment selecting the double mode : "// pragma double"
+    private static final String DOUBLE_MODE_PRAGMA = "pragma double";
+
+    /**
+     * Counts the new running script and, if it is the top most one, enters the double mode
+     * when selected by the user or by the script "pragma double" header comment.
+     *
+     * @return true if the double mode was entered, and must be left once the script is done.
+     */
+    private boolean enterExecutionMode() {
+        if (!enterRun() || mCalculator.isDoubleMode())
+            return false;
+
+        if (!mActivity.isDoubleModeSelected() && !hasDoubleModePragma(getScript()))
+            return false;
+
+        mCalculator.doEnterDoubleMode();
+        return true;
+    }
+
+    /**
+     * @param script is a script text
+     * @return true if the script header (its leading line comments) holds the double mode pragma.
+     */
+    static boolean hasDoubleModePragma(String script) {
+        int start = 0;
+        while (start < script.length()) {
+            int end = script.indexOf('\n', start);
+            if (end == -1)
+                end = script.length();
+
+            String line = script.substring(start, end).trim();
+            if (!line.isEmpty()) {
+                if (!line.startsWith("//"))
+                    return false;
+                if (line.substring(2).trim().equals(DOUBLE_MODE_PRAGMA))
+                    return true;
+            }
+            start = end + 1;
+        }
+
+        return false;
+    }
+
     /**
      * Executes the current script in the current execution/analysis context.
      *
@@ -622,28 +2263,23 @@ public class ScriptEngine {
      *
      * @throws IOException
      */
-    private static final AtomicInteger mCounter = new AtomicInteger(0);
-    static boolean isRunning() {
-        return mCounter.get() > 0;
-    }
-
     boolean interpretScript() throws IOException {
-        Symbol  symbol;
+        ScriptLexer.sym symbol;
         boolean runOk = true, stop = false;
 
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.interpreting_script));
+        displayProgressMessage(R.string.interpreting_script);
 
-        // a (new) script is running
-        mCounter.incrementAndGet();
+        // a (new) script is running, the top most one picks the execution mode
+        boolean doubleMode = enterExecutionMode();
 
         Context newContext;
-        Context curContext = mContexts.isEmpty() ? null : mContexts.peek();
+        Context curContext = mRuntime.mContexts.isEmpty() ? null : mRuntime.mContexts.peek();
 
         /*
         // #### debug contexts
         System.out.println("\n\n\n >>>> on interpretScript PREPARE entry: ");
-        System.out.println("\n\t contexts : " + mContexts.size() + "\n");
-        for (Context c : mContexts)
+        System.out.println("\n\t contexts : " + mRuntime.mContexts.size() + "\n");
+        for (Context c : mRuntime.mContexts)
             System.out.println("\t\t context debug state : " + c.mDebugState + "\n");
         System.out.println("\n\n");
         // ####
@@ -651,7 +2287,9 @@ public class ScriptEngine {
 
         // we enter here to either execute a complete script or a script sub-block (if/else/while/funcall)
         newContext = new Context(Context.State.RUNNING);
-        newContext.mLexer = new ScriptLexer(new StringReader(mScript));
+        if (mTokens == null)
+            mTokens = ScriptTokens.lex(mScript);
+        newContext.mLexer = mTokens;
         if (curContext != null) {
             switch (newContext.mDebugState = curContext.mDebugState) {
                 case none:
@@ -675,46 +2313,50 @@ public class ScriptEngine {
                     break;
             }
         }
-        mContexts.push(newContext);
+        mRuntime.mContexts.push(newContext);
 
         /*
         // #### debug contexts
         System.out.println("\n\n\n >>>> on interpretScript entry: ");
-        System.out.println("\n\t contexts : " + mContexts.size() + "\n");
-        for (Context c : mContexts)
+        System.out.println("\n\t contexts : " + mRuntime.mContexts.size() + "\n");
+        for (Context c : mRuntime.mContexts)
             System.out.println("\t\t context debug state : " + c.mDebugState + "\n");
         System.out.println("\n\n");
         // ####
         */
 
         while (runOk && !stop) {
-            curContext = mContexts.peek();
-            ScriptLexer curLexer = curContext.mLexer;
-            symbol = curLexer.next_token();
+            curContext = mRuntime.mContexts.peek();
+            ScriptTokens curLexer = curContext.mLexer;
+            symbol = curLexer.nextToken();
             switch (curContext.mState) {
                 case IF_BLOCK_ANALYSIS:
                     // anything except ELSE_BLOCK_ANALYSIS and END will be saved
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             runOk = false; // unexpected EOF
                             break;
 
                         case ELSE:
+                            // skip inner if's else
+                            if (mInnerIf != 0)
+                                break;
+
                             // the if block stops here :)
-                            curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
+                            curContext.mBlockEnd = curLexer.index();
 
                             // must stack this code, and execute upon end if calc's stack top value is 0
                             newContext = new Context(Context.State.ELSE_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case IF:
@@ -724,9 +2366,8 @@ public class ScriptEngine {
 
                         case END_IF:
                             if (mInnerIf == 0) {
-                                mContexts.pop(); // closes and executes inner most if/else block
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                runOk = interpretIfBlock(mScript.substring(curContext.mBlockStart, curContext.mBlockEnd));
+                                mRuntime.mContexts.pop(); // closes and executes inner most if/else block
+                                runOk = interpretIfBlock(curLexer.block(curContext.mBlockStart, curLexer.index()));
                             } else
                                 --mInnerIf;
                             break;
@@ -735,14 +2376,14 @@ public class ScriptEngine {
 
                 case ELSE_BLOCK_ANALYSIS:
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop(); // if and else_if contexts were stacked
-                            mContexts.pop();
+                            mRuntime.mContexts.pop(); // if and else_if contexts were stacked
+                            mRuntime.mContexts.pop();
                             runOk = false; // unexpected EOF
                             break;
 
@@ -753,10 +2394,10 @@ public class ScriptEngine {
 
                         case END_IF:
                             if (mInnerIf == 0) {
-                                mContexts.pop(); // closes and executes inner most if/else block
-                                String elseBlock = mScript.substring(curContext.mBlockStart, computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()));
-                                curContext = mContexts.pop();
-                                String ifBlock = mScript.substring(curContext.mBlockStart, curContext.mBlockEnd);
+                                mRuntime.mContexts.pop(); // closes and executes inner most if/else block
+                                ScriptTokens elseBlock = curLexer.block(curContext.mBlockStart, curLexer.index());
+                                curContext = mRuntime.mContexts.pop();
+                                ScriptTokens ifBlock = curLexer.block(curContext.mBlockStart, curContext.mBlockEnd);
                                 runOk = interpretIfElseBlock(ifBlock, elseBlock);
                             } else
                                 --mInnerIf;
@@ -766,13 +2407,13 @@ public class ScriptEngine {
 
                 case WHILE_BLOCK_ANALYSIS:
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             runOk = false; // unexpected EOF
                             break;
 
@@ -783,24 +2424,77 @@ public class ScriptEngine {
 
                         case END_WHILE:
                             if (mInnerWhile == 0) {
-                                mContexts.pop(); // closes and executes inner most while block
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                runOk = interpretWhileBlock(mScript.substring(curContext.mBlockStart, curContext.mBlockEnd));
+                                mRuntime.mContexts.pop(); // closes and executes inner most while block
+                                runOk = interpretWhileBlock(curLexer.block(curContext.mBlockStart, curLexer.index()));
                             } else
                                 --mInnerWhile;
                             break;
                     }
                     break;
 
+                case FOR_BLOCK_ANALYSIS:
+                    // anything except END will be saved
+                    switch (symbol) {
+                        case SYNTAX_ERROR:
+                            syntaxError(curContext);
+                            // fall into
+
+                        case EOF:
+                            mRuntime.mContexts.pop();
+                            runOk = false; // unexpected EOF
+                            break;
+
+                        case FOR:
+                            // skip inner for's end_for
+                            ++mInnerFor;
+                            break;
+
+                        case END_FOR:
+                            if (mInnerFor == 0) {
+                                mRuntime.mContexts.pop(); // closes and executes inner most for block
+                                runOk = interpretForBlock(curContext.mBlockId, curLexer.block(curContext.mBlockStart, curLexer.index()));
+                            } else
+                                --mInnerFor;
+                            break;
+                    }
+                    break;
+
+                case PARALLEL_FOR_BLOCK_ANALYSIS:
+                    // anything except END will be saved
+                    switch (symbol) {
+                        case SYNTAX_ERROR:
+                            syntaxError(curContext);
+                            // fall into
+
+                        case EOF:
+                            mRuntime.mContexts.pop();
+                            runOk = false; // unexpected EOF
+                            break;
+
+                        case PARALLEL_FOR:
+                            // skip inner parallel_for's end_parallel_for
+                            ++mInnerParallelFor;
+                            break;
+
+                        case END_PARALLEL_FOR:
+                            if (mInnerParallelFor == 0) {
+                                mRuntime.mContexts.pop(); // closes and executes inner most parallel_for block
+                                runOk = interpretParallelForBlock(curContext.mBlockId, curLexer.block(curContext.mBlockStart, curLexer.index()));
+                            } else
+                                --mInnerParallelFor;
+                            break;
+                    }
+                    break;
+
                 case FUNDEF_BLOCK_ANALYSIS:
                     // anything except FUNDEF and END_FUNDEF will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             runOk = false; // unexpected EOF
                             break;
 
@@ -811,9 +2505,8 @@ public class ScriptEngine {
 
                         case END_FUNDEF:
                             if (mInnerFundef == 0) {
-                                mContexts.pop();
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                saveFunction(curContext.mBlockId, mScript.substring(curContext.mBlockStart, curContext.mBlockEnd));
+                                mRuntime.mContexts.pop();
+                                saveFunction(curContext.mBlockId, curContext.mArity, curLexer.block(curContext.mBlockStart, curLexer.index()));
                             } else
                                 --mInnerFundef;
                             break;
@@ -823,7 +2516,7 @@ public class ScriptEngine {
                 case RUNNING:
                     /*
                     // #### debug contexts
-                    System.out.println("\n\n\n #### interpretScript hits : " + ScriptLexer.sym.values()[symbol.sym] + "\n\n\n");
+                    System.out.println("\n\n\n #### interpretScript hits : " + symbol + "\n\n\n");
                     // ####
                     */
                     switch (curContext.mDebugState) {
@@ -837,7 +2530,7 @@ public class ScriptEngine {
                             // will push a gc in step_out when getting down into
                             // inner func_call/while/if/else block
                         case step_in:
-                            if (ScriptLexer.sym.values()[symbol.sym] != ScriptLexer.sym.EOF) {
+                            if (symbol != ScriptLexer.sym.EOF) {
                                 // debug here
                                 displayDebugInfo();
                                 curContext.mDebugState = mActivity.getDebugState();
@@ -861,13 +2554,13 @@ public class ScriptEngine {
                             break;
                     }
 
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case DOUBLE_LITERAL:
                             mCalculator.doPushValueOnStack(curLexer.value);
                             break;
 
                         case PUSH_ARRAY_VALUE:
-                            mCalculator.doPushValueOnStack(getArrayValue(curLexer.identifier, mCalculator.doPopValueFromStack().intValue()));
+                            runOk = pushArrayValue(curLexer.identifier);
                             break;
 
                         case PUSH_IDENTIFIER:
@@ -875,28 +2568,55 @@ public class ScriptEngine {
                             break;
 
                         case POP_ARRAY_VALUE:
-                            setArrayValue(curLexer.identifier, mCalculator.doPopValueFromStack().intValue(), mCalculator.doPopValueFromStack());
+                            runOk = popArrayValue(curLexer.identifier);
+                            break;
+
+                        case ARRAY_OPERATION: {
+                                VectorOperation operation = VectorOperation.parse(curLexer.identifier);
+                                if (operation == null) {
+                                    syntaxError(curContext);
+                                    runOk = false;
+                                } else
+                                    runOk = runVectorOperation(operation);
+                            }
+                            break;
+
+                        case ARRAY_SAVE:
+                            runOk = saveArray(lookupForArray(curLexer.identifier), curLexer.filename);
+                            break;
+
+                        case ARRAY_LOAD:
+                            runOk = loadArray(curLexer.identifier, curLexer.filename);
                             break;
 
                         case POP_IDENTIFIER:
-                            setVariableValue(curLexer.identifier, mCalculator.doPopValueFromStack());
+                            runOk = setVariableValue(curLexer.identifier, mCalculator.doPopValueFromStack());
                             break;
 
                         case UPDATE:
-                            mActivity.doUpdateStack();
+                            updateStack();
+                            pollSafepoint();
                             break;
 
                         case DISPLAY_MESSAGE:
                             mActivity.doDisplayMessage(curLexer.identifier);
+                            pollSafepoint();
                             break;
 
                         case PROMPT_MESSAGE:
-                            mActivity.doPromptForValue(curLexer.identifier);
+                            runOk = promptForValue(curLexer.identifier);
+                            pollSafepoint();
                             break;
 
-                        case INFIXED:
-                            InfixConvertor ctor = new InfixConvertor(curLexer.expression);
-                            runOk = new ScriptEngine(this, mActivity, mCalculator, ctor.getRpnScript()).interpretScript();
+                        case INFIXED: {
+                                InfixExpression expression = curLexer.infixedExpression();
+                                if (expression.isValid())
+                                    runOk = evaluateInfixed(expression);
+                                else {
+                                    infixedError(curContext, expression);
+                                    runOk = false;
+                                }
+                            }
                             break;
 
                         case ADD:
@@ -987,9 +2707,10 @@ public class ScriptEngine {
                             //  all lines until END_FUNDEF are saved into the functions hashmap
                             newContext = new Context(Context.State.FUNDEF_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.identifier;
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mArity = curLexer.arity;
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case FUNDEL:
@@ -1007,81 +2728,107 @@ public class ScriptEngine {
                             break;
 
                         case RUN_SCRIPT:
-                            runOk = mActivity.doInterpretInnerScriptFile(curLexer.filename);
+                            runOk = runScriptFile(curLexer.filename, false);
+                            pollSafepoint();
                             break;
 
                         case WHILE:
                             // must stack this code, and execute upon end if calc's stack top value ain't 0
                             newContext = new Context(Context.State.WHILE_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
+                            newContext.mLexer = curLexer;
+                            mRuntime.mContexts.push(newContext);
+                            break;
+
+                        case FOR:
+                            // must stack this code, and execute upon end for each value of the counter
+                            newContext = new Context(Context.State.FOR_BLOCK_ANALYSIS);
+                            newContext.mBlockId = curLexer.identifier;
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
+                            break;
+
+                        case PARALLEL_FOR:
+                            // must stack this code, and execute upon end for all the values of the counter
+                            newContext = new Context(Context.State.PARALLEL_FOR_BLOCK_ANALYSIS);
+                            newContext.mBlockId = curLexer.identifier;
+                            newContext.mBlockStart = curLexer.index();
+                            newContext.mLexer = curLexer;
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case IF:
                             // must stack this code, and execute upon end if calc's stack top value ain't 0
                             newContext = new Context(Context.State.IF_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case PLOT:
-                            runOk = mActivity.doPlot();
+                            runOk = draw(CompiledScript.OP_PLOT);
                             break;
 
                         case PLOT3D:
-                            runOk = mActivity.doPlot3D();
+                            runOk = draw(CompiledScript.OP_PLOT3D);
                             break;
 
                         case LINE:
-                            runOk = mActivity.doLine();
+                            runOk = draw(CompiledScript.OP_LINE);
                             break;
 
                         case LINE3D:
-                            runOk = mActivity.doLine3D();
+                            runOk = draw(CompiledScript.OP_LINE3D);
                             break;
 
                         case ERASE:
-                            runOk = mActivity.doErase();
+                            runOk = draw(CompiledScript.OP_ERASE);
                             break;
 
                         case RANGE:
-                            runOk = mActivity.doSetRange();
+                            runOk = draw(CompiledScript.OP_RANGE);
                             break;
 
                         case POV3D:
-                            runOk = mActivity.doSetPov3D();
+                            runOk = draw(CompiledScript.OP_POV3D);
                             break;
 
                         case COLOR:
-                            runOk = mActivity.doSetColor();
+                            runOk = draw(CompiledScript.OP_COLOR);
                             break;
 
                         case DOT_SIZE:
-                            runOk = mActivity.doSetDotSize();
+                            runOk = draw(CompiledScript.OP_DOT_SIZE);
+                            break;
+
+                        case EXIT:
+                            // returns from the current function, or ends the script
+                            mFrame.mExiting = true;
+                            stop = true;
                             break;
 
                         case ELSE:
                         case END_IF:
                         case END_WHILE:
+                        case END_FOR:
+                        case END_PARALLEL_FOR:
                         case END_FUNDEF:
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             runOk = false; // get outa here!
                             // fall into
 
-                        case EXIT:
                         case EOF:
-                            // normal end of script (either implicit or explicit)
+                            // normal end of script
                             stop = true;
                             break;
 
                         case DEBUG_BREAK:
-                            if (!mActivity.isDebugViewShown()) {
-                                // debug break is ignored if already in debug
+                            if (mRuntime.mLauncher == null && !mActivity.isDebugViewShown()) {
+                                // debug break is ignored if already in debug, or in a parallel_for worker
                                 displayDebugInfo();
                                 curContext.mDebugState = mActivity.getDebugState();
                                 switch (curContext.mDebugState) {
@@ -1099,23 +2846,24 @@ public class ScriptEngine {
                     }
             }
 
-            // we may need to stop at next iteration if required
-            stop |= mStopRequired;
+            // we may need to stop at next iteration if required (seen at a safepoint), or upon exit
+            // from an inner block
+            stop |= mRuntime.mStopping || mFrame.mExiting;
         }
 
         /*
         // #### debug contexts
         System.out.println("\n\n\n <<<< on interpretScript PREPARE exit: ");
-        System.out.println("\n\t contexts : " + mContexts.size() + "\n");
-        for (Context c : mContexts)
+        System.out.println("\n\t contexts : " + mRuntime.mContexts.size() + "\n");
+        for (Context c : mRuntime.mContexts)
             System.out.println("\t\t context debug state : " + c.mDebugState + "\n");
         System.out.println("\n\n");
         // ####
         */
 
         // pops the current context
-        mContexts.pop();
-        Context parentContext = mContexts.isEmpty() ? null : mContexts.peek();
+        mRuntime.mContexts.pop();
+        Context parentContext = mRuntime.mContexts.isEmpty() ? null : mRuntime.mContexts.peek();
         if (parentContext != null) {
             switch (curContext.mDebugState) {
                 case exit:
@@ -1141,87 +2889,150 @@ public class ScriptEngine {
         /*
         // #### debug contexts
         System.out.println("\n\n\n <<<< on interpretScript exit: ");
-        System.out.println("\n\t contexts : " + mContexts.size() + "\n");
-        for (Context c : mContexts)
+        System.out.println("\n\t contexts : " + mRuntime.mContexts.size() + "\n");
+        for (Context c : mRuntime.mContexts)
             System.out.println("\t\t context debug state : " + c.mDebugState + "\n");
         System.out.println("\n\n");
         // ####
         */
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.empty_string));
+        displayProgressMessage(R.string.empty_string);
 
         // if debugging, must close the debug dialog on error/exit/end of top most parent script
-        if ((!runOk || mContexts.size() == 0) && mActivity.isDebugViewShown())
+        if ((!runOk || mRuntime.mContexts.size() == 0) && mActivity.isDebugViewShown())
             mActivity.doHideDebugView();
 
         // update the stack when exiting the topmost script
-        if (mContexts.size() == 0)
+        if (mRuntime.mContexts.size() == 0)
             mActivity.doUpdateStack();
 
         // we're done with (a) script
-        mCounter.decrementAndGet();
+        if (doubleMode)
+            mCalculator.doLeaveDoubleMode();
+        leaveRun();
 
         return runOk;
     }
 
     // compiled counterpart
     boolean executeScript() throws IOException {
-        // a (new) script is running
-        mCounter.incrementAndGet();
+        // a (new) script is running, the top most one picks the execution mode
+        boolean doubleMode = enterExecutionMode();
 
-        boolean result;
+        boolean result = false;
 
-        ArrayList<ScriptOperation> lambdaCode = new ArrayList<>();
-        if ((result = compileScript(lambdaCode)))
-            result = executeScript(lambdaCode);
+        ScriptCache.Program program = lookupProgram();
+        if (program != null) {
+            result = executeScript(program.mCode);
+            program.release();
+        }
 
         // we're done with (a) script
-        mCounter.decrementAndGet();
+        if (doubleMode)
+            mCalculator.doLeaveDoubleMode();
+        leaveRun();
 
         return result;
     }
-    private boolean compileScript(ArrayList<ScriptOperation> lambdaCode) throws IOException {
-        Symbol  symbol;
+
+    /**
+     * Gets the compiled program of the script from the scripts cache, or compiles (and caches)
+     * it if not found, out of date or already running.
+     *
+     * @return the compiled program, acquired (see ScriptCache.Program.acquire), or null if the
+     * script doesn't compile
+     *
+     * @throws IOException
+     */
+    private ScriptCache.Program lookupProgram() throws IOException {
+        // optimized and unoptimized programs are cached apart
+        boolean optimize = mActivity.isOptimizationSelected();
+        String key = ScriptCache.computeKey(mScript);
+        if (!optimize)
+            key += UNOPTIMIZED_KEY_SUFFIX;
+        ScriptCache.Program program = ScriptCache.lookup(key);
+        if (program == null && mPersistent)
+            program = ScriptCache.load(key, this);
+
+        if (program != null && program.isValid(FunctionLibrary.get().getCodes()) && program.acquire()) {
+            // as if compiled again : defines its functions and resets its variables
+            FunctionLibrary.define(program.mFunctionBlocks, program.mFunctionCodes);
+            for (ScriptEngine scope : program.mScopes)
+                scope.clearScope();
+
+            return program;
+        }
+
+        program = new ScriptCache.Program(key);
+        program.mCode = new CompiledScript();
+        mProgram = program;
+        boolean compileOk = compileScript(program.mCode);
+        mProgram = null;
+        if (!compileOk)
+            return null;
+
+        if (optimize)
+            program.mCode = CodeOptimizer.optimize(program.mCode);
+
+        program.acquire();
+        ScriptCache.put(program);
+        if (mPersistent)
+            ScriptCache.save(program);
+
+        return program;
+    }
+    private boolean compileScript(CompiledScript code) throws IOException {
+        ScriptLexer.sym symbol;
         boolean compileOk = true;
         boolean stop = false;
 
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.compiling_script));
+        displayProgressMessage(R.string.compiling_script);
+
+        // this engine is one of the compiled program variable scopes
+        if (mProgram != null)
+            mProgram.mScopes.add(this);
 
         Context newContext;
-        Context curContext = mContexts.isEmpty() ? null : mContexts.peek();
+        Context curContext = mRuntime.mContexts.isEmpty() ? null : mRuntime.mContexts.peek();
 
         // we enter here to compile a complete script or a script sub-block (if/else/while/funcall)
         newContext = new Context(Context.State.RUNNING);
-        newContext.mLexer = new ScriptLexer(new StringReader(mScript));
-        mContexts.push(newContext);
+        if (mTokens == null)
+            mTokens = ScriptTokens.lex(mScript);
+        newContext.mLexer = mTokens;
+        mRuntime.mContexts.push(newContext);
 
         while (compileOk && !stop) {
-            curContext = mContexts.peek();
-            ScriptLexer curLexer = curContext.mLexer;
-            symbol = curLexer.next_token();
+            curContext = mRuntime.mContexts.peek();
+            ScriptTokens curLexer = curContext.mLexer;
+            symbol = curLexer.nextToken();
             switch (curContext.mState) {
                 case IF_BLOCK_ANALYSIS:
                     // anything except ELSE_BLOCK_ANALYSIS and END will be saved
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             compileOk = false; // unexpected EOF
                             break;
 
                         case ELSE:
+                            // skip inner if's else
+                            if (mInnerIf != 0)
+                                break;
+
                             // the if block stops here :)
-                            curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
+                            curContext.mBlockEnd = curLexer.index();
 
                             // must stack this code, and execute upon end if calc's stack top value is 0
                             newContext = new Context(Context.State.ELSE_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case IF:
@@ -1231,9 +3042,8 @@ public class ScriptEngine {
 
                         case END_IF:
                             if (mInnerIf == 0) {
-                                mContexts.pop(); // closes and executes inner most if/else block
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                compileOk = compileIfBlock(mScript.substring(curContext.mBlockStart, curContext.mBlockEnd), lambdaCode);
+                                mRuntime.mContexts.pop(); // closes and executes inner most if/else block
+                                compileOk = compileIfBlock(curLexer.block(curContext.mBlockStart, curLexer.index()), code);
                             } else
                                 --mInnerIf;
                             break;
@@ -1242,14 +3052,14 @@ public class ScriptEngine {
 
                 case ELSE_BLOCK_ANALYSIS:
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop(); // if and else_if contexts were stacked
-                            mContexts.pop();
+                            mRuntime.mContexts.pop(); // if and else_if contexts were stacked
+                            mRuntime.mContexts.pop();
                             compileOk = false; // unexpected EOF
                             break;
 
@@ -1260,11 +3070,11 @@ public class ScriptEngine {
 
                         case END_IF:
                             if (mInnerIf == 0) {
-                                mContexts.pop(); // closes and executes inner most if/else block
-                                String elseBlock = mScript.substring(curContext.mBlockStart, computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()));
-                                curContext = mContexts.pop();
-                                String ifBlock = mScript.substring(curContext.mBlockStart, curContext.mBlockEnd);
-                                compileOk = compileIfElseBlock(ifBlock, elseBlock, lambdaCode);
+                                mRuntime.mContexts.pop(); // closes and executes inner most if/else block
+                                ScriptTokens elseBlock = curLexer.block(curContext.mBlockStart, curLexer.index());
+                                curContext = mRuntime.mContexts.pop();
+                                ScriptTokens ifBlock = curLexer.block(curContext.mBlockStart, curContext.mBlockEnd);
+                                compileOk = compileIfElseBlock(ifBlock, elseBlock, code);
                             } else
                                 --mInnerIf;
                             break;
@@ -1273,13 +3083,13 @@ public class ScriptEngine {
 
                 case WHILE_BLOCK_ANALYSIS:
                     // anything except END will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             compileOk = false; // unexpected EOF
                             break;
 
@@ -1290,24 +3100,77 @@ public class ScriptEngine {
 
                         case END_WHILE:
                             if (mInnerWhile == 0) {
-                                mContexts.pop(); // closes and executes inner most while block
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                compileOk = compileWhileBlock(mScript.substring(curContext.mBlockStart, curContext.mBlockEnd), lambdaCode);
+                                mRuntime.mContexts.pop(); // closes and executes inner most while block
+                                compileOk = compileWhileBlock(curLexer.block(curContext.mBlockStart, curLexer.index()), code);
                             } else
                                 --mInnerWhile;
                             break;
                     }
                     break;
 
+                case FOR_BLOCK_ANALYSIS:
+                    // anything except END will be saved
+                    switch (symbol) {
+                        case SYNTAX_ERROR:
+                            syntaxError(curContext);
+                            // fall into
+
+                        case EOF:
+                            mRuntime.mContexts.pop();
+                            compileOk = false; // unexpected EOF
+                            break;
+
+                        case FOR:
+                            // skip inner for's end_for
+                            ++mInnerFor;
+                            break;
+
+                        case END_FOR:
+                            if (mInnerFor == 0) {
+                                mRuntime.mContexts.pop(); // closes and executes inner most for block
+                                compileOk = compileForBlock(curContext.mBlockId, curLexer.block(curContext.mBlockStart, curLexer.index()), code);
+                            } else
+                                --mInnerFor;
+                            break;
+                    }
+                    break;
+
+                case PARALLEL_FOR_BLOCK_ANALYSIS:
+                    // anything except END will be saved
+                    switch (symbol) {
+                        case SYNTAX_ERROR:
+                            syntaxError(curContext);
+                            // fall into
+
+                        case EOF:
+                            mRuntime.mContexts.pop();
+                            compileOk = false; // unexpected EOF
+                            break;
+
+                        case PARALLEL_FOR:
+                            // skip inner parallel_for's end_parallel_for
+                            ++mInnerParallelFor;
+                            break;
+
+                        case END_PARALLEL_FOR:
+                            if (mInnerParallelFor == 0) {
+                                mRuntime.mContexts.pop(); // closes and executes inner most parallel_for block
+                                compileOk = compileParallelForBlock(curContext.mBlockId, curLexer.block(curContext.mBlockStart, curLexer.index()), code);
+                            } else
+                                --mInnerParallelFor;
+                            break;
+                    }
+                    break;
+
                 case FUNDEF_BLOCK_ANALYSIS:
                     // anything except FUNDEF and END_FUNDEF will be saved
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
+                    switch (symbol) {
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             // fall into
 
                         case EOF:
-                            mContexts.pop();
+                            mRuntime.mContexts.pop();
                             compileOk = false; // unexpected EOF
                             break;
 
@@ -1318,9 +3181,8 @@ public class ScriptEngine {
 
                         case END_FUNDEF:
                             if (mInnerFundef == 0) {
-                                mContexts.pop();
-                                curContext.mBlockEnd = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn());
-                                compileOk = compileAndSaveFunction(curContext.mBlockId, mScript.substring(curContext.mBlockStart, curContext.mBlockEnd));
+                                mRuntime.mContexts.pop();
+                                compileOk = compileAndSaveFunction(curContext.mBlockId, curContext.mArity, curLexer.block(curContext.mBlockStart, curLexer.index()));
                             } else
                                 --mInnerFundef;
                             break;
@@ -1328,268 +3190,285 @@ public class ScriptEngine {
                     break;
 
                 case RUNNING:
-                    switch (ScriptLexer.sym.values()[symbol.sym]) {
-                        case DOUBLE_LITERAL: {
-                            BigDecimal value = curLexer.value;
-                            lambdaCode.add(() -> {
-                                mCalculator.doPushValueOnStack(value);
-                                return true;
-                            });
-                        }
-                        break;
+                    switch (symbol) {
+                        case DOUBLE_LITERAL:
+                            code.emitConstant(CompiledScript.OP_PUSH_CONSTANT, curLexer.value);
+                            break;
 
-                        case PUSH_ARRAY_VALUE: {
-                                String id = curLexer.identifier;
-                                lambdaCode.add(() -> {
-                                    mCalculator.doPushValueOnStack(getArrayValue(id, mCalculator.doPopValueFromStack().intValue()));
-                                    return true;
-                                });
-                            }
+                        case PUSH_ARRAY_VALUE:
+                            code.emitConstant(CompiledScript.OP_PUSH_ARRAY_VALUE, new ScopedIdentifier(this, curLexer.identifier, true));
                             break;
 
-                        case PUSH_IDENTIFIER: {
-                            String id = curLexer.identifier;
-                            lambdaCode.add(() -> {
-                                mCalculator.doPushValueOnStack(getVariableValue(id));
-                                return true;
-                            });
-                        }
-                        break;
+                        case PUSH_IDENTIFIER:
+                            code.emitConstant(CompiledScript.OP_PUSH_VARIABLE, new ScopedIdentifier(this, curLexer.identifier, false));
+                            break;
+
+                        case POP_ARRAY_VALUE:
+                            code.emitConstant(CompiledScript.OP_POP_ARRAY_VALUE, new ScopedIdentifier(this, curLexer.identifier, true));
+                            break;
 
-                        case POP_ARRAY_VALUE: {
-                                String id = curLexer.identifier;
-                                lambdaCode.add(() -> {
-                                    setArrayValue(id, mCalculator.doPopValueFromStack().intValue(), mCalculator.doPopValueFromStack());
-                                    return true;
-                                });
+                        case ARRAY_OPERATION: {
+                                // the operation arrays are the constants following it
+                                VectorOperation operation = VectorOperation.parse(curLexer.identifier);
+                                if (operation == null) {
+                                    syntaxError(curContext);
+                                    compileOk = false;
+                                    break;
+                                }
+                                code.emitConstant(CompiledScript.OP_ARRAY_OPERATION, operation);
+                                for (String id : operation.getArrays())
+                                    code.addConstant(new ScopedIdentifier(this, id, true));
                             }
                             break;
 
-                        case POP_IDENTIFIER: {
-                            String id = curLexer.identifier;
-                            lambdaCode.add(() -> {
-                                setVariableValue(id, mCalculator.doPopValueFromStack());
-                                return true;
-                            });
-                        }
-                        break;
+                        case ARRAY_SAVE:
+                            code.emitConstant(CompiledScript.OP_ARRAY_SAVE, new ScopedIdentifier(this, curLexer.identifier, true));
+                            code.addConstant(curLexer.filename);
+                            break;
+
+                        case ARRAY_LOAD:
+                            code.emitConstant(CompiledScript.OP_ARRAY_LOAD, new ScopedIdentifier(this, curLexer.identifier, true));
+                            code.addConstant(curLexer.filename);
+                            break;
+
+                        case POP_IDENTIFIER:
+                            code.emitConstant(CompiledScript.OP_POP_VARIABLE, new ScopedIdentifier(this, curLexer.identifier, false));
+                            break;
 
                         case UPDATE:
-                            lambdaCode.add(() -> {
-                                mActivity.doUpdateStack();
-                                return true;
-                            });
-                            break;
-
-                        case DISPLAY_MESSAGE: {
-                                String id = curLexer.identifier;
-                                lambdaCode.add(() -> {
-                                    mActivity.doDisplayMessage(id);
-                                    return true;
-                                });
-                            }
+                            code.emit(CompiledScript.OP_UPDATE);
                             break;
 
-                        case PROMPT_MESSAGE: {
-                                String id = curLexer.identifier;
-                                lambdaCode.add(() -> {
-                                    mActivity.doPromptForValue(id);
-                                    return true;
-                                });
-                            }
+                        case DISPLAY_MESSAGE:
+                            code.emitConstant(CompiledScript.OP_DISPLAY_MESSAGE, curLexer.identifier);
+                            break;
+
+                        case PROMPT_MESSAGE:
+                            code.emitConstant(CompiledScript.OP_PROMPT_MESSAGE, curLexer.identifier);
                             break;
 
-                        case INFIXED:
-                            InfixConvertor ctor = new InfixConvertor(curLexer.expression);
-                            compileOk = new ScriptEngine(this, mActivity, mCalculator, ctor.getRpnScript()).compileScript(lambdaCode);
+                        case INFIXED: {
+                                InfixExpression expression = curLexer.infixedExpression();
+                                if (expression.isValid())
+                                    compileOk = compileInfixed(expression, code);
+                                else {
+                                    infixedError(curContext, expression);
+                                    compileOk = false;
+                                }
+                            }
                             break;
 
                         case ADD:
-                            lambdaCode.add(() -> mCalculator.doAdd());
+                            code.emit(CompiledScript.OP_ADD);
                             break;
 
                         case SUB:
-                            lambdaCode.add(() -> mCalculator.doSub());
+                            code.emit(CompiledScript.OP_SUB);
                             break;
 
                         case DIV:
-                            lambdaCode.add(() -> mCalculator.doDiv());
+                            code.emit(CompiledScript.OP_DIV);
                             break;
 
                         case MOD:
-                            lambdaCode.add(() -> mCalculator.doModulo());
+                            code.emit(CompiledScript.OP_MOD);
                             break;
 
                         case EQ:
-                            lambdaCode.add(() -> mCalculator.doEqual());
+                            code.emit(CompiledScript.OP_EQ);
                             break;
 
                         case NEQ:
-                            lambdaCode.add(() -> mCalculator.doNotEqual());
+                            code.emit(CompiledScript.OP_NEQ);
                             break;
 
                         case LT:
-                            lambdaCode.add(() -> mCalculator.doLessThan());
+                            code.emit(CompiledScript.OP_LT);
                             break;
 
                         case LTE:
-                            lambdaCode.add(() -> mCalculator.doLessThanOrEqual());
+                            code.emit(CompiledScript.OP_LTE);
                             break;
 
                         case GT:
-                            lambdaCode.add(() -> mCalculator.doGreaterThan());
+                            code.emit(CompiledScript.OP_GT);
                             break;
 
                         case GTE:
-                            lambdaCode.add(() -> mCalculator.doGreaterThanOrEqual());
+                            code.emit(CompiledScript.OP_GTE);
                             break;
 
                         case MUL:
-                            lambdaCode.add(() -> mCalculator.doMul());
+                            code.emit(CompiledScript.OP_MUL);
                             break;
 
                         case NEG:
-                            lambdaCode.add(() -> mCalculator.doNeg());
+                            code.emit(CompiledScript.OP_NEG);
                             break;
 
                         case DUP:
-                            lambdaCode.add(() -> mCalculator.doDup());
+                            code.emit(CompiledScript.OP_DUP);
                             break;
 
                         case DUPN:
-                            lambdaCode.add(() -> mCalculator.doDupN());
+                            code.emit(CompiledScript.OP_DUPN);
                             break;
 
                         case DROP:
-                            lambdaCode.add(() -> mCalculator.doDrop());
+                            code.emit(CompiledScript.OP_DROP);
                             break;
 
                         case DROPN:
-                            lambdaCode.add(() -> mCalculator.doDropN());
+                            code.emit(CompiledScript.OP_DROPN);
                             break;
 
                         case SWAP:
-                            lambdaCode.add(() -> mCalculator.doSwap());
+                            code.emit(CompiledScript.OP_SWAP);
                             break;
 
                         case SWAPN:
-                            lambdaCode.add(() -> mCalculator.doSwapN());
+                            code.emit(CompiledScript.OP_SWAPN);
                             break;
 
                         case ROLLN:
-                            lambdaCode.add(() -> mCalculator.doRollN());
+                            code.emit(CompiledScript.OP_ROLLN);
                             break;
 
                         case STACK_SIZE:
-                            lambdaCode.add(() -> mCalculator.doPushStackSize());
+                            code.emit(CompiledScript.OP_STACK_SIZE);
                             break;
 
                         case CLEAR:
-                            lambdaCode.add(() -> mCalculator.doClear());
+                            code.emit(CompiledScript.OP_CLEAR);
                             break;
 
                         case FUNDEF:
                             //  all lines until END_FUNDEF are saved into the functions hashmap
                             newContext = new Context(Context.State.FUNDEF_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.identifier;
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mArity = curLexer.arity;
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
-                        case FUNDEL: {
-                                String id = curLexer.identifier;
-                                // the given function is removed from the functions hashmap
-                                lambdaCode.add(() -> {
-                                    mFunctions.remove(id);
-                                    return true;
-                                });
-                            }
+                        case FUNDEL:
+                            // the given function is removed from the functions hashmaps
+                            code.emitConstant(CompiledScript.OP_FUNDEL, curLexer.identifier);
                             break;
 
                         case FUNCALL:
-                            // interprets the given script, from the functions hashmap, using a new engine
-                            compileOk = compileFunctionCall(curLexer.identifier, lambdaCode);
+                            // inlines the given function code if already compiled, else looks it up upon call
+                            compileOk = compileFunctionCall(curLexer.identifier, code);
                             break;
 
                         case JAVA_MATH_CALL: {
-                                String id = curLexer.identifier;
-                                lambdaCode.add(() -> mCalculator.doJavaMathCall(id));
+                                // resolved once here, reflection is only used for the non intrinsic functions
+                                int intrinsic = MathIntrinsics.lookup(curLexer.identifier);
+                                if (intrinsic != MathIntrinsics.NONE)
+                                    code.emit(CompiledScript.OP_MATH_INTRINSIC, intrinsic);
+                                else
+                                    code.emitConstant(CompiledScript.OP_MATH_CALL, curLexer.identifier);
                             }
                             break;
 
-                        case RUN_SCRIPT:{
-                                String id = curLexer.filename;
-                                lambdaCode.add(() -> mActivity.doExecuteInnerScriptFile(id));
-                            }
+                        case RUN_SCRIPT:
+                            code.emitConstant(CompiledScript.OP_RUN_SCRIPT, curLexer.filename);
                             break;
 
                         case WHILE:
                             // must stack this code, and execute upon end if calc's stack top value ain't 0
                             newContext = new Context(Context.State.WHILE_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
+                            newContext.mLexer = curLexer;
+                            mRuntime.mContexts.push(newContext);
+                            break;
+
+                        case FOR:
+                            // must stack this code, and execute upon end for each value of the counter
+                            newContext = new Context(Context.State.FOR_BLOCK_ANALYSIS);
+                            newContext.mBlockId = curLexer.identifier;
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
+                            break;
+
+                        case PARALLEL_FOR:
+                            // must stack this code, and execute upon end for all the values of the counter
+                            newContext = new Context(Context.State.PARALLEL_FOR_BLOCK_ANALYSIS);
+                            newContext.mBlockId = curLexer.identifier;
+                            newContext.mBlockStart = curLexer.index();
+                            newContext.mLexer = curLexer;
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case IF:
                             // must stack this code, and execute upon end if calc's stack top value ain't 0
                             newContext = new Context(Context.State.IF_BLOCK_ANALYSIS);
                             newContext.mBlockId = curLexer.yytext();
-                            newContext.mBlockStart = computeOffsetFromStartOfBlock(curLexer.yyline(), curLexer.yycolumn()) + curLexer.yylength();
+                            newContext.mBlockStart = curLexer.index();
                             newContext.mLexer = curLexer;
-                            mContexts.push(newContext);
+                            mRuntime.mContexts.push(newContext);
                             break;
 
                         case PLOT:
-                            lambdaCode.add(() -> mActivity.doPlot());
+                            code.emit(CompiledScript.OP_PLOT);
                             break;
 
                         case PLOT3D:
-                            lambdaCode.add(() -> mActivity.doPlot3D());
+                            code.emit(CompiledScript.OP_PLOT3D);
                             break;
 
                         case LINE:
-                            lambdaCode.add(() -> mActivity.doLine());
+                            code.emit(CompiledScript.OP_LINE);
                             break;
 
                         case LINE3D:
-                            lambdaCode.add(() -> mActivity.doLine3D());
+                            code.emit(CompiledScript.OP_LINE3D);
                             break;
 
                         case ERASE:
-                            lambdaCode.add(() -> mActivity.doErase());
+                            code.emit(CompiledScript.OP_ERASE);
                             break;
 
                         case RANGE:
-                            lambdaCode.add(() -> mActivity.doSetRange());
+                            code.emit(CompiledScript.OP_RANGE);
                             break;
 
                         case POV3D:
-                            lambdaCode.add(() -> mActivity.doSetPov3D());
+                            code.emit(CompiledScript.OP_POV3D);
                             break;
 
                         case COLOR:
-                            lambdaCode.add(() -> mActivity.doSetColor());
+                            code.emit(CompiledScript.OP_COLOR);
                             break;
 
                         case DOT_SIZE:
-                            lambdaCode.add(() -> mActivity.doSetDotSize());
+                            code.emit(CompiledScript.OP_DOT_SIZE);
+                            break;
+
+                        case EXIT:
+                            // jumps to the end of the current function, or of the script
+                            if (mFrame.mExitJumps == null)
+                                mFrame.mExitJumps = new ArrayList<>();
+                            mFrame.mExitJumps.add(code.emit(CompiledScript.OP_JUMP));
+                            stop = true;
                             break;
 
                         case ELSE:
                         case END_IF:
                         case END_WHILE:
+                        case END_FOR:
+                        case END_PARALLEL_FOR:
                         case END_FUNDEF:
                         case SYNTAX_ERROR:
                             syntaxError(curContext);
                             compileOk = false; // get outa here!
                             // fall into
 
-                        case EXIT:
                         case EOF:
-                            // normal end of script (either implicit or explicit)
+                            // normal end of script
                             stop = true;
                             break;
 
@@ -1600,12 +3479,12 @@ public class ScriptEngine {
             }
 
             // we may need to stop at next iteration if required
-            stop |= mStopRequired;
+            stop |= mRuntime.mStopRequired;
         }
 
         // pops the current context
-        mContexts.pop();
-        Context parentContext = mContexts.isEmpty() ? null : mContexts.peek();
+        mRuntime.mContexts.pop();
+        Context parentContext = mRuntime.mContexts.isEmpty() ? null : mRuntime.mContexts.peek();
         if (parentContext != null) {
             switch (curContext.mDebugState) {
                 case exit:
@@ -1621,30 +3500,453 @@ public class ScriptEngine {
             }
         }
 
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.empty_string));
+        displayProgressMessage(R.string.empty_string);
+
+        // the frame exits jump to its end
+        if (mFrame == this && mExitJumps != null) {
+            for (int jump : mExitJumps)
+                code.patchJump(jump, code.size());
+            mExitJumps = null;
+        }
 
         // update the stack when exiting the topmost script
-        if (mContexts.size() == 0)
-            lambdaCode.add(() -> {
-                mActivity.doUpdateStack();
-                return true;
-            });
+        if (mRuntime.mContexts.size() == 0)
+            code.emit(CompiledScript.OP_UPDATE);
 
         return compileOk;
     }
 
-    private boolean executeScript(ArrayList<ScriptOperation> lambdaCode) {
-        if (lambdaCode == null)
+    /**
+     * Runs the given compiled script.
+     *
+     * @param code is the compiled script
+     *
+     * @return true if the script was executed correctly, else return false
+     */
+    private boolean executeScript(CompiledScript code) {
+        if (code == null)
             return false;
 
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.executing_script));
+        displayProgressMessage(R.string.executing_script);
 
-        for (ScriptOperation o : lambdaCode)
-            if (!o.execute() || mStopRequired)
-                break;
+        boolean runOk = runCode(code);
 
-        mActivity.doDisplayProgressMessage(mActivity.getString(R.string.empty_string));
+        displayProgressMessage(R.string.empty_string);
 
-        return true;
+        return runOk;
+    }
+
+    /**
+     * Runs the given compiled code, the calls it makes being unwound upon error or stop. Hot
+     * code is run with slot values of its own, reset upon each entry, bound to this scope
+     * running it, other code with those of the running frame.
+     *
+     * @param code is the compiled script
+     *
+     * @return true if the code was executed correctly, else return false
+     */
+    private boolean runCode(CompiledScript code) {
+        ScriptRuntime runtime = mRuntime;
+        int callBase = runtime.mCallDepth;
+        Object[][] slots = runtime.mSlots;
+        ScriptEngine frameScope = runtime.mFrameScope;
+        ScriptEngine hotParent = runtime.mHotParent;
+        try {
+            ScriptEngine frame = code.getFrame();
+            if (frame != null) {
+                runtime.mSlots = new Object[frame.mLocalScopes][];
+                runtime.mFrameScope = frame;
+                if (frame.mHotScope)
+                    runtime.mHotParent = this;
+            }
+            return dispatch(code, callBase);
+        } finally {
+            runtime.mCallDepth = callBase;
+            runtime.mSlots = slots;
+            runtime.mFrameScope = frameScope;
+            runtime.mHotParent = hotParent;
+        }
+    }
+
+    /**
+     * The compiled code dispatch loop : runs the given code until its end, an error
+     * or a stop request. Function calls are trampolined : the caller is saved on the
+     * call stack and the loop goes on with the function code, back to the caller
+     * once the function code ends, so that the java stack doesn't grow with the calls.
+     *
+     * @param code is the compiled script
+     * @param callBase is the call stack depth upon start
+     *
+     * @return true if the code was executed correctly, else return false
+     */
+    private boolean dispatch(CompiledScript code, int callBase) {
+        int[]          opcodes = code.getOpcodes();
+        int[]          operands = code.getOperands();
+        Object[]       constants = code.getConstants();
+        double[]       doubleConstants = mCalculator.isDoubleMode() ? code.getDoubleConstants() : null;
+        int            size = code.size();
+        LoopCounter[]  loops = null;    // for loops counters, by counter variable constant
+        ScriptRuntime  runtime = mRuntime;
+
+        boolean runOk = true;
+        int pc = 0;
+        while (runOk) {
+            if (pc == size) {
+                // end of the code, returns to the caller if any
+                if (runtime.mCallDepth == callBase)
+                    break;
+
+                CallFrame caller = runtime.mCallStack[--runtime.mCallDepth];
+                if (caller.mMemo != null) {
+                    caller.mMemo.record(mCalculator, caller.mMemoKey, caller.mMemoBase);
+                    caller.mMemo = null;
+                    caller.mMemoKey = null;
+                }
+                code = caller.mCode;
+                pc = caller.mPc;
+                loops = caller.mLoops;
+                runtime.mSlots = caller.mSlots;
+                runtime.mFrameScope = caller.mFrameScope;
+                caller.mCode = null;
+                caller.mLoops = null;
+                caller.mSlots = null;
+                caller.mFrameScope = null;
+
+                opcodes = code.getOpcodes();
+                operands = code.getOperands();
+                constants = code.getConstants();
+                doubleConstants = mCalculator.isDoubleMode() ? code.getDoubleConstants() : null;
+                size = code.size();
+                continue;
+            }
+
+            int operand = operands[pc];
+            switch (opcodes[pc++]) {
+                case CompiledScript.OP_PUSH_CONSTANT:
+                    if (doubleConstants != null)
+                        mCalculator.doPushDoubleOnStack(doubleConstants[operand]);
+                    else
+                        mCalculator.doPushValueOnStack((BigDecimal)constants[operand]);
+                    break;
+
+                case CompiledScript.OP_PUSH_VARIABLE: {
+                        Number value = (Number)((ScopedIdentifier)constants[operand]).get(runtime);
+                        mCalculator.doPushNumberOnStack(value == null ? BigDecimal.valueOf(0) : value);
+                    }
+                    break;
+
+                case CompiledScript.OP_POP_VARIABLE:
+                    runOk = setVariableValue((ScopedIdentifier)constants[operand], mCalculator.doPopNumberFromStack());
+                    break;
+
+                case CompiledScript.OP_STORE_VARIABLE:
+                    // dup ?x
+                    if (runOk = mCalculator.hasValueOnStack())
+                        runOk = setVariableValue((ScopedIdentifier)constants[operand], mCalculator.doPeekNumberFromStack());
+                    break;
+
+                case CompiledScript.OP_ADD_TO_VARIABLE: {
+                        // !x literal + ?x
+                        ScopedIdentifier variable = (ScopedIdentifier)constants[operand];
+                        Number value = mCalculator.doAddToNumber((Number)variable.get(runtime),
+                                                                 (BigDecimal)constants[operand + 1],
+                                                                 doubleConstants == null ? 0 : doubleConstants[operand + 1]);
+                        if (runOk = value != null)
+                            runOk = setVariableValue(variable, value);
+                    }
+                    break;
+
+                case CompiledScript.OP_PUSH_ARRAY_VALUE:
+                    runOk = pushArrayValue((ScopedIdentifier)constants[operand]);
+                    break;
+
+                case CompiledScript.OP_POP_ARRAY_VALUE:
+                    runOk = popArrayValue((ScopedIdentifier)constants[operand]);
+                    break;
+
+                case CompiledScript.OP_ARRAY_OPERATION:
+                    runOk = runVectorOperation((VectorOperation)constants[operand], constants, operand + 1);
+                    break;
+
+                case CompiledScript.OP_ARRAY_SAVE:
+                    runOk = saveArray((ScriptArray)((ScopedIdentifier)constants[operand]).get(runtime), (String)constants[operand + 1]);
+                    break;
+
+                case CompiledScript.OP_ARRAY_LOAD:
+                    runOk = loadArray((ScopedIdentifier)constants[operand], (String)constants[operand + 1]);
+                    break;
+
+                case CompiledScript.OP_UPDATE:
+                    updateStack();
+                    if (pollSafepoint())
+                        return runOk;
+                    break;
+
+                case CompiledScript.OP_DISPLAY_MESSAGE:
+                    mActivity.doDisplayMessage((String)constants[operand]);
+                    if (pollSafepoint())
+                        return runOk;
+                    break;
+
+                case CompiledScript.OP_PROMPT_MESSAGE:
+                    runOk = promptForValue((String)constants[operand]);
+                    if (pollSafepoint())
+                        return runOk;
+                    break;
+
+                case CompiledScript.OP_ADD:
+                    runOk = mCalculator.doAdd();
+                    break;
+
+                case CompiledScript.OP_SUB:
+                    runOk = mCalculator.doSub();
+                    break;
+
+                case CompiledScript.OP_DIV:
+                    runOk = mCalculator.doDiv();
+                    break;
+
+                case CompiledScript.OP_MUL:
+                    runOk = mCalculator.doMul();
+                    break;
+
+                case CompiledScript.OP_MOD:
+                    runOk = mCalculator.doModulo();
+                    break;
+
+                case CompiledScript.OP_EQ:
+                    runOk = mCalculator.doEqual();
+                    break;
+
+                case CompiledScript.OP_NEQ:
+                    runOk = mCalculator.doNotEqual();
+                    break;
+
+                case CompiledScript.OP_LT:
+                    runOk = mCalculator.doLessThan();
+                    break;
+
+                case CompiledScript.OP_LTE:
+                    runOk = mCalculator.doLessThanOrEqual();
+                    break;
+
+                case CompiledScript.OP_GT:
+                    runOk = mCalculator.doGreaterThan();
+                    break;
+
+                case CompiledScript.OP_GTE:
+                    runOk = mCalculator.doGreaterThanOrEqual();
+                    break;
+
+                case CompiledScript.OP_NEG:
+                    runOk = mCalculator.doNeg();
+                    break;
+
+                case CompiledScript.OP_DUP:
+                    runOk = mCalculator.doDup();
+                    break;
+
+                case CompiledScript.OP_DUPN:
+                    runOk = mCalculator.doDupN();
+                    break;
+
+                case CompiledScript.OP_DROP:
+                    runOk = mCalculator.doDrop();
+                    break;
+
+                case CompiledScript.OP_DROPN:
+                    runOk = mCalculator.doDropN();
+                    break;
+
+                case CompiledScript.OP_SWAP:
+                    runOk = mCalculator.doSwap();
+                    break;
+
+                case CompiledScript.OP_SWAPN:
+                    runOk = mCalculator.doSwapN();
+                    break;
+
+                case CompiledScript.OP_ROLLN:
+                    runOk = mCalculator.doRollN();
+                    break;
+
+                case CompiledScript.OP_STACK_SIZE:
+                    runOk = mCalculator.doPushStackSize();
+                    break;
+
+                case CompiledScript.OP_CLEAR:
+                    runOk = mCalculator.doClear();
+                    break;
+
+                case CompiledScript.OP_FUNDEL:
+                    deleteFunction((String)constants[operand]);
+                    break;
+
+                case CompiledScript.OP_CALL: {
+                        CompiledScript.FunctionCall call = (CompiledScript.FunctionCall)constants[operand];
+                        CompiledScript function = linkFunctionCall(call);
+                        if (function == null) {
+                            // the functions defined by interpreted scripts are interpreted (compiled once hot)
+                            runOk = callFunction(call.mFunction);
+                            if (runtime.mStopping)
+                                return runOk;
+                            break;
+                        }
+
+                        // memoized functions results are recalled when called with the same arguments
+                        MemoTable memo = function.getMemo();
+                        Object memoKey = memo == null ? null : memo.key(mCalculator);
+                        if (memoKey != null && memo.recall(mCalculator, memoKey))
+                            break;
+
+                        if (!(runOk = enterCall()))
+                            break;
+                        if (safepoint())
+                            return runOk;
+
+                        // saves the caller, then runs the function code
+                        CallFrame caller = runtime.mCallStack[runtime.mCallDepth - 1];
+                        caller.mCode = code;
+                        caller.mPc = pc;
+                        caller.mLoops = loops;
+                        caller.mMemo = memoKey == null ? null : memo;
+                        caller.mMemoKey = memoKey;
+                        caller.mMemoBase = memoKey == null ? 0 : mCalculator.getStackSize() - memo.getArity();
+                        caller.mSlots = runtime.mSlots;
+                        caller.mFrameScope = runtime.mFrameScope;
+
+                        code = function;
+                        pc = 0;
+                        loops = null;
+                        if (code.getFrame() != null) {
+                            // the calls of a function share its variables in the run
+                            runtime.mSlots = runtime.getFrame(code.getFrame());
+                            runtime.mFrameScope = code.getFrame();
+                        }
+                        opcodes = code.getOpcodes();
+                        operands = code.getOperands();
+                        constants = code.getConstants();
+                        doubleConstants = mCalculator.isDoubleMode() ? code.getDoubleConstants() : null;
+                        size = code.size();
+                    }
+                    break;
+
+                case CompiledScript.OP_MATH_CALL:
+                    runOk = mCalculator.doJavaMathCall((String)constants[operand]);
+                    break;
+
+                case CompiledScript.OP_MATH_INTRINSIC:
+                    runOk = mCalculator.doMathIntrinsic(operand);
+                    break;
+
+                case CompiledScript.OP_RUN_SCRIPT:
+                    runOk = runScriptFile((String)constants[operand], true);
+                    if (pollSafepoint())
+                        return runOk;
+                    break;
+
+                case CompiledScript.OP_NEW_SCOPE:
+                    // a hot code block is entered, its variables are reset
+                    runtime.mSlots[operand] = null;
+                    break;
+
+                case CompiledScript.OP_EXIT:
+                    // exits the interpreter frame running the (hot) code
+                    mFrame.mExiting = true;
+                    pc = size;
+                    break;
+
+                case CompiledScript.OP_PARALLEL_FOR:
+                    runOk = runParallelFor((ParallelFor)constants[operand]);
+                    if (mRuntime.mStopping)
+                        return runOk;
+                    break;
+
+                case CompiledScript.OP_PLOT:
+                    runOk = draw(CompiledScript.OP_PLOT);
+                    break;
+
+                case CompiledScript.OP_PLOT3D:
+                    runOk = draw(CompiledScript.OP_PLOT3D);
+                    break;
+
+                case CompiledScript.OP_LINE:
+                    runOk = draw(CompiledScript.OP_LINE);
+                    break;
+
+                case CompiledScript.OP_LINE3D:
+                    runOk = draw(CompiledScript.OP_LINE3D);
+                    break;
+
+                case CompiledScript.OP_ERASE:
+                    runOk = draw(CompiledScript.OP_ERASE);
+                    break;
+
+                case CompiledScript.OP_RANGE:
+                    runOk = draw(CompiledScript.OP_RANGE);
+                    break;
+
+                case CompiledScript.OP_POV3D:
+                    runOk = draw(CompiledScript.OP_POV3D);
+                    break;
+
+                case CompiledScript.OP_COLOR:
+                    runOk = draw(CompiledScript.OP_COLOR);
+                    break;
+
+                case CompiledScript.OP_DOT_SIZE:
+                    runOk = draw(CompiledScript.OP_DOT_SIZE);
+                    break;
+
+                case CompiledScript.OP_JUMP:
+                    // loop back edge
+                    if (operand < pc && safepoint())
+                        return runOk;
+                    pc = operand;
+                    break;
+
+                case CompiledScript.OP_FOR_INIT: {
+                        // pops the step, end and start, the next instruction (jump to the loop end)
+                        // is skipped if the start is in range
+                        LoopCounter counter = popLoopCounter();
+                        if (!(runOk = counter != null))
+                            break;
+                        if (loops == null)
+                            loops = new LoopCounter[constants.length];
+                        loops[operand] = counter;
+                        if (counter.isInRange()) {
+                            if (!(runOk = setVariableValue((ScopedIdentifier)constants[operand], counter)))
+                                break;
+                            ++pc;
+                        }
+                    }
+                    break;
+
+                case CompiledScript.OP_FOR_NEXT: {
+                        // the next instruction (jump back to the loop start) is skipped once the
+                        // counter would pass the end
+                        LoopCounter counter = loops[operand];
+                        if (counter.next())
+                            runOk = setVariableValue((ScopedIdentifier)constants[operand], counter);
+                        else
+                            ++pc;
+                    }
+                    break;
+
+                case CompiledScript.OP_JUMP_IF_ZERO:
+                    // while/if/else condition : the (popped) stack top value must be != 0 to enter the block
+                    if (!(runOk = mCalculator.hasValueOnStack()))
+                        break;
+                    if (mCalculator.doPopDoubleFromStack() == 0.0) {
+                        // back edge once jumps are threaded (see CodeOptimizer)
+                        if (operand < pc && safepoint())
+                            return runOk;
+                        pc = operand;
+                    }
+                    break;
+            }
+        }
+
+        return runOk;
     }
 }
@@ -50,13 +50,19 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
     "\1\u2400\2\u1f00\31\u0100\1\u2500\121\u0100\1\u2600\4\u0100\1\u2700"+
     "\1\u0100\1\u2800\1\u2900\1\u2a00\1\u2b00\1\u2c00\1\u2d00\53\u0100"+
     "\1\u2e00\41\u1f00\1\u0100\1\u2f00\1\u3000\1\u0100\1\u3100\1\u3200"+
-    "\1\u3300\1\u3400\1\u3500\1\u3600\1\u3700\1\u3800\3\u1f00\1\u3900"+
-    "\1\u3a00\1\u3b00\1\u3c00\1\u3d00\3\u1f00\1\u3e00\1\u3f00\4\u1f00"+
-    "\1\u4000\11\u1f00\3\u0100\1\u4100\1\u4200\13\u1f00\4\u0100\1\u4300"+
-    "\63\u1f00\2\u0100\1\u4400\4\u1f00\1\u4500\100\u1f00\1\u4600\40\u1f00"+
-    "\1\u4700\1\u4800\1\u1f00\1\u4900\1\u4a00\1\u4b00\1\u4c00\26\u1f00"+
-    "\1\u4d00\21\u1f00\246\u0100\1\u4e00\20\u0100\1\u4f00\1\u5000\77\u1f00"+
-    "\2\u0100\1\u5000\u0b05\u1f00\1\u5100\1\u5200\u02fe\u1f00";
+    "\1\u3300\1\u3400\1\u3500\1\u3600\1\u3700\1\u3800\1\u3900\1\u0100"+
+    "\1\u3a00\1\u3b00\1\u3c00\1\u3d00\1\u3e00\1\u3f00\1\u4000\1\u4100"+
+    "\1\u4200\1\u4300\1\u4400\1\u4500\1\u4600\1\u4700\1\u4800\1\u4900"+
+    "\1\u4a00\1\u4b00\1\u4c00\1\u4d00\1\u1f00\1\u4e00\1\u4f00\1\u5000"+
+    "\1\u5100\3\u0100\1\u5200\1\u5300\1\u5400\12\u1f00\4\u0100\1\u5500"+
+    "\17\u1f00\2\u0100\1\u5600\41\u1f00\2\u0100\1\u5700\1\u5800\2\u1f00"+
+    "\1\u5900\1\u5a00\27\u0100\1\u5b00\4\u0100\1\u5c00\1\u5d00\42\u1f00"+
+    "\1\u0100\1\u5e00\1\u5f00\11\u1f00\1\u6000\24\u1f00\1\u6100\1\u6200"+
+    "\1\u1f00\1\u6300\1\u6400\1\u6500\1\u6600\2\u1f00\1\u6700\5\u1f00"+
+    "\1\u6800\1\u6900\1\u6a00\5\u1f00\1\u6b00\1\u6c00\2\u1f00\1\u6d00"+
+    "\1\u1f00\1\u6e00\14\u1f00\1\u6f00\4\u1f00\246\u0100\1\u7000\20\u0100"+
+    "\1\u7100\1\u7200\25\u0100\1\u7300\34\u0100\1\u7400\14\u1f00\2\u0100"+
+    "\1\u7500\5\u1f00\23\u0100\1\u7600\u0aec\u1f00\1\u7700\1\u7800\u02fe\u1f00";
 
   private static int [] zzUnpackcmap_top() {
     int [] result = new int[4352];
@@ -92,177 +98,229 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
     "\1\32\1\33\1\34\1\35\1\36\1\37\1\40\1\41"+
     "\1\42\1\10\1\43\1\44\1\45\1\46\1\47\1\50"+
     "\1\10\1\51\1\52\1\53\1\54\1\55\1\56\1\57"+
-    "\1\10\1\60\4\3\41\0\2\3\4\10\4\3\1\10"+
+    "\1\60\1\61\4\3\41\0\2\3\4\10\4\3\1\10"+
     "\2\3\1\0\7\3\1\10\4\3\1\10\5\3\27\10"+
     "\1\3\37\10\1\3\u01ca\10\4\3\14\10\16\3\5\10"+
     "\7\3\1\10\1\3\1\10\21\3\160\0\5\10\1\3"+
-    "\2\10\2\3\4\10\10\3\1\10\1\3\3\10\1\3"+
-    "\1\10\1\3\24\10\1\3\123\10\1\3\213\10\1\3"+
-    "\5\0\2\3\236\10\11\3\46\10\2\3\1\10\7\3"+
-    "\47\10\7\3\1\10\1\3\55\0\1\3\1\0\1\3"+
-    "\2\0\1\3\2\0\1\3\1\0\10\3\33\10\5\3"+
-    "\3\10\15\3\5\0\6\3\1\10\4\3\13\0\5\3"+
-    "\53\10\37\0\4\3\2\10\1\0\143\10\1\3\1\10"+
-    "\10\0\1\3\6\0\2\10\2\0\1\3\4\0\2\10"+
-    "\12\0\3\10\2\3\1\10\17\3\1\0\1\10\1\0"+
-    "\36\10\33\0\2\3\131\10\13\0\1\10\16\3\12\0"+
-    "\41\10\11\0\2\10\4\3\1\10\5\3\26\10\4\0"+
-    "\1\10\11\0\1\10\3\0\1\10\5\0\22\3\31\10"+
-    "\3\0\104\3\1\10\1\3\13\10\67\3\33\0\1\3"+
-    "\4\0\66\10\3\0\1\10\22\0\1\10\7\0\12\10"+
-    "\2\0\2\3\12\0\1\3\7\10\1\3\7\10\1\3"+
-    "\3\0\1\3\10\10\2\3\2\10\2\3\26\10\1\3"+
-    "\7\10\1\3\1\10\3\3\4\10\2\3\1\0\1\10"+
-    "\7\0\2\3\2\0\2\3\3\0\1\10\10\3\1\0"+
-    "\4\3\2\10\1\3\3\10\2\0\2\3\12\0\4\10"+
-    "\7\3\1\10\5\3\3\0\1\3\6\10\4\3\2\10"+
-    "\2\3\26\10\1\3\7\10\1\3\2\10\1\3\2\10"+
-    "\1\3\2\10\2\3\1\0\1\3\5\0\4\3\2\0"+
-    "\2\3\3\0\3\3\1\0\7\3\4\10\1\3\1\10"+
-    "\7\3\14\0\3\10\1\0\13\3\3\0\1\3\11\10"+
-    "\1\3\3\10\1\3\26\10\1\3\7\10\1\3\2\10"+
-    "\1\3\5\10\2\3\1\0\1\10\10\0\1\3\3\0"+
-    "\1\3\3\0\2\3\1\10\17\3\2\10\2\0\2\3"+
-    "\12\0\1\3\1\10\17\3\3\0\1\3\10\10\2\3"+
-    "\2\10\2\3\26\10\1\3\7\10\1\3\2\10\1\3"+
-    "\5\10\2\3\1\0\1\10\7\0\2\3\2\0\2\3"+
-    "\3\0\10\3\2\0\4\3\2\10\1\3\3\10\2\0"+
-    "\2\3\12\0\1\3\1\10\20\3\1\0\1\10\1\3"+
-    "\6\10\3\3\3\10\1\3\4\10\3\3\2\10\1\3"+
-    "\1\10\1\3\2\10\3\3\2\10\3\3\3\10\3\3"+
-    "\14\10\4\3\5\0\3\3\3\0\1\3\4\0\2\3"+
-    "\1\10\6\3\1\0\16\3\12\0\11\3\1\10\7\3"+
-    "\3\0\1\3\10\10\1\3\3\10\1\3\27\10\1\3"+
-    "\12\10\1\3\5\10\3\3\1\10\7\0\1\3\3\0"+
-    "\1\3\4\0\7\3\2\0\1\3\2\10\6\3\2\10"+
-    "\2\0\2\3\12\0\22\3\2\0\1\3\10\10\1\3"+
-    "\3\10\1\3\27\10\1\3\12\10\1\3\5\10\2\3"+
-    "\1\0\1\10\7\0\1\3\3\0\1\3\4\0\7\3"+
-    "\2\0\7\3\1\10\1\3\2\10\2\0\2\3\12\0"+
-    "\1\3\2\10\17\3\2\0\1\3\10\10\1\3\3\10"+
-    "\1\3\51\10\2\3\1\10\7\0\1\3\3\0\1\3"+
-    "\4\0\1\10\10\3\1\0\10\3\2\10\2\0\2\3"+
-    "\12\0\12\3\6\10\2\3\2\0\1\3\22\10\3\3"+
-    "\30\10\1\3\11\10\1\3\1\10\2\3\7\10\3\3"+
-    "\1\0\4\3\6\0\1\3\1\0\1\3\10\0\22\3"+
-    "\2\0\15\3\60\10\1\0\2\10\7\0\4\3\10\10"+
-    "\10\0\1\3\12\0\47\3\2\10\1\3\1\10\2\3"+
-    "\2\10\1\3\1\10\2\3\1\10\6\3\4\10\1\3"+
-    "\7\10\1\3\3\10\1\3\1\10\1\3\1\10\2\3"+
-    "\2\10\1\3\4\10\1\0\2\10\6\0\1\3\2\0"+
-    "\1\10\2\3\5\10\1\3\1\10\1\3\6\0\2\3"+
-    "\12\0\2\3\4\10\40\3\1\10\27\3\2\0\6\3"+
-    "\12\0\13\3\1\0\1\3\1\0\1\3\1\0\4\3"+
-    "\2\0\10\10\1\3\44\10\4\3\24\0\1\3\2\0"+
-    "\5\10\13\0\1\3\44\0\11\3\1\0\71\3\53\10"+
-    "\24\0\1\10\12\0\6\3\6\10\4\0\4\10\3\0"+
-    "\1\10\3\0\2\10\7\0\3\10\4\0\15\10\14\0"+
-    "\1\10\17\0\2\3\46\10\1\3\1\10\5\3\1\10"+
-    "\2\3\53\10\1\3\115\10\1\3\4\10\2\3\7\10"+
-    "\1\3\1\10\1\3\4\10\2\3\51\10\1\3\4\10"+
-    "\2\3\41\10\1\3\4\10\2\3\7\10\1\3\1\10"+
-    "\1\3\4\10\2\3\17\10\1\3\71\10\1\3\4\10"+
-    "\2\3\103\10\2\3\3\0\40\3\20\10\20\3\125\10"+
-    "\14\3\u016c\10\2\3\21\10\1\3\32\10\5\3\113\10"+
-    "\3\3\3\10\17\3\15\10\1\3\4\10\3\0\13\3"+
-    "\22\10\3\0\13\3\22\10\2\0\14\3\15\10\1\3"+
-    "\3\10\1\3\2\0\14\3\64\10\40\0\3\3\1\10"+
-    "\3\3\2\10\1\0\2\3\12\0\41\3\3\0\2\3"+
-    "\12\0\6\3\130\10\10\3\51\10\1\0\1\10\5\3"+
-    "\106\10\12\3\35\10\3\3\14\0\4\3\14\0\12\3"+
-    "\12\0\36\10\2\3\5\10\13\3\54\10\4\3\21\0"+
-    "\7\10\2\0\6\3\12\0\46\3\27\10\5\0\4\3"+
-    "\65\10\12\0\1\3\35\0\2\3\13\0\6\3\12\0"+
-    "\15\3\1\10\130\3\5\0\57\10\21\0\7\10\4\3"+
-    "\12\0\21\3\11\0\14\3\3\0\36\10\15\0\2\10"+
-    "\12\0\54\10\16\0\14\3\44\10\24\0\10\3\12\0"+
-    "\3\3\3\10\12\0\44\10\122\3\3\0\1\3\25\0"+
-    "\4\10\1\0\4\10\3\0\2\10\11\3\300\10\47\0"+
-    "\25\3\4\0\26\10\2\3\6\10\2\3\46\10\2\3"+
-    "\6\10\2\3\10\10\1\3\1\10\1\3\1\10\1\3"+
-    "\1\10\1\3\37\10\2\3\65\10\1\3\7\10\1\3"+
-    "\1\10\3\3\3\10\1\3\7\10\3\3\4\10\2\3"+
-    "\6\10\4\3\15\10\5\3\3\10\1\3\7\10\16\3"+
-    "\5\0\32\3\5\0\20\3\2\10\23\3\1\10\13\3"+
-    "\5\0\5\3\6\0\1\3\1\10\15\3\1\10\20\3"+
-    "\15\10\3\3\33\10\25\3\15\0\4\3\1\0\3\3"+
-    "\14\0\21\3\1\10\4\3\1\10\2\3\12\10\1\3"+
-    "\1\10\3\3\5\10\6\3\1\10\1\3\1\10\1\3"+
-    "\1\10\1\3\4\10\1\3\13\10\2\3\4\10\5\3"+
-    "\5\10\4\3\1\10\21\3\51\10\u0177\3\57\10\1\3"+
-    "\57\10\1\3\205\10\6\3\4\10\3\0\2\10\14\3"+
-    "\46\10\1\3\1\10\5\3\1\10\2\3\70\10\7\3"+
-    "\1\10\17\3\1\0\27\10\11\3\7\10\1\3\7\10"+
-    "\1\3\7\10\1\3\7\10\1\3\7\10\1\3\7\10"+
-    "\1\3\7\10\1\3\7\10\1\3\40\0\57\3\1\10"+
-    "\325\3\3\10\31\3\11\10\6\0\1\3\5\10\2\3"+
-    "\5\10\4\3\126\10\2\3\2\0\2\3\3\10\1\3"+
-    "\132\10\1\3\4\10\5\3\51\10\3\3\136\10\21\3"+
-    "\33\10\65\3\306\10\112\3\315\10\63\3\215\10\103\3"+
-    "\56\10\2\3\15\10\3\3\20\10\12\0\2\10\24\3"+
-    "\57\10\1\0\4\3\12\0\1\3\31\10\7\3\1\0"+
-    "\120\10\2\0\45\3\11\10\2\3\147\10\2\3\4\10"+
-    "\1\3\4\10\14\3\13\10\115\3\12\10\1\0\3\10"+
-    "\1\0\4\10\1\0\27\10\5\0\20\3\1\10\7\3"+
-    "\64\10\14\3\2\0\62\10\21\0\13\3\12\0\6\3"+
-    "\22\0\6\10\3\3\1\10\4\3\12\0\34\10\10\0"+
-    "\2\3\27\10\15\0\14\3\35\10\3\3\4\0\57\10"+
-    "\16\0\16\3\1\10\12\0\46\3\51\10\16\0\11\3"+
-    "\3\10\1\0\10\10\2\0\2\3\12\0\6\3\27\10"+
-    "\3\3\1\10\1\0\4\3\60\10\1\0\1\10\3\0"+
-    "\2\10\2\0\5\10\2\0\1\10\1\0\1\10\30\3"+
-    "\3\10\2\3\13\10\5\0\2\3\3\10\2\0\12\3"+
-    "\6\10\2\3\6\10\2\3\6\10\11\3\7\10\1\3"+
-    "\7\10\221\3\43\10\10\0\1\3\2\0\2\3\12\0"+
+    "\2\10\2\3\4\10\1\3\1\10\6\3\1\10\1\3"+
+    "\3\10\1\3\1\10\1\3\24\10\1\3\123\10\1\3"+
+    "\213\10\1\3\5\0\2\3\246\10\1\3\46\10\2\3"+
+    "\1\10\6\3\51\10\6\3\1\10\1\3\55\0\1\3"+
+    "\1\0\1\3\2\0\1\3\2\0\1\3\1\0\10\3"+
+    "\33\10\4\3\4\10\15\3\6\0\5\3\1\10\4\3"+
+    "\13\0\1\3\1\0\3\3\53\10\37\0\4\3\2\10"+
+    "\1\0\143\10\1\3\1\10\10\0\1\3\6\0\2\10"+
+    "\2\0\1\3\4\0\2\10\12\0\3\10\2\3\1\10"+
+    "\17\3\1\0\1\10\1\0\36\10\33\0\2\3\131\10"+
+    "\13\0\1\10\16\3\12\0\41\10\11\0\2\10\4\3"+
+    "\1\10\2\3\1\0\30\10\4\0\1\10\11\0\1\10"+
+    "\3\0\1\10\5\0\22\3\31\10\3\0\4\3\13\10"+
+    "\65\3\25\10\1\3\22\10\13\3\61\0\66\10\3\0"+
+    "\1\10\22\0\1\10\7\0\12\10\2\0\2\3\12\0"+
+    "\1\3\20\10\3\0\1\3\10\10\2\3\2\10\2\3"+
+    "\26\10\1\3\7\10\1\3\1\10\3\3\4\10\2\3"+
+    "\1\0\1\10\7\0\2\3\2\0\2\3\3\0\1\10"+
+    "\10\3\1\0\4\3\2\10\1\3\3\10\2\0\2\3"+
+    "\12\0\4\10\7\3\2\10\1\3\1\0\2\3\3\0"+
+    "\1\3\6\10\4\3\2\10\2\3\26\10\1\3\7\10"+
+    "\1\3\2\10\1\3\2\10\1\3\2\10\2\3\1\0"+
+    "\1\3\5\0\4\3\2\0\2\3\3\0\3\3\1\0"+
+    "\7\3\4\10\1\3\1\10\7\3\14\0\3\10\1\0"+
+    "\13\3\3\0\1\3\11\10\1\3\3\10\1\3\26\10"+
+    "\1\3\7\10\1\3\2\10\1\3\5\10\2\3\1\0"+
+    "\1\10\10\0\1\3\3\0\1\3\3\0\2\3\1\10"+
+    "\17\3\2\10\2\0\2\3\12\0\1\3\1\10\7\3"+
+    "\1\10\6\0\1\3\3\0\1\3\10\10\2\3\2\10"+
+    "\2\3\26\10\1\3\7\10\1\3\2\10\1\3\5\10"+
+    "\2\3\1\0\1\10\7\0\2\3\2\0\2\3\3\0"+
+    "\7\3\3\0\4\3\2\10\1\3\3\10\2\0\2\3"+
+    "\12\0\1\3\1\10\20\3\1\0\1\10\1\3\6\10"+
+    "\3\3\3\10\1\3\4\10\3\3\2\10\1\3\1\10"+
+    "\1\3\2\10\3\3\2\10\3\3\3\10\3\3\14\10"+
+    "\4\3\5\0\3\3\3\0\1\3\4\0\2\3\1\10"+
+    "\6\3\1\0\16\3\12\0\11\3\1\10\6\3\5\0"+
+    "\10\10\1\3\3\10\1\3\27\10\1\3\20\10\3\3"+
+    "\1\10\7\0\1\3\3\0\1\3\4\0\7\3\2\0"+
+    "\1\3\3\10\5\3\2\10\2\0\2\3\12\0\20\3"+
+    "\1\10\3\0\1\3\10\10\1\3\3\10\1\3\27\10"+
+    "\1\3\12\10\1\3\5\10\2\3\1\0\1\10\7\0"+
+    "\1\3\3\0\1\3\4\0\7\3\2\0\7\3\1\10"+
+    "\1\3\2\10\2\0\2\3\12\0\1\3\2\10\15\3"+
+    "\4\0\11\10\1\3\3\10\1\3\51\10\2\0\1\10"+
+    "\7\0\1\3\3\0\1\3\4\0\1\10\5\3\3\10"+
+    "\1\0\7\3\3\10\2\0\2\3\12\0\12\3\6\10"+
+    "\1\3\3\0\1\3\22\10\3\3\30\10\1\3\11\10"+
+    "\1\3\1\10\2\3\7\10\3\3\1\0\4\3\6\0"+
+    "\1\3\1\0\1\3\10\0\6\3\12\0\2\3\2\0"+
+    "\15\3\60\10\1\0\2\10\7\0\4\3\10\10\10\0"+
+    "\1\3\12\0\47\3\2\10\1\3\1\10\1\3\5\10"+
+    "\1\3\30\10\1\3\1\10\1\3\12\10\1\0\2\10"+
+    "\11\0\1\10\2\3\5\10\1\3\1\10\1\3\6\0"+
+    "\2\3\12\0\2\3\4\10\40\3\1\10\27\3\2\0"+
+    "\6\3\12\0\13\3\1\0\1\3\1\0\1\3\1\0"+
+    "\4\3\2\0\10\10\1\3\44\10\4\3\24\0\1\3"+
+    "\2\0\5\10\13\0\1\3\44\0\11\3\1\0\71\3"+
+    "\53\10\24\0\1\10\12\0\6\3\6\10\4\0\4\10"+
+    "\3\0\1\10\3\0\2\10\7\0\3\10\4\0\15\10"+
+    "\14\0\1\10\17\0\2\3\46\10\1\3\1\10\5\3"+
+    "\1\10\2\3\53\10\1\3\115\10\1\3\4\10\2\3"+
+    "\7\10\1\3\1\10\1\3\4\10\2\3\51\10\1\3"+
+    "\4\10\2\3\41\10\1\3\4\10\2\3\7\10\1\3"+
+    "\1\10\1\3\4\10\2\3\17\10\1\3\71\10\1\3"+
+    "\4\10\2\3\103\10\2\3\3\0\40\3\20\10\20\3"+
+    "\126\10\2\3\6\10\3\3\u016c\10\2\3\21\10\1\3"+
+    "\32\10\5\3\113\10\3\3\13\10\7\3\15\10\1\3"+
+    "\4\10\3\0\13\3\22\10\3\0\13\3\22\10\2\0"+
+    "\14\3\15\10\1\3\3\10\1\3\2\0\14\3\64\10"+
+    "\40\0\3\3\1\10\3\3\2\10\1\0\2\3\12\0"+
+    "\41\3\4\0\1\3\12\0\6\3\131\10\7\3\5\10"+
+    "\2\0\42\10\1\0\1\10\5\3\106\10\12\3\37\10"+
+    "\1\3\14\0\4\3\14\0\12\3\12\0\36\10\2\3"+
+    "\5\10\13\3\54\10\4\3\32\10\6\3\12\0\46\3"+
+    "\27\10\5\0\4\3\65\10\12\0\1\3\35\0\2\3"+
+    "\13\0\6\3\12\0\15\3\1\10\10\3\16\0\1\3"+
+    "\2\0\77\3\5\0\57\10\21\0\7\10\4\3\12\0"+
+    "\21\3\11\0\14\3\3\0\36\10\15\0\2\10\12\0"+
+    "\54\10\16\0\14\3\44\10\24\0\10\3\12\0\3\3"+
+    "\3\10\12\0\44\10\2\3\11\10\7\3\53\10\2\3"+
+    "\3\10\20\3\3\0\1\3\25\0\4\10\1\0\6\10"+
+    "\1\0\2\10\3\0\1\10\5\3\300\10\72\0\1\3"+
+    "\5\0\26\10\2\3\6\10\2\3\46\10\2\3\6\10"+
+    "\2\3\10\10\1\3\1\10\1\3\1\10\1\3\1\10"+
+    "\1\3\37\10\2\3\65\10\1\3\7\10\1\3\1\10"+
+    "\3\3\3\10\1\3\7\10\3\3\4\10\2\3\6\10"+
+    "\4\3\15\10\5\3\3\10\1\3\7\10\16\3\5\0"+
+    "\32\3\5\0\20\3\2\10\23\3\1\10\13\3\5\0"+
+    "\1\3\12\0\1\3\1\10\15\3\1\10\20\3\15\10"+
+    "\3\3\40\10\20\3\15\0\4\3\1\0\3\3\14\0"+
+    "\21\3\1\10\4\3\1\10\2\3\12\10\1\3\1\10"+
+    "\3\3\5\10\6\3\1\10\1\3\1\10\1\3\1\10"+
+    "\1\3\4\10\1\3\13\10\2\3\4\10\5\3\5\10"+
+    "\4\3\1\10\21\3\51\10\u0177\3\57\10\1\3\57\10"+
+    "\1\3\205\10\6\3\4\10\3\0\2\10\14\3\46\10"+
+    "\1\3\1\10\5\3\1\10\2\3\70\10\7\3\1\10"+
+    "\17\3\1\0\27\10\11\3\7\10\1\3\7\10\1\3"+
+    "\7\10\1\3\7\10\1\3\7\10\1\3\7\10\1\3"+
+    "\7\10\1\3\7\10\1\3\40\0\57\3\1\10\325\3"+
+    "\3\10\31\3\11\10\6\0\1\3\5\10\2\3\5\10"+
+    "\4\3\126\10\2\3\2\0\2\3\3\10\1\3\132\10"+
+    "\1\3\4\10\5\3\53\10\1\3\136\10\21\3\40\10"+
+    "\60\3\320\10\100\3\375\10\3\3\215\10\103\3\56\10"+
+    "\2\3\15\10\3\3\20\10\12\0\2\10\24\3\57\10"+
+    "\1\0\4\3\12\0\1\3\37\10\2\0\120\10\2\0"+
+    "\45\3\11\10\2\3\147\10\2\3\65\10\2\3\11\10"+
+    "\52\3\15\10\1\0\3\10\1\0\4\10\1\0\27\10"+
+    "\5\0\4\3\1\0\13\3\1\10\7\3\64\10\14\3"+
+    "\2\0\62\10\22\0\12\3\12\0\6\3\22\0\6\10"+
+    "\3\3\1\10\1\3\2\10\13\0\34\10\10\0\2\3"+
+    "\27\10\15\0\14\3\35\10\3\3\4\0\57\10\16\0"+
+    "\16\3\1\10\12\0\6\3\5\10\1\0\12\10\12\0"+
+    "\5\10\1\3\51\10\16\0\11\3\3\10\1\0\10\10"+
+    "\2\0\2\3\12\0\6\3\27\10\3\3\1\10\3\0"+
+    "\62\10\1\0\1\10\3\0\2\10\2\0\5\10\2\0"+
+    "\1\10\1\0\1\10\30\3\3\10\2\3\13\10\5\0"+
+    "\2\3\3\10\2\0\12\3\6\10\2\3\6\10\2\3"+
+    "\6\10\11\3\7\10\1\3\7\10\1\3\53\10\1\3"+
+    "\16\10\6\3\163\10\10\0\1\3\2\0\2\3\12\0"+
     "\6\3\244\10\14\3\27\10\4\3\61\10\4\3\156\10"+
     "\2\3\152\10\46\3\7\10\14\3\5\10\5\3\1\10"+
     "\1\0\12\10\1\3\15\10\1\3\5\10\1\3\1\10"+
     "\1\3\2\10\1\3\2\10\1\3\154\10\41\3\153\10"+
     "\22\3\100\10\2\3\66\10\50\3\15\10\3\3\20\0"+
-    "\20\3\7\0\14\3\2\10\30\3\3\10\31\3\1\10"+
+    "\20\3\20\0\3\3\2\10\30\3\3\10\31\3\1\10"+
     "\6\3\5\10\1\3\207\10\2\3\1\0\4\3\1\10"+
     "\13\3\12\0\7\3\32\10\4\3\1\10\1\3\32\10"+
     "\13\3\131\10\3\3\6\10\2\3\6\10\2\3\6\10"+
     "\2\3\3\10\3\3\2\10\3\3\2\10\22\3\3\0"+
     "\4\3\14\10\1\3\32\10\1\3\23\10\1\3\2\10"+
     "\1\3\17\10\2\3\16\10\42\3\173\10\105\3\65\10"+
-    "\210\3\1\0\202\3\35\10\3\3\61\10\57\3\37\10"+
-    "\21\3\33\10\65\3\36\10\2\3\44\10\4\3\10\10"+
-    "\1\3\5\10\52\3\236\10\2\3\12\0\126\3\6\10"+
-    "\2\3\1\10\1\3\54\10\1\3\2\10\3\3\1\10"+
-    "\2\3\27\10\252\3\26\10\12\3\32\10\106\3\70\10"+
-    "\6\3\2\10\100\3\1\10\3\0\1\3\2\0\5\3"+
-    "\4\0\4\10\1\3\3\10\1\3\33\10\4\3\3\0"+
-    "\4\3\1\0\40\3\35\10\203\3\66\10\12\3\26\10"+
-    "\12\3\23\10\215\3\111\10\267\3\3\0\65\10\17\0"+
-    "\37\3\12\0\20\3\3\0\55\10\13\0\2\3\1\0"+
-    "\22\3\31\10\7\3\12\0\6\3\3\0\44\10\16\0"+
-    "\1\3\12\0\100\3\3\0\60\10\16\0\4\10\13\3"+
-    "\12\0\246\3\53\10\15\0\10\3\12\0\66\3\157\10"+
-    "\221\3\143\10\235\3\57\10\321\3\71\10\307\3\105\10"+
-    "\13\3\1\10\56\0\20\3\4\0\15\10\140\3\2\10"+
-    "\u0163\3\5\0\3\3\26\0\2\3\7\0\36\3\4\0"+
-    "\224\3\3\0\273\3\125\10\1\3\107\10\1\3\2\10"+
-    "\2\3\1\10\2\3\2\10\2\3\4\10\1\3\14\10"+
-    "\1\3\1\10\1\3\7\10\1\3\101\10\1\3\4\10"+
-    "\2\3\10\10\1\3\7\10\1\3\34\10\1\3\4\10"+
-    "\1\3\5\10\1\3\1\10\3\3\7\10\1\3\u0154\10"+
-    "\2\3\31\10\1\3\31\10\1\3\37\10\1\3\31\10"+
-    "\1\3\37\10\1\3\31\10\1\3\37\10\1\3\31\10"+
-    "\1\3\37\10\1\3\31\10\1\3\10\10\2\3\62\0"+
-    "\4\10\1\3\33\10\1\3\2\10\1\3\1\10\2\3"+
-    "\1\10\1\3\12\10\1\3\4\10\1\3\1\10\1\3"+
-    "\1\10\6\3\1\10\4\3\1\10\1\3\1\10\1\3"+
-    "\1\10\1\3\3\10\1\3\2\10\1\3\1\10\2\3"+
-    "\1\10\1\3\1\10\1\3\1\10\1\3\1\10\1\3"+
-    "\1\10\1\3\2\10\1\3\1\10\2\3\4\10\1\3"+
-    "\7\10\1\3\4\10\1\3\4\10\1\3\1\10\1\3"+
-    "\12\10\1\3\21\10\5\3\3\10\1\3\5\10\1\3"+
-    "\21\10\104\3\327\10\51\3\65\10\13\3\336\10\343\3"+
-    "\1\0\36\3\140\0\200\3\360\0\20\3";
+    "\210\3\1\0\202\3\35\10\3\3\61\10\17\3\1\0"+
+    "\37\3\40\10\15\3\36\10\5\3\46\10\5\0\5\3"+
+    "\36\10\2\3\44\10\4\3\10\10\1\3\5\10\52\3"+
+    "\236\10\2\3\12\0\6\3\44\10\4\3\44\10\4\3"+
+    "\50\10\10\3\64\10\234\3\67\10\11\3\26\10\12\3"+
+    "\10\10\230\3\6\10\2\3\1\10\1\3\54\10\1\3"+
+    "\2\10\3\3\1\10\2\3\27\10\12\3\27\10\11\3"+
+    "\37\10\101\3\23\10\1\3\2\10\12\3\26\10\12\3"+
+    "\32\10\106\3\70\10\6\3\2\10\100\3\1\10\3\0"+
+    "\1\3\2\0\5\3\4\0\4\10\1\3\3\10\1\3"+
+    "\35\10\2\3\3\0\4\3\1\0\40\3\35\10\3\3"+
+    "\35\10\43\3\10\10\1\3\34\10\2\0\31\3\66\10"+
+    "\12\3\26\10\12\3\23\10\15\3\22\10\156\3\111\10"+
+    "\67\3\63\10\15\3\63\10\15\3\44\10\4\0\10\3"+
+    "\12\0\u0146\3\52\10\1\3\2\0\3\3\2\10\116\3"+
+    "\35\10\12\3\1\10\10\3\26\10\13\0\137\3\25\10"+
+    "\33\3\27\10\11\3\3\0\65\10\17\0\37\3\12\0"+
+    "\17\3\4\0\55\10\13\0\2\3\1\0\17\3\1\0"+
+    "\2\3\31\10\7\3\12\0\6\3\3\0\44\10\16\0"+
+    "\1\3\12\0\4\3\1\10\2\0\1\10\10\3\43\10"+
+    "\1\0\2\3\1\10\11\3\3\0\60\10\16\0\4\10"+
+    "\4\3\4\0\1\3\14\0\1\10\1\3\1\10\43\3"+
+    "\22\10\1\3\31\10\14\0\6\3\1\0\101\3\7\10"+
+    "\1\3\1\10\1\3\4\10\1\3\17\10\1\3\12\10"+
+    "\7\3\57\10\14\0\5\3\12\0\6\3\4\0\1\3"+
+    "\10\10\2\3\2\10\2\3\26\10\1\3\7\10\1\3"+
+    "\2\10\1\3\5\10\1\3\2\0\1\10\7\0\2\3"+
+    "\2\0\2\3\3\0\2\3\1\10\6\3\1\0\5\3"+
+    "\5\10\2\0\2\3\7\0\3\3\5\0\213\3\65\10"+
+    "\22\0\4\10\5\3\12\0\4\3\1\0\3\10\36\3"+
+    "\60\10\24\0\2\10\1\3\1\10\10\3\12\0\246\3"+
+    "\57\10\7\0\2\3\11\0\27\3\4\10\2\0\42\3"+
+    "\60\10\21\0\3\3\1\10\13\3\12\0\46\3\53\10"+
+    "\15\0\1\10\7\3\12\0\66\3\33\10\2\3\17\0"+
+    "\4\3\12\0\306\3\54\10\17\0\145\3\100\10\12\0"+
+    "\25\3\10\10\2\3\1\10\2\3\10\10\1\3\2\10"+
+    "\1\3\30\10\6\0\1\3\2\0\2\3\4\0\1\10"+
+    "\1\0\1\10\2\0\14\3\12\0\106\3\10\10\2\3"+
+    "\47\10\7\0\2\3\7\0\1\10\1\3\1\10\1\0"+
+    "\33\3\1\10\12\0\50\10\7\0\1\10\4\0\10\3"+
+    "\1\0\10\3\1\10\13\0\56\10\20\0\3\3\1\10"+
+    "\42\3\71\10\7\3\11\10\1\3\45\10\10\0\1\3"+
+    "\10\0\1\10\17\3\12\0\30\3\36\10\2\3\26\0"+
+    "\1\3\16\0\111\3\7\10\1\3\2\10\1\3\46\10"+
+    "\6\0\3\3\1\0\1\3\2\0\1\3\7\0\1\10"+
+    "\1\0\10\3\12\0\6\3\6\10\1\3\2\10\1\3"+
+    "\40\10\5\0\1\3\2\0\1\3\5\0\1\10\7\3"+
+    "\12\0\u0136\3\23\10\4\0\271\3\1\10\54\3\4\10"+
+    "\37\3\232\10\146\3\157\10\21\3\304\10\274\3\57\10"+
+    "\1\3\11\0\307\3\107\10\271\3\71\10\7\3\37\10"+
+    "\1\3\12\0\146\3\36\10\2\3\5\0\13\3\60\10"+
+    "\7\0\11\3\4\10\14\3\12\0\11\3\25\10\5\3"+
+    "\23\10\260\3\100\10\200\3\113\10\4\3\1\0\1\10"+
+    "\67\0\7\3\4\0\15\10\100\3\2\10\1\3\1\10"+
+    "\1\0\13\3\2\0\16\3\370\10\10\3\326\10\52\3"+
+    "\11\10\367\3\37\10\61\3\3\10\21\3\4\10\10\3"+
+    "\u018c\10\4\3\153\10\5\3\15\10\3\3\11\10\7\3"+
+    "\12\10\3\3\2\0\1\3\4\0\301\3\5\0\3\3"+
+    "\26\0\2\3\7\0\36\3\4\0\224\3\3\0\273\3"+
+    "\125\10\1\3\107\10\1\3\2\10\2\3\1\10\2\3"+
+    "\2\10\2\3\4\10\1\3\14\10\1\3\1\10\1\3"+
+    "\7\10\1\3\101\10\1\3\4\10\2\3\10\10\1\3"+
+    "\7\10\1\3\34\10\1\3\4\10\1\3\5\10\1\3"+
+    "\1\10\3\3\7\10\1\3\u0154\10\2\3\31\10\1\3"+
+    "\31\10\1\3\37\10\1\3\31\10\1\3\37\10\1\3"+
+    "\31\10\1\3\37\10\1\3\31\10\1\3\37\10\1\3"+
+    "\31\10\1\3\10\10\2\3\151\0\4\3\62\0\10\3"+
+    "\1\0\16\3\1\0\26\3\5\0\1\3\17\0\120\3"+
+    "\7\0\1\3\21\0\2\3\7\0\1\3\2\0\1\3"+
+    "\5\0\325\3\55\10\3\3\7\0\7\10\2\3\12\0"+
+    "\4\3\1\10\u0171\3\54\10\16\0\5\3\306\10\13\3"+
+    "\7\0\51\3\104\10\7\0\1\10\4\3\12\0\u0156\3"+
+    "\1\10\117\3\4\10\1\3\33\10\1\3\2\10\1\3"+
+    "\1\10\2\3\1\10\1\3\12\10\1\3\4\10\1\3"+
+    "\1\10\1\3\1\10\6\3\1\10\4\3\1\10\1\3"+
+    "\1\10\1\3\1\10\1\3\3\10\1\3\2\10\1\3"+
+    "\1\10\2\3\1\10\1\3\1\10\1\3\1\10\1\3"+
+    "\1\10\1\3\1\10\1\3\2\10\1\3\1\10\2\3"+
+    "\4\10\1\3\7\10\1\3\4\10\1\3\4\10\1\3"+
+    "\1\10\1\3\12\10\1\3\21\10\5\3\3\10\1\3"+
+    "\5\10\1\3\21\10\u0134\3\12\0\6\3\336\10\42\3"+
+    "\65\10\13\3\336\10\2\3\u0182\10\16\3\u0131\10\37\3"+
+    "\36\10\342\3\113\10\266\3\1\0\36\3\140\0\200\3"+
+    "\360\0\20\3";
 
   private static int [] zzUnpackcmap_blocks() {
-    int [] result = new int[21248];
+    int [] result = new int[30976];
     int offset = 0;
     offset = zzUnpackcmap_blocks(ZZ_CMAP_BLOCKS_PACKED_0, offset, result);
     return result;
@@ -286,21 +344,24 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   private static final int [] ZZ_ACTION = zzUnpackAction();
 
   private static final String ZZ_ACTION_PACKED_0 =
-    "\1\0\1\1\2\2\7\1\1\3\21\1\1\0\1\4"+
+    "\1\0\1\1\2\2\7\1\1\3\22\1\1\0\1\4"+
     "\1\0\2\5\2\6\2\7\2\10\1\0\1\3\2\11"+
     "\1\0\1\2\1\0\2\12\3\0\2\13\2\0\1\14"+
-    "\14\0\1\15\15\0\1\16\4\0\1\3\2\17\2\20"+
-    "\2\21\2\22\1\23\6\0\1\24\10\0\1\25\11\0"+
-    "\1\26\1\0\1\2\1\27\4\0\1\30\1\31\1\32"+
-    "\2\0\1\33\3\0\1\34\1\0\1\35\5\0\1\36"+
-    "\2\0\1\37\1\40\2\0\1\41\3\0\1\42\6\0"+
-    "\1\43\1\44\1\45\2\0\1\46\1\0\1\47\3\0"+
-    "\1\50\5\0\1\51\1\0\1\52\2\0\1\53\14\0"+
-    "\1\54\3\0\1\55\1\56\6\0\1\57\1\60\1\61"+
-    "\4\0\1\62\2\0\1\63\1\64\1\65\1\0\1\66";
+    "\16\0\1\15\16\0\1\16\4\0\1\3\2\17\2\20"+
+    "\2\21\2\22\1\23\7\0\1\24\11\0\1\25\12\0"+
+    "\1\26\1\0\1\2\1\27\5\0\1\30\1\31\1\32"+
+    "\2\0\1\33\4\0\1\34\2\0\1\35\5\0\1\36"+
+    "\3\0\1\37\1\40\2\0\1\41\4\0\1\42\1\43"+
+    "\7\0\1\44\1\45\1\46\2\0\1\47\1\0\1\50"+
+    "\5\0\1\51\6\0\1\52\2\0\1\53\2\0\1\54"+
+    "\5\0\1\55\17\0\1\56\4\0\2\57\1\60\5\0"+
+    "\1\61\5\0\1\62\1\63\1\57\1\64\7\0\1\65"+
+    "\1\0\1\57\3\0\1\66\2\0\1\67\1\0\1\57"+
+    "\1\70\2\0\2\61\3\0\1\71\5\0\1\72\1\73"+
+    "\3\0\1\74\1\0\1\75\1\0\1\76";
 
   private static int [] zzUnpackAction() {
-    int [] result = new int[228];
+    int [] result = new int[294];
     int offset = 0;
     offset = zzUnpackAction(ZZ_ACTION_PACKED_0, offset, result);
     return result;
@@ -325,38 +386,46 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   private static final int [] ZZ_ROWMAP = zzUnpackRowMap();
 
   private static final String ZZ_ROWMAP_PACKED_0 =
-    "\0\0\0\61\0\61\0\142\0\223\0\304\0\365\0\u0126"+
-    "\0\u0157\0\u0188\0\u01b9\0\u01ea\0\u021b\0\u024c\0\u027d\0\u02ae"+
-    "\0\u02df\0\u0310\0\u0341\0\u0372\0\u03a3\0\u03d4\0\u0405\0\u0436"+
-    "\0\u0467\0\u0498\0\u04c9\0\u04fa\0\u052b\0\u055c\0\u058d\0\u05be"+
-    "\0\61\0\u05ef\0\61\0\u0620\0\61\0\u0651\0\61\0\u0682"+
-    "\0\u0188\0\u06b3\0\61\0\u06e4\0\u0715\0\u0746\0\u0777\0\61"+
-    "\0\u07a8\0\u07d9\0\u080a\0\u083b\0\61\0\u086c\0\u089d\0\u08ce"+
-    "\0\u08ff\0\u0930\0\u0961\0\u0992\0\u09c3\0\u09f4\0\u0a25\0\u0a56"+
-    "\0\u0a87\0\u0ab8\0\u0ae9\0\u0b1a\0\u0b4b\0\61\0\u0b7c\0\u0bad"+
-    "\0\u0bde\0\u0c0f\0\u0c40\0\u0c71\0\u0ca2\0\u0cd3\0\u0d04\0\u0d35"+
-    "\0\u0d66\0\u0d97\0\u0dc8\0\u055c\0\u0df9\0\u0e2a\0\u0e5b\0\u0e8c"+
-    "\0\u0e8c\0\61\0\u0ebd\0\61\0\u0eee\0\61\0\u0f1f\0\61"+
-    "\0\u0f50\0\u08ce\0\u0f81\0\u0fb2\0\u0fe3\0\u1014\0\u1045\0\u1076"+
-    "\0\u10a7\0\u10d8\0\u1109\0\u113a\0\u116b\0\u119c\0\u11cd\0\u11fe"+
-    "\0\u122f\0\61\0\u1260\0\u1291\0\u12c2\0\u12f3\0\u1324\0\u1355"+
-    "\0\u1386\0\u13b7\0\u13e8\0\u1419\0\u144a\0\u0e2a\0\u147b\0\u14ac"+
-    "\0\u14dd\0\u150e\0\u153f\0\u1570\0\61\0\61\0\u15a1\0\u15d2"+
-    "\0\61\0\u1603\0\u1634\0\u1665\0\u1696\0\u16c7\0\u16f8\0\u1729"+
-    "\0\u175a\0\u178b\0\u17bc\0\u17ed\0\u181e\0\u184f\0\u1880\0\61"+
-    "\0\61\0\u18b1\0\u18e2\0\61\0\u1913\0\u1944\0\u1975\0\61"+
-    "\0\u19a6\0\u19d7\0\u1a08\0\u1a39\0\u1a6a\0\u1a9b\0\61\0\61"+
-    "\0\61\0\u1acc\0\u1afd\0\61\0\u1b2e\0\61\0\u1b5f\0\u1b90"+
-    "\0\u1bc1\0\61\0\u1bf2\0\u1c23\0\u1c54\0\u1c85\0\u1cb6\0\61"+
-    "\0\u1ce7\0\61\0\u1d18\0\u1d49\0\61\0\u1d7a\0\u1dab\0\u1ddc"+
-    "\0\u1e0d\0\u1e3e\0\u1e6f\0\u1ea0\0\u1ed1\0\u1f02\0\u1f33\0\u1f64"+
-    "\0\u1f95\0\61\0\u1fc6\0\u1ff7\0\u2028\0\u2059\0\u208a\0\u20bb"+
-    "\0\u20ec\0\u211d\0\u214e\0\u217f\0\u21b0\0\61\0\u21e1\0\u20bb"+
-    "\0\u2212\0\u2243\0\u2274\0\u22a5\0\61\0\u22d6\0\u2307\0\61"+
-    "\0\61\0\u2338\0\u2369\0\u2369";
+    "\0\0\0\62\0\62\0\144\0\226\0\310\0\372\0\u012c"+
+    "\0\u015e\0\u0190\0\u01c2\0\u01f4\0\u0226\0\u0258\0\u028a\0\u02bc"+
+    "\0\u02ee\0\u0320\0\u0352\0\u0384\0\u03b6\0\u03e8\0\u041a\0\u044c"+
+    "\0\u047e\0\u04b0\0\u04e2\0\u0514\0\u0546\0\u0578\0\u05aa\0\u05dc"+
+    "\0\u060e\0\62\0\u0640\0\62\0\u0672\0\62\0\u06a4\0\62"+
+    "\0\u06d6\0\u0190\0\u0708\0\62\0\u073a\0\u076c\0\u079e\0\u07d0"+
+    "\0\62\0\u0802\0\u0834\0\u0866\0\u0898\0\62\0\u08ca\0\u08fc"+
+    "\0\u092e\0\u0960\0\u0992\0\u09c4\0\u09f6\0\u0a28\0\u0a5a\0\u0a8c"+
+    "\0\u0abe\0\u0af0\0\u0b22\0\u0b54\0\u0b86\0\u0bb8\0\u0bea\0\u0c1c"+
+    "\0\62\0\u0c4e\0\u0c80\0\u0cb2\0\u0ce4\0\u0d16\0\u0d48\0\u0d7a"+
+    "\0\u0dac\0\u0dde\0\u0e10\0\u0e42\0\u0e74\0\u0ea6\0\u0ed8\0\u05aa"+
+    "\0\u0f0a\0\u0f3c\0\u0f6e\0\u0fa0\0\u0fa0\0\62\0\u0fd2\0\62"+
+    "\0\u1004\0\62\0\u1036\0\62\0\u1068\0\u092e\0\u109a\0\u10cc"+
+    "\0\u10fe\0\u1130\0\u1162\0\u1194\0\u11c6\0\u11f8\0\u122a\0\u125c"+
+    "\0\u128e\0\u12c0\0\u12f2\0\u1324\0\u1356\0\u1388\0\u13ba\0\62"+
+    "\0\u13ec\0\u141e\0\u1450\0\u1482\0\u14b4\0\u14e6\0\u1518\0\u154a"+
+    "\0\u157c\0\u15ae\0\u15e0\0\u1612\0\u0f3c\0\u1644\0\u1676\0\u16a8"+
+    "\0\u16da\0\u170c\0\u173e\0\u1770\0\62\0\62\0\u17a2\0\u17d4"+
+    "\0\62\0\u1806\0\u1838\0\u186a\0\u189c\0\u18ce\0\u1900\0\u1932"+
+    "\0\u1964\0\u1996\0\u19c8\0\u19fa\0\u1a2c\0\u1a5e\0\u1a90\0\u1ac2"+
+    "\0\u1af4\0\u1b26\0\62\0\62\0\u1b58\0\u1b8a\0\62\0\u1bbc"+
+    "\0\u1bee\0\u1c20\0\u1c52\0\62\0\u1c84\0\u1cb6\0\u1ce8\0\u1d1a"+
+    "\0\u1d4c\0\u1d7e\0\u1db0\0\u1de2\0\62\0\62\0\62\0\u1e14"+
+    "\0\u1e46\0\62\0\u1e78\0\62\0\u1eaa\0\u1edc\0\u1f0e\0\u1f40"+
+    "\0\u1f72\0\62\0\u1fa4\0\u1fd6\0\u2008\0\u203a\0\u206c\0\u209e"+
+    "\0\62\0\u20d0\0\u2102\0\62\0\u2134\0\u2166\0\62\0\u2198"+
+    "\0\u21ca\0\u21fc\0\u222e\0\u2260\0\62\0\u2292\0\u22c4\0\u22f6"+
+    "\0\u2328\0\u235a\0\u238c\0\u23be\0\u23f0\0\u2422\0\u2454\0\u2486"+
+    "\0\u24b8\0\u24ea\0\u251c\0\u254e\0\62\0\u2580\0\u25b2\0\u25e4"+
+    "\0\u2616\0\u2648\0\u267a\0\u26ac\0\u26de\0\u2710\0\u2742\0\u2774"+
+    "\0\u27a6\0\u27d8\0\u280a\0\u283c\0\u286e\0\u28a0\0\u28d2\0\62"+
+    "\0\u2904\0\u2936\0\u26de\0\u2968\0\u299a\0\u29cc\0\u29fe\0\u2a30"+
+    "\0\u2a62\0\u2a94\0\62\0\u2ac6\0\u2af8\0\u2b2a\0\u2b5c\0\u2b8e"+
+    "\0\62\0\u2bc0\0\u2bf2\0\62\0\u2c24\0\u2c56\0\u2c88\0\u2cba"+
+    "\0\u2cec\0\u2d1e\0\u2d50\0\u2d82\0\u2db4\0\u2de6\0\u2cec\0\u2e18"+
+    "\0\u2e4a\0\u2e7c\0\u2eae\0\u2ee0\0\u2e18\0\u2e4a\0\u2f12\0\u2f44"+
+    "\0\u2f76\0\u2fa8\0\u2fda\0\u300c\0\u303e\0\62";
 
   private static int [] zzUnpackRowMap() {
-    int [] result = new int[228];
+    int [] result = new int[294];
     int offset = 0;
     offset = zzUnpackRowMap(ZZ_ROWMAP_PACKED_0, offset, result);
     return result;
@@ -381,85 +450,130 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   private static final String ZZ_TRANS_PACKED_0 =
     "\1\2\2\3\1\2\1\3\1\4\1\5\2\2\1\6"+
     "\1\7\1\10\1\11\1\12\1\13\2\14\1\15\1\16"+
-    "\1\17\1\20\7\2\1\21\1\22\1\23\1\24\2\2"+
-    "\1\25\1\2\1\26\1\27\1\30\1\2\1\31\1\32"+
-    "\1\33\1\2\1\34\1\2\1\35\2\2\63\0\1\3"+
-    "\65\0\1\36\1\37\14\0\2\37\1\40\1\0\30\37"+
-    "\1\0\2\41\1\0\1\41\1\42\54\0\2\43\1\0"+
-    "\1\43\1\44\54\0\2\45\1\0\1\45\1\46\54\0"+
-    "\2\47\1\0\1\47\1\50\7\0\1\51\1\0\2\14"+
-    "\57\0\2\52\41\0\2\53\1\0\1\53\1\54\4\0"+
-    "\1\55\3\0\1\56\57\0\1\52\1\0\2\14\5\0"+
-    "\1\57\7\0\1\57\23\0\2\60\1\0\1\60\1\61"+
-    "\14\0\1\62\1\63\57\0\1\64\37\0\2\65\1\0"+
-    "\1\65\1\66\14\0\1\67\45\0\1\70\1\71\14\0"+
-    "\2\71\1\72\1\0\30\71\44\0\1\73\2\0\1\74"+
-    "\47\0\1\75\10\0\1\76\1\0\1\77\2\0\1\100"+
-    "\50\0\1\101\1\0\1\102\2\0\1\103\5\0\1\104"+
-    "\55\0\1\105\43\0\1\106\6\0\1\107\54\0\1\110"+
-    "\50\0\1\111\64\0\1\112\66\0\1\113\2\0\1\114"+
-    "\43\0\1\115\14\0\1\116\4\0\1\117\57\0\1\120"+
-    "\2\0\1\121\52\0\1\122\51\0\1\123\17\0\2\124"+
-    "\1\0\2\124\1\0\53\124\1\37\7\0\1\37\6\0"+
-    "\2\37\4\0\2\37\2\0\30\37\30\0\1\125\32\0"+
-    "\1\41\60\0\1\43\60\0\1\45\60\0\1\47\75\0"+
-    "\2\52\5\0\1\57\7\0\1\57\24\0\1\53\56\0"+
-    "\12\126\1\127\46\126\2\56\1\3\2\56\1\4\53\56"+
-    "\13\0\2\130\2\0\2\131\42\0\1\60\57\0\2\132"+
-    "\1\0\1\132\1\133\54\0\2\134\1\0\1\134\1\135"+
-    "\54\0\2\136\1\0\1\136\1\137\55\0\1\65\57\0"+
-    "\2\140\1\0\1\140\1\141\53\0\2\142\1\0\2\142"+
-    "\1\0\53\142\1\71\7\0\1\71\6\0\2\71\4\0"+
-    "\2\71\2\0\30\71\30\0\1\143\66\0\1\144\66\0"+
-    "\1\145\47\0\1\146\100\0\1\147\54\0\1\150\61\0"+
-    "\1\151\62\0\1\152\43\0\1\153\55\0\1\154\70\0"+
-    "\1\155\64\0\1\156\51\0\1\157\67\0\1\160\65\0"+
-    "\1\161\45\0\1\162\67\0\1\163\66\0\1\164\51\0"+
-    "\1\165\56\0\1\166\62\0\1\167\44\0\1\170\60\0"+
-    "\1\171\63\0\1\172\65\0\1\173\26\0\1\174\14\0"+
-    "\2\174\2\0\30\174\12\126\1\175\60\126\1\175\3\126"+
-    "\1\176\42\126\17\0\2\131\42\0\1\132\60\0\1\134"+
-    "\60\0\1\136\60\0\1\140\66\0\1\177\14\0\2\177"+
-    "\2\0\30\177\32\0\1\200\75\0\1\201\65\0\1\202"+
-    "\35\0\1\203\77\0\1\204\56\0\1\205\50\0\1\206"+
-    "\53\0\1\207\101\0\1\210\61\0\1\211\41\0\1\212"+
-    "\1\213\65\0\1\214\54\0\1\215\63\0\1\216\72\0"+
-    "\1\217\25\0\1\220\100\0\1\221\64\0\1\222\45\0"+
-    "\1\223\63\0\1\224\74\0\1\225\42\0\1\226\72\0"+
-    "\1\227\14\0\1\174\7\0\1\174\6\0\2\174\4\0"+
-    "\2\174\2\0\30\174\12\126\1\175\3\126\1\3\42\126"+
-    "\1\177\7\0\1\177\6\0\2\177\4\0\2\177\2\0"+
-    "\30\177\51\0\1\230\60\0\1\231\47\0\1\232\72\0"+
-    "\1\233\54\0\1\234\51\0\1\235\2\0\1\236\13\0"+
-    "\1\237\40\0\1\240\54\0\1\241\64\0\1\242\101\0"+
-    "\1\243\21\0\1\244\71\0\1\245\47\0\1\246\65\0"+
-    "\1\247\71\0\1\250\70\0\1\251\64\0\1\252\51\0"+
-    "\1\253\63\0\1\254\65\0\1\255\43\0\1\256\53\0"+
-    "\1\257\71\0\1\260\72\0\1\261\43\0\1\262\62\0"+
-    "\1\263\63\0\1\264\53\0\1\265\4\0\1\266\52\0"+
-    "\1\267\47\0\1\270\67\0\1\271\51\0\1\272\67\0"+
-    "\1\273\55\0\1\274\65\0\1\275\55\0\1\276\105\0"+
-    "\1\277\46\0\1\300\54\0\1\301\62\0\1\302\15\0"+
-    "\1\303\60\0\1\304\114\0\1\305\55\0\1\306\77\0"+
-    "\1\307\61\0\1\310\57\0\1\311\45\0\1\312\57\0"+
-    "\1\313\67\0\1\314\15\0\1\315\60\0\1\303\6\0"+
-    "\1\316\14\0\2\316\2\0\30\316\1\0\1\304\6\0"+
-    "\1\317\14\0\2\317\2\0\30\317\1\0\1\320\123\0"+
-    "\1\321\56\0\1\322\60\0\1\323\54\0\1\324\60\0"+
-    "\1\325\60\0\1\326\23\0\1\315\6\0\1\327\14\0"+
-    "\2\327\2\0\30\327\1\316\7\0\1\316\6\0\2\316"+
-    "\4\0\2\316\2\0\30\316\1\317\7\0\1\317\6\0"+
-    "\2\317\4\0\2\317\2\0\30\317\2\330\1\0\2\330"+
-    "\1\0\53\330\44\0\1\331\64\0\1\332\70\0\1\333"+
-    "\32\0\1\334\65\0\1\335\21\0\1\327\7\0\1\327"+
-    "\6\0\2\327\4\0\2\327\2\0\30\327\1\0\1\336"+
-    "\132\0\1\337\43\0\1\340\65\0\1\341\16\0\1\336"+
-    "\6\0\1\342\14\0\2\342\2\0\30\342\1\0\1\343"+
-    "\57\0\1\342\7\0\1\342\6\0\2\342\4\0\2\342"+
-    "\2\0\30\342\2\344\1\0\2\344\1\0\53\344";
+    "\1\17\1\20\5\2\1\21\1\2\1\22\1\23\1\24"+
+    "\1\25\2\2\1\26\1\2\1\27\1\30\1\31\1\2"+
+    "\1\32\1\33\1\34\1\2\1\35\1\2\1\36\3\2"+
+    "\64\0\1\3\66\0\1\37\1\40\14\0\2\40\1\41"+
+    "\1\0\31\40\1\0\2\42\1\0\1\42\1\43\55\0"+
+    "\2\44\1\0\1\44\1\45\55\0\2\46\1\0\1\46"+
+    "\1\47\55\0\2\50\1\0\1\50\1\51\7\0\1\52"+
+    "\1\0\2\14\60\0\2\53\42\0\2\54\1\0\1\54"+
+    "\1\55\4\0\1\56\3\0\1\57\60\0\1\53\1\0"+
+    "\2\14\5\0\1\60\7\0\1\60\24\0\2\61\1\0"+
+    "\1\61\1\62\14\0\1\63\1\64\60\0\1\65\40\0"+
+    "\2\66\1\0\1\66\1\67\14\0\1\70\46\0\1\71"+
+    "\1\72\14\0\2\72\1\73\1\0\31\72\51\0\1\74"+
+    "\54\0\1\75\2\0\1\76\50\0\1\77\10\0\1\100"+
+    "\1\0\1\101\2\0\1\102\51\0\1\103\1\0\1\104"+
+    "\2\0\1\105\5\0\1\106\51\0\1\107\4\0\1\110"+
+    "\44\0\1\111\6\0\1\112\55\0\1\113\51\0\1\114"+
+    "\65\0\1\115\55\0\1\116\11\0\1\117\2\0\1\120"+
+    "\44\0\1\121\14\0\1\122\4\0\1\123\60\0\1\124"+
+    "\2\0\1\125\53\0\1\126\52\0\1\127\20\0\2\130"+
+    "\1\0\2\130\1\0\54\130\1\40\7\0\1\40\6\0"+
+    "\2\40\4\0\2\40\2\0\31\40\30\0\1\131\33\0"+
+    "\1\42\61\0\1\44\61\0\1\46\61\0\1\50\76\0"+
+    "\2\53\5\0\1\60\7\0\1\60\25\0\1\54\57\0"+
+    "\12\132\1\133\47\132\2\57\1\3\2\57\1\4\54\57"+
+    "\13\0\2\134\2\0\2\135\43\0\1\61\60\0\2\136"+
+    "\1\0\1\136\1\137\55\0\2\140\1\0\1\140\1\141"+
+    "\55\0\2\142\1\0\1\142\1\143\56\0\1\66\60\0"+
+    "\2\144\1\0\1\144\1\145\54\0\2\146\1\0\2\146"+
+    "\1\0\54\146\1\72\7\0\1\72\6\0\2\72\4\0"+
+    "\2\72\2\0\31\72\30\0\1\147\102\0\1\150\46\0"+
+    "\1\151\67\0\1\152\50\0\1\153\101\0\1\154\55\0"+
+    "\1\155\62\0\1\156\63\0\1\157\44\0\1\160\56\0"+
+    "\1\161\71\0\1\162\70\0\1\163\56\0\1\164\52\0"+
+    "\1\165\70\0\1\166\66\0\1\167\46\0\1\170\72\0"+
+    "\1\171\57\0\1\172\67\0\1\173\52\0\1\174\57\0"+
+    "\1\175\63\0\1\176\45\0\1\177\61\0\1\200\64\0"+
+    "\1\201\66\0\1\202\27\0\1\203\14\0\2\203\2\0"+
+    "\31\203\12\132\1\204\61\132\1\204\3\132\1\205\43\132"+
+    "\17\0\2\135\43\0\1\136\61\0\1\140\61\0\1\142"+
+    "\61\0\1\144\67\0\1\206\14\0\2\206\2\0\31\206"+
+    "\32\0\1\207\61\0\1\210\76\0\1\211\66\0\1\212"+
+    "\36\0\1\213\100\0\1\214\57\0\1\215\51\0\1\216"+
+    "\54\0\1\217\102\0\1\220\62\0\1\221\7\0\1\222"+
+    "\114\0\1\223\1\224\66\0\1\225\55\0\1\226\64\0"+
+    "\1\227\52\0\1\230\102\0\1\231\26\0\1\232\101\0"+
+    "\1\233\65\0\1\234\46\0\1\235\64\0\1\236\75\0"+
+    "\1\237\43\0\1\240\73\0\1\241\15\0\1\203\7\0"+
+    "\1\203\6\0\2\203\4\0\2\203\2\0\31\203\12\132"+
+    "\1\204\3\132\1\3\43\132\1\206\7\0\1\206\6\0"+
+    "\2\206\4\0\2\206\2\0\31\206\60\0\1\242\52\0"+
+    "\1\243\61\0\1\244\50\0\1\245\73\0\1\246\55\0"+
+    "\1\247\52\0\1\250\2\0\1\251\5\0\1\252\5\0"+
+    "\1\253\41\0\1\254\24\0\1\222\6\0\1\255\14\0"+
+    "\2\255\2\0\31\255\32\0\1\256\65\0\1\257\102\0"+
+    "\1\260\22\0\1\261\72\0\1\262\74\0\1\263\35\0"+
+    "\1\264\66\0\1\265\72\0\1\266\71\0\1\267\65\0"+
+    "\1\270\52\0\1\271\64\0\1\272\66\0\1\273\44\0"+
+    "\1\274\54\0\1\275\61\0\1\276\72\0\1\277\66\0"+
+    "\1\300\4\0\1\301\44\0\1\302\54\0\1\303\70\0"+
+    "\1\304\20\0\1\255\7\0\1\255\6\0\2\255\4\0"+
+    "\2\255\2\0\31\255\44\0\1\305\54\0\1\306\4\0"+
+    "\1\307\53\0\1\310\50\0\1\311\70\0\1\312\71\0"+
+    "\1\313\42\0\1\314\70\0\1\315\56\0\1\316\66\0"+
+    "\1\317\33\0\1\320\14\0\2\320\2\0\13\320\1\321"+
+    "\5\320\1\322\7\320\33\0\1\323\107\0\1\324\51\0"+
+    "\1\325\56\0\1\326\64\0\1\327\52\0\1\330\63\0"+
+    "\1\331\16\0\1\332\61\0\1\333\115\0\1\334\56\0"+
+    "\1\335\65\0\1\336\74\0\1\337\62\0\1\340\7\0"+
+    "\1\320\1\341\6\0\1\320\6\0\2\320\4\0\2\320"+
+    "\2\0\32\320\1\341\6\0\1\320\6\0\2\320\4\0"+
+    "\2\320\2\0\16\320\1\342\13\320\1\341\6\0\1\320"+
+    "\6\0\2\320\4\0\2\320\2\0\1\320\1\343\27\320"+
+    "\51\0\1\344\46\0\1\345\60\0\1\346\56\0\1\347"+
+    "\73\0\1\350\16\0\1\351\61\0\1\332\6\0\1\352"+
+    "\14\0\2\352\2\0\14\352\1\353\14\352\1\0\1\333"+
+    "\6\0\1\354\14\0\2\354\2\0\31\354\1\0\1\355"+
+    "\124\0\1\356\61\0\1\357\57\0\1\360\61\0\1\361"+
+    "\20\0\1\341\6\0\1\362\14\0\2\362\2\0\31\362"+
+    "\1\320\1\341\6\0\1\320\6\0\2\320\4\0\2\320"+
+    "\2\0\1\320\1\363\30\320\1\341\6\0\1\320\6\0"+
+    "\2\320\4\0\2\320\2\0\24\320\1\364\4\320\36\0"+
+    "\1\365\61\0\1\366\67\0\1\367\53\0\1\370\24\0"+
+    "\1\351\6\0\1\371\14\0\2\371\2\0\31\371\1\352"+
+    "\7\0\1\352\6\0\2\352\4\0\2\352\2\0\32\352"+
+    "\7\0\1\352\6\0\2\352\4\0\2\352\2\0\5\352"+
+    "\1\372\23\352\1\354\7\0\1\354\6\0\2\354\4\0"+
+    "\2\354\2\0\31\354\2\373\1\0\2\373\1\0\54\373"+
+    "\44\0\1\374\46\0\1\375\100\0\1\376\72\0\1\377"+
+    "\1\362\1\341\6\0\1\362\6\0\2\362\4\0\2\362"+
+    "\2\0\31\362\1\320\1\341\6\0\1\320\6\0\2\320"+
+    "\4\0\2\320\2\0\4\320\1\u0100\25\320\1\341\6\0"+
+    "\1\320\6\0\2\320\4\0\2\320\2\0\5\320\1\u0101"+
+    "\23\320\32\0\1\u0102\66\0\1\u0103\66\0\1\u0104\15\0"+
+    "\1\371\7\0\1\371\6\0\2\371\4\0\2\371\2\0"+
+    "\31\371\1\352\7\0\1\352\6\0\2\352\4\0\2\352"+
+    "\2\0\14\352\1\u0105\14\352\1\0\1\u0106\117\0\1\u0107"+
+    "\75\0\1\u0108\44\0\1\u0109\23\0\1\320\1\u010a\6\0"+
+    "\1\320\6\0\2\320\4\0\2\320\2\0\32\320\1\u010b"+
+    "\6\0\1\320\6\0\2\320\4\0\2\320\2\0\31\320"+
+    "\43\0\1\u010c\54\0\1\u010d\23\0\1\352\7\0\1\352"+
+    "\6\0\2\352\4\0\2\352\2\0\16\352\1\u010e\12\352"+
+    "\1\0\1\u0106\6\0\1\u010f\14\0\2\u010f\2\0\31\u010f"+
+    "\47\0\1\u0110\13\0\1\u0111\61\0\1\u010a\6\0\1\u0112"+
+    "\14\0\2\u0112\2\0\31\u0112\1\0\1\u010b\6\0\1\u0113"+
+    "\14\0\2\u0113\2\0\31\u0113\44\0\1\u0114\15\0\1\352"+
+    "\1\u0115\6\0\1\352\6\0\2\352\4\0\2\352\2\0"+
+    "\31\352\1\u010f\7\0\1\u010f\6\0\2\u010f\4\0\2\u010f"+
+    "\2\0\31\u010f\51\0\1\u0116\10\0\2\u0117\1\0\2\u0117"+
+    "\1\0\54\u0117\1\u0112\1\u0118\6\0\1\u0112\6\0\2\u0112"+
+    "\4\0\2\u0112\2\0\31\u0112\1\u0113\1\u0119\6\0\1\u0113"+
+    "\6\0\2\u0113\4\0\2\u0113\2\0\31\u0113\31\0\1\u011a"+
+    "\31\0\1\u0115\15\0\2\u011b\42\0\1\u011c\60\0\2\u011d"+
+    "\1\0\2\u011d\1\0\54\u011d\2\u011e\1\0\2\u011e\1\0"+
+    "\54\u011e\37\0\1\u011f\23\0\1\u0120\15\0\2\u0121\42\0"+
+    "\1\u011c\6\0\1\u0122\14\0\2\u0122\2\0\31\u0122\47\0"+
+    "\1\u0123\13\0\1\u0120\6\0\1\u0124\14\0\2\u0124\2\0"+
+    "\31\u0124\1\0\1\u0120\15\0\2\u0125\41\0\1\u0122\7\0"+
+    "\1\u0122\6\0\2\u0122\4\0\2\u0122\2\0\31\u0122\51\0"+
+    "\1\u0126\10\0\1\u0124\7\0\1\u0124\6\0\2\u0124\4\0"+
+    "\2\u0124\2\0\31\u0124\1\0\1\u0120\60\0";
 
   private static int [] zzUnpackTrans() {
-    int [] result = new int[9114];
+    int [] result = new int[12400];
     int offset = 0;
     offset = zzUnpackTrans(ZZ_TRANS_PACKED_0, offset, result);
     return result;
@@ -502,21 +616,24 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   private static final int [] ZZ_ATTRIBUTE = zzUnpackAttribute();
 
   private static final String ZZ_ATTRIBUTE_PACKED_0 =
-    "\1\0\2\11\32\1\1\0\1\1\1\0\1\11\1\1"+
+    "\1\0\2\11\33\1\1\0\1\1\1\0\1\11\1\1"+
     "\1\11\1\1\1\11\1\1\1\11\1\1\1\0\1\1"+
     "\1\11\1\1\1\0\1\1\1\0\1\11\1\1\3\0"+
-    "\1\11\1\1\2\0\1\1\14\0\1\11\15\0\1\1"+
+    "\1\11\1\1\2\0\1\1\16\0\1\11\16\0\1\1"+
     "\4\0\1\1\1\11\1\1\1\11\1\1\1\11\1\1"+
-    "\1\11\2\1\6\0\1\1\10\0\1\11\11\0\1\1"+
-    "\1\0\2\1\4\0\1\1\2\11\2\0\1\11\3\0"+
-    "\1\1\1\0\1\1\5\0\1\1\2\0\2\11\2\0"+
-    "\1\11\3\0\1\11\6\0\3\11\2\0\1\11\1\0"+
-    "\1\11\3\0\1\11\5\0\1\11\1\0\1\11\2\0"+
-    "\1\11\14\0\1\11\3\0\2\1\6\0\1\11\2\1"+
-    "\4\0\1\11\2\0\2\11\1\1\1\0\1\1";
+    "\1\11\2\1\7\0\1\1\11\0\1\11\12\0\1\1"+
+    "\1\0\2\1\5\0\1\1\2\11\2\0\1\11\4\0"+
+    "\1\1\2\0\1\1\5\0\1\1\3\0\2\11\2\0"+
+    "\1\11\4\0\1\11\1\1\7\0\3\11\2\0\1\11"+
+    "\1\0\1\11\5\0\1\11\6\0\1\11\2\0\1\11"+
+    "\2\0\1\11\5\0\1\11\17\0\1\11\4\0\3\1"+
+    "\5\0\1\1\5\0\1\11\3\1\7\0\1\11\1\0"+
+    "\1\1\3\0\1\11\2\0\1\11\1\0\2\1\2\0"+
+    "\2\1\3\0\1\1\5\0\2\1\3\0\1\1\1\0"+
+    "\1\1\1\0\1\11";
 
   private static int [] zzUnpackAttribute() {
-    int [] result = new int[228];
+    int [] result = new int[294];
     int offset = 0;
     offset = zzUnpackAttribute(ZZ_ATTRIBUTE_PACKED_0, offset, result);
     return result;
@@ -582,7 +699,6 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   private int yycolumn;
 
   /** Number of characters up to the start of the matched text. */
-  @SuppressWarnings("unused")
   private long yychar;
 
   /** Whether the scanner is currently at the beginning of a line. */
@@ -596,6 +712,10 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   enum sym {
                 WHILE,
                 END_WHILE,
+                FOR,
+                END_FOR,
+                PARALLEL_FOR,
+                END_PARALLEL_FOR,
                 IF,
                 ELSE,
                 END_IF,
@@ -631,6 +751,9 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
                 POP_IDENTIFIER,
                 PUSH_ARRAY_VALUE,
                 POP_ARRAY_VALUE,
+                ARRAY_OPERATION,
+                ARRAY_SAVE,
+                ARRAY_LOAD,
                 DOUBLE_LITERAL,
                 DISPLAY_MESSAGE,
                 PROMPT_MESSAGE,
@@ -650,6 +773,8 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
                 SYNTAX_ERROR
   };
 
+  final static int FOR_LEN = new String("for").length();
+  final static int PARALLEL_FOR_LEN = new String("parallel_for").length();
   final static int FUNDEF_LEN = new String("fundef").length();
   final static int FUNDEL_LEN = new String("fundel").length();
   final static int FUNCALL_LEN = new String("funcall").length();
@@ -662,8 +787,11 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
   final static int DISPLAY_MESSAGE_LEN = new String("!\"").length();
   final static int PROMPT_MESSAGE_LEN = new String("?\"").length();
   final static int INFIXED_LEN = new String("infixed").length();
+  final static int ARRAY_SAVE_LEN = new String("array_save").length();
+  final static int ARRAY_LOAD_LEN = new String("array_load").length();
 
   String identifier = null;
+  int arity = -1;               // memoized function arguments count, -1 if not memoized
   String filename = null;
   BigDecimal value = null;
   String expression = null;
@@ -969,6 +1097,8 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
     while (true) {
       zzMarkedPosL = zzMarkedPos;
 
+      yychar+= zzMarkedPosL-zzStartRead;
+
       boolean zzR = false;
       int zzCh;
       int zzCharCount;
@@ -1099,272 +1229,312 @@ public class ScriptLexer implements java_cup.runtime.Scanner {
             { return symbol(sym.SYNTAX_ERROR);
             }
             // fall through
-          case 55: break;
+          case 63: break;
           case 2:
             { /* ignore */
             }
             // fall through
-          case 56: break;
+          case 64: break;
           case 3:
             { try {value = new BigDecimal(yytext());} catch (Exception e) {value = new BigDecimal(0);} return symbol(sym.DOUBLE_LITERAL);
             }
             // fall through
-          case 57: break;
+          case 65: break;
           case 4:
             { identifier = yytext().substring(PUSH_VAR_LEN).trim(); return symbol(sym.PUSH_IDENTIFIER);
             }
             // fall through
-          case 58: break;
+          case 66: break;
           case 5:
             { return symbol(sym.MOD);
             }
             // fall through
-          case 59: break;
+          case 67: break;
           case 6:
             { return symbol(sym.MUL);
             }
             // fall through
-          case 60: break;
+          case 68: break;
           case 7:
             { return symbol(sym.ADD);
             }
             // fall through
-          case 61: break;
+          case 69: break;
           case 8:
             { return symbol(sym.SUB);
             }
             // fall through
-          case 62: break;
+          case 70: break;
           case 9:
             { return symbol(sym.DIV);
             }
             // fall through
-          case 63: break;
+          case 71: break;
           case 10:
             { return symbol(sym.LT);
             }
             // fall through
-          case 64: break;
+          case 72: break;
           case 11:
             { return symbol(sym.GT);
             }
             // fall through
-          case 65: break;
+          case 73: break;
           case 12:
             { identifier = yytext().substring(POP_VAR_LEN).trim(); return symbol(sym.POP_IDENTIFIER);
             }
             // fall through
-          case 66: break;
+          case 74: break;
           case 13:
             { return symbol(sym.IF);
             }
             // fall through
-          case 67: break;
+          case 75: break;
           case 14:
             { identifier = yytext().substring(DISPLAY_MESSAGE_LEN).trim(); return symbol(sym.DISPLAY_MESSAGE);
             }
             // fall through
-          case 68: break;
+          case 76: break;
           case 15:
             { return symbol(sym.LTE);
             }
             // fall through
-          case 69: break;
+          case 77: break;
           case 16:
             { return symbol(sym.NEQ);
             }
             // fall through
-          case 70: break;
+          case 78: break;
           case 17:
             { return symbol(sym.EQ);
             }
             // fall through
-          case 71: break;
+          case 79: break;
           case 18:
             { return symbol(sym.GTE);
             }
             // fall through
-          case 72: break;
+          case 80: break;
           case 19:
             { identifier = yytext().substring(PROMPT_MESSAGE_LEN).trim(); return symbol(sym.PROMPT_MESSAGE);
             }
             // fall through
-          case 73: break;
+          case 81: break;
           case 20:
             { return symbol(sym.DUP);
             }
             // fall through
-          case 74: break;
+          case 82: break;
           case 21:
             { return symbol(sym.NEG);
             }
             // fall through
-          case 75: break;
+          case 83: break;
           case 22:
             { identifier = yytext().substring(PUSH_ARRAY_LEN).trim(); return symbol(sym.PUSH_ARRAY_VALUE);
             }
             // fall through
-          case 76: break;
+          case 84: break;
           case 23:
             { identifier = yytext().substring(POP_ARRAY_LEN).trim(); return symbol(sym.POP_ARRAY_VALUE);
             }
             // fall through
-          case 77: break;
+          case 85: break;
           case 24:
             { return symbol(sym.DROP);
             }
             // fall through
-          case 78: break;
+          case 86: break;
           case 25:
             { return symbol(sym.DUPN);
             }
             // fall through
-          case 79: break;
+          case 87: break;
           case 26:
             { return symbol(sym.ELSE);
             }
             // fall through
-          case 80: break;
+          case 88: break;
           case 27:
             { return symbol(sym.EXIT);
             }
             // fall through
-          case 81: break;
+          case 89: break;
           case 28:
             { return symbol(sym.LINE);
             }
             // fall through
-          case 82: break;
+          case 90: break;
           case 29:
             { return symbol(sym.PLOT);
             }
             // fall through
-          case 83: break;
+          case 91: break;
           case 30:
             { return symbol(sym.SWAP);
             }
             // fall through
-          case 84: break;
+          case 92: break;
           case 31:
             { return symbol(sym.CLEAR);
             }
             // fall through
-          case 85: break;
+          case 93: break;
           case 32:
             { return symbol(sym.COLOR);
             }
             // fall through
-          case 86: break;
+          case 94: break;
           case 33:
             { return symbol(sym.DROPN);
             }
             // fall through
-          case 87: break;
+          case 95: break;
           case 34:
             { return symbol(sym.ERASE);
             }
             // fall through
-          case 88: break;
+          case 96: break;
           case 35:
-            { return symbol(sym.POV3D);
+            { identifier = yytext().substring(FOR_LEN).trim(); return symbol(sym.FOR);
             }
             // fall through
-          case 89: break;
+          case 97: break;
           case 36:
-            { return symbol(sym.RANGE);
+            { return symbol(sym.POV3D);
             }
             // fall through
-          case 90: break;
+          case 98: break;
           case 37:
-            { return symbol(sym.ROLLN);
+            { return symbol(sym.RANGE);
             }
             // fall through
-          case 91: break;
+          case 99: break;
           case 38:
-            { return symbol(sym.SWAPN);
+            { return symbol(sym.ROLLN);
             }
             // fall through
-          case 92: break;
+          case 100: break;
           case 39:
-            { return symbol(sym.WHILE);
+            { return symbol(sym.SWAPN);
             }
             // fall through
-          case 93: break;
+          case 101: break;
           case 40:
-            { return symbol(sym.END_IF);
+            { return symbol(sym.WHILE);
             }
             // fall through
-          case 94: break;
+          case 102: break;
           case 41:
-            { return symbol(sym.LINE3D);
+            { return symbol(sym.END_IF);
             }
             // fall through
-          case 95: break;
+          case 103: break;
           case 42:
-            { return symbol(sym.PLOT3D);
+            { return symbol(sym.LINE3D);
             }
             // fall through
-          case 96: break;
+          case 104: break;
           case 43:
-            { return symbol(sym.UPDATE);
+            { return symbol(sym.PLOT3D);
             }
             // fall through
-          case 97: break;
+          case 105: break;
           case 44:
-            { return symbol(sym.DOT_SIZE);
+            { return symbol(sym.UPDATE);
             }
             // fall through
-          case 98: break;
+          case 106: break;
           case 45:
-            { identifier = yytext().substring(FUNDEF_LEN).trim(); return symbol(sym.FUNDEF);
+            { return symbol(sym.END_FOR);
             }
             // fall through
-          case 99: break;
+          case 107: break;
           case 46:
-            { identifier = yytext().substring(FUNDEL_LEN).trim(); return symbol(sym.FUNDEL);
+            { return symbol(sym.DOT_SIZE);
             }
             // fall through
-          case 100: break;
+          case 108: break;
           case 47:
-            { return symbol(sym.END_WHILE);
+            { identifier = yytext().substring(FUNDEF_LEN).trim(); arity = -1; return symbol(sym.FUNDEF);
             }
             // fall through
-          case 101: break;
+          case 109: break;
           case 48:
-            { identifier = yytext().substring(FUNCALL_LEN).trim(); return symbol(sym.FUNCALL);
+            { identifier = yytext().substring(FUNDEL_LEN).trim(); return symbol(sym.FUNDEL);
             }
             // fall through
-          case 102: break;
+          case 110: break;
           case 49:
-            { expression = yytext().substring(INFIXED_LEN).trim(); return symbol(sym.INFIXED);
+            { identifier = yytext().trim(); return symbol(sym.ARRAY_OPERATION);
             }
             // fall through
-          case 103: break;
+          case 111: break;
           case 50:
-            { return symbol(sym.END_FUNDEF);
+            { return symbol(sym.END_WHILE);
             }
             // fall through
-          case 104: break;
+          case 112: break;
           case 51:
-            { return symbol(sym.STACK_SIZE);
+            { identifier = yytext().substring(FUNCALL_LEN).trim(); return symbol(sym.FUNCALL);
             }
             // fall through
-          case 105: break;
+          case 113: break;
           case 52:
-            { return symbol(sym.DEBUG_BREAK);
+            { expression = yytext().substring(INFIXED_LEN).trim(); return symbol(sym.INFIXED);
             }
             // fall through
-          case 106: break;
+          case 114: break;
           case 53:
-            { identifier = yytext().substring(MATH_CALL_LEN).trim(); return symbol(sym.JAVA_MATH_CALL);
+            { return symbol(sym.END_FUNDEF);
             }
             // fall through
-          case 107: break;
+          case 115: break;
           case 54:
+            { return symbol(sym.STACK_SIZE);
+            }
+            // fall through
+          case 116: break;
+          case 55:
+            { return symbol(sym.DEBUG_BREAK);
+            }
+            // fall through
+          case 117: break;
+          case 56:
+            { identifier = yytext().substring(MATH_CALL_LEN).trim(); return symbol(sym.JAVA_MATH_CALL);
+            }
+            // fall through
+          case 118: break;
+          case 57:
             { filename = yytext().substring(RUN_SCRIPT_LEN).trim(); return symbol(sym.RUN_SCRIPT);
             }
             // fall through
-          case 108: break;
+          case 119: break;
+          case 58:
+            { String[] words = yytext().substring(ARRAY_LOAD_LEN).trim().split("[ \t]+", 2); identifier = words[0]; filename = words[1].trim(); return symbol(sym.ARRAY_LOAD);
+            }
+            // fall through
+          case 120: break;
+          case 59:
+            { String[] words = yytext().substring(ARRAY_SAVE_LEN).trim().split("[ \t]+", 2); identifier = words[0]; filename = words[1].trim(); return symbol(sym.ARRAY_SAVE);
+            }
+            // fall through
+          case 121: break;
+          case 60:
+            { identifier = yytext().substring(PARALLEL_FOR_LEN).trim(); return symbol(sym.PARALLEL_FOR);
+            }
+            // fall through
+          case 122: break;
+          case 61:
+            { String[] words = yytext().substring(FUNDEF_LEN).trim().split("[ \t]+"); arity = Integer.parseInt(words[1]); identifier = words[2]; return symbol(sym.FUNDEF);
+            }
+            // fall through
+          case 123: break;
+          case 62:
+            { return symbol(sym.END_PARALLEL_FOR);
+            }
+            // fall through
+          case 124: break;
           default:
             zzScanError(ZZ_NO_MATCH);
         }
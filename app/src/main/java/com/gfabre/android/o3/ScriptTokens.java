@@ -0,0 +1,313 @@
+package com.gfabre.android.o3;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import java_cup.runtime.Symbol;
+
+/**
+ * The tokens of a script, lexed once and then replayed as many times as needed : a
+ * ScriptTokens is a reader on a range of the lexed tokens (the whole script, or a
+ * while/if/else/fundef block), which provides the same information as the lexer did.
+ *
+ * Lines and columns are relative to the start of the range, as if the block text had
+ * been lexed on its own. Blocks are views on the script : their text is neither copied
+ * nor lexed again, and their boundaries come from the lexer character offsets.
+ */
+class ScriptTokens {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // the lexed tokens, shared by all the readers
+    private static class Tokens {
+        final String      mScript;
+        ScriptLexer.sym[] mSymbols = new ScriptLexer.sym[INITIAL_CAPACITY];
+        String[]          mStrings = new String[INITIAL_CAPACITY];      // identifier, filename, expression or text
+        BigDecimal[]      mValues = new BigDecimal[INITIAL_CAPACITY];   // literal, or memoized function arity
+        int[]             mLines = new int[INITIAL_CAPACITY];
+        int[]             mColumns = new int[INITIAL_CAPACITY];
+        int[]             mLengths = new int[INITIAL_CAPACITY];
+        int[]             mOffsets = new int[INITIAL_CAPACITY];     // from the start of the script
+        InfixExpression[] mInfixed = new InfixExpression[INITIAL_CAPACITY]; // converted infixed expressions
+        int               mSize = 0;
+        ScriptEngine.HotCode[] mHotCodes = null;    // blocks profiles, by first token
+
+        Tokens(String script) {
+            mScript = script;
+        }
+
+        void add(ScriptLexer.sym symbol, String string, BigDecimal value, int line, int column, int length, int offset) {
+            if (mSize == mSymbols.length) {
+                int capacity = mSize * 2;
+                mSymbols = Arrays.copyOf(mSymbols, capacity);
+                mStrings = Arrays.copyOf(mStrings, capacity);
+                mValues = Arrays.copyOf(mValues, capacity);
+                mLines = Arrays.copyOf(mLines, capacity);
+                mColumns = Arrays.copyOf(mColumns, capacity);
+                mLengths = Arrays.copyOf(mLengths, capacity);
+                mOffsets = Arrays.copyOf(mOffsets, capacity);
+                mInfixed = Arrays.copyOf(mInfixed, capacity);
+            }
+            mSymbols[mSize] = symbol;
+            mStrings[mSize] = string;
+            mValues[mSize] = value;
+            mLines[mSize] = line;
+            mColumns[mSize] = column;
+            mLengths[mSize] = length;
+            mOffsets[mSize] = offset;
+            ++mSize;
+        }
+    }
+
+    private final Tokens mTokens;
+    private final int    mStart;       // first token
+    private final int    mEnd;         // end of block token, read as EOF
+    private final int    mBaseLine;    // position of the start of the block
+    private final int    mBaseColumn;
+    private final int    mTextStart;   // block text, in the script
+    private final int    mTextEnd;
+    private int          mPos;         // last read token
+
+    // last read token values, named after the lexer ones
+    String     identifier = null;
+    String     filename = null;
+    BigDecimal value = null;
+    String     expression = null;
+    int        arity = -1;
+
+    private ScriptTokens(Tokens tokens, int start, int end, int baseLine, int baseColumn) {
+        mTokens = tokens;
+        mStart = start;
+        mEnd = end;
+        mBaseLine = baseLine;
+        mBaseColumn = baseColumn;
+        mTextStart = start == 0 ? 0 : tokens.mOffsets[start - 1] + tokens.mLengths[start - 1];
+        mTextEnd = tokens.mOffsets[end];
+        mPos = start - 1;
+    }
+
+    /**
+     * Lexes the given script.
+     *
+     * @param script is the script text
+     * @return a reader on the script tokens
+     * @throws IOException
+     */
+    static ScriptTokens lex(String script) throws IOException {
+        Tokens tokens = new Tokens(script);
+        ScriptLexer lexer = new ScriptLexer(new StringReader(script));
+        ScriptLexer.sym[] symbols = ScriptLexer.sym.values();
+        ScriptLexer.sym symbol;
+        do {
+            Symbol s = lexer.next_token();
+            symbol = symbols[s.sym];
+            String string;
+            switch (symbol) {
+                case FOR:
+                case PARALLEL_FOR:
+                case FUNDEF:
+                case FUNDEL:
+                case FUNCALL:
+                case JAVA_MATH_CALL:
+                case PUSH_IDENTIFIER:
+                case POP_IDENTIFIER:
+                case PUSH_ARRAY_VALUE:
+                case POP_ARRAY_VALUE:
+                case ARRAY_OPERATION:
+                case DISPLAY_MESSAGE:
+                case PROMPT_MESSAGE:
+                    string = lexer.identifier;
+                    break;
+
+                case RUN_SCRIPT:
+                    string = lexer.filename;
+                    break;
+
+                case INFIXED:
+                    string = lexer.expression;
+                    break;
+
+                case ARRAY_SAVE:
+                case ARRAY_LOAD:
+                    // the array name, then the filename
+                    string = lexer.identifier + " " + lexer.filename;
+                    break;
+
+                case EOF:
+                    string = "";
+                    break;
+
+                default:
+                    string = lexer.yytext();
+                    break;
+            }
+            BigDecimal value = null;
+            if (symbol == ScriptLexer.sym.DOUBLE_LITERAL)
+                value = lexer.value;
+            else if (symbol == ScriptLexer.sym.FUNDEF && lexer.arity != -1)
+                value = BigDecimal.valueOf(lexer.arity);
+            tokens.add(symbol, string, value,
+                    lexer.yyline(), lexer.yycolumn(), symbol == ScriptLexer.sym.EOF ? 0 : lexer.yylength(),
+                    symbol == ScriptLexer.sym.EOF ? script.length() : lexer.yychar());
+        } while (symbol != ScriptLexer.sym.EOF);
+
+        return new ScriptTokens(tokens, 0, tokens.mSize - 1, 0, 0);
+    }
+
+    /**
+     * @return a new reader on the same tokens, positioned at the start.
+     */
+    ScriptTokens rewind() {
+        return new ScriptTokens(mTokens, mStart, mEnd, mBaseLine, mBaseColumn);
+    }
+
+    /**
+     * Gets a reader on a block of tokens : the ones between the given block start
+     * and end tokens (excluded).
+     *
+     * @param start is the index of the token opening the block (while, if, else, fundef..)
+     * @param end is the index of the token closing the block (end_while, else, end_if..)
+     * @return the block tokens
+     */
+    ScriptTokens block(int start, int end) {
+        return new ScriptTokens(mTokens, start + 1, end, mTokens.mLines[start], mTokens.mColumns[start] + mTokens.mLengths[start]);
+    }
+
+    /**
+     * Reads the next token, EOF once the end of the block is reached.
+     *
+     * @return the token symbol
+     */
+    ScriptLexer.sym nextToken() {
+        if (mPos < mEnd)
+            ++mPos;
+        if (mPos == mEnd)
+            return ScriptLexer.sym.EOF;
+
+        ScriptLexer.sym symbol = mTokens.mSymbols[mPos];
+        switch (symbol) {
+            case DOUBLE_LITERAL:
+                value = mTokens.mValues[mPos];
+                break;
+
+            case RUN_SCRIPT:
+                filename = mTokens.mStrings[mPos];
+                break;
+
+            case INFIXED:
+                expression = mTokens.mStrings[mPos];
+                break;
+
+            case FUNDEF:
+                identifier = mTokens.mStrings[mPos];
+                arity = mTokens.mValues[mPos] == null ? -1 : mTokens.mValues[mPos].intValue();
+                break;
+
+            case ARRAY_SAVE:
+            case ARRAY_LOAD: {
+                    String string = mTokens.mStrings[mPos];
+                    int separator = string.indexOf(' ');
+                    identifier = string.substring(0, separator);
+                    filename = string.substring(separator + 1);
+                }
+                break;
+
+            default:
+                identifier = mTokens.mStrings[mPos];
+                break;
+        }
+
+        return symbol;
+    }
+
+    /**
+     * @return the last read infixed expression, looked up once in the infixed expressions
+     * cache (see ScriptCache).
+     */
+    InfixExpression infixedExpression() {
+        InfixExpression infixed = mTokens.mInfixed[mPos];
+        if (infixed == null)
+            mTokens.mInfixed[mPos] = infixed = ScriptCache.lookupInfixed(expression);
+
+        return infixed;
+    }
+
+    /**
+     * @return the execution profile of the block, shared by all its readers (see
+     * ScriptEngine.HotCode).
+     */
+    ScriptEngine.HotCode getHotCode() {
+        synchronized (mTokens) {
+            if (mTokens.mHotCodes == null)
+                mTokens.mHotCodes = new ScriptEngine.HotCode[mTokens.mSize];
+            if (mTokens.mHotCodes[mStart] == null)
+                mTokens.mHotCodes[mStart] = new ScriptEngine.HotCode();
+
+            return mTokens.mHotCodes[mStart];
+        }
+    }
+
+    /**
+     * @param symbol is a token symbol
+     * @return true if the block holds the given token.
+     */
+    boolean contains(ScriptLexer.sym symbol) {
+        for (int i = mStart; i < mEnd; i++)
+            if (mTokens.mSymbols[i] == symbol)
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @return the lexed script text.
+     */
+    String getScript() {
+        return mTokens.mScript;
+    }
+
+    /**
+     * @return the text of the block (a copy, only needed for display and functions definition).
+     */
+    String getText() {
+        return mTokens.mScript.substring(mTextStart, mTextEnd);
+    }
+
+    /**
+     * @return the line of the last read token, from the start of the script.
+     */
+    int getScriptLine() {
+        return mTokens.mLines[mPos];
+    }
+
+    /**
+     * @return the index of the last read token, used to delimit blocks.
+     */
+    int index() {
+        return mPos;
+    }
+
+    int yyline() {
+        return mTokens.mLines[mPos] - mBaseLine;
+    }
+
+    int yycolumn() {
+        return mTokens.mLines[mPos] == mBaseLine ? mTokens.mColumns[mPos] - mBaseColumn : mTokens.mColumns[mPos];
+    }
+
+    /**
+     * @return the offset of the last read token, from the start of the script.
+     */
+    int yychar() {
+        return mTokens.mOffsets[mPos];
+    }
+
+    int yylength() {
+        return mTokens.mLengths[mPos];
+    }
+
+    String yytext() {
+        return mTokens.mStrings[mPos];
+    }
+}
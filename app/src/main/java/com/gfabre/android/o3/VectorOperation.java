@@ -0,0 +1,615 @@
+package com.gfabre.android.o3;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A bulk operation on whole script arrays :
+ *
+ *  array_add|sub|mul|div c a b : c[i] = a[i] op b[i]
+ *  array_add|sub|mul|div c a : c[i] = a[i] op x, x being popped off the stack
+ *  array_map c a f : c[i] = f(a[i]), or f(a[i], x) for the two arguments functions, f being a
+ *  java Math function (see MathIntrinsics)
+ *  array_sum|min|max|mean a, array_dot a b : pushes the reduction of the array(s)
+ *  array_push a : pops the end j then the start i indexes, pushes a[i..j) (a[i] deepest), up
+ *  to MAX_STACK_SIZE values on the stack
+ *  array_pop a : pops the number of values n then the start index i, pops the top n values
+ *  into a[i..i+n) (the deepest one into a[i])
+ *
+ * The operations apply to the set values, the unset ones being read as 0 : the element-wise
+ * results are set wherever an operand array is. The target array is replaced with the result
+ * once computed, so that it may be an operand too, and is left untouched if the operation
+ * fails.
+ *
+ * In double mode, the dense arrays are processed by primitive loops over their storage, the
+ * others value by value. Above PARALLEL_THRESHOLD values, the loops are split over the
+ * parallel_for pool. The reductions always add up fixed size chunks in the same order, so
+ * that their results don't depend on the number of processors.
+ *
+ * The push and pop operations copy the values between the array and the stack storages at
+ * once (see Calculator.doPushArrayRange).
+ */
+class VectorOperation {
+    private static final int PARALLEL_THRESHOLD = 1 << 15;  // values, below which the loops run sequentially
+    private static final int CHUNK_SIZE = 1 << 12;          // values per chunk, a multiple of the bitmap words size
+    private static final int MAX_STACK_SIZE = 1 << 22;      // values, the push operation can't grow the stack above
+
+    private static final String PREFIX = "array_";
+    private static final String[] NAMES = {"add", "sub", "mul", "div", "map", "sum", "min", "max", "mean", "dot", "push", "pop"};
+
+    private static final int ADD = 0;
+    private static final int SUB = 1;
+    private static final int MUL = 2;
+    private static final int DIV = 3;
+    private static final int MAP = 4;
+    private static final int SUM = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int MEAN = 8;
+    private static final int DOT = 9;
+    private static final int PUSH = 10;
+    private static final int POP = 11;
+
+    // errors, as raised by the loops
+    private static final int NO_ERROR = 0;
+    private static final int DIVISION_BY_ZERO = 1;
+    private static final int OVERFLOW = 2;
+
+    private final String   mText;
+    private final int      mOperation;
+    private final int      mIntrinsic;  // map function
+    private final boolean  mScalar;     // pops an operand off the stack
+    private final String[] mArrays;     // target (if any) and operands
+
+    /**
+     * The loop of an operation run, over a range of values or chunks.
+     */
+    private abstract static class Loop {
+        volatile int mError = NO_ERROR;
+
+        abstract void run(int from, int to);
+    }
+
+    private static class LoopTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Loop mLoop;
+        final int  mFirst;  // chunks
+        final int  mLast;
+        final int  mSize;   // values
+
+        LoopTask(Loop loop, int first, int last, int size) {
+            mLoop = loop;
+            mFirst = first;
+            mLast = last;
+            mSize = size;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst == 1) {
+                mLoop.run(mFirst * CHUNK_SIZE, Math.min(mSize, mLast * CHUNK_SIZE));
+                return;
+            }
+
+            int middle = (mFirst + mLast) >>> 1;
+            invokeAll(new LoopTask(mLoop, mFirst, middle, mSize), new LoopTask(mLoop, middle, mLast, mSize));
+        }
+    }
+
+    private VectorOperation(String text, int operation, int intrinsic, boolean scalar, String[] arrays) {
+        mText = text;
+        mOperation = operation;
+        mIntrinsic = intrinsic;
+        mScalar = scalar;
+        mArrays = arrays;
+    }
+
+    /**
+     * @param text is the operation text (array_add c a b..)
+     * @return the operation, null if malformed.
+     */
+    static VectorOperation parse(String text) {
+        String[] words = text.trim().split("[ \t]+");
+        if (!words[0].startsWith(PREFIX))
+            return null;
+
+        int operation = Arrays.asList(NAMES).indexOf(words[0].substring(PREFIX.length()));
+        int operands = words.length - 1;
+        String[] arrays = Arrays.copyOfRange(words, 1, words.length);
+        switch (operation) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                if (operands != 2 && operands != 3)
+                    return null;
+                return new VectorOperation(text, operation, MathIntrinsics.NONE, operands == 2, arrays);
+
+            case MAP:
+                int intrinsic = operands == 3 ? MathIntrinsics.lookup(words[3]) : MathIntrinsics.NONE;
+                if (intrinsic == MathIntrinsics.NONE || MathIntrinsics.getArity(intrinsic) == 0)
+                    return null;
+                return new VectorOperation(text, operation, intrinsic, MathIntrinsics.getArity(intrinsic) == 2,
+                                           Arrays.copyOf(arrays, 2));
+
+            case SUM:
+            case MIN:
+            case MAX:
+            case MEAN:
+                return operands == 1 ? new VectorOperation(text, operation, MathIntrinsics.NONE, false, arrays) : null;
+
+            case DOT:
+                return operands == 2 ? new VectorOperation(text, operation, MathIntrinsics.NONE, false, arrays) : null;
+
+            case PUSH:
+            case POP:
+                return operands == 1 ? new VectorOperation(text, operation, MathIntrinsics.NONE, false, arrays) : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if the operation sets a target array (the first of getArrays()), false if
+     * it only reads its arrays.
+     */
+    boolean hasTarget() {
+        return mOperation < SUM || mOperation == POP;
+    }
+
+    /**
+     * @return the names of the arrays, the target first if any.
+     */
+    String[] getArrays() {
+        return mArrays;
+    }
+
+    String getText() {
+        return mText;
+    }
+
+    @Override
+    public String toString() {
+        return mText;
+    }
+
+    /**
+     * Runs the operation.
+     *
+     * @param activity displays the errors
+     * @param calculator holds the scalar operand, if any, and gets the reduction pushed (or
+     *                   holds the pushed and popped ranges)
+     * @param arrays are the arrays named by getArrays(), the target being never null, the
+     *               operands being null if they don't exist
+     * @param shared is true if the arrays may be used by other threads at the same time
+     * @return false if the operation failed.
+     */
+    boolean run(CalculatorActivity activity, Calculator calculator, ScriptArray[] arrays, boolean shared) {
+        if (mOperation == PUSH || mOperation == POP)
+            return transfer(activity, calculator, arrays[0], shared);
+
+        boolean doubleMode = calculator.isDoubleMode();
+        double scalar = 0;
+        BigDecimal scalarValue = null;
+        if (mScalar) {
+            if (doubleMode)
+                scalar = calculator.doPopDoubleFromStack();
+            else
+                scalar = (scalarValue = calculator.doPopValueFromStack()).doubleValue();
+        }
+
+        int first = hasTarget() ? 1 : 0;
+        ScriptArray a = operand(arrays[first], shared, doubleMode);
+        ScriptArray b = mScalar || mOperation == MAP || first + 1 >= arrays.length ? null : operand(arrays[first + 1], shared, doubleMode);
+
+        if (!hasTarget())
+            return reduce(activity, calculator, a, b, doubleMode);
+
+        ScriptArray result = new ScriptArray(doubleMode);
+        Loop loop = doubleMode && a.getDoubles() != null && (b == null || b.getDoubles() != null) ?
+                applyDense(a, b, scalar, result) : apply(a, b, scalar, scalarValue, doubleMode, result);
+        if (loop.mError != NO_ERROR) {
+            displayError(activity, loop.mError);
+            return false;
+        }
+
+        ScriptArray target = arrays[0];
+        if (shared) {
+            synchronized (target) {
+                target.assign(result);
+            }
+        } else
+            target.assign(result);
+
+        return true;
+    }
+
+    /**
+     * Pushes a range of the array values onto the stack, or pops the top values into it.
+     *
+     * @param array is the array, null if it doesn't exist (pushed as 0s)
+     * @return false if the range is invalid, pushes more than MAX_STACK_SIZE values on the stack,
+     * or the stack holds less values than popped.
+     */
+    private boolean transfer(CalculatorActivity activity, Calculator calculator, ScriptArray array, boolean shared) {
+        // push : the start and end (excluded) indexes, pop : the start index and the number of values
+        long second = (long)calculator.doPopDoubleFromStack();
+        long from = (long)calculator.doPopDoubleFromStack();
+        long count = mOperation == PUSH ? second - from : second;
+        if (from < 0 || count < 0 || from + count > Integer.MAX_VALUE ||
+            (mOperation == PUSH && calculator.getStackSize() + count > MAX_STACK_SIZE) ||
+            (mOperation == POP && count > calculator.getStackSize())) {
+            activity.doDisplayMessage(activity.getString(R.string.array_range_error) + mText);
+            return false;
+        }
+
+        if (array == null)
+            array = new ScriptArray(calculator.isDoubleMode());
+        if (shared) {
+            synchronized (array) {
+                transfer(calculator, array, (int)from, (int)count);
+            }
+        } else
+            transfer(calculator, array, (int)from, (int)count);
+
+        return true;
+    }
+
+    private void transfer(Calculator calculator, ScriptArray array, int from, int count) {
+        if (mOperation == PUSH)
+            calculator.doPushArrayRange(array, from, count);
+        else
+            calculator.doPopArrayRange(array, from, count);
+    }
+
+    /**
+     * @return the given operand, an empty array if it doesn't exist, a copy if shared.
+     */
+    private static ScriptArray operand(ScriptArray array, boolean shared, boolean doubleMode) {
+        if (array == null)
+            return new ScriptArray(doubleMode);
+        if (!shared)
+            return array;
+
+        synchronized (array) {
+            return array.copy();
+        }
+    }
+
+    private void displayError(CalculatorActivity activity, int error) {
+        if (mOperation == MAP)
+            activity.doDisplayMessage(activity.getString(R.string.function_call_err) + MathIntrinsics.getName(mIntrinsic));
+        else if (error == DIVISION_BY_ZERO)
+            activity.doDisplayMessage(activity.getString(R.string.division_by_zero));
+        else
+            activity.doDisplayMessage(activity.getString(R.string.double_overflow));
+    }
+
+    /**
+     * Runs the given loop over the given number of values, in chunks, in parallel if many.
+     */
+    private static void runLoop(Loop loop, int size) {
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (size < PARALLEL_THRESHOLD) {
+            for (int chunk = 0; chunk < chunks; chunk++)
+                loop.run(chunk * CHUNK_SIZE, Math.min(size, (chunk + 1) * CHUNK_SIZE));
+            return;
+        }
+
+        ForkJoinPool pool = ScriptEngine.getParallelPool();
+        pool.invoke(new LoopTask(loop, 0, chunks, size));
+    }
+
+    /**
+     * @return the result of the element-wise operation on two values (or a value and the scalar).
+     */
+    private double apply(double x, double y) {
+        switch (mOperation) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case MUL:
+                return x * y;
+            case DIV:
+                return x / y;
+        }
+
+        return MathIntrinsics.call(mIntrinsic, x, y);
+    }
+
+    // BigDecimal counterpart, null if the result is not a number
+    private BigDecimal apply(BigDecimal x, BigDecimal y) {
+        switch (mOperation) {
+            case ADD:
+                return x.add(y);
+            case SUB:
+                return x.subtract(y);
+            case MUL:
+                return x.multiply(y);
+        }
+
+        // as the calculator does, divides and calls the functions on doubles
+        double result = apply(x.doubleValue(), y == null ? 0 : y.doubleValue());
+        if (Double.isNaN(result) || Double.isInfinite(result))
+            return null;
+
+        return MathIntrinsics.isIntegral(mIntrinsic) && mOperation == MAP ? BigDecimal.valueOf((long)result) : BigDecimal.valueOf(result);
+    }
+
+    /**
+     * Runs the element-wise operation on dense double mode arrays, sets the result.
+     */
+    private Loop applyDense(ScriptArray a, ScriptArray b, final double scalar, ScriptArray result) {
+        final double[] x = a.getDoubles();
+        final double[] y = b == null ? null : b.getDoubles();
+        final int size = (int)Math.max(a.size(), b == null ? 0 : b.size());
+        final double[] values = new double[size];
+
+        // set wherever an operand is
+        long[] xPresent = a.getPresent();
+        long[] yPresent = b == null ? null : b.getPresent();
+        final long[] present = new long[(size + 63) >>> 6];
+        for (int i = 0; i < present.length; i++)
+            present[i] = (i < xPresent.length ? xPresent[i] : 0) | (yPresent != null && i < yPresent.length ? yPresent[i] : 0);
+
+        Loop loop = new Loop() {
+            @Override
+            void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    if ((present[i >>> 6] & (1L << i)) == 0)
+                        continue;
+
+                    double xi = i < x.length ? x[i] : 0;
+                    double yi = y == null ? scalar : i < y.length ? y[i] : 0;
+                    if (mOperation == DIV && yi == 0) {
+                        mError = DIVISION_BY_ZERO;
+                        return;
+                    }
+
+                    double value = apply(xi, yi);
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        mError = OVERFLOW;
+                        return;
+                    }
+                    values[i] = value;
+                }
+            }
+        };
+        runLoop(loop, size);
+
+        if (loop.mError == NO_ERROR)
+            result.setDoubles(values, present);
+
+        return loop;
+    }
+
+    /**
+     * Runs the element-wise operation value by value, sets the result.
+     */
+    private Loop apply(final ScriptArray a, final ScriptArray b, final double scalar, final BigDecimal scalarValue,
+                       final boolean doubleMode, ScriptArray result) {
+        final int[] indexes = b == null ? a.getIndexes() : union(a.getIndexes(), b.getIndexes());
+        final double[] values = doubleMode ? new double[indexes.length] : null;
+        final BigDecimal[] bigValues = doubleMode ? null : new BigDecimal[indexes.length];
+
+        Loop loop = new Loop() {
+            @Override
+            void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int index = indexes[i];
+                    if (doubleMode) {
+                        double yi = b == null ? scalar : b.getDouble(index);
+                        if (mOperation == DIV && yi == 0) {
+                            mError = DIVISION_BY_ZERO;
+                            return;
+                        }
+
+                        double value = apply(a.getDouble(index), yi);
+                        if (Double.isNaN(value) || Double.isInfinite(value)) {
+                            mError = OVERFLOW;
+                            return;
+                        }
+                        values[i] = value;
+                    } else {
+                        BigDecimal yi = b == null ? scalarValue : b.get(index);
+                        if (mOperation == DIV && yi.signum() == 0) {
+                            mError = DIVISION_BY_ZERO;
+                            return;
+                        }
+
+                        if ((bigValues[i] = apply(a.get(index), yi)) == null) {
+                            mError = OVERFLOW;
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        runLoop(loop, indexes.length);
+
+        if (loop.mError == NO_ERROR) {
+            for (int i = 0; i < indexes.length; i++) {
+                if (doubleMode)
+                    result.set(indexes[i], values[i]);
+                else
+                    result.set(indexes[i], bigValues[i]);
+            }
+        }
+
+        return loop;
+    }
+
+    /**
+     * @return the sorted indexes of both given sorted indexes, without duplicates.
+     */
+    private static int[] union(int[] first, int[] second) {
+        int[] indexes = new int[first.length + second.length];
+        int i = 0, j = 0, size = 0;
+        while (i < first.length || j < second.length) {
+            if (j == second.length || (i < first.length && first[i] < second[j]))
+                indexes[size++] = first[i++];
+            else if (i == first.length || second[j] < first[i])
+                indexes[size++] = second[j++];
+            else {
+                indexes[size++] = first[i++];
+                ++j;
+            }
+        }
+
+        return Arrays.copyOf(indexes, size);
+    }
+
+    /**
+     * Computes the reduction of the given array(s), pushes it.
+     *
+     * @return false if the array is empty (but for the sum and dot product).
+     */
+    private boolean reduce(CalculatorActivity activity, Calculator calculator, final ScriptArray a, final ScriptArray b,
+                           boolean doubleMode) {
+        if (a.count() == 0 && (mOperation == MIN || mOperation == MAX || mOperation == MEAN)) {
+            activity.doDisplayMessage(activity.getString(R.string.empty_array) + mArrays[0]);
+            return false;
+        }
+
+        final boolean dense = doubleMode && a.getDoubles() != null;
+        final int[] indexes = dense ? null : a.getIndexes();
+        final int size = dense ? (int)a.size() : indexes.length;
+        final int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        // a partial result per chunk, combined in order
+        final double[] partials = new double[chunks];
+        final BigDecimal[] bigPartials = doubleMode ? null : new BigDecimal[chunks];
+        Loop loop = new Loop() {
+            @Override
+            void run(int from, int to) {
+                int chunk = from / CHUNK_SIZE;
+                if (dense)
+                    partials[chunk] = reduce(a.getDoubles(), a.getPresent(), b, from, to);
+                else if (bigPartials == null)
+                    partials[chunk] = reduce(a, b, indexes, from, to);
+                else
+                    bigPartials[chunk] = reduceValues(a, b, indexes, from, to);
+            }
+        };
+        runLoop(loop, size);
+
+        if (doubleMode) {
+            double value = mOperation == MIN ? Double.POSITIVE_INFINITY : mOperation == MAX ? Double.NEGATIVE_INFINITY : 0;
+            for (double partial : partials)
+                value = combine(value, partial);
+            if (mOperation == MEAN)
+                value /= a.count();
+
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                activity.doDisplayMessage(activity.getString(R.string.double_overflow));
+                return false;
+            }
+            calculator.doPushDoubleOnStack(value);
+        } else {
+            BigDecimal value = null;
+            for (BigDecimal partial : bigPartials)
+                value = value == null ? partial : combine(value, partial);
+            if (value == null)
+                value = BigDecimal.valueOf(0);
+            if (mOperation == MEAN)
+                value = BigDecimal.valueOf(value.doubleValue() / a.count());
+            calculator.doPushValueOnStack(value);
+        }
+
+        return true;
+    }
+
+    private double combine(double value, double partial) {
+        switch (mOperation) {
+            case MIN:
+                return Math.min(value, partial);
+            case MAX:
+                return Math.max(value, partial);
+        }
+
+        return value + partial;
+    }
+
+    // BigDecimal counterpart
+    private BigDecimal combine(BigDecimal value, BigDecimal partial) {
+        switch (mOperation) {
+            case MIN:
+                return value.min(partial);
+            case MAX:
+                return value.max(partial);
+        }
+
+        return value.add(partial);
+    }
+
+    /**
+     * @return the reduction of the set values of a dense double mode array, from an index to
+     * another (excluded).
+     */
+    private double reduce(double[] x, long[] present, ScriptArray b, int from, int to) {
+        double[] y = b == null ? null : b.getDoubles();
+        double value = mOperation == MIN ? Double.POSITIVE_INFINITY : mOperation == MAX ? Double.NEGATIVE_INFINITY : 0;
+        for (int i = from; i < to; i++) {
+            if ((present[i >>> 6] & (1L << i)) == 0)
+                continue;
+
+            switch (mOperation) {
+                case MIN:
+                    value = Math.min(value, x[i]);
+                    break;
+                case MAX:
+                    value = Math.max(value, x[i]);
+                    break;
+                case DOT:
+                    value += x[i] * (y != null ? (i < y.length ? y[i] : 0) : b.getDouble(i));
+                    break;
+                default:
+                    value += x[i];
+                    break;
+            }
+        }
+
+        return value;
+    }
+
+    // value by value counterpart, over the given indexes
+    private double reduce(ScriptArray a, ScriptArray b, int[] indexes, int from, int to) {
+        double value = mOperation == MIN ? Double.POSITIVE_INFINITY : mOperation == MAX ? Double.NEGATIVE_INFINITY : 0;
+        for (int i = from; i < to; i++) {
+            double x = a.getDouble(indexes[i]);
+            switch (mOperation) {
+                case MIN:
+                    value = Math.min(value, x);
+                    break;
+                case MAX:
+                    value = Math.max(value, x);
+                    break;
+                case DOT:
+                    value += x * b.getDouble(indexes[i]);
+                    break;
+                default:
+                    value += x;
+                    break;
+            }
+        }
+
+        return value;
+    }
+
+    // BigDecimal counterpart, exact
+    private BigDecimal reduceValues(ScriptArray a, ScriptArray b, int[] indexes, int from, int to) {
+        BigDecimal value = null;
+        for (int i = from; i < to; i++) {
+            BigDecimal x = a.get(indexes[i]);
+            if (mOperation == DOT)
+                x = x.multiply(b.get(indexes[i]));
+            value = value == null ? x : combine(value, x);
+        }
+
+        return value;
+    }
+}